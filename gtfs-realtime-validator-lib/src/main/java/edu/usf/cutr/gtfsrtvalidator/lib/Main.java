@@ -18,7 +18,9 @@
 package edu.usf.cutr.gtfsrtvalidator.lib;
 
 import edu.usf.cutr.gtfsrtvalidator.lib.batch.BatchProcessor;
+import edu.usf.cutr.gtfsrtvalidator.lib.util.HashAlgorithm;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationStatistics;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.RuleRunner;
 import org.apache.commons.cli.*;
 import org.slf4j.LoggerFactory;
 
@@ -37,6 +39,16 @@ public class Main {
     private final static String PLAIN_TEXT = "plainText";
     private final static String RETURN_STATS = "stats";
     private final static String IGNORE_SHAPES = "ignoreShapes";
+    private final static String THREADS = "threads";
+    private final static String CONCURRENT_RULES = "concurrentRules";
+    private final static String SHARD_THRESHOLD = "shardThreshold";
+    private final static String MAX_OCCURRENCES = "maxOccurrences";
+    private final static String SAMPLE_OCCURRENCES = "sampleOccurrences";
+    private final static String INCREMENTAL_VALIDATION = "incrementalValidation";
+    private final static String HASH = "hash";
+    private final static String SKIP_VALIDATED = "skipValidated";
+    private final static String RESULTS = "results";
+    private final static String METADATA_SNAPSHOT = "metadataSnapshot";
 
     public static void main(String[] args) throws InterruptedException, ParseException {
         // Parse command line parameters
@@ -52,11 +64,31 @@ public class Main {
         String plainText = getPlainTextFileExtensionfromArgs(options, args);
         boolean returnStats = getReturnStatsFromArgs(options, args);
         boolean ignoreShapes = getIgnoreShapesFromArgs(options, args);
+        boolean metadataSnapshot = getMetadataSnapshotFromArgs(options, args);
+        int threads = getThreadsFromArgs(options, args);
+        boolean concurrentRules = getConcurrentRulesFromArgs(options, args);
+        int shardThreshold = getShardThresholdFromArgs(options, args);
+        int maxOccurrences = getMaxOccurrencesFromArgs(options, args);
+        boolean sampleOccurrences = getSampleOccurrencesFromArgs(options, args);
+        boolean incrementalValidation = getIncrementalValidationFromArgs(options, args);
+        HashAlgorithm hashAlgorithm = getHashAlgorithmFromArgs(options, args);
+        boolean skipValidated = getSkipValidatedFromArgs(options, args);
+        BatchProcessor.ResultsFormat resultsFormat = getResultsFormatFromArgs(options, args);
         BatchProcessor.Builder builder = new BatchProcessor.Builder(gtfs, gtfsRealtime)
                 .sortBy(sortBy)
                 .setPlainTextExtension(plainText)
                 .setReturnStatistics(returnStats)
-                .setIgnoreShapes(ignoreShapes);
+                .setIgnoreShapes(ignoreShapes)
+                .setUseMetadataSnapshot(metadataSnapshot)
+                .setThreads(threads)
+                .setConcurrentRules(concurrentRules)
+                .setShardThreshold(shardThreshold)
+                .setMaxOccurrences(maxOccurrences)
+                .setSampleOccurrences(sampleOccurrences)
+                .setIncrementalValidation(incrementalValidation)
+                .setHashAlgorithm(hashAlgorithm)
+                .setSkipValidatedFiles(skipValidated)
+                .setResultsFormat(resultsFormat);
         BatchProcessor processor = builder.build();
         try {
             List<IterationStatistics> stats = processor.processFeeds();
@@ -102,6 +134,46 @@ public class Main {
                 .hasArg()
                 .desc("If the validator should ignore the shapes.txt file of the GTFS feed.")
                 .build();
+        Option threads = Option.builder(THREADS)
+                .hasArg()
+                .desc("The number of threads used by each stage (read, hash, decode, validate, serialize) of batch processing (default = 1)")
+                .build();
+        Option concurrentRules = Option.builder(CONCURRENT_RULES)
+                .hasArg()
+                .desc("If the validator should run the validation rules for each GTFS-realtime file concurrently.")
+                .build();
+        Option shardThreshold = Option.builder(SHARD_THRESHOLD)
+                .hasArg()
+                .desc("The number of entities at or above which a GTFS-realtime message is split into shards that are validated in parallel by rules that check each entity on its own, or 0 to never split messages (default = " + RuleRunner.DEFAULT_SHARD_THRESHOLD + ")")
+                .build();
+        Option maxOccurrences = Option.builder(MAX_OCCURRENCES)
+                .hasArg()
+                .desc("The maximum number of occurrences output for each rule in each GTFS-realtime file, or 0 to output all occurrences (default = 0).  The number of occurrences found is always output.")
+                .build();
+        Option sampleOccurrences = Option.builder(SAMPLE_OCCURRENCES)
+                .hasArg()
+                .desc("If a random sample of all occurrences should be output for rules with more than -maxOccurrences occurrences, instead of the first occurrences.")
+                .build();
+        Option incrementalValidation = Option.builder(INCREMENTAL_VALIDATION)
+                .hasArg()
+                .desc("If rules that check each entity on its own should only validate the entities that changed since the previous GTFS-realtime file.")
+                .build();
+        Option hash = Option.builder(HASH)
+                .hasArg()
+                .desc("The hash algorithm used to detect duplicate GTFS-realtime files - 'murmur3_128' (default), 'farmhash_64', 'crc32c', or 'md5'")
+                .build();
+        Option skipValidated = Option.builder(SKIP_VALIDATED)
+                .hasArg()
+                .desc("If the validator should skip GTFS-realtime files that were already validated by an earlier run.")
+                .build();
+        Option results = Option.builder(RESULTS)
+                .hasArg()
+                .desc("The format of the validation results - 'json' for one JSON file per GTFS-realtime file (default), or 'ndjson', 'ndjson_gzip', or 'smile' for a single stream of results for all files")
+                .build();
+        Option metadataSnapshot = Option.builder(METADATA_SNAPSHOT)
+                .hasArg()
+                .desc("If the validator should save the metadata built from the GTFS data to a snapshot file next to the GTFS zip file, and read it on later runs instead of the GTFS zip file.")
+                .build();
 
         options.addOption(gtfsOption);
         options.addOption(gtfsRealtimeOption);
@@ -109,6 +181,16 @@ public class Main {
         options.addOption(plainText);
         options.addOption(saveStats);
         options.addOption(ignoreShapes);
+        options.addOption(metadataSnapshot);
+        options.addOption(threads);
+        options.addOption(concurrentRules);
+        options.addOption(shardThreshold);
+        options.addOption(maxOccurrences);
+        options.addOption(sampleOccurrences);
+        options.addOption(incrementalValidation);
+        options.addOption(hash);
+        options.addOption(skipValidated);
+        options.addOption(results);
         return options;
     }
 
@@ -218,4 +300,176 @@ public class Main {
         CommandLine cmd = parser.parse(options, args);
         return cmd.hasOption(IGNORE_SHAPES);
     }
+
+    /**
+     * Returns true if the "-metadataSnapshot" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-metadataSnapshot" parameter is included, false it if is not
+     */
+    private static boolean getMetadataSnapshotFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(METADATA_SNAPSHOT);
+    }
+
+    /**
+     * Returns the number of threads provided with the "-threads" parameter, or 1 if the parameter wasn't provided
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return the number of threads provided with the "-threads" parameter, or 1 if the parameter wasn't provided
+     */
+    private static int getThreadsFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption(THREADS)) {
+            try {
+                return Integer.parseInt(cmd.getOptionValue(THREADS));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("-threads must be a number (e.g., -threads 8)");
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Returns true if the "-concurrentRules" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-concurrentRules" parameter is included, false it if is not
+     */
+    private static boolean getConcurrentRulesFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(CONCURRENT_RULES);
+    }
+
+    /**
+     * Returns the number of entities provided with the "-shardThreshold" parameter, or RuleRunner.DEFAULT_SHARD_THRESHOLD if the parameter wasn't provided
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return the number of entities provided with the "-shardThreshold" parameter, or RuleRunner.DEFAULT_SHARD_THRESHOLD if the parameter wasn't provided
+     */
+    private static int getShardThresholdFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption(SHARD_THRESHOLD)) {
+            try {
+                return Integer.parseInt(cmd.getOptionValue(SHARD_THRESHOLD));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("-shardThreshold must be a number (e.g., -shardThreshold 5000)");
+            }
+        }
+        return RuleRunner.DEFAULT_SHARD_THRESHOLD;
+    }
+
+    /**
+     * Returns the number provided with the "-maxOccurrences" parameter, or 0 if the parameter wasn't provided
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return the number provided with the "-maxOccurrences" parameter, or 0 if the parameter wasn't provided
+     */
+    private static int getMaxOccurrencesFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption(MAX_OCCURRENCES)) {
+            try {
+                return Integer.parseInt(cmd.getOptionValue(MAX_OCCURRENCES));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("-maxOccurrences must be a number (e.g., -maxOccurrences 100)");
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns true if the "-sampleOccurrences" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-sampleOccurrences" parameter is included, false it if is not
+     */
+    private static boolean getSampleOccurrencesFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(SAMPLE_OCCURRENCES);
+    }
+
+    /**
+     * Returns true if the "-incrementalValidation" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-incrementalValidation" parameter is included, false it if is not
+     */
+    private static boolean getIncrementalValidationFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(INCREMENTAL_VALIDATION);
+    }
+
+    /**
+     * Returns the hash algorithm provided with the "-hash" parameter, or HashAlgorithm.MURMUR3_128 if the parameter wasn't provided
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return the hash algorithm provided with the "-hash" parameter, or HashAlgorithm.MURMUR3_128 if the parameter wasn't provided
+     */
+    private static HashAlgorithm getHashAlgorithmFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption(HASH)) {
+            try {
+                return HashAlgorithm.valueOf(cmd.getOptionValue(HASH).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("-hash must be one of murmur3_128, farmhash_64, crc32c, or md5 (e.g., -hash crc32c)");
+            }
+        }
+        return HashAlgorithm.MURMUR3_128;
+    }
+
+    /**
+     * Returns true if the "-skipValidated" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-skipValidated" parameter is included, false it if is not
+     */
+    private static boolean getSkipValidatedFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(SKIP_VALIDATED);
+    }
+
+    /**
+     * Returns the results format provided with the "-results" parameter, or BatchProcessor.ResultsFormat.JSON_FILES if the parameter wasn't provided
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return the results format provided with the "-results" parameter, or BatchProcessor.ResultsFormat.JSON_FILES if the parameter wasn't provided
+     */
+    private static BatchProcessor.ResultsFormat getResultsFormatFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption(RESULTS)) {
+            switch (cmd.getOptionValue(RESULTS).toLowerCase()) {
+                case "json":
+                    return BatchProcessor.ResultsFormat.JSON_FILES;
+                case "ndjson":
+                    return BatchProcessor.ResultsFormat.NDJSON;
+                case "ndjson_gzip":
+                    return BatchProcessor.ResultsFormat.NDJSON_GZIP;
+                case "smile":
+                    return BatchProcessor.ResultsFormat.SMILE;
+                default:
+                    throw new IllegalArgumentException("-results must be one of json, ndjson, ndjson_gzip, or smile (e.g., -results ndjson_gzip)");
+            }
+        }
+        return BatchProcessor.ResultsFormat.JSON_FILES;
+    }
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Predicate;
+
+import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTime;
+import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTimeString;
+
+/**
+ * An index of the GTFS-realtime files in an archive directory (including sub-directories), with the last modified
+ * date of each file and the date/time parsed from its name.  The attributes of each file are read from disk once, and
+ * the index is cached in a file in the archive directory so later runs over the same archive only need to list the
+ * directory and read the attributes of files that were added since the last run.
+ * <p>
+ * Archived files are expected to be written once and not modified, so the last modified date of a file that is
+ * already in the cache isn't checked again.  Delete the cache file to re-read the attributes of all files.
+ */
+class ArchiveIndex {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(ArchiveIndex.class);
+
+    public static final String INDEX_FILE_NAME = ".gtfs-rt-archive-index";
+    private static final String HEADER = "# version=1";
+    // Written to the cache in place of the file name timestamp if a timestamp couldn't be parsed from the file name
+    private static final String NO_TIMESTAMP = "-";
+
+    private final Path mDirectory;
+    private final Predicate<Path> mFilter;
+
+    /**
+     * A GTFS-realtime file in the archive
+     */
+    static class Entry {
+        final Path path;
+        final long lastModified;
+        // Time parsed from the file name in milliseconds, or null if the file name doesn't contain a time
+        final Long fileNameTimestamp;
+
+        Entry(Path path, long lastModified, Long fileNameTimestamp) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.fileNameTimestamp = fileNameTimestamp;
+        }
+
+        /**
+         * Returns the "current" timestamp to use when validating this file - either the file last modified date or
+         * the time parsed from the file name, depending on the sort order
+         *
+         * @param sortBy the order that the files are processed in
+         * @return the "current" timestamp to use when validating this file, in milliseconds
+         */
+        long getTimestamp(BatchProcessor.SortBy sortBy) {
+            if (sortBy.equals(BatchProcessor.SortBy.NAME)) {
+                if (fileNameTimestamp != null) {
+                    // Use time parsed from file name as "current" timestamp
+                    return fileNameTimestamp;
+                }
+                _log.error("Couldn't parse timestamp from file name '" + path.getFileName() + "' - using date modified instead");
+            }
+            // Use file last modified date as "current" timestamp
+            return lastModified;
+        }
+    }
+
+    /**
+     * Creates an index of the GTFS-realtime files in the provided directory
+     *
+     * @param directory the directory of archived GTFS-realtime files
+     * @param filter    returns true for paths in the directory that may be GTFS-realtime files or directories of
+     *                  them, and false for other files (e.g., validation results), based on the name of the path
+     */
+    ArchiveIndex(Path directory, Predicate<Path> filter) {
+        mDirectory = directory;
+        mFilter = filter;
+    }
+
+    /**
+     * Returns the GTFS-realtime files in the archive, sorted in the provided order.  The cache file is updated if files
+     * have been added to or removed from the archive since it was written.
+     *
+     * @param sortBy the order to sort the files in
+     * @return the GTFS-realtime files in the archive, sorted in the provided order
+     * @throws IOException if the archive directory can't be read
+     */
+    List<Entry> getSortedFiles(BatchProcessor.SortBy sortBy) throws IOException {
+        long startIndexNanos = System.nanoTime();
+        Path indexFile = mDirectory.resolve(INDEX_FILE_NAME);
+        Map<String, Entry> cached = readCache(indexFile);
+
+        // List the directory, only reading the attributes of files that aren't in the cache
+        List<Entry> entries = new ArrayList<>();
+        List<Path> newFiles = new ArrayList<>();
+        Map<Path, Long> newFileDates = new HashMap<>();
+        listFiles(mDirectory, cached, entries, newFiles, newFileDates);
+
+        // Parsing the date/time from the file names is independent for each file
+        newFiles.parallelStream()
+                .map(path -> new Entry(path, newFileDates.get(path), parseFileNameTimestamp(path)))
+                .forEachOrdered(entries::add);
+
+        if (!newFiles.isEmpty() || entries.size() != cached.size()) {
+            writeCache(indexFile, entries);
+        }
+        if (sortBy.equals(BatchProcessor.SortBy.DATE_MODIFIED)) {
+            // Sort by date modified (ascending) (it seems more consistent cross-platform than "date created")
+            entries.sort(Comparator.comparingLong(entry -> entry.lastModified));
+        } else {
+            // Sort by name (ascending)
+            entries.sort(Comparator.comparing(entry -> entry.path.getFileName().toString()));
+        }
+        _log.info("Indexed " + entries.size() + " GTFS-rt files (" + newFiles.size() + " new) in " + getElapsedTimeString(getElapsedTime(startIndexNanos, System.nanoTime())));
+        return entries;
+    }
+
+    /**
+     * Adds the files in the provided directory and its sub-directories to entries if they are in the cache, or to
+     * newFiles (with their last modified date in newFileDates) if they are not
+     */
+    private void listFiles(Path directory, Map<String, Entry> cached, List<Entry> entries, List<Path> newFiles,
+                           Map<Path, Long> newFileDates) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                if (path.getFileName().toString().startsWith(INDEX_FILE_NAME) || !mFilter.test(path)) {
+                    // Skip the cache (and its temporary file) and other files that aren't GTFS-rt files by name,
+                    // without reading their attributes
+                    continue;
+                }
+                Entry entry = cached.get(getIndexName(path));
+                if (entry != null) {
+                    entries.add(new Entry(path, entry.lastModified, entry.fileNameTimestamp));
+                    continue;
+                }
+                // Like Files.walk(), don't follow links to directories, but do include links to regular files
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink()) {
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // Broken link
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        continue;
+                    }
+                }
+                if (attributes.isDirectory()) {
+                    listFiles(path, cached, entries, newFiles, newFileDates);
+                } else if (attributes.isRegularFile()) {
+                    newFiles.add(path);
+                    newFileDates.put(path, attributes.lastModifiedTime().toMillis());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the time parsed from the name of the provided file, or null if the name doesn't contain a time
+     *
+     * @param path the GTFS-realtime file
+     * @return the time parsed from the name of the provided file in milliseconds, or null if the name doesn't contain a time
+     */
+    private static Long parseFileNameTimestamp(Path path) {
+        try {
+            return TimestampUtils.getTimestampFromFileName(path.getFileName().toString());
+        } catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private String getIndexName(Path path) {
+        return mDirectory.relativize(path).toString();
+    }
+
+    /**
+     * Reads the cache in the format "lastModified&lt;tab&gt;fileNameTimestamp&lt;tab&gt;path", with one line per file
+     *
+     * @param indexFile the cache file
+     * @return a map of the path of each file (relative to the archive directory) to its entry, which is empty if there
+     * is no cache
+     */
+    private Map<String, Entry> readCache(Path indexFile) {
+        Map<String, Entry> cached = new HashMap<>();
+        if (!Files.exists(indexFile)) {
+            return cached;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(reader.readLine())) {
+                _log.info("GTFS-rt archive index " + indexFile + " is from a different version - rebuilding index");
+                return cached;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3) {
+                    continue;
+                }
+                Long fileNameTimestamp = fields[1].equals(NO_TIMESTAMP) ? null : Long.valueOf(fields[1]);
+                cached.put(fields[2], new Entry(mDirectory.resolve(fields[2]), Long.parseLong(fields[0]), fileNameTimestamp));
+            }
+        } catch (IOException | NumberFormatException e) {
+            _log.error("Error reading GTFS-rt archive index " + indexFile + " - rebuilding index: " + e);
+            cached.clear();
+        }
+        return cached;
+    }
+
+    /**
+     * Writes the cache to a temporary file and then moves it in place of the old cache, so a partially written cache
+     * is never read
+     *
+     * @param indexFile the cache file
+     * @param entries   the files in the archive
+     */
+    private void writeCache(Path indexFile, List<Entry> entries) {
+        Path tempFile = indexFile.resolveSibling(INDEX_FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Entry entry : entries) {
+                    writer.write(Long.toString(entry.lastModified));
+                    writer.write('\t');
+                    writer.write(entry.fileNameTimestamp != null ? entry.fileNameTimestamp.toString() : NO_TIMESTAMP);
+                    writer.write('\t');
+                    writer.write(getIndexName(entry.path));
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The cache only speeds up later runs, so this run can continue without it
+            _log.error("Error writing GTFS-rt archive index " + indexFile + ": " + e);
+        }
+    }
+}
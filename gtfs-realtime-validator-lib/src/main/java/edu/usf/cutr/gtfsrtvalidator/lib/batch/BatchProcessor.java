@@ -17,38 +17,39 @@
  */
 package edu.usf.cutr.gtfsrtvalidator.lib.batch;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.TextFormat;
 import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
-import edu.usf.cutr.gtfsrtvalidator.lib.util.SortUtils;
-import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
+import edu.usf.cutr.gtfsrtvalidator.lib.util.HashAlgorithm;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.EntityResultCache;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadataSnapshot;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationStatistics;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.OccurrenceLimit;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.RuleRunner;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.RuleStatistics;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.*;
-import org.apache.commons.io.IOUtils;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.serialization.GtfsReader;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.time.format.DateTimeParseException;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.TimeZone;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTime;
 import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTimeString;
@@ -60,11 +61,31 @@ public class BatchProcessor {
     // Validation rules
     private final static List<FeedEntityValidator> mValidationRules = new ArrayList<>();
     public final static String RESULTS_FILE_EXTENSION = ".results.json";
+    public final static String RESULTS_STREAM_FILE_NAME = "gtfs-rt-validation-results";
     private SortBy mSortBy = SortBy.DATE_MODIFIED;
     private String mPlainTextExtension = null;
     private boolean mReturnStatistics = false;
     private List<IterationStatistics> mIterationStatistics;
     private boolean mIgnoreShapes = false;
+    private boolean mUseMetadataSnapshot = false;
+    private int mThreads = 1;
+    private boolean mConcurrentRules = false;
+    private int mShardThreshold = RuleRunner.DEFAULT_SHARD_THRESHOLD;
+    private int mMaxOccurrences = 0;
+    private boolean mSampleOccurrences = false;
+    private boolean mIncrementalValidation = false;
+    private RuleRunner mRuleRunner;
+    // Results of entity-local rules for the entities of the previous file, or null if all entities are validated
+    private EntityResultCache mEntityResultCache;
+    private HashAlgorithm mHashAlgorithm = HashAlgorithm.MURMUR3_128;
+    private boolean mSkipValidatedFiles = false;
+    private ResultsFormat mResultsFormat = ResultsFormat.JSON_FILES;
+    private ResultsSink mResultsSink = null;
+    private BufferPool mBufferPool;
+    // Index of files validated by this or an earlier run, or null if validated files aren't being skipped
+    private ValidatedFileIndex mValidatedFileIndex;
+    // Maximum number of files per thread that can wait in the queue of each pipeline stage
+    private static final int MAX_PENDING_FILES_PER_THREAD = 4;
 
     // GTFS
     private GtfsDaoImpl mGtfsData = new GtfsDaoImpl();
@@ -117,6 +138,119 @@ public class BatchProcessor {
         mIgnoreShapes = ignoreShapes;
     }
 
+    /**
+     * Sets the validator to read the GTFS metadata from a snapshot file next to the GTFS zip file if useMetadataSnapshot
+     * is true, and to write the snapshot if it doesn't exist or the GTFS zip file has changed.  See
+     * Builder.setUseMetadataSnapshot().
+     *
+     * @param useMetadataSnapshot true if the GTFS metadata snapshot should be used, false if the GTFS zip file should always be read
+     */
+    private void setUseMetadataSnapshot(boolean useMetadataSnapshot) {
+        mUseMetadataSnapshot = useMetadataSnapshot;
+    }
+
+    /**
+     * Sets the number of threads used by each stage of the pipeline (default = 1).  Files move through separate read,
+     * hash, dedup, decode, validate, and serialize stages connected by bounded queues, so file I/O and validation
+     * overlap.  If more than one thread is used, multiple files are processed in each stage at the same time, with the
+     * decoded message of each file handed to the validation of the next file as the previous message.  The dedup
+     * stage always uses a single thread so it sees the files in order.
+     *
+     * @param threads the number of threads used by each stage of the pipeline
+     */
+    private void setThreads(int threads) {
+        mThreads = threads;
+    }
+
+    /**
+     * Sets the validator to run the rules for each GTFS-rt file concurrently on the common ForkJoinPool if
+     * concurrentRules is true, or one at a time if concurrentRules is false (default).  See Builder.setConcurrentRules().
+     *
+     * @param concurrentRules true if the rules for each GTFS-rt file should run concurrently, false if they should run one at a time
+     */
+    private void setConcurrentRules(boolean concurrentRules) {
+        mConcurrentRules = concurrentRules;
+    }
+
+    /**
+     * Sets the number of entities at or above which a GTFS-rt message is split into shards that are validated in
+     * parallel by entity-local rules (default = RuleRunner.DEFAULT_SHARD_THRESHOLD).  See Builder.setShardThreshold().
+     *
+     * @param shardThreshold the number of entities at or above which a message is split into shards, or 0 if messages should never be split
+     */
+    private void setShardThreshold(int shardThreshold) {
+        mShardThreshold = shardThreshold;
+    }
+
+    /**
+     * Sets the maximum number of occurrences stored for each rule in each GTFS-rt file (default = 0, which stores all
+     * occurrences).  See Builder.setMaxOccurrences().
+     *
+     * @param maxOccurrences the maximum number of occurrences stored for each rule in each GTFS-rt file, or 0 to store all occurrences
+     */
+    private void setMaxOccurrences(int maxOccurrences) {
+        mMaxOccurrences = maxOccurrences;
+    }
+
+    /**
+     * Sets if a random sample of occurrences should be stored instead of the first occurrences when there are more
+     * than maxOccurrences occurrences (default = false).  See Builder.setSampleOccurrences().
+     *
+     * @param sampleOccurrences true if a random sample of occurrences should be stored, false if the first occurrences should be stored
+     */
+    private void setSampleOccurrences(boolean sampleOccurrences) {
+        mSampleOccurrences = sampleOccurrences;
+    }
+
+    /**
+     * Sets if entity-local rules should only validate entities that changed since the previous file (default = false).
+     * See Builder.setIncrementalValidation().
+     *
+     * @param incrementalValidation true if entity-local rules should only validate entities that changed since the previous file, false if they should validate all entities
+     */
+    private void setIncrementalValidation(boolean incrementalValidation) {
+        mIncrementalValidation = incrementalValidation;
+    }
+
+    /**
+     * Sets the hash algorithm used to detect GTFS-rt files that are the same as the previous file (default =
+     * MURMUR3_128)
+     *
+     * @param hashAlgorithm the hash algorithm used to detect duplicate GTFS-rt files
+     */
+    private void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        mHashAlgorithm = hashAlgorithm;
+    }
+
+    /**
+     * Sets the validator to skip GTFS-rt files that were already validated by an earlier run (default = false).  See
+     * Builder.setSkipValidatedFiles().
+     *
+     * @param skipValidatedFiles true if files that were already validated should be skipped, false if all files should be validated
+     */
+    private void setSkipValidatedFiles(boolean skipValidatedFiles) {
+        mSkipValidatedFiles = skipValidatedFiles;
+    }
+
+    /**
+     * Sets the format that the validation results are written in (default = JSON_FILES).  Ignored if a ResultsSink is
+     * set with setResultsSink().
+     *
+     * @param resultsFormat the format that the validation results are written in
+     */
+    private void setResultsFormat(ResultsFormat resultsFormat) {
+        mResultsFormat = resultsFormat;
+    }
+
+    /**
+     * Sets the ResultsSink that the validation results are written to, instead of one of the ResultsFormats
+     *
+     * @param resultsSink the ResultsSink that the validation results are written to
+     */
+    private void setResultsSink(ResultsSink resultsSink) {
+        mResultsSink = resultsSink;
+    }
+
     /**
      * Process the GTFS and GTFS-realtime feeds provided in the constructor. If setReturnStatistics() is set to true,
      * the method will return a list of IterationStatistics (one per GTFS-rt file) for performance in the batch
@@ -125,7 +259,7 @@ public class BatchProcessor {
      * @return If setReturnStatistics() is set to true, it will return a list of IterationStatistics (one per GTFS-rt
      * file) for performance in the batch validation.  By default this method will return null to avoid memory issues
      * when processing an extremely large number of files.
-     * @throws NoSuchAlgorithmException If the MD5 hash algorithm (used to determine feed uniqueness) is not available on the machine executing the code
+     * @throws NoSuchAlgorithmException If the MD5 hash algorithm was selected (to determine feed uniqueness) and is not available on the machine executing the code
      * @throws IOException              If the GTFS or GTFS-realtime files cannot be read or the results cannot be written to disk
      */
     public List<IterationStatistics> processFeeds() throws NoSuchAlgorithmException, IOException {
@@ -134,15 +268,7 @@ public class BatchProcessor {
         if (mReturnStatistics) {
             mIterationStatistics = new ArrayList<>();
         }
-        String timeZoneText = null;
-        double gtfsReadTime = readGtfsData();
-
-        Collection<Agency> agencies = mGtfsData.getAllAgencies();
-        for (Agency agency : agencies) {
-            timeZoneText = agency.getTimezone();
-            break;
-        }
-        mGtfsMetadata = new GtfsMetadata(mPathToGtfsFile.getAbsolutePath(), TimeZone.getTimeZone(timeZoneText), mGtfsData, mIgnoreShapes);
+        double gtfsReadTime = readGtfsMetadata();
 
         // Initialize validation rules
         synchronized (mValidationRules) {
@@ -158,144 +284,400 @@ public class BatchProcessor {
                 mValidationRules.add(new HeaderValidator());
             }
         }
-        // Configure output
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-
+        mRuleRunner = new RuleRunner(mValidationRules, mConcurrentRules ? ForkJoinPool.commonPool() : null);
+        mRuleRunner.setShardThreshold(mShardThreshold);
+        mRuleRunner.setOccurrenceLimit(new OccurrenceLimit(mMaxOccurrences, mSampleOccurrences));
+        mEntityResultCache = mIncrementalValidation ? new EntityResultCache() : null;
         _log.info("Sorting GTFS-rt files by " + mSortBy.name() + "...");
 
-        // Read GTFS-rt protobuf files from provided directory
-        List<Path> paths = Files.walk(Paths.get(mPathToGtfsRealtime))
-                .filter(Files::isRegularFile)
-                .sorted((o1, o2) -> {
-                    if (mSortBy.equals(SortBy.DATE_MODIFIED)) {
-                        try {
-                            // Sort by date modified (ascending) (it seems more consistent cross-platform than "date created")
-                            return SortUtils.compareByDateModified(o1, o2);
-                        } catch (IOException e) {
-                            _log.error("Can't sort GTFS-rt files by date - assuming dates are equal: " + e);
-                        }
-                        // Assume file dates are equal if we get an exception
-                        return 0;
-                    } else {
-                        // Sort by name (ascending)
-                        return SortUtils.compareByFileName(o1, o2);
-                    }
-                })
-                .collect(Collectors.toList());
-
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        GtfsRealtime.FeedMessage prevMessage = null;
-        byte[] prevHash = null;
-
-        for (Path path : paths) {
-            IterationStatistics stats = null;
-            if (mReturnStatistics) {
-                stats = new IterationStatistics();
-                stats.setGtfsReadTime(gtfsReadTime);
-            }
-            long startTimeNanos = System.nanoTime();
-            long startToByteArray = System.nanoTime();
-            byte[] protobuf;
+        // Read GTFS-rt protobuf files from provided directory, skipping the files written by the validator
+        Path gtfsRealtimeDirectory = Paths.get(mPathToGtfsRealtime);
+        List<ArchiveIndex.Entry> archiveFiles = new ArchiveIndex(gtfsRealtimeDirectory, this::isGtfsRealtimeFile)
+                .getSortedFiles(mSortBy);
+
+        if (mHashAlgorithm == HashAlgorithm.MD5) {
+            // Make sure the hash algorithm is available before starting the pipeline
+            MessageDigest.getInstance("MD5");
+        }
+        // Configure output
+        ResultsSink resultsSink = mResultsSink != null ? mResultsSink : mResultsFormat.open(gtfsRealtimeDirectory);
+        if (mSkipValidatedFiles) {
             try {
-            	InputStream inputStream = Files.newInputStream(path);
-                protobuf = IOUtils.toByteArray(inputStream);
-                inputStream.close();
+                mValidatedFileIndex = new ValidatedFileIndex(gtfsRealtimeDirectory, mHashAlgorithm);
             } catch (IOException e) {
-                _log.error("Error reading GTFS-rt file to byte array, skipping to next file: " + e);
-                continue;
-            }
-            double toByteArray = getElapsedTime(startToByteArray, System.nanoTime());
-            _log.info("Read " + path.getFileName() + " to byte array in " + getElapsedTimeString(toByteArray));
-            if (mReturnStatistics) {
-                stats.setToByteArrayTime(toByteArray);
+                closeResultsSink(resultsSink);
+                throw e;
             }
+        }
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Consumer<Exception> errorHandler = e -> {
+            _log.error("Error processing GTFS-rt file: " + e);
+            failure.compareAndSet(null, e);
+        };
+        Map<Long, IterationStatistics> iterationStatistics = new ConcurrentSkipListMap<>();
+        int queueCapacity = mThreads * MAX_PENDING_FILES_PER_THREAD;
+        // Files hold a buffer from the read stage until they are decoded, so the pool also limits the number of
+        // protocol buffers in memory
+        mBufferPool = new BufferPool(queueCapacity * 2);
 
-            byte[] currentHash = md.digest(protobuf);
-            if (MessageDigest.isEqual(currentHash, prevHash)) {
-                // This feed file is a duplicate of the last one - skip to next file
-                continue;
-            }
+        // Build the pipeline stages from last to first, as each stage passes files to the next one.  Files that fail
+        // before the dedup stage release their buffer and are still passed on, so the ordered dedup stage doesn't wait
+        // for them (and hold the buffers of all later files) forever.
+        PipelineStage serializeStage = new PipelineStage("serialize", mThreads, queueCapacity, false,
+                file -> serialize(file, resultsSink, iterationStatistics), null, errorHandler, null);
+        PipelineStage validateStage = new PipelineStage("validate", mThreads, queueCapacity, false,
+                this::validate, serializeStage, errorHandler, null);
+        PipelineStage decodeStage = new PipelineStage("decode", mThreads, queueCapacity, false,
+                this::decode, validateStage, errorHandler, null);
+        PipelineStage dedupStage = new PipelineStage("dedup", 1, queueCapacity, true,
+                new Deduplicator(), decodeStage, errorHandler, null);
+        PipelineStage hashStage = new PipelineStage("hash", mThreads, queueCapacity, false,
+                this::hash, dedupStage, errorHandler, this::releaseBuffer);
+        PipelineStage readStage = new PipelineStage("read", mThreads, queueCapacity, false,
+                this::read, hashStage, errorHandler, this::releaseBuffer);
+        List<PipelineStage> stages = Arrays.asList(readStage, hashStage, dedupStage, decodeStage, validateStage, serializeStage);
 
-            long timestamp;
-            if (mSortBy.equals(SortBy.DATE_MODIFIED)) {
-                // Use file last modified date as "current" timestamp
-                timestamp = Files.getLastModifiedTime(path).toMillis();
-            } else {
-                // Use time parsed from file name as "current" timestamp
-                try {
-                    timestamp = TimestampUtils.getTimestampFromFileName(path.toFile().getName());
-                } catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
-                    _log.error("Couldn't parse timestamp from file name '" + path.toFile().getName() + "' - using date modified instead: " + e);
-                    timestamp = Files.getLastModifiedTime(path).toMillis();
+        _log.info("Validating GTFS-rt files using " + mThreads + " thread(s) per stage...");
+        try {
+            long sequence = 0;
+            for (ArchiveIndex.Entry archiveFile : archiveFiles) {
+                if (failure.get() != null) {
+                    // Stop adding files - the files already in the pipeline are still processed below
+                    break;
                 }
+                IterationStatistics stats = null;
+                if (mReturnStatistics) {
+                    stats = new IterationStatistics();
+                    stats.setGtfsReadTime(gtfsReadTime);
+                }
+                FeedFile file = new FeedFile(sequence++, archiveFile.path, stats);
+                file.timestamp = archiveFile.getTimestamp(mSortBy);
+                // Buffers are taken in file order, so a file waiting for a buffer never blocks a file before it
+                file.buffer = mBufferPool.acquire();
+                readStage.put(file);
             }
-
-            long startProtobufDecode = System.nanoTime();
-            GtfsRealtime.FeedMessage message;
-            try {
-                message = GtfsRealtime.FeedMessage.parseFrom(protobuf);
-            } catch (InvalidProtocolBufferException e) {
-                _log.error("Error reading GTFS-rt message from byte array, skipping to next file: " + e);
-                continue;
+            // Wait for each stage to finish, in order, so all files are passed on before the next stage is told to finish
+            for (PipelineStage stage : stages) {
+                stage.finish();
             }
-            double pbDecode = getElapsedTime(startProtobufDecode, System.nanoTime());
-            _log.info("Decoded " + path.getFileName() + " protobuf in " + getElapsedTimeString(pbDecode));
-            if (mReturnStatistics) {
-                stats.setDecodeProtobufTime(pbDecode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing GTFS-rt files");
+        } finally {
+            for (PipelineStage stage : stages) {
+                stage.shutdownNow();
             }
-
-            GtfsRealtime.FeedMessage combinedMessage = null;
-            // See if more than one entity type exists in this feed
-            if (GtfsUtils.isCombinedFeed(message)) {
-                // Run CrossFeedDescriptorValidator on this message
-                combinedMessage = message;
+            try {
+                closeResultsSink(resultsSink);
+            } finally {
+                if (mValidatedFileIndex != null) {
+                    mValidatedFileIndex.close();
+                    mValidatedFileIndex = null;
+                }
             }
+        }
 
-            List<ErrorListHelperModel> allErrorLists = new ArrayList<>();
-            StringBuilder consoleOutput = new StringBuilder();
-            List<RuleStatistics> ruleStatistics = null;
-            if (mReturnStatistics) {
-                ruleStatistics = new ArrayList<>();
-            }
-            for (FeedEntityValidator rule : mValidationRules) {
-                long startRuleNanos = System.nanoTime();
-                List<ErrorListHelperModel> errorLists = rule.validate(timestamp, mGtfsData, mGtfsMetadata, message, prevMessage, combinedMessage);
-                allErrorLists.addAll(errorLists);
-                double ruleExecutionTime = getElapsedTime(startRuleNanos, System.nanoTime());
-                consoleOutput.append("\n" + rule.getClass().getSimpleName() + " - rule = " + getElapsedTimeString(ruleExecutionTime));
-                if (mReturnStatistics) {
-                    RuleStatistics ruleStat = new RuleStatistics();
-                    ruleStat.setRuleExecutionTime(ruleExecutionTime);
-                    ruleStat.setValidator(rule.getClass().getSimpleName());
-                    ruleStatistics.add(ruleStat);
+        Exception error = failure.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error != null) {
+            throw new IOException(error);
+        }
+        if (mReturnStatistics) {
+            mIterationStatistics.addAll(iterationStatistics.values());
+        }
+        return mIterationStatistics;
+    }
+
+    /**
+     * Closes the provided ResultsSink if it was created by processFeeds(), or flushes it if it was provided by the
+     * caller, who may use it again
+     *
+     * @param resultsSink the ResultsSink used by processFeeds()
+     * @throws IOException if the results cannot be written to disk
+     */
+    private void closeResultsSink(ResultsSink resultsSink) throws IOException {
+        if (resultsSink == mResultsSink) {
+            resultsSink.flush();
+        } else {
+            resultsSink.close();
+        }
+    }
+
+    /**
+     * Read stage - reads the GTFS-rt file from disk into the pooled buffer held by the file.  Files that can't be read
+     * are still passed on without a buffer so the dedup stage knows that the next file in the sequence can be processed.
+     *
+     * @param file the GTFS-rt file to read
+     * @return true, as all files are passed to the next stage
+     */
+    private boolean read(FeedFile file) {
+        long startToByteArray = System.nanoTime();
+        try {
+            file.buffer = readFile(file.path, file.buffer);
+        } catch (IOException e) {
+            _log.error("Error reading GTFS-rt file to byte array, skipping to next file: " + e);
+            releaseBuffer(file);
+            return true;
+        }
+        double toByteArray = getElapsedTime(startToByteArray, System.nanoTime());
+        _log.info("Read " + file.path.getFileName() + " to byte array in " + getElapsedTimeString(toByteArray));
+        if (file.stats != null) {
+            file.stats.setToByteArrayTime(toByteArray);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the entire contents of the provided GTFS-rt file into the provided buffer - see BufferPool.read()
+     *
+     * @param path   the GTFS-rt file to read
+     * @param buffer the pooled buffer to read the file into
+     * @return the buffer that holds the file contents
+     * @throws IOException if the file can't be read
+     */
+    protected ByteBuffer readFile(Path path, ByteBuffer buffer) throws IOException {
+        return BufferPool.read(path, buffer);
+    }
+
+    /**
+     * Hash stage - calculates the hash of the protocol buffer, which is used by the dedup stage to skip duplicate files
+     *
+     * @param file the GTFS-rt file to hash
+     * @return true, as all files are passed to the next stage
+     */
+    private boolean hash(FeedFile file) {
+        if (file.buffer != null) {
+            // The buffer position is left at the start of the protocol buffer for decoding
+            file.hash = mHashAlgorithm.hash(file.buffer);
+        }
+        return true;
+    }
+
+    /**
+     * Dedup stage - runs on a single thread and sees the files in sorted order.  It drops files that couldn't be read or
+     * that are duplicates of the previous file, and hands the decoded message of each unique file to the next unique
+     * file so that validation of a file only has to wait for the previous file to be decoded.  Files that were already
+     * validated by an earlier run are still decoded so they can be used as the previous message, but aren't validated.
+     */
+    private class Deduplicator implements PipelineStage.Task {
+        private byte[] mPrevHash = null;
+        // Decoded message of the last unique file that could be decoded
+        private CompletableFuture<GtfsRealtime.FeedMessage> mPrevMessage = CompletableFuture.completedFuture(null);
+
+        @Override
+        public boolean process(FeedFile file) throws IOException {
+            boolean passToNext = false;
+            try {
+                if (file.buffer == null || MessageDigest.isEqual(file.hash, mPrevHash)) {
+                    // This file couldn't be read, or it's a duplicate of the last one - skip to next file
+                    return false;
+                }
+                if (mValidatedFileIndex != null) {
+                    file.skipValidation = mValidatedFileIndex.contains(file.hash, getIndexName(file.path));
+                }
+                file.previousMessage = mPrevMessage;
+                // If this file can't be decoded, the next file should be compared to the last file that could be decoded
+                mPrevMessage = file.message.thenCombine(mPrevMessage, (current, previous) -> current != null ? current : previous);
+                mPrevHash = file.hash;
+                passToNext = true;
+                return true;
+            } finally {
+                if (!passToNext) {
+                    // Processing of this file ends here (including if the validated file index can't be read)
+                    releaseBuffer(file);
+                    file.message.complete(null);
                 }
             }
-            double totalIterationTime = getElapsedTime(startTimeNanos, System.nanoTime());
-            consoleOutput.append("\nProcessed " + path.getFileName() + " in " + getElapsedTimeString(totalIterationTime));
-            consoleOutput.append("\n---------------------");
-            _log.info(consoleOutput.toString());
-            if (mReturnStatistics) {
-                stats.setRuleStatistics(ruleStatistics);
-                stats.setTotalIterationTime(totalIterationTime);
-            }
+        }
+    }
 
-            // Write validation results for this file to JSON
-            writeResults(mapper, path, allErrorLists);
+    /**
+     * Returns the name used for the provided GTFS-rt file in the validated file index - the path of the file relative
+     * to the GTFS-rt directory
+     *
+     * @param path the GTFS-rt file
+     * @return the name used for the provided GTFS-rt file in the validated file index
+     */
+    private String getIndexName(Path path) {
+        return Paths.get(mPathToGtfsRealtime).relativize(path).toString();
+    }
 
-            if (mPlainTextExtension != null) {
-                // Write plain text version of protocol buffer
-                writePlainText(message, mapper, path);
+    /**
+     * Returns false if the provided path is one of the files written by the validator (results files and streams, plain
+     * text versions of GTFS-rt files, or the validated file index), and true if it may be a GTFS-rt file
+     *
+     * @param path a path in the GTFS-rt directory
+     * @return false if the provided path is one of the files written by the validator, and true if it may be a GTFS-rt file
+     */
+    private boolean isGtfsRealtimeFile(Path path) {
+        String name = path.getFileName().toString();
+        return !name.endsWith(RESULTS_FILE_EXTENSION)
+                && !name.startsWith(RESULTS_STREAM_FILE_NAME + ".")
+                && (mPlainTextExtension == null || !name.endsWith("." + mPlainTextExtension))
+                && !name.equals(ValidatedFileIndex.INDEX_FILE_NAME);
+    }
+
+    /**
+     * Decode stage - decodes the protocol buffer into a GTFS-rt message.  The decoded message is published on the file
+     * before it's passed on so that validation of the next file, which needs this message, isn't held up by the queue.
+     *
+     * @param file the GTFS-rt file to decode
+     * @return true if the file was decoded and should be validated, false if it couldn't be decoded or was already
+     * validated by an earlier run
+     */
+    private boolean decode(FeedFile file) {
+        long startProtobufDecode = System.nanoTime();
+        GtfsRealtime.FeedMessage message = null;
+        try {
+            // Parse directly from the pooled buffer's backing array without copying it
+            ByteBuffer buffer = file.buffer;
+            message = GtfsRealtime.FeedMessage.parseFrom(CodedInputStream.newInstance(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(), buffer.remaining()));
+        } catch (IOException e) {
+            _log.error("Error reading GTFS-rt message from byte array, skipping to next file: " + e);
+            return false;
+        } finally {
+            file.message.complete(message);
+            // The raw protocol buffer is no longer needed
+            releaseBuffer(file);
+        }
+        if (file.skipValidation) {
+            _log.info("Skipping " + file.path.getFileName() + " - already validated");
+            return false;
+        }
+        double pbDecode = getElapsedTime(startProtobufDecode, System.nanoTime());
+        _log.info("Decoded " + file.path.getFileName() + " protobuf in " + getElapsedTimeString(pbDecode));
+        if (file.stats != null) {
+            file.stats.setDecodeProtobufTime(pbDecode);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the pooled buffer held by the provided file (if any) to the pool
+     *
+     * @param file the file whose buffer should be returned to the pool
+     */
+    private void releaseBuffer(FeedFile file) {
+        if (file.buffer != null) {
+            mBufferPool.release(file.buffer);
+            file.buffer = null;
+        }
+    }
+
+    /**
+     * Validate stage - runs all validation rules against the decoded GTFS-rt message, using the decoded message of the
+     * previous unique file as the previous message
+     *
+     * @param file the GTFS-rt file to validate
+     * @return true, as all validated files are passed to the next stage
+     */
+    private boolean validate(FeedFile file) {
+        GtfsRealtime.FeedMessage message = file.message.join();
+        GtfsRealtime.FeedMessage prevMessage = file.previousMessage.join();
+        // Let the earlier messages be garbage collected
+        file.previousMessage = null;
+
+        GtfsRealtime.FeedMessage combinedMessage = null;
+        // See if more than one entity type exists in this feed
+        if (GtfsUtils.isCombinedFeed(message)) {
+            // Run CrossFeedDescriptorValidator on this message
+            combinedMessage = message;
+        }
+
+        IterationContext context = new IterationContext(message);
+        List<ErrorListHelperModel> allErrorLists = new ArrayList<>();
+        StringBuilder consoleOutput = new StringBuilder();
+        List<RuleStatistics> ruleStatistics = null;
+        if (file.stats != null) {
+            ruleStatistics = new ArrayList<>();
+        }
+        List<RuleRunner.RuleResult> results = mRuleRunner.run(mRuleRunner.getOccurrenceLimit(), mEntityResultCache, file.timestamp, mGtfsData, mGtfsMetadata, context, message, prevMessage, combinedMessage);
+        for (RuleRunner.RuleResult result : results) {
+            allErrorLists.addAll(result.getErrorLists());
+            consoleOutput.append("\n" + result.getValidator() + " - rule = " + getElapsedTimeString(result.getExecutionTime()));
+            if (file.stats != null) {
+                RuleStatistics ruleStat = new RuleStatistics();
+                ruleStat.setRuleExecutionTime(result.getExecutionTime());
+                ruleStat.setValidator(result.getValidator());
+                ruleStatistics.add(ruleStat);
             }
+        }
+        double totalIterationTime = getElapsedTime(file.startTimeNanos, System.nanoTime());
+        consoleOutput.append("\nProcessed " + file.path.getFileName() + " in " + getElapsedTimeString(totalIterationTime));
+        consoleOutput.append("\n---------------------");
+        _log.info(consoleOutput.toString());
+        if (file.stats != null) {
+            file.stats.setRuleStatistics(ruleStatistics);
+            file.stats.setTotalIterationTime(totalIterationTime);
+        }
+        file.errorLists = allErrorLists;
+        return true;
+    }
+
+    /**
+     * Serialize stage - writes the validation results (and the plain text version of the message, if requested) to disk
+     *
+     * @param file                the validated GTFS-rt file
+     * @param resultsSink         the ResultsSink that the results are written to
+     * @param iterationStatistics map of file sequence to statistics, to which the statistics for this file are added if they are being recorded
+     * @return false, as this is the last stage
+     * @throws IOException if the results cannot be written to disk
+     */
+    private boolean serialize(FeedFile file, ResultsSink resultsSink, Map<Long, IterationStatistics> iterationStatistics) throws IOException {
+        // Write validation results for this file
+        resultsSink.write(file.path, file.timestamp, file.errorLists);
+
+        if (mPlainTextExtension != null) {
+            // Write plain text version of protocol buffer
+            writePlainText(file.message.join(), file.path);
+        }
+        if (mValidatedFileIndex != null) {
+            // Only record the file once all its results are on disk
+            resultsSink.flush();
+            mValidatedFileIndex.add(file.hash, getIndexName(file.path));
+        }
+        if (file.stats != null) {
+            iterationStatistics.put(file.sequence, file.stats);
+        }
+        return false;
+    }
 
-            if (mReturnStatistics) {
-                mIterationStatistics.add(stats);
+    /**
+     * Reads the GTFS metadata from the snapshot if one exists for the GTFS zip file and snapshots are enabled, or
+     * otherwise reads the GTFS data and builds the metadata (and writes the snapshot if snapshots are enabled)
+     *
+     * @return the amount of time to read the GTFS data, in seconds as a decimal (0.22)
+     * @throws IOException if the GTFS zip file can't be read
+     */
+    private double readGtfsMetadata() throws IOException {
+        long startGtfsRead = System.nanoTime();
+        byte[] checksum = null;
+        if (mUseMetadataSnapshot) {
+            checksum = HashAlgorithm.MURMUR3_128.hash(mPathToGtfsFile);
+            mGtfsMetadata = GtfsMetadataSnapshot.read(mPathToGtfsFile, checksum, mIgnoreShapes);
+            if (mGtfsMetadata != null) {
+                // The rules only use the metadata, so the GTFS data doesn't need to be read
+                mGtfsData = new GtfsDaoImpl();
+                return getElapsedTime(startGtfsRead, System.nanoTime());
             }
+        }
 
-            prevHash = currentHash;
-            prevMessage = message;
+        double readTime = readGtfsData();
+        String timeZoneText = null;
+        Collection<Agency> agencies = mGtfsData.getAllAgencies();
+        for (Agency agency : agencies) {
+            timeZoneText = agency.getTimezone();
+            break;
         }
-        return mIterationStatistics;
+        mGtfsMetadata = new GtfsMetadata(mPathToGtfsFile.getAbsolutePath(), TimeZone.getTimeZone(timeZoneText), mGtfsData, mIgnoreShapes);
+        if (mUseMetadataSnapshot) {
+            GtfsMetadataSnapshot.write(mPathToGtfsFile, checksum, mIgnoreShapes, mGtfsMetadata);
+        }
+        return readTime;
     }
 
     /**
@@ -317,11 +699,7 @@ public class BatchProcessor {
         return readTime;
     }
 
-    private void writeResults(ObjectMapper mapper, Path path, List<ErrorListHelperModel> allErrorLists) throws IOException {
-        mapper.writeValue(new File(path.toAbsolutePath() + RESULTS_FILE_EXTENSION), allErrorLists);
-    }
-
-    private void writePlainText(GtfsRealtime.FeedMessage message, ObjectMapper mapper, Path path) throws IOException {
+    private void writePlainText(GtfsRealtime.FeedMessage message, Path path) throws IOException {
         OutputStream out = new BufferedOutputStream(new FileOutputStream(path.toAbsolutePath() + "." + mPlainTextExtension));
         out.write(TextFormat.printToString(message).getBytes());
         out.close();
@@ -331,12 +709,75 @@ public class BatchProcessor {
         DATE_MODIFIED, NAME
     }
 
+    /**
+     * The formats that the validation results can be written in
+     */
+    public enum ResultsFormat {
+        /**
+         * One pretty-printed JSON file per GTFS-rt file, named after the GTFS-rt file with RESULTS_FILE_EXTENSION added
+         */
+        JSON_FILES(null),
+        /**
+         * A single newline-delimited JSON stream of ResultsRecords
+         */
+        NDJSON(".ndjson"),
+        /**
+         * A single gzip-compressed newline-delimited JSON stream of ResultsRecords
+         */
+        NDJSON_GZIP(".ndjson.gz"),
+        /**
+         * A single length-delimited stream of ResultsRecords encoded as Smile (binary JSON) - see SmileResultsSink
+         */
+        SMILE(".smile");
+
+        private final String mExtension;
+
+        ResultsFormat(String extension) {
+            mExtension = extension;
+        }
+
+        /**
+         * Returns the name of the stream file in the GTFS-rt directory that results are appended to in this format,
+         * or null if results are written to one file per GTFS-rt file
+         *
+         * @return the name of the stream file that results are appended to in this format, or null if results are
+         * written to one file per GTFS-rt file
+         */
+        public String getStreamFileName() {
+            return mExtension != null ? RESULTS_STREAM_FILE_NAME + mExtension : null;
+        }
+
+        private ResultsSink open(Path gtfsRealtimeDirectory) throws IOException {
+            switch (this) {
+                case NDJSON:
+                    return new NdjsonResultsSink(gtfsRealtimeDirectory, gtfsRealtimeDirectory.resolve(getStreamFileName()), false);
+                case NDJSON_GZIP:
+                    return new NdjsonResultsSink(gtfsRealtimeDirectory, gtfsRealtimeDirectory.resolve(getStreamFileName()), true);
+                case SMILE:
+                    return new SmileResultsSink(gtfsRealtimeDirectory, gtfsRealtimeDirectory.resolve(getStreamFileName()));
+                default:
+                    return new JsonFileResultsSink();
+            }
+        }
+    }
+
     public static class Builder {
         private String mPathToGtfsFile, mPathToGtfsRealtime;
         private SortBy mSortBy = null;
         private String mPlainTextExtension = null;
         private boolean mReturnStatistics = false;
         private boolean mIgnoreShapes = false;
+        private boolean mUseMetadataSnapshot = false;
+        private int mThreads = 1;
+        private boolean mConcurrentRules = false;
+        private int mShardThreshold = RuleRunner.DEFAULT_SHARD_THRESHOLD;
+        private int mMaxOccurrences = 0;
+        private boolean mSampleOccurrences = false;
+        private boolean mIncrementalValidation = false;
+        private HashAlgorithm mHashAlgorithm = null;
+        private boolean mSkipValidatedFiles = false;
+        private ResultsFormat mResultsFormat = null;
+        private ResultsSink mResultsSink = null;
 
         public Builder(String pathToGtfsFile, String pathToGtfsRealtime) {
             mPathToGtfsFile = pathToGtfsFile;
@@ -392,6 +833,167 @@ public class BatchProcessor {
             return this;
         }
 
+        /**
+         * Sets the validator to save the metadata built from the GTFS data to a snapshot file next to the GTFS zip file
+         * (with GtfsMetadataSnapshot.SNAPSHOT_FILE_EXTENSION added to the name) if useMetadataSnapshot is true, so
+         * later runs with the same GTFS zip file can read the snapshot instead of reading the GTFS data again, which
+         * can take minutes for large feeds.  The snapshot is rebuilt if the contents of the GTFS zip file change.
+         * Default is false.
+         *
+         * @param useMetadataSnapshot true if the GTFS metadata snapshot should be used, false if the GTFS zip file should always be read
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setUseMetadataSnapshot(boolean useMetadataSnapshot) {
+            mUseMetadataSnapshot = useMetadataSnapshot;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads used by each stage (read, hash, decode, validate, serialize) of the batch
+         * pipeline (default = 1).  Files are still validated against the previous file in order, but up to this many
+         * files can be processed in each stage at the same time.
+         *
+         * @param threads the number of threads used by each stage of the batch pipeline, must be 1 or greater
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("threads must be 1 or greater");
+            }
+            mThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the validator to run the rules for each GTFS-rt file concurrently if concurrentRules is true, or one at
+         * a time if concurrentRules is false (default).  Rules run on the common ForkJoinPool, and the results are
+         * written in the same order as when the rules run one at a time.  This reduces the time to validate each file
+         * on machines with several cores, and is most useful for large GTFS-rt files or when threads is 1.
+         *
+         * @param concurrentRules true if the rules for each GTFS-rt file should run concurrently, false if they should run one at a time
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setConcurrentRules(boolean concurrentRules) {
+            mConcurrentRules = concurrentRules;
+            return this;
+        }
+
+        /**
+         * Sets the number of entities at or above which a GTFS-rt message is split into shards of entities (default
+         * = RuleRunner.DEFAULT_SHARD_THRESHOLD).  Rules that check each entity on its own (e.g., StopTimeUpdateValidator
+         * and the frequency rules) validate the shards in parallel, and the occurrences of all shards are merged in
+         * order.  Rules that look at the whole message (e.g., entity uniqueness, header, and cross-feed checks) always
+         * validate the whole message.  Messages with fewer entities are validated by each rule on a single thread.
+         *
+         * @param shardThreshold the number of entities at or above which a message is split into shards, or 0 if messages should never be split
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setShardThreshold(int shardThreshold) {
+            if (shardThreshold < 0) {
+                throw new IllegalArgumentException("shardThreshold must be 0 or greater");
+            }
+            mShardThreshold = shardThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of occurrences stored for each rule in each GTFS-rt file (default = 0, which stores
+         * all occurrences).  A feed with a systematic problem can produce an occurrence for every stop_time_update, so
+         * this keeps the results files small.  Occurrences over the limit are counted but never created, and the number
+         * of occurrences found for each rule is output as occurrenceCount in the results.
+         *
+         * @param maxOccurrences the maximum number of occurrences stored for each rule in each GTFS-rt file, or 0 to store all occurrences
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setMaxOccurrences(int maxOccurrences) {
+            if (maxOccurrences < 0) {
+                throw new IllegalArgumentException("maxOccurrences must be 0 or greater");
+            }
+            mMaxOccurrences = maxOccurrences;
+            return this;
+        }
+
+        /**
+         * Sets if a random sample of all occurrences should be stored for rules with more than maxOccurrences
+         * occurrences, instead of the first maxOccurrences occurrences (default = false).  Has no effect if
+         * maxOccurrences is 0.
+         *
+         * @param sampleOccurrences true if a random sample of occurrences should be stored, false if the first occurrences should be stored
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setSampleOccurrences(boolean sampleOccurrences) {
+            mSampleOccurrences = sampleOccurrences;
+            return this;
+        }
+
+        /**
+         * Sets if rules that check each entity on its own (e.g., StopTimeUpdateValidator and the frequency rules)
+         * should only validate the entities that changed since the previous GTFS-rt file, and reuse the results of the
+         * previous file for all other entities (default = false).  Entities are matched by ID.  The results are the same
+         * as validating all entities, but consecutive files usually only differ in a few entities.  Rules that look at
+         * the file as a whole always validate all entities.
+         *
+         * @param incrementalValidation true if entity-local rules should only validate entities that changed since the previous file, false if they should validate all entities
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setIncrementalValidation(boolean incrementalValidation) {
+            mIncrementalValidation = incrementalValidation;
+            return this;
+        }
+
+        /**
+         * Sets the hash algorithm used to detect GTFS-rt files that are the same as the previous file (default =
+         * MURMUR3_128).  MD5 was used by earlier versions of the validator, but is much slower.
+         *
+         * @param hashAlgorithm the hash algorithm used to detect duplicate GTFS-rt files
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+            mHashAlgorithm = hashAlgorithm;
+            return this;
+        }
+
+        /**
+         * Sets the validator to skip GTFS-rt files that were already validated by an earlier run if skipValidatedFiles
+         * is true, or to validate all files if skipValidatedFiles is false (default).  The hash and name of each
+         * validated file is saved to an index file in the GTFS-rt directory, so a batch process that was stopped before
+         * it finished can be run again without validating the same files again.  Delete the index file to validate all
+         * files again (e.g., after changing the GTFS data).
+         *
+         * @param skipValidatedFiles true if files that were already validated should be skipped, false if all files should be validated
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setSkipValidatedFiles(boolean skipValidatedFiles) {
+            mSkipValidatedFiles = skipValidatedFiles;
+            return this;
+        }
+
+        /**
+         * Sets the format that the validation results are written in (default = JSON_FILES, one pretty-printed JSON
+         * file per GTFS-realtime file).  The other formats append the results of all files to a single stream in the
+         * GTFS-realtime directory, named RESULTS_STREAM_FILE_NAME followed by the extension of the format, which avoids
+         * creating a large number of small files when processing large archives.
+         *
+         * @param resultsFormat the format that the validation results are written in
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setResultsFormat(ResultsFormat resultsFormat) {
+            mResultsFormat = resultsFormat;
+            return this;
+        }
+
+        /**
+         * Sets the ResultsSink that the validation results are written to, instead of one of the ResultsFormats.  The
+         * sink is flushed, but not closed, when BatchProcessor.processFeeds() finishes.
+         *
+         * @param resultsSink the ResultsSink that the validation results are written to
+         * @return this Builder instance so methods can be chained together
+         */
+        public Builder setResultsSink(ResultsSink resultsSink) {
+            mResultsSink = resultsSink;
+            return this;
+        }
+
         public BatchProcessor build() {
             BatchProcessor bp = new BatchProcessor(mPathToGtfsFile, mPathToGtfsRealtime);
             if (mSortBy != null) {
@@ -401,7 +1003,24 @@ public class BatchProcessor {
                 bp.setPlainTextExtension(mPlainTextExtension);
             }
             bp.setIgnoreShapes(mIgnoreShapes);
+            bp.setUseMetadataSnapshot(mUseMetadataSnapshot);
             bp.setReturnStatistics(mReturnStatistics);
+            bp.setThreads(mThreads);
+            bp.setConcurrentRules(mConcurrentRules);
+            bp.setShardThreshold(mShardThreshold);
+            bp.setMaxOccurrences(mMaxOccurrences);
+            bp.setSampleOccurrences(mSampleOccurrences);
+            bp.setIncrementalValidation(mIncrementalValidation);
+            if (mHashAlgorithm != null) {
+                bp.setHashAlgorithm(mHashAlgorithm);
+            }
+            bp.setSkipValidatedFiles(mSkipValidatedFiles);
+            if (mResultsFormat != null) {
+                bp.setResultsFormat(mResultsFormat);
+            }
+            if (mResultsSink != null) {
+                bp.setResultsSink(mResultsSink);
+            }
             return bp;
         }
     }
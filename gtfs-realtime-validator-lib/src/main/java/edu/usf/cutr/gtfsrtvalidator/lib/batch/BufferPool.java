@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed-size pool of reusable buffers that GTFS-realtime files are read into, so that reading a file doesn't
+ * allocate a new byte array.  Buffers grow to fit the largest file they have held and keep that size when they are
+ * returned to the pool.  When all buffers are in use, acquire() blocks until one is released.
+ * <p>
+ * Heap buffers are used rather than direct buffers because the protocol buffer parser can read a heap buffer's
+ * backing array directly, while a direct buffer would have to be copied into an array first.
+ */
+class BufferPool {
+
+    // Initial capacity of each buffer - buffers grow as needed
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final BlockingQueue<ByteBuffer> mBuffers;
+
+    /**
+     * Creates a new pool with the provided number of buffers
+     *
+     * @param size the number of buffers in the pool
+     */
+    BufferPool(int size) {
+        mBuffers = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            mBuffers.add(ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Takes a buffer from the pool, blocking until one is available
+     *
+     * @return a buffer from the pool
+     * @throws InterruptedException if the thread is interrupted while waiting for a buffer
+     */
+    ByteBuffer acquire() throws InterruptedException {
+        return mBuffers.take();
+    }
+
+    /**
+     * Returns a buffer to the pool so it can be reused
+     *
+     * @param buffer the buffer to return to the pool
+     */
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+        mBuffers.offer(buffer);
+    }
+
+    /**
+     * Reads the entire contents of the provided file into the provided buffer, replacing the buffer with a larger one
+     * if the file doesn't fit.  The returned buffer is positioned at the start of the file contents, and its limit is
+     * the size of the file.
+     *
+     * @param path   the file to read
+     * @param buffer the buffer to read the file into
+     * @return the buffer that holds the file contents - either the provided buffer, or a new larger buffer that should be released instead of the provided buffer
+     * @throws IOException if the file can't be read
+     */
+    static ByteBuffer read(Path path, ByteBuffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to read (" + size + " bytes)");
+            }
+            if (buffer.capacity() < size) {
+                buffer = ByteBuffer.allocate((int) size);
+            }
+            buffer.clear();
+            buffer.limit((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // File was truncated while it was being read
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
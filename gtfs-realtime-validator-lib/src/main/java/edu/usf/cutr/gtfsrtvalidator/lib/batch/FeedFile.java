@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationStatistics;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single GTFS-realtime file moving through the stages of the BatchProcessor pipeline, along with the data that
+ * each stage has produced for it so far.  A file is only handled by one stage at a time, and the queues between
+ * stages make the data written by one stage visible to the next.
+ */
+class FeedFile {
+
+    // Position of this file in the sorted list of GTFS-rt files
+    final long sequence;
+    final Path path;
+    // Statistics for this file, or null if statistics aren't being recorded
+    final IterationStatistics stats;
+    final long startTimeNanos = System.nanoTime();
+
+    // Pooled buffer holding the raw protocol buffer from the time the file is read until it's decoded, or null if the
+    // file couldn't be read or the buffer has been released
+    ByteBuffer buffer;
+    byte[] hash;
+    // True if this file was validated by an earlier run, so it's only decoded to be used as the previous message
+    boolean skipValidation;
+    // The "current" time used to validate this file, in milliseconds
+    long timestamp;
+    // Completed by the decode stage with the decoded message, or with null if the file couldn't be decoded
+    final CompletableFuture<GtfsRealtime.FeedMessage> message = new CompletableFuture<>();
+    // The decoded message of the last unique file before this one, or null if this is the first file
+    CompletableFuture<GtfsRealtime.FeedMessage> previousMessage;
+    List<ErrorListHelperModel> errorLists;
+
+    // Time that this file was added to the queue of its current stage, in nanoseconds
+    long enqueuedNanos;
+
+    FeedFile(long sequence, Path path, IterationStatistics stats) {
+        this.sequence = sequence;
+        this.path = path;
+        this.stats = stats;
+    }
+}
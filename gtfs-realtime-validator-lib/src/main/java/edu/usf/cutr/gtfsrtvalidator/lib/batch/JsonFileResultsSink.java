@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes the validation results for each GTFS-realtime file to its own pretty-printed JSON file next to the
+ * GTFS-realtime file, with the name of the GTFS-realtime file followed by BatchProcessor.RESULTS_FILE_EXTENSION
+ */
+public class JsonFileResultsSink implements ResultsSink {
+
+    private final ObjectWriter mWriter = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writer();
+
+    @Override
+    public void write(Path path, long timestamp, List<ErrorListHelperModel> errorLists) throws IOException {
+        mWriter.writeValue(new File(path.toAbsolutePath() + BatchProcessor.RESULTS_FILE_EXTENSION), errorLists);
+    }
+
+    @Override
+    public void flush() {
+        // Each file is closed once it's written
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends the validation results for each GTFS-realtime file to a single newline-delimited JSON stream (one
+ * ResultsRecord per line), which can optionally be gzip-compressed.  Results from later runs are appended to the same
+ * stream - a gzip-compressed stream then contains one gzip member per run, which GZIPInputStream and gunzip read as a
+ * single stream.
+ */
+public class NdjsonResultsSink implements ResultsSink {
+
+    // Shared by all streams - ObjectWriter is immutable and thread-safe
+    private static final ObjectWriter WRITER = new ObjectMapper().writerFor(ResultsRecord.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path mDirectory;
+    private final OutputStream mOut;
+
+    /**
+     * Opens the results stream, creating it if it doesn't exist
+     *
+     * @param directory  the GTFS-realtime directory, which file names in the stream are relative to
+     * @param streamFile the file to append the results to
+     * @param gzip       true if the stream should be gzip-compressed, false if it should be plain text
+     * @throws IOException if the stream can't be opened
+     */
+    public NdjsonResultsSink(Path directory, Path streamFile, boolean gzip) throws IOException {
+        mDirectory = directory;
+        OutputStream out = Files.newOutputStream(streamFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (gzip) {
+            // Sync flush so flush() writes out all compressed results so far
+            mOut = new GZIPOutputStream(out, BUFFER_SIZE, true);
+        } else {
+            mOut = new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+    }
+
+    @Override
+    public void write(Path path, long timestamp, List<ErrorListHelperModel> errorLists) throws IOException {
+        byte[] record = WRITER.writeValueAsBytes(new ResultsRecord(mDirectory.relativize(path).toString(), timestamp, errorLists));
+        synchronized (this) {
+            mOut.write(record);
+            mOut.write('\n');
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        mOut.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mOut.close();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.StageStatistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTime;
+
+/**
+ * A stage of the BatchProcessor pipeline.  Each stage has its own thread pool that takes files from a bounded input
+ * queue, processes them, and passes them to the input queue of the next stage.  When the next stage can't keep up,
+ * its queue fills and the threads of this stage block, which slows down the stages before it.
+ */
+class PipelineStage {
+
+    /**
+     * The work done by a stage for a single file
+     */
+    interface Task {
+        /**
+         * Processes the provided file
+         *
+         * @param file the file to process
+         * @return true if the file should be passed to the next stage, or false if processing of this file ends in this stage
+         * @throws Exception if the file couldn't be processed
+         */
+        boolean process(FeedFile file) throws Exception;
+    }
+
+    // Tells a worker thread that there are no more files to process
+    private static final FeedFile END_OF_INPUT = new FeedFile(-1, null, null);
+
+    private final String mName;
+    private final int mThreads;
+    private final BlockingQueue<FeedFile> mQueue;
+    private final Task mTask;
+    private final PipelineStage mNext;
+    private final Consumer<Exception> mErrorHandler;
+    private final Consumer<FeedFile> mFailedFileHandler;
+    private final ExecutorService mExecutor;
+    private final CountDownLatch mWorkersFinished;
+    private final AtomicLong mProcessedCount = new AtomicLong();
+    private final long mStartTimeNanos = System.nanoTime();
+
+    // Holds files that arrived out of order if this stage must see files in sequence order, or null if it doesn't
+    private final Map<Long, FeedFile> mReorderBuffer;
+    private long mNextSequence = 0;
+
+    /**
+     * Creates a new stage and starts its worker threads
+     *
+     * @param name          name of this stage, used in logs and statistics
+     * @param threads       number of threads that process files in this stage
+     * @param queueCapacity maximum number of files that can wait in the input queue of this stage
+     * @param ordered       true if files must be processed in sequence order (this requires threads to be 1), false if they can be processed in any order
+     * @param task          work done by this stage for each file
+     * @param next          stage that files are passed to after this stage, or null if this is the last stage
+     * @param errorHandler  called with any exception thrown by the task
+     * @param failedFileHandler called with a file whose task threw an exception, after which the file is still passed
+     *                          to the next stage so that ordered stages after this one don't wait for its sequence
+     *                          number, or null if processing of a failed file ends in this stage
+     */
+    PipelineStage(String name, int threads, int queueCapacity, boolean ordered, Task task, PipelineStage next,
+                  Consumer<Exception> errorHandler, Consumer<FeedFile> failedFileHandler) {
+        if (ordered && threads != 1) {
+            throw new IllegalArgumentException("An ordered stage must use a single thread");
+        }
+        mName = name;
+        mThreads = threads;
+        mQueue = new ArrayBlockingQueue<>(queueCapacity);
+        mTask = task;
+        mNext = next;
+        mErrorHandler = errorHandler;
+        mFailedFileHandler = failedFileHandler;
+        mReorderBuffer = ordered ? new HashMap<>() : null;
+        mWorkersFinished = new CountDownLatch(threads);
+        mExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            mExecutor.execute(this::work);
+        }
+    }
+
+    /**
+     * Adds a file to the input queue of this stage, blocking while the queue is full.  If this stage is ordered, files
+     * that arrive before the files preceding them are held back until the preceding files arrive.
+     *
+     * @param file the file to add to the input queue of this stage
+     * @throws InterruptedException if the thread is interrupted while waiting for space in the queue
+     */
+    void put(FeedFile file) throws InterruptedException {
+        if (mReorderBuffer == null) {
+            file.enqueuedNanos = System.nanoTime();
+            mQueue.put(file);
+            return;
+        }
+        synchronized (mReorderBuffer) {
+            mReorderBuffer.put(file.sequence, file);
+            FeedFile nextFile;
+            while ((nextFile = mReorderBuffer.remove(mNextSequence)) != null) {
+                nextFile.enqueuedNanos = System.nanoTime();
+                mQueue.put(nextFile);
+                mNextSequence++;
+            }
+        }
+    }
+
+    /**
+     * Tells this stage that no more files will be added, and waits until all files in the queue have been processed
+     * and passed to the next stage
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void finish() throws InterruptedException {
+        for (int i = 0; i < mThreads; i++) {
+            mQueue.put(END_OF_INPUT);
+        }
+        mWorkersFinished.await();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stops the worker threads of this stage without waiting for queued files to be processed
+     */
+    void shutdownNow() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the name of this stage
+     *
+     * @return the name of this stage
+     */
+    String getName() {
+        return mName;
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                FeedFile file = mQueue.take();
+                if (file == END_OF_INPUT) {
+                    return;
+                }
+                int queueDepth = mQueue.size();
+                long startNanos = System.nanoTime();
+                boolean passToNext;
+                try {
+                    passToNext = mTask.process(file);
+                } catch (Exception e) {
+                    mErrorHandler.accept(e);
+                    if (mFailedFileHandler != null) {
+                        mFailedFileHandler.accept(file);
+                        passToNext = true;
+                    } else {
+                        passToNext = false;
+                    }
+                }
+                long endNanos = System.nanoTime();
+                long processedCount = mProcessedCount.incrementAndGet();
+                if (file.stats != null) {
+                    StageStatistics stageStats = new StageStatistics();
+                    stageStats.setStage(mName);
+                    stageStats.setQueueDepth(queueDepth);
+                    stageStats.setQueueWaitTime(getElapsedTime(file.enqueuedNanos, startNanos));
+                    stageStats.setStageTime(getElapsedTime(startNanos, endNanos));
+                    stageStats.setThroughput(processedCount / (TimeUnit.NANOSECONDS.toMicros(Math.max(endNanos - mStartTimeNanos, 1L)) / 1000000d));
+                    file.stats.getStageStatistics().add(stageStats);
+                }
+                if (passToNext && mNext != null) {
+                    mNext.put(file);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mWorkersFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.util.List;
+
+/**
+ * The validation results for one GTFS-realtime file, as written to the results streams of the BatchProcessor
+ */
+public class ResultsRecord {
+    private String fileName;
+    private long timestamp;
+    private List<ErrorListHelperModel> errorLists;
+
+    public ResultsRecord() {
+    }
+
+    public ResultsRecord(String fileName, long timestamp, List<ErrorListHelperModel> errorLists) {
+        this.fileName = fileName;
+        this.timestamp = timestamp;
+        this.errorLists = errorLists;
+    }
+
+    /**
+     * @return the path of the GTFS-realtime file, relative to the GTFS-realtime directory
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the "current" time used to validate the file, in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public List<ErrorListHelperModel> getErrorLists() {
+        return errorLists;
+    }
+
+    public void setErrorLists(List<ErrorListHelperModel> errorLists) {
+        this.errorLists = errorLists;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A destination for the validation results of each GTFS-realtime file processed by the BatchProcessor.  Results are
+ * written from more than one thread when the BatchProcessor uses more than one thread, so implementations must be
+ * thread-safe.
+ */
+public interface ResultsSink extends Closeable {
+
+    /**
+     * Writes the validation results for a GTFS-realtime file
+     *
+     * @param path       the GTFS-realtime file that was validated
+     * @param timestamp  the "current" time used to validate the file, in milliseconds
+     * @param errorLists the errors and warnings found in the file
+     * @throws IOException if the results can't be written
+     */
+    void write(Path path, long timestamp, List<ErrorListHelperModel> errorLists) throws IOException;
+
+    /**
+     * Makes sure that all results written so far are saved to disk, so they aren't lost if the process is killed
+     *
+     * @throws IOException if the results can't be written
+     */
+    void flush() throws IOException;
+}
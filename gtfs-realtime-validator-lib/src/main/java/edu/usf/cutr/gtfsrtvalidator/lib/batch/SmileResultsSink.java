@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Appends the validation results for each GTFS-realtime file to a single compact binary stream.  Each ResultsRecord
+ * is encoded as a Smile (binary JSON) document and written with a varint length prefix, like protocol buffer messages
+ * written with writeDelimitedTo(), so results from later runs can be appended to the same stream.  Use readRecords()
+ * to read the stream.
+ */
+public class SmileResultsSink implements ResultsSink {
+
+    // Shared by all streams - ObjectWriter and ObjectReader are immutable and thread-safe
+    private static final ObjectMapper MAPPER = new ObjectMapper(new SmileFactory());
+    private static final ObjectWriter WRITER = MAPPER.writerFor(ResultsRecord.class);
+    private static final ObjectReader READER = MAPPER.readerFor(ResultsRecord.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path mDirectory;
+    private final OutputStream mOut;
+    private final CodedOutputStream mCodedOut;
+
+    /**
+     * Opens the results stream, creating it if it doesn't exist
+     *
+     * @param directory  the GTFS-realtime directory, which file names in the stream are relative to
+     * @param streamFile the file to append the results to
+     * @throws IOException if the stream can't be opened
+     */
+    public SmileResultsSink(Path directory, Path streamFile) throws IOException {
+        mDirectory = directory;
+        mOut = new BufferedOutputStream(Files.newOutputStream(streamFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE);
+        mCodedOut = CodedOutputStream.newInstance(mOut);
+    }
+
+    @Override
+    public void write(Path path, long timestamp, List<ErrorListHelperModel> errorLists) throws IOException {
+        byte[] record = WRITER.writeValueAsBytes(new ResultsRecord(mDirectory.relativize(path).toString(), timestamp, errorLists));
+        synchronized (this) {
+            mCodedOut.writeRawVarint32(record.length);
+            mCodedOut.writeRawBytes(record);
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        mCodedOut.flush();
+        mOut.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        mOut.close();
+    }
+
+    /**
+     * Reads all records from a stream written by a SmileResultsSink
+     *
+     * @param in the stream to read
+     * @return the records in the stream, in the order they were written
+     * @throws IOException if the stream can't be read
+     */
+    public static List<ResultsRecord> readRecords(InputStream in) throws IOException {
+        List<ResultsRecord> records = new ArrayList<>();
+        CodedInputStream codedIn = CodedInputStream.newInstance(in);
+        // Records may be larger than the default protocol buffer size limit
+        codedIn.setSizeLimit(Integer.MAX_VALUE);
+        while (!codedIn.isAtEnd()) {
+            byte[] record = codedIn.readRawBytes(codedIn.readRawVarint32());
+            // Reset the count of bytes read so far, which is checked against the size limit
+            codedIn.resetSizeCounter();
+            records.add(READER.readValue(record));
+        }
+        return records;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.batch;
+
+import com.google.common.io.BaseEncoding;
+import edu.usf.cutr.gtfsrtvalidator.lib.util.HashAlgorithm;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A content-addressed index of the GTFS-realtime files that have already been validated, which is saved to disk so
+ * that a batch process that is run again over the same archive (e.g., after a crash) can skip the files it has
+ * already validated.
+ * <p>
+ * The index is a text file with one line per validated file, containing the hash of the file contents and the file
+ * name separated by a tab.  A file is only skipped if both the hash and the name match, so a file whose contents have
+ * changed, or a different file that happens to have the same contents, is validated again.  Each line is flushed as
+ * soon as the file's results have been written, so the index stays usable if the process is killed.
+ */
+class ValidatedFileIndex implements Closeable {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(ValidatedFileIndex.class);
+
+    public static final String INDEX_FILE_NAME = ".gtfs-rt-validated-index";
+    private static final String HEADER_PREFIX = "# hash=";
+
+    // Entries in the format "hash<tab>fileName", where hash is the hex hash of the validated file contents
+    private final Set<String> mValidatedFiles = new HashSet<>();
+    private final BufferedWriter mWriter;
+
+    /**
+     * Opens the index in the provided directory, creating it if it doesn't exist.  If the existing index was created
+     * with a different hash algorithm, it's discarded and a new index is started.
+     *
+     * @param directory     the directory of GTFS-realtime files that this index is for
+     * @param hashAlgorithm the algorithm used to hash the file contents
+     * @throws IOException if the index can't be read or written
+     */
+    ValidatedFileIndex(Path directory, HashAlgorithm hashAlgorithm) throws IOException {
+        Path indexFile = directory.resolve(INDEX_FILE_NAME);
+        String header = HEADER_PREFIX + hashAlgorithm.name();
+        boolean append = false;
+        if (Files.exists(indexFile)) {
+            try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+                if (header.equals(reader.readLine())) {
+                    append = true;
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.indexOf('\t') > 0) {
+                            mValidatedFiles.add(line);
+                        }
+                    }
+                } else {
+                    _log.info("Validated file index " + indexFile + " was created with a different hash algorithm - starting a new index");
+                }
+            }
+        }
+        if (append) {
+            mWriter = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        } else {
+            mWriter = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8);
+            mWriter.write(header);
+            mWriter.newLine();
+            mWriter.flush();
+        }
+        _log.info("Loaded " + mValidatedFiles.size() + " previously validated files from " + indexFile);
+    }
+
+    /**
+     * Returns true if a file with the provided name and contents has already been validated, false if it has not
+     *
+     * @param hash     hash of the file contents
+     * @param fileName name of the file
+     * @return true if a file with the provided name and contents has already been validated, false if it has not
+     */
+    synchronized boolean contains(byte[] hash, String fileName) {
+        return mValidatedFiles.contains(getEntry(hash, fileName));
+    }
+
+    /**
+     * Records that the file with the provided name and contents has been validated
+     *
+     * @param hash     hash of the file contents
+     * @param fileName name of the file
+     * @throws IOException if the index can't be written
+     */
+    synchronized void add(byte[] hash, String fileName) throws IOException {
+        String entry = getEntry(hash, fileName);
+        mValidatedFiles.add(entry);
+        mWriter.write(entry);
+        mWriter.newLine();
+        mWriter.flush();
+    }
+
+    private static String getEntry(byte[] hash, String fileName) {
+        return BaseEncoding.base16().lowerCase().encode(hash) + '\t' + fileName;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -37,6 +37,10 @@ public class GtfsRtFeedModel implements Serializable {
     private int gtfsRtId;
     @Transient
     private boolean enableShapes;
+    @Transient
+    private int maxOccurrences;
+    @Transient
+    private boolean sampleOccurrences;
 
     public GtfsRtFeedModel(){}
 
@@ -72,6 +76,28 @@ public class GtfsRtFeedModel implements Serializable {
         this.enableShapes = enableShapes;
     }
 
+    /**
+     * Returns the maximum number of occurrences stored for each rule in each iteration of this feed, or 0 if all
+     * occurrences are stored
+     *
+     * @return the maximum number of occurrences stored for each rule in each iteration of this feed, or 0 if all occurrences are stored
+     */
+    public int getMaxOccurrences() {
+        return maxOccurrences;
+    }
+
+    public void setMaxOccurrences(int maxOccurrences) {
+        this.maxOccurrences = maxOccurrences;
+    }
+
+    public boolean getSampleOccurrences() {
+        return sampleOccurrences;
+    }
+
+    public void setSampleOccurrences(boolean sampleOccurrences) {
+        this.sampleOccurrences = sampleOccurrences;
+    }
+
     @Override
     public String toString() {
         return "GtfsRtFeedModel{" +
@@ -79,6 +105,8 @@ public class GtfsRtFeedModel implements Serializable {
                 ", gtfsId=" + gtfsFeedModel.getFeedId() +
                 ", gtfsRtId=" + gtfsRtId +
                 ", enableShapes=" + enableShapes +
+                ", maxOccurrences=" + maxOccurrences +
+                ", sampleOccurrences=" + sampleOccurrences +
                 '}';
     }
 }
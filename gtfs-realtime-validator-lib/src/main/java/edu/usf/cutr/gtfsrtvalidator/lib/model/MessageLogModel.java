@@ -44,6 +44,12 @@ public class MessageLogModel implements Serializable {
     private ValidationRule validationRule;
     @Column(name = "errorDetails")
     private String errorDetails;
+    /**
+     * The number of occurrences of this error/warning found in the iteration.  This can be larger than the number of
+     * occurrences that are stored if occurrences are limited (see OccurrenceLimit).
+     */
+    @Column(name = "occurrenceCount")
+    private Integer occurrenceCount;
 
     public int getMessageId() {
         return messageId;
@@ -76,4 +82,12 @@ public class MessageLogModel implements Serializable {
     public void setErrorDetails(String errorDetails) {
         this.errorDetails = errorDetails;
     }
+
+    public Integer getOccurrenceCount() {
+        return occurrenceCount;
+    }
+
+    public void setOccurrenceCount(Integer occurrenceCount) {
+        this.occurrenceCount = occurrenceCount;
+    }
 }
\ No newline at end of file
@@ -19,7 +19,10 @@ package edu.usf.cutr.gtfsrtvalidator.lib.model;
 
 import javax.persistence.*;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 @XmlRootElement
 @Entity
@@ -30,6 +33,19 @@ public class OccurrenceModel implements Serializable {
         this.prefix = prefix;
     }
 
+    /**
+     * Creates an occurrence whose prefix is only built when it's first needed (e.g., when the occurrence is logged,
+     * saved to the database, or written to JSON).  Rules can find thousands of occurrences in a single feed, so this
+     * avoids concatenating and formatting the text for each one while validating.  The supplier should only capture
+     * the values used in the text (e.g., the entity ID, trip_id, and timestamps).  It's usually called once, but may be
+     * called again if several threads need the prefix at the same time, so it must always return the same text.
+     *
+     * @param prefixSupplier supplies the prefix of this occurrence - see getPrefix()
+     */
+    public OccurrenceModel(Supplier<String> prefixSupplier) {
+        this.prefixSupplier = prefixSupplier;
+    }
+
     public OccurrenceModel() {
     }
 
@@ -56,8 +72,13 @@ public class OccurrenceModel implements Serializable {
      *
      * @see ValidationRule
      */
-    @Column(name = "prefix", length = 1000)
-    private String prefix;
+    @Transient
+    private volatile String prefix;
+
+    // Set until the prefix is built - prefix is always written before this is cleared, so a thread that sees null here
+    // also sees the prefix
+    @Transient
+    private transient volatile Supplier<String> prefixSupplier;
 
     public int getOccurrenceId() {
         return occurrenceId;
@@ -75,11 +96,25 @@ public class OccurrenceModel implements Serializable {
         this.messageLogModel = messageLogModel;
     }
 
+    // Use the getter when saving to the database, so a prefix that hasn't been built yet is built before it's saved
+    @Access(AccessType.PROPERTY)
+    @Column(name = "prefix", length = 1000)
     public String getPrefix() {
+        Supplier<String> supplier = prefixSupplier;
+        if (supplier != null) {
+            prefix = supplier.get();
+            prefixSupplier = null;
+        }
         return prefix;
     }
 
     public void setPrefix(String prefix) {
+        prefixSupplier = null;
         this.prefix = prefix;
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getPrefix();
+        out.defaultWriteObject();
+    }
 }
@@ -17,6 +17,7 @@
 package edu.usf.cutr.gtfsrtvalidator.lib.util;
 
 import com.google.transit.realtime.GtfsRealtime;
+import org.locationtech.spatial4j.shape.Rectangle;
 import org.locationtech.spatial4j.shape.Shape;
 import org.locationtech.spatial4j.shape.ShapeFactory;
 import org.locationtech.spatial4j.shape.SpatialRelation;
@@ -172,6 +173,28 @@ public class GtfsUtils {
         return bounds.relate(p).equals(SpatialRelation.CONTAINS);
     }
 
+    /**
+     * Returns true if the provided vehiclePosition is within the provided rectangle (including its edges), false if it
+     * is not.  This gives the same result as isPositionWithinShape() for a rectangle, but compares the coordinates
+     * directly instead of creating a Point and relating it to the rectangle, so it doesn't allocate any objects.
+     *
+     * @param vehiclePosition the vehiclePosition to test against the rectangle
+     * @param bounds          the rectangle to test against the vehiclePosition
+     * @return true if the provided vehiclePosition is within the provided rectangle, false if it is not
+     */
+    public static boolean isPositionWithinRectangle(GtfsRealtime.Position vehiclePosition, Rectangle bounds) {
+        double lat = vehiclePosition.getLatitude();
+        double lon = vehiclePosition.getLongitude();
+        if (lat < bounds.getMinY() || lat > bounds.getMaxY()) {
+            return false;
+        }
+        if (bounds.getCrossesDateLine()) {
+            // minX is east of maxX, so the rectangle covers both sides of the date line
+            return lon >= bounds.getMinX() || lon <= bounds.getMaxX();
+        }
+        return lon >= bounds.getMinX() && lon <= bounds.getMaxX();
+    }
+
     /**
      * Returns the trip_id for the given TripUpdate if one exists, if not the entity ID is returned in the format
      * "trip_id 1234" or "entity ID 4321".
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hash functions that can be used to tell if a GTFS-realtime feed is the same as a feed that was seen before.  The
+ * hash is only used to detect duplicate feeds, not for security, so a fast non-cryptographic hash is used by
+ * default.
+ */
+public enum HashAlgorithm {
+
+    /**
+     * 128-bit MD5 digest - the hash used by earlier versions of the validator.  Much slower than the other algorithms.
+     */
+    MD5 {
+        private final ThreadLocal<MessageDigest> mDigest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 is not available on this machine", e);
+            }
+        });
+
+        @Override
+        public byte[] hash(byte[] bytes, int offset, int length) {
+            MessageDigest md = mDigest.get();
+            md.update(bytes, offset, length);
+            return md.digest();
+        }
+
+        @Override
+        public byte[] hash(File file) throws IOException {
+            MessageDigest md = mDigest.get();
+            try (InputStream in = new FileInputStream(file)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    md.update(buffer, 0, read);
+                }
+            } catch (IOException e) {
+                md.reset();
+                throw e;
+            }
+            return md.digest();
+        }
+    },
+
+    /**
+     * 32-bit CRC32C checksum.  The fastest option, but with a 32-bit hash, unrelated files in very large archives may
+     * have the same hash - use one of the 64 or 128-bit hashes with setSkipValidatedFiles().
+     */
+    CRC32C(Hashing.crc32c()),
+
+    /**
+     * 64-bit FarmHash fingerprint
+     */
+    FARMHASH_64(Hashing.farmHashFingerprint64()),
+
+    /**
+     * 128-bit MurmurHash3 (default)
+     */
+    MURMUR3_128(Hashing.murmur3_128());
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final HashFunction mHashFunction;
+
+    HashAlgorithm() {
+        mHashFunction = null;
+    }
+
+    HashAlgorithm(HashFunction hashFunction) {
+        mHashFunction = hashFunction;
+    }
+
+    /**
+     * Returns the hash of the provided bytes
+     *
+     * @param bytes  array that contains the bytes to hash
+     * @param offset position in the array of the first byte to hash
+     * @param length number of bytes to hash
+     * @return the hash of the provided bytes
+     */
+    public byte[] hash(byte[] bytes, int offset, int length) {
+        return mHashFunction.hashBytes(bytes, offset, length).asBytes();
+    }
+
+    /**
+     * Returns the hash of the provided bytes
+     *
+     * @param bytes the bytes to hash
+     * @return the hash of the provided bytes
+     */
+    public byte[] hash(byte[] bytes) {
+        return hash(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the hash of the remaining bytes in the provided heap buffer, without changing the position of the buffer
+     *
+     * @param buffer a buffer backed by an array, positioned at the first byte to hash
+     * @return the hash of the remaining bytes in the provided buffer
+     */
+    public byte[] hash(ByteBuffer buffer) {
+        return hash(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    /**
+     * Returns the hash of the contents of the provided file, which is read in chunks so large files aren't read into
+     * memory
+     *
+     * @param file the file to hash
+     * @return the hash of the contents of the provided file
+     * @throws IOException if the file can't be read
+     */
+    public byte[] hash(File file) throws IOException {
+        return Files.asByteSource(file).hash(mHashFunction).asBytes();
+    }
+}
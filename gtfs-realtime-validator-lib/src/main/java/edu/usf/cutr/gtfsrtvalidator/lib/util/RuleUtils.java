@@ -18,8 +18,10 @@ package edu.usf.cutr.gtfsrtvalidator.lib.util;
 
 import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.OccurrenceLimit;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * Utilities related to rules
@@ -35,8 +37,49 @@ public class RuleUtils {
      * @param log                logger to use to output occurrence info
      */
     public static void addOccurrence(ValidationRule rule, String occurrencePrefix, List<OccurrenceModel> list, org.slf4j.Logger log) {
+        int position = OccurrenceLimit.reserve(list);
+        if (position < 0) {
+            // Over the limit of occurrences stored for this rule - only counted
+            return;
+        }
         OccurrenceModel om = new OccurrenceModel(occurrencePrefix);
-        list.add(om);
-        log.debug(om.getPrefix() + " " + rule.getOccurrenceSuffix());
+        store(om, position, list);
+        if (log.isDebugEnabled()) {
+            log.debug(om.getPrefix() + " " + rule.getOccurrenceSuffix());
+        }
+    }
+
+    /**
+     * Adds occurrence for rule, where the prefix of the occurrence is only built when it's first needed (see
+     * OccurrenceModel(Supplier)).  Use this instead of addOccurrence(ValidationRule, String, List, Logger) when
+     * building the prefix is expensive (e.g., formatting timestamps) and the rule can find many occurrences.
+     *
+     * @param rule               rule to add occurrence for
+     * @param occurrencePrefix   supplies the prefix of the occurrence
+     * @param list               list to add occurrence for the rule to
+     * @param log                logger to use to output occurrence info
+     */
+    public static void addOccurrence(ValidationRule rule, Supplier<String> occurrencePrefix, List<OccurrenceModel> list, org.slf4j.Logger log) {
+        int position = OccurrenceLimit.reserve(list);
+        if (position < 0) {
+            // Over the limit of occurrences stored for this rule - only counted
+            return;
+        }
+        OccurrenceModel om = new OccurrenceModel(occurrencePrefix);
+        store(om, position, list);
+        if (log.isDebugEnabled()) {
+            log.debug(om.getPrefix() + " " + rule.getOccurrenceSuffix());
+        }
+    }
+
+    /**
+     * Appends the occurrence to the list if position is list.size(), or replaces the occurrence at position if it's lower
+     */
+    private static void store(OccurrenceModel om, int position, List<OccurrenceModel> list) {
+        if (position == list.size()) {
+            list.add(om);
+        } else {
+            list.set(position, om);
+        }
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.MessageLogModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.EntityLocalValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Keeps the results of EntityLocalValidator rules for each entity of the last message of a GTFS-realtime feed, so
+ * entities that haven't changed since the previous iteration don't need to be validated again (see
+ * RuleRunner.run()).  Consecutive messages of a feed usually only differ in a small number of entities.
+ * <p>
+ * Entities are matched by FeedEntity.id, and an entity is only considered unchanged if it's equal to the previous
+ * entity with the same ID.  Results are kept as the OccurrenceModels found when the entity was validated, without
+ * building their text, and each iteration gets new OccurrenceModels whose text is built from the kept ones when it's
+ * first needed - so an occurrence's text is built at most once however many iterations reuse it, and not at all if
+ * no iteration stores it.  Results for all entities are discarded if the GTFS data changes.
+ * <p>
+ * A cache should be used for a single GTFS-realtime feed, as entities of other feeds rarely match.  It can be used
+ * by several threads at the same time - as the results of an entity only depend on the entity and the GTFS data,
+ * cached results are correct for any message, and messages validated at the same time only lower the hit rate.
+ */
+public class EntityResultCache {
+
+    private final Map<FeedEntityValidator, RuleCache> mRuleCaches = new ConcurrentHashMap<>();
+
+    /**
+     * The results for each entity of the last message validated by one rule
+     */
+    private static class RuleCache {
+        final GtfsMetadata gtfsMetadata;
+        final Map<String, EntityResults> entityResults;
+
+        RuleCache(GtfsMetadata gtfsMetadata, Map<String, EntityResults> entityResults) {
+            this.gtfsMetadata = gtfsMetadata;
+            this.entityResults = entityResults;
+        }
+    }
+
+    /**
+     * The results of one rule for one entity
+     */
+    private static class EntityResults {
+        final GtfsRealtime.FeedEntity entity;
+        final List<CachedErrorList> errorLists;
+
+        EntityResults(GtfsRealtime.FeedEntity entity, List<CachedErrorList> errorLists) {
+            this.entity = entity;
+            this.errorLists = errorLists;
+        }
+    }
+
+    /**
+     * The occurrences of one error or warning for one entity
+     */
+    private static class CachedErrorList {
+        final ValidationRule validationRule;
+        final int occurrenceCount;
+        final List<OccurrenceModel> occurrences;
+
+        CachedErrorList(ErrorListHelperModel errorList) {
+            validationRule = errorList.getErrorMessage().getValidationRule();
+            occurrenceCount = errorList.getErrorMessage().getOccurrenceCount() != null ? errorList.getErrorMessage().getOccurrenceCount() : errorList.getOccurrenceList().size();
+            occurrences = new ArrayList<>(errorList.getOccurrenceList());
+        }
+
+        ErrorListHelperModel toErrorList() {
+            MessageLogModel messageLogModel = new MessageLogModel(validationRule);
+            messageLogModel.setOccurrenceCount(occurrenceCount);
+            List<OccurrenceModel> iterationOccurrences = new ArrayList<>(occurrences.size());
+            for (OccurrenceModel occurrence : occurrences) {
+                // The kept occurrence builds its text once, and is never saved itself
+                iterationOccurrences.add(new OccurrenceModel(occurrence::getPrefix));
+            }
+            return new ErrorListHelperModel(messageLogModel, iterationOccurrences);
+        }
+    }
+
+    /**
+     * Returns the results of the provided rule for feedMessage, reusing the results for entities that are equal to
+     * an entity with the same ID in the previous message validated by this rule, and calling validateEntity for all
+     * other entities.  The results of all entities are merged in the order of the entities using occurrenceLimit.
+     *
+     * @param rule            the rule to return the results of
+     * @param gtfsMetadata    Data structures that contain processed information about the GTFS data
+     * @param occurrenceLimit the limit for the number of occurrences stored for each rule
+     * @param feedMessage     the message to return the results of the rule for
+     * @param validateEntity  validates a message with a single entity using the rule, and returns the results with occurrence counts set
+     * @return the results of the provided rule for feedMessage
+     */
+    List<ErrorListHelperModel> validate(EntityLocalValidator rule, GtfsMetadata gtfsMetadata, OccurrenceLimit occurrenceLimit, GtfsRealtime.FeedMessage feedMessage, Function<GtfsRealtime.FeedMessage, List<ErrorListHelperModel>> validateEntity) {
+        RuleCache previous = mRuleCaches.get(rule);
+        Map<String, EntityResults> previousResults = previous != null && previous.gtfsMetadata == gtfsMetadata ? previous.entityResults : new HashMap<>();
+        Map<String, EntityResults> currentResults = new HashMap<>(feedMessage.getEntityCount() * 2);
+
+        Map<String, List<ErrorListHelperModel>> errorListsById = new LinkedHashMap<>();
+        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
+            EntityResults results = previousResults.get(entity.getId());
+            if (results == null || !results.entity.equals(entity)) {
+                GtfsRealtime.FeedMessage entityMessage = GtfsRealtime.FeedMessage.newBuilder()
+                        .setHeader(feedMessage.getHeader())
+                        .addEntity(entity)
+                        .build();
+                List<CachedErrorList> errorLists = new ArrayList<>();
+                for (ErrorListHelperModel errorList : validateEntity.apply(entityMessage)) {
+                    errorLists.add(new CachedErrorList(errorList));
+                }
+                results = new EntityResults(entity, errorLists);
+            }
+            currentResults.put(entity.getId(), results);
+            for (CachedErrorList errorList : results.errorLists) {
+                errorListsById.computeIfAbsent(errorList.validationRule.getErrorId(), k -> new ArrayList<>()).add(errorList.toErrorList());
+            }
+        }
+        mRuleCaches.put(rule, new RuleCache(gtfsMetadata, currentResults));
+
+        List<ErrorListHelperModel> merged = new ArrayList<>();
+        for (List<ErrorListHelperModel> errorLists : errorListsById.values()) {
+            merged.add(occurrenceLimit.merge(errorLists));
+        }
+        return merged;
+    }
+
+    /**
+     * Discards the results of all rules, so all entities of the next message are validated
+     */
+    public void clear() {
+        mRuleCaches.clear();
+    }
+}
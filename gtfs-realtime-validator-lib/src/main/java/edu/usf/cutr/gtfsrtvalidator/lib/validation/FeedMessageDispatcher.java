@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementVisitor;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import org.onebusaway.gtfs.services.GtfsMutableDao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Walks a GTFS-realtime message once and passes each element (header, entity, trip_update, stop_time_update, vehicle,
+ * alert) to all FeedElementVisitors, so rules implementing FeedElementValidator don't each loop over the message
+ */
+public class FeedMessageDispatcher {
+
+    private FeedMessageDispatcher() {
+    }
+
+    /**
+     * Creates a visitor for each of the provided rules that implements FeedElementValidator, and walks feedMessage
+     * once for all of those visitors.  Rules that don't implement FeedElementValidator are skipped, and must be
+     * validated using FeedEntityValidator.validate().
+     *
+     * @param rules       the rules to validate feedMessage against
+     * @param currentTimeMillis the current system time, in milliseconds
+     * @param gtfsData    GTFS schedule data
+     * @param gtfsMetadata Data structures that contain processed information about the GTFS data
+     * @param context     Information about feedMessage that is shared by all rules in this iteration
+     * @param feedMessage Current GTFS-rt data that was most recently captured (should NOT be equal to previousFeedMessage)
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
+     * @param combinedFeedMessage A GTFS-rt message that includes entities from all GTFS-rt feeds being monitored simultaneously for the same GTFS dataset.  If only one GTFS-rt feed is being monitored for the GTFS dataset, then this is null.
+     * @return a map of each FeedElementValidator in rules to its visitor, from which the errors and warnings for that rule can be retrieved using getErrors()
+     */
+    public static Map<FeedEntityValidator, FeedElementVisitor> dispatch(List<FeedEntityValidator> rules, long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        Map<FeedEntityValidator, FeedElementVisitor> visitors = new LinkedHashMap<>();
+        for (FeedEntityValidator rule : rules) {
+            if (rule instanceof FeedElementValidator) {
+                visitors.put(rule, ((FeedElementValidator) rule).newVisitor(currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage));
+            }
+        }
+        if (!visitors.isEmpty()) {
+            dispatch(feedMessage, new ArrayList<>(visitors.values()));
+        }
+        return visitors;
+    }
+
+    /**
+     * Walks feedMessage once, passing each element to all of the provided visitors in order
+     *
+     * @param feedMessage the GTFS-realtime message to walk
+     * @param visitors    the visitors to pass the elements of feedMessage to
+     */
+    public static void dispatch(GtfsRealtime.FeedMessage feedMessage, List<FeedElementVisitor> visitors) {
+        FeedElementVisitor[] v = visitors.toArray(new FeedElementVisitor[visitors.size()]);
+        GtfsRealtime.FeedHeader header = feedMessage.getHeader();
+        for (FeedElementVisitor visitor : v) {
+            visitor.onHeader(header);
+        }
+        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
+            for (FeedElementVisitor visitor : v) {
+                visitor.onEntity(entity);
+            }
+            if (entity.hasTripUpdate()) {
+                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
+                for (FeedElementVisitor visitor : v) {
+                    visitor.onTripUpdate(entity, tripUpdate);
+                }
+                for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : tripUpdate.getStopTimeUpdateList()) {
+                    for (FeedElementVisitor visitor : v) {
+                        visitor.onStopTimeUpdate(entity, tripUpdate, stopTimeUpdate);
+                    }
+                }
+            }
+            if (entity.hasVehicle()) {
+                GtfsRealtime.VehiclePosition vehiclePosition = entity.getVehicle();
+                for (FeedElementVisitor visitor : v) {
+                    visitor.onVehicle(entity, vehiclePosition);
+                }
+            }
+            if (entity.hasAlert()) {
+                GtfsRealtime.Alert alert = entity.getAlert();
+                for (FeedElementVisitor visitor : v) {
+                    visitor.onAlert(entity, alert);
+                }
+            }
+        }
+    }
+}
@@ -17,6 +17,9 @@
 
 package edu.usf.cutr.gtfsrtvalidator.lib.validation;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
 import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
 import org.locationtech.spatial4j.distance.DistanceUtils;
@@ -27,8 +30,15 @@ import org.onebusaway.gtfs.model.*;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.hibernate.internal.util.StringHelper.isEmpty;
 
@@ -43,26 +53,54 @@ public class GtfsMetadata {
     public static final double REGION_BUFFER_METERS = 1609; // Roughly 1 mile
     public static final double TRIP_BUFFER_METERS = 200; // Roughly 1/8 of a mile
     public static final double TRIP_BUFFER_DEGREES = DistanceUtils.KM_TO_DEG * (TRIP_BUFFER_METERS / 1000.0d);
+    private static final double REGION_BUFFER_DEGREES = DistanceUtils.KM_TO_DEG * (REGION_BUFFER_METERS / 1000.0d);
+
+    // Maximum number of shape polylines (and of shape segment indexes) to keep in memory
+    public static final int MAX_CACHED_SHAPES = 1000;
 
     String mFeedUrl;
     TimeZone mTimeZone;
 
     private Set<String> mAgencyIds = new HashSet<>();
-    private Set<String> mRouteIds = new HashSet<>();
-    // Maps trip_ids to the GTFS trip
-    private Map<String, Trip> mTrips = new HashMap<>();
-    // Maps trip_ids to a list of StopTimes
-    private Map<String, List<StopTime>> mTripStopTimes = new HashMap<>();
-    private Set<String> mStopIds = new HashSet<>();
+    private IdDictionary mRouteIds = new IdDictionary();
+
+    /**
+     * GTFS trips.txt - each trip_id has an index in mTripIds, and the data for the trip is stored at that index in
+     * the mTrip* arrays.  route_ids and shape_ids are stored as indexes into mRouteIds and mShapeIds, or -1 if not set.
+     */
+    private IdDictionary mTripIds = new IdDictionary();
+    private int[] mTripRouteIndexes;
+    private String[] mTripBlockIds;
+    private String[] mTripDirectionIds;
+    private int[] mTripShapeIndexes;
+    // stop_times.txt records for each trip sorted by stop_sequence, or null if the trip doesn't have any stop_times
+    private TripStopTimes[] mTripStopTimes;
+
+    // GTFS stops.txt - stops.txt location_type is stored at the index of the stop_id in mStopIds
+    private IdDictionary mStopIds = new IdDictionary();
+    private int[] mStopLocationTypes;
+
     private Set<String> mExactTimesZeroTripIds = new HashSet<>();
     // Maps trip_id to a list of Frequency objects
     private Map<String, List<Frequency>> mExactTimesOneTrips = new HashMap<>();
-    // Maps shape_id to a list of ShapePoints
-    private Map<String, List<ShapePoint>> mShapePoints = new HashMap<>();
-    // Map trip_id to a polyline of the trip shape from shapes.txt
-    private Map<String, Shape> mTripShapes = new HashMap<>();
-    // Map trip_id to a buffered polyline of the trip shape from shapes.txt
-    private Map<String, Shape> mTripShapesBuffered = new ConcurrentHashMap<>();
+
+    /**
+     * GTFS shapes.txt - the points of each shape, sorted by shape_pt_sequence, are stored at the index of the shape_id
+     * in mShapeIds as a coordinate array of {lon0, lat0, lon1, lat1, ...}
+     */
+    private IdDictionary mShapeIds = new IdDictionary();
+    private List<double[]> mShapeCoordinates = new ArrayList<>();
+    /**
+     * Polylines of shapes from shapes.txt, and segment indexes used to check if points are within TRIP_BUFFER_METERS
+     * of them, keyed by shape index.  These are only built for shapes that are used in validation, and only the most
+     * recently used ones are kept, so the memory they use doesn't grow with the size of shapes.txt.
+     */
+    private final LoadingCache<Integer, Shape> mShapes = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_SHAPES)
+            .build(CacheLoader.from(this::buildPolyline));
+    private final LoadingCache<Integer, ShapeSegmentIndex> mShapeSegmentIndexes = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_SHAPES)
+            .build(CacheLoader.from(shapeIndex -> new ShapeSegmentIndex(mShapeCoordinates.get(shapeIndex), TRIP_BUFFER_DEGREES)));
 
     // A geographic bounding box that includes all the stops from GTFS stops.txt
     private Rectangle mStopBoundingBox;
@@ -76,16 +114,8 @@ public class GtfsMetadata {
     // A geographic bounding box that includes all the points from GTFS shapes.txt, if the GTFS feed includes shapes.txt, PLUS a buffer
     private Rectangle mShapeBoundingBoxWithBuffer = null;
 
-    /**
-     * key is stops.txt stop_id, value is stops.txt location_type
-     * <p>
-     * Note that we can't consolidate this with the mStopIds HashSet, because location_type is an optional
-     * field in stops.txt and therefore can be null.
-     */
-    private Map<String, Integer> mStopToLocationTypeMap = new HashMap<>();
-
     // A map of trips that visit a stop more than once, where the key is the trip_id and the value is a list of the stops visited more than once
-    private Map<String, List<String>> mTripsWithMultiStops = new HashMap<>();
+    private Map<String, List<String>> mTripsWithMultiStops = new ConcurrentHashMap<>();
 
     /**
      * Builds the metadata for a particular GTFS feed
@@ -113,115 +143,39 @@ public class GtfsMetadata {
         // Get all route_ids from the GTFS feed
         Collection<Route> gtfsRouteList = gtfsData.getAllRoutes();
         for (Route r : gtfsRouteList) {
-            mRouteIds.add(r.getId().getId());
+            mRouteIds.intern(r.getId().getId());
         }
 
         /**
-         * Process GTFS shapes.txt
+         * stops.txt, shapes.txt, stop_times.txt and frequencies.txt are processed in independent tasks - trips.txt is
+         * processed after they are done, as trips refer to the stops and shapes
          */
-        double regionBufferDegrees = DistanceUtils.KM_TO_DEG * (REGION_BUFFER_METERS / 1000.0d);
-
+        ForkJoinPool pool = ForkJoinPool.commonPool();
         ShapeFactory sf = JtsSpatialContext.GEO.getShapeFactory();
-        ShapeFactory.MultiPointBuilder shapeBuilder = sf.multiPoint();
-        Collection<ShapePoint> shapePoints = gtfsData.getAllShapePoints();
-        if (shapePoints != null && !ignoreShapes && shapePoints.size() > 3) {
-            for (ShapePoint p : shapePoints) {
-                String shapeId = p.getShapeId().getId();
-                // If there isn't already a list for this shape_id, create one
-                List<ShapePoint> shapePointList = mShapePoints.computeIfAbsent(shapeId, k -> new ArrayList<>());
-                shapePointList.add(p);
-                // Create GTFS shapes.txt bounding box
-                shapeBuilder.pointXY(p.getLon(), p.getLat());
-            }
-            _log.debug("Loaded shapes.txt points for " + feedUrl);
-
-            Shape shapePointShape = shapeBuilder.build();
-            mShapeBoundingBox = shapePointShape.getBoundingBox();
-            mShapeBoundingBoxWithBuffer = mShapeBoundingBox.getBuffered(regionBufferDegrees, mShapeBoundingBox.getContext()).getBoundingBox();
-            _log.debug("Generated shapes.txt bounding boxes for " + feedUrl);
-
-            // Order shape points by GTFS shapes.txt shape_pt_sequence
-            _log.debug("Sorting shape points for " + feedUrl + "...");
-            Collection<List<ShapePoint>> shapePointLists = mShapePoints.values();
-            for (List<ShapePoint> shapePointList : shapePointLists) {
-                shapePointList.sort(Comparator.comparing(shapePoint -> (shapePoint.getSequence())));
-            }
-            _log.debug("Shape points for " + feedUrl + " are sorted.");
-        }
+        ForkJoinTask<?> stopsTask = pool.submit(() -> processStops(gtfsData, sf));
+        ForkJoinTask<?> shapesTask = pool.submit(() -> processShapes(gtfsData, sf, ignoreShapes));
+        ForkJoinTask<?> frequenciesTask = pool.submit(() -> processFrequencies(gtfsData));
+        ForkJoinTask<Map<String, List<StopTime>>> stopTimesTask = pool.submit(() -> groupStopTimes(gtfsData));
+        stopsTask.join();
+        shapesTask.join();
+        frequenciesTask.join();
+        processTrips(gtfsData, stopTimesTask.join());
+        trimToSize();
 
-        // Get all StopTimes and map them to trip_ids
-        for (StopTime stopTime : gtfsData.getAllStopTimes()) {
-            String tripId = stopTime.getTrip().getId().getId();
-
-            // If there isn't already a list for this trip, create one
-            List<StopTime> stopTimes = mTripStopTimes.computeIfAbsent(tripId, k -> new ArrayList<>());
-            stopTimes.add(stopTime);
-        }
-
-        /**
-         * Process GTFS trips.txt - this is a long-running operation for feeds with huge shapes.txt, so log to INFO
-         */
-        _log.info("Processing trips and building trip shapes for " + feedUrl + "...");
-        long tripStartTime = System.nanoTime();
-        Collection<Trip> gtfsTripList = gtfsData.getAllTrips();
-        for (Trip trip : gtfsTripList) {
-            String tripId = trip.getId().getId();
-            mTrips.put(tripId, trip);
-
-            List<StopTime> stopTimes = mTripStopTimes.get(tripId);
-            if (stopTimes != null) {
-                // Make sure StopTimes are sorted by stop_sequence for this trip (stop_times.txt isn't necessary sorted)
-                stopTimes.sort(Comparator.comparing(stopTime -> (stopTime.getStopSequence())));
-            }
-
-            // Create a polyline for each trip if the GTFS shapes.txt data exists
-            AgencyAndId shapeAgencyAndId = trip.getShapeId();
-            if (shapeAgencyAndId != null && !isEmpty(shapeAgencyAndId.getId())) {
-                List<ShapePoint> tripShape = mShapePoints.get(shapeAgencyAndId.getId());
-                if (tripShape != null) {
-                    ShapeFactory.LineStringBuilder lineBuilder = sf.lineString();
-                    for (ShapePoint p : tripShape) {
-                        lineBuilder.pointXY(p.getLon(), p.getLat());
-                    }
-                    mTripShapes.put(tripId, lineBuilder.build());
-                }
-            }
-        }
-        TimestampUtils.logDuration(_log, "Trips polylines processed for " + feedUrl + " in ", tripStartTime);
-
-        /**
-         * Process GTFS stop_times.txt
-         */
-        long stopTimesStartTime = System.nanoTime();
-        for (Map.Entry<String, List<StopTime>> tripStopTimes : mTripStopTimes.entrySet()) {
-            // Create the map of trip_ids to List of stop_ids for trips that visit a stop more than once
-            String tripId = tripStopTimes.getKey();
-            Set<String> allStopIds = new HashSet<>();
-            List<String> duplicateStopIds = new ArrayList<>();
-
-            for (StopTime stopTime : tripStopTimes.getValue()) {
-                if (allStopIds.contains(stopTime.getStop().getId().getId())) {
-                    // If we've already seen this stop_id for this trip, then add it to the duplicates list
-                    duplicateStopIds.add(stopTime.getStop().getId().getId());
-                }
-                allStopIds.add(stopTime.getStop().getId().getId());
-            }
-
-            if (!duplicateStopIds.isEmpty()) {
-                mTripsWithMultiStops.put(tripId, duplicateStopIds);
-            }
-        }
-        TimestampUtils.logDuration(_log, "Repeated stop_ids for trips in stop_times.txt processed for " + feedUrl + " in ", stopTimesStartTime);
+        TimestampUtils.logDuration(_log, "Built GtfsMetadata for " + feedUrl + " in ", startTime);
+    }
 
-        /**
-         * Process GTFS stops.txt
-         */
+    /**
+     * Process GTFS stops.txt
+     */
+    private void processStops(GtfsMutableDao gtfsData, ShapeFactory sf) {
+        long startTime = System.nanoTime();
         ShapeFactory.MultiPointBuilder stopBuilder = sf.multiPoint();
         Collection<Stop> stops = gtfsData.getAllStops();
+        mStopLocationTypes = new int[stops.size()];
         for (Stop stop : stops) {
-            // Create a set of stop_ids from the GTFS feeds stops.txt, and store their location_type in a map
-            mStopIds.add(stop.getId().getId());
-            mStopToLocationTypeMap.put(stop.getId().getId(), stop.getLocationType());
+            // Store the location_type of each stop_id from the GTFS feeds stops.txt
+            mStopLocationTypes[mStopIds.intern(stop.getId().getId())] = stop.getLocationType();
             // Create GTFS stops.txt bounding box
             if (stop.isLonSet() && stop.isLatSet()) {
                 stopBuilder.pointXY(stop.getLon(), stop.getLat());
@@ -230,11 +184,121 @@ public class GtfsMetadata {
 
         Shape stopShape = stopBuilder.build();
         mStopBoundingBox = stopShape.getBoundingBox();
-        mStopBoundingBoxWithBuffer = mStopBoundingBox.getBuffered(regionBufferDegrees, mStopBoundingBox.getContext()).getBoundingBox();
+        mStopBoundingBoxWithBuffer = mStopBoundingBox.getBuffered(REGION_BUFFER_DEGREES, mStopBoundingBox.getContext()).getBoundingBox();
+        TimestampUtils.logDuration(_log, "stops.txt processed for " + mFeedUrl + " in ", startTime);
+    }
 
-        /**
-         * Process GTFS frequencies.txt
-         */
+    /**
+     * Process GTFS shapes.txt - this is a long-running operation for feeds with huge shapes.txt, so shapes are sorted
+     * in parallel.  Polylines of the shapes are built later when they are needed.
+     */
+    private void processShapes(GtfsMutableDao gtfsData, ShapeFactory sf, boolean ignoreShapes) {
+        Collection<ShapePoint> shapePoints = gtfsData.getAllShapePoints();
+        if (shapePoints == null || ignoreShapes || shapePoints.size() <= 3) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        // Maps shape_id to a list of ShapePoints, which are only held until they are copied to coordinate arrays
+        Map<String, List<ShapePoint>> shapePointLists = shapePoints.parallelStream()
+                .collect(Collectors.groupingByConcurrent(p -> p.getShapeId().getId()));
+        TimestampUtils.logDuration(_log, "Loaded shapes.txt points for " + mFeedUrl + " in ", startTime);
+
+        // Create GTFS shapes.txt bounding box
+        long boundingBoxStartTime = System.nanoTime();
+        ShapeFactory.MultiPointBuilder shapeBuilder = sf.multiPoint();
+        for (ShapePoint p : shapePoints) {
+            shapeBuilder.pointXY(p.getLon(), p.getLat());
+        }
+        Shape shapePointShape = shapeBuilder.build();
+        mShapeBoundingBox = shapePointShape.getBoundingBox();
+        mShapeBoundingBoxWithBuffer = mShapeBoundingBox.getBuffered(REGION_BUFFER_DEGREES, mShapeBoundingBox.getContext()).getBoundingBox();
+        TimestampUtils.logDuration(_log, "Generated shapes.txt bounding boxes for " + mFeedUrl + " in ", boundingBoxStartTime);
+
+        // Order shape points by GTFS shapes.txt shape_pt_sequence
+        long sortStartTime = System.nanoTime();
+        List<String> shapeIds = new ArrayList<>(shapePointLists.keySet());
+        double[][] coordinates = new double[shapeIds.size()][];
+        IntStream.range(0, shapeIds.size()).parallel().forEach(i -> {
+            List<ShapePoint> shapePointList = shapePointLists.get(shapeIds.get(i));
+            shapePointList.sort(Comparator.comparing(shapePoint -> (shapePoint.getSequence())));
+            coordinates[i] = new double[shapePointList.size() * 2];
+            for (int j = 0; j < shapePointList.size(); j++) {
+                coordinates[i][j * 2] = shapePointList.get(j).getLon();
+                coordinates[i][j * 2 + 1] = shapePointList.get(j).getLat();
+            }
+        });
+        for (int i = 0; i < shapeIds.size(); i++) {
+            addShape(shapeIds.get(i), coordinates[i]);
+        }
+        TimestampUtils.logDuration(_log, "Sorted shape points for " + mFeedUrl + " in ", sortStartTime);
+    }
+
+    /**
+     * Get all StopTimes and map them to trip_ids - the StopTimes are only held until they are copied to TripStopTimes
+     *
+     * @return a map of trip_id to the unsorted StopTimes for that trip
+     */
+    private Map<String, List<StopTime>> groupStopTimes(GtfsMutableDao gtfsData) {
+        long startTime = System.nanoTime();
+        Map<String, List<StopTime>> stopTimeLists = gtfsData.getAllStopTimes().parallelStream()
+                .collect(Collectors.groupingByConcurrent(stopTime -> stopTime.getTrip().getId().getId()));
+        TimestampUtils.logDuration(_log, "Grouped stop_times.txt by trip for " + mFeedUrl + " in ", startTime);
+        return stopTimeLists;
+    }
+
+    /**
+     * Process GTFS trips.txt and stop_times.txt - this is a long-running operation for feeds with huge stop_times.txt,
+     * so stop_times are sorted and repeated stops are found for each trip in parallel.  Stops and shapes must already
+     * be processed.
+     *
+     * @param stopTimeLists a map of trip_id to the unsorted StopTimes for that trip
+     */
+    private void processTrips(GtfsMutableDao gtfsData, Map<String, List<StopTime>> stopTimeLists) {
+        _log.info("Processing trips and stop_times for " + mFeedUrl + "...");
+        long startTime = System.nanoTime();
+        Collection<Trip> gtfsTripList = gtfsData.getAllTrips();
+        initTrips(gtfsTripList.size());
+        // block_id and direction_id values are shared by many trips, so only keep one copy of each value
+        Map<String, String> tripValues = new HashMap<>();
+        for (Trip trip : gtfsTripList) {
+            int tripIndex = mTripIds.intern(trip.getId().getId());
+            mTripRouteIndexes[tripIndex] = trip.getRoute() != null ? mRouteIds.intern(trip.getRoute().getId().getId()) : -1;
+            mTripBlockIds[tripIndex] = intern(tripValues, trip.getBlockId());
+            mTripDirectionIds[tripIndex] = intern(tripValues, trip.getDirectionId());
+            AgencyAndId shapeAgencyAndId = trip.getShapeId();
+            mTripShapeIndexes[tripIndex] = shapeAgencyAndId != null && !isEmpty(shapeAgencyAndId.getId()) ? mShapeIds.indexOf(shapeAgencyAndId.getId()) : -1;
+        }
+
+        // The dictionaries aren't modified from here on, so they can be read from many threads
+        IntStream.range(0, mTripIds.size()).parallel().forEach(tripIndex -> {
+            List<StopTime> stopTimes = stopTimeLists.get(mTripIds.get(tripIndex));
+            if (stopTimes == null) {
+                return;
+            }
+            // Make sure StopTimes are sorted by stop_sequence for this trip (stop_times.txt isn't necessary sorted)
+            stopTimes.sort(Comparator.comparing(stopTime -> (stopTime.getStopSequence())));
+            int[] stopSequences = new int[stopTimes.size()];
+            int[] stopIndexes = new int[stopTimes.size()];
+            int[] arrivalTimes = new int[stopTimes.size()];
+            int[] departureTimes = new int[stopTimes.size()];
+            for (int i = 0; i < stopTimes.size(); i++) {
+                StopTime stopTime = stopTimes.get(i);
+                stopSequences[i] = stopTime.getStopSequence();
+                // GtfsReader only links a StopTime to a Stop from stops.txt, so its stop_id is always in the dictionary
+                stopIndexes[i] = mStopIds.indexOf(stopTime.getStop().getId().getId());
+                arrivalTimes[i] = stopTime.getArrivalTime();
+                departureTimes[i] = stopTime.getDepartureTime();
+            }
+            addTripStopTimes(tripIndex, new TripStopTimes(mStopIds, stopSequences, stopIndexes, arrivalTimes, departureTimes));
+        });
+        TimestampUtils.logDuration(_log, "Trips and stop_times processed for " + mFeedUrl + " in ", startTime);
+    }
+
+    /**
+     * Process GTFS frequencies.txt
+     */
+    private void processFrequencies(GtfsMutableDao gtfsData) {
+        long startTime = System.nanoTime();
         Collection<Frequency> frequencies = gtfsData.getAllFrequencies();
         for (Frequency f : frequencies) {
             if (f.getExactTimes() == 0) {
@@ -250,34 +314,359 @@ public class GtfsMetadata {
                 mExactTimesOneTrips.put(f.getTrip().getId().getId(), frequencyList);
             }
         }
+        TimestampUtils.logDuration(_log, "frequencies.txt processed for " + mFeedUrl + " in ", startTime);
+    }
 
-        TimestampUtils.logDuration(_log, "Built GtfsMetadata for " + feedUrl + " in ", startTime);
+    /**
+     * Reads metadata that was written by writeSnapshot()
+     *
+     * @param in the snapshot to read, positioned after the snapshot header
+     * @throws IOException if the snapshot can't be read
+     */
+    GtfsMetadata(DataInput in) throws IOException {
+        long startTime = System.nanoTime();
+        mFeedUrl = in.readUTF();
+        String timeZone = readNullableUTF(in);
+        mTimeZone = timeZone != null ? TimeZone.getTimeZone(timeZone) : null;
+        ShapeFactory sf = JtsSpatialContext.GEO.getShapeFactory();
+
+        readStrings(in, mAgencyIds);
+        int routeCount = in.readInt();
+        for (int i = 0; i < routeCount; i++) {
+            mRouteIds.intern(in.readUTF());
+        }
+
+        // Stops, routes and shapes are written in index order, so trips and stop_times can refer to them by index
+        int stopCount = in.readInt();
+        mStopLocationTypes = new int[stopCount];
+        for (int i = 0; i < stopCount; i++) {
+            mStopIds.intern(in.readUTF());
+            mStopLocationTypes[i] = in.readInt();
+        }
+        mStopBoundingBox = readRectangle(in, sf);
+        mStopBoundingBoxWithBuffer = readRectangle(in, sf);
+        if (in.readBoolean()) {
+            mShapeBoundingBox = readRectangle(in, sf);
+            mShapeBoundingBoxWithBuffer = readRectangle(in, sf);
+        }
+
+        int shapeCount = in.readInt();
+        for (int i = 0; i < shapeCount; i++) {
+            String shapeId = in.readUTF();
+            double[] coordinates = new double[in.readInt()];
+            for (int j = 0; j < coordinates.length; j++) {
+                coordinates[j] = in.readDouble();
+            }
+            addShape(shapeId, coordinates);
+        }
+
+        int tripCount = in.readInt();
+        initTrips(tripCount);
+        Map<String, String> tripValues = new HashMap<>();
+        for (int i = 0; i < tripCount; i++) {
+            String tripId = in.readUTF();
+            mTripIds.intern(tripId);
+            mTripRouteIndexes[i] = in.readInt();
+            mTripBlockIds[i] = intern(tripValues, readNullableUTF(in));
+            mTripDirectionIds[i] = intern(tripValues, readNullableUTF(in));
+            mTripShapeIndexes[i] = in.readInt();
+
+            // Stop times are written sorted by stop_sequence
+            int stopTimeCount = in.readInt();
+            if (stopTimeCount >= 0) {
+                int[] stopSequences = new int[stopTimeCount];
+                int[] stopIndexes = new int[stopTimeCount];
+                int[] arrivalTimes = new int[stopTimeCount];
+                int[] departureTimes = new int[stopTimeCount];
+                for (int j = 0; j < stopTimeCount; j++) {
+                    stopSequences[j] = in.readInt();
+                    stopIndexes[j] = in.readInt();
+                    arrivalTimes[j] = in.readInt();
+                    departureTimes[j] = in.readInt();
+                }
+                addTripStopTimes(i, new TripStopTimes(mStopIds, stopSequences, stopIndexes, arrivalTimes, departureTimes));
+            }
+
+            int frequencyCount = in.readInt();
+            for (int j = 0; j < frequencyCount; j++) {
+                Frequency f = new Frequency();
+                f.setStartTime(in.readInt());
+                f.setEndTime(in.readInt());
+                f.setHeadwaySecs(in.readInt());
+                f.setExactTimes(1);
+                mExactTimesOneTrips.computeIfAbsent(tripId, k -> new ArrayList<>()).add(f);
+            }
+        }
+        trimToSize();
+        readStrings(in, mExactTimesZeroTripIds);
+        TimestampUtils.logDuration(_log, "Read GtfsMetadata snapshot for " + mFeedUrl + " in ", startTime);
+    }
+
+    /**
+     * Writes the fields of this metadata that are used in rule validation, to be read by GtfsMetadata(DataInput)
+     *
+     * @param out the snapshot to write to, positioned after the snapshot header
+     * @throws IOException if the snapshot can't be written
+     */
+    void writeSnapshot(DataOutput out) throws IOException {
+        out.writeUTF(mFeedUrl);
+        writeNullableUTF(out, mTimeZone != null ? mTimeZone.getID() : null);
+
+        writeStrings(out, mAgencyIds);
+        out.writeInt(mRouteIds.size());
+        for (int i = 0; i < mRouteIds.size(); i++) {
+            out.writeUTF(mRouteIds.get(i));
+        }
+
+        out.writeInt(mStopIds.size());
+        for (int i = 0; i < mStopIds.size(); i++) {
+            out.writeUTF(mStopIds.get(i));
+            out.writeInt(getStopLocationType(i));
+        }
+        writeRectangle(out, mStopBoundingBox);
+        writeRectangle(out, mStopBoundingBoxWithBuffer);
+        out.writeBoolean(mShapeBoundingBox != null);
+        if (mShapeBoundingBox != null) {
+            writeRectangle(out, mShapeBoundingBox);
+            writeRectangle(out, mShapeBoundingBoxWithBuffer);
+        }
+
+        out.writeInt(mShapeIds.size());
+        for (int i = 0; i < mShapeIds.size(); i++) {
+            out.writeUTF(mShapeIds.get(i));
+            double[] coordinates = mShapeCoordinates.get(i);
+            out.writeInt(coordinates.length);
+            for (double coordinate : coordinates) {
+                out.writeDouble(coordinate);
+            }
+        }
+
+        out.writeInt(mTripIds.size());
+        for (int i = 0; i < mTripIds.size(); i++) {
+            String tripId = mTripIds.get(i);
+            out.writeUTF(tripId);
+            out.writeInt(mTripRouteIndexes[i]);
+            writeNullableUTF(out, mTripBlockIds[i]);
+            writeNullableUTF(out, mTripDirectionIds[i]);
+            out.writeInt(mTripShapeIndexes[i]);
+
+            TripStopTimes stopTimes = mTripStopTimes[i];
+            if (stopTimes == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(stopTimes.size());
+                for (int j = 0; j < stopTimes.size(); j++) {
+                    out.writeInt(stopTimes.getStopSequence(j));
+                    out.writeInt(stopTimes.getStopIndex(j));
+                    out.writeInt(stopTimes.getArrivalTime(j));
+                    out.writeInt(stopTimes.getDepartureTime(j));
+                }
+            }
+
+            List<Frequency> frequencies = mExactTimesOneTrips.getOrDefault(tripId, Collections.emptyList());
+            out.writeInt(frequencies.size());
+            for (Frequency f : frequencies) {
+                out.writeInt(f.getStartTime());
+                out.writeInt(f.getEndTime());
+                out.writeInt(f.getHeadwaySecs());
+            }
+        }
+        writeStrings(out, mExactTimesZeroTripIds);
+    }
+
+    private void initTrips(int tripCount) {
+        mTripRouteIndexes = new int[tripCount];
+        mTripBlockIds = new String[tripCount];
+        mTripDirectionIds = new String[tripCount];
+        mTripShapeIndexes = new int[tripCount];
+        mTripStopTimes = new TripStopTimes[tripCount];
+    }
+
+    private void trimToSize() {
+        mRouteIds.trimToSize();
+        mTripIds.trimToSize();
+        mStopIds.trimToSize();
+        mShapeIds.trimToSize();
+    }
+
+    /**
+     * Adds a shape
+     *
+     * @param shapeId     GTFS shapes.txt shape_id
+     * @param coordinates points of the shape sorted by shape_pt_sequence, as {lon0, lat0, lon1, lat1, ...}
+     */
+    private void addShape(String shapeId, double[] coordinates) {
+        mShapeIds.intern(shapeId);
+        mShapeCoordinates.add(coordinates);
+    }
+
+    private Shape buildPolyline(int shapeIndex) {
+        double[] coordinates = mShapeCoordinates.get(shapeIndex);
+        ShapeFactory.LineStringBuilder lineBuilder = JtsSpatialContext.GEO.getShapeFactory().lineString();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            lineBuilder.pointXY(coordinates[i], coordinates[i + 1]);
+        }
+        return lineBuilder.build();
+    }
+
+    /**
+     * Stores the stop_times for a trip, and records the trip in mTripsWithMultiStops if it visits a stop more than once
+     *
+     * @param tripIndex index of the trip in mTripIds
+     * @param stopTimes stop_times for the trip, sorted by stop_sequence
+     */
+    private void addTripStopTimes(int tripIndex, TripStopTimes stopTimes) {
+        mTripStopTimes[tripIndex] = stopTimes;
+
+        // Create the map of trip_ids to List of stop_ids for trips that visit a stop more than once
+        Set<Integer> allStopIndexes = new HashSet<>();
+        List<String> duplicateStopIds = new ArrayList<>();
+        for (int i = 0; i < stopTimes.size(); i++) {
+            if (!allStopIndexes.add(stopTimes.getStopIndex(i))) {
+                // If we've already seen this stop_id for this trip, then add it to the duplicates list
+                duplicateStopIds.add(stopTimes.getStopId(i));
+            }
+        }
+        if (!duplicateStopIds.isEmpty()) {
+            mTripsWithMultiStops.put(mTripIds.get(tripIndex), duplicateStopIds);
+        }
+    }
+
+    /**
+     * Returns the single copy of the provided value kept in values, so trips with the same value share one String
+     */
+    private static String intern(Map<String, String> values, String value) {
+        if (value == null) {
+            return null;
+        }
+        String existing = values.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    private static void writeStrings(DataOutput out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static void readStrings(DataInput in, Collection<String> strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    private static void writeNullableUTF(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeRectangle(DataOutput out, Rectangle rectangle) throws IOException {
+        out.writeDouble(rectangle.getMinX());
+        out.writeDouble(rectangle.getMaxX());
+        out.writeDouble(rectangle.getMinY());
+        out.writeDouble(rectangle.getMaxY());
+    }
+
+    private static Rectangle readRectangle(DataInput in, ShapeFactory sf) throws IOException {
+        return sf.rect(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
     }
 
     public Set<String> getRouteIds() {
-        return mRouteIds;
+        return mRouteIds.ids();
     }
 
     /**
-     * Returns a map where key is trips.txt trip_id, and value is an object representing the GTFS trip
+     * Returns the trips.txt trip_ids in the GTFS feed
      *
-     * @return a map where key is trips.txt trip_id, and value is an object representing the GTFS trip
+     * @return the trips.txt trip_ids in the GTFS feed
      */
-    public Map<String, Trip> getTrips() {
-        return mTrips;
+    public Set<String> getTripIds() {
+        return mTripIds.ids();
+    }
+
+    /**
+     * Returns true if the provided trip_id is in GTFS trips.txt, false if it is not
+     *
+     * @param tripId GTFS trip_id
+     * @return true if the provided trip_id is in GTFS trips.txt, false if it is not
+     */
+    public boolean hasTrip(String tripId) {
+        return mTripIds.indexOf(tripId) != -1;
+    }
+
+    /**
+     * Returns the trips.txt route_id of the provided trip, or null if the trip isn't in GTFS trips.txt
+     *
+     * @param tripId GTFS trip_id
+     * @return the trips.txt route_id of the provided trip, or null if the trip isn't in GTFS trips.txt
+     */
+    public String getTripRouteId(String tripId) {
+        int tripIndex = mTripIds.indexOf(tripId);
+        if (tripIndex == -1 || mTripRouteIndexes[tripIndex] == -1) {
+            return null;
+        }
+        return mRouteIds.get(mTripRouteIndexes[tripIndex]);
+    }
+
+    /**
+     * Returns the trips.txt block_id of the provided trip, or null if the trip doesn't have a block_id or isn't in GTFS trips.txt
+     *
+     * @param tripId GTFS trip_id
+     * @return the trips.txt block_id of the provided trip, or null if the trip doesn't have a block_id or isn't in GTFS trips.txt
+     */
+    public String getTripBlockId(String tripId) {
+        int tripIndex = mTripIds.indexOf(tripId);
+        return tripIndex != -1 ? mTripBlockIds[tripIndex] : null;
+    }
+
+    /**
+     * Returns the trips.txt direction_id of the provided trip, or null if the trip doesn't have a direction_id or isn't in GTFS trips.txt
+     *
+     * @param tripId GTFS trip_id
+     * @return the trips.txt direction_id of the provided trip, or null if the trip doesn't have a direction_id or isn't in GTFS trips.txt
+     */
+    public String getTripDirectionId(String tripId) {
+        int tripIndex = mTripIds.indexOf(tripId);
+        return tripIndex != -1 ? mTripDirectionIds[tripIndex] : null;
+    }
+
+    /**
+     * Returns the stop_times.txt records for the provided trip sorted by stop_sequence, or null if the trip isn't in GTFS trips.txt or doesn't have any stop_times
+     *
+     * @param tripId GTFS trip_id
+     * @return the stop_times.txt records for the provided trip sorted by stop_sequence, or null if the trip isn't in GTFS trips.txt or doesn't have any stop_times
+     */
+    public TripStopTimes getTripStopTimes(String tripId) {
+        int tripIndex = mTripIds.indexOf(tripId);
+        return tripIndex != -1 ? mTripStopTimes[tripIndex] : null;
     }
 
     public Set<String> getStopIds() {
-        return mStopIds;
+        return mStopIds.ids();
     }
 
     /**
-     * Returns a map where key is stops.txt stop_id, value is stops.txt location_type
+     * Returns the stops.txt location_type for the provided stop_id, or null if the stop_id isn't in GTFS stops.txt
      *
-     * @return a map where key is stops.txt stop_id, value is stops.txt location_type
+     * @param stopId GTFS stop_id
+     * @return the stops.txt location_type for the provided stop_id, or null if the stop_id isn't in GTFS stops.txt
      */
-    public Map<String, Integer> getStopToLocationTypeMap() {
-        return mStopToLocationTypeMap;
+    public Integer getStopLocationType(String stopId) {
+        int stopIndex = mStopIds.indexOf(stopId);
+        return stopIndex != -1 ? getStopLocationType(stopIndex) : null;
+    }
+
+    private int getStopLocationType(int stopIndex) {
+        // A stop_id that is only referenced from stop_times.txt doesn't have a location_type, which defaults to 0
+        return stopIndex < mStopLocationTypes.length ? mStopLocationTypes[stopIndex] : 0;
     }
 
     public Set<String> getExactTimesZeroTripIds() {
@@ -293,15 +682,6 @@ public class GtfsMetadata {
         return mExactTimesOneTrips;
     }
 
-    /**
-     * Returns a map where key is trips.txt trip_id, and the value is a list of StopTime objects from stop_times.txt sorted by stop_sequence
-     *
-     * @return a map where key is trips.txt trip_id, and the value is a list of StopTime objects from stop_times.txt sorted by stop_sequence
-     */
-    public Map<String, List<StopTime>> getTripStopTimes() {
-        return mTripStopTimes;
-    }
-
     /**
      * Returns the agency_timezone from GTFS agency.txt, or null if the current time zone should be used.  Please refer to http://en.wikipedia.org/wiki/List_of_tz_zones for a list of valid values.
      *
@@ -348,44 +728,52 @@ public class GtfsMetadata {
     }
 
     /**
-     * Returns a map of GTFS shape_id to a list of ShapePoints from GTFS shapes.txt
+     * Returns the points of the provided shape from GTFS shapes.txt sorted by shape_pt_sequence, as
+     * {lon0, lat0, lon1, lat1, ...}, or null if the shape isn't in shapes.txt or shapes.txt was ignored
      *
-     * @return a map of GTFS shape_id to a list of ShapePoints from GTFS shapes.txt
+     * @param shapeId GTFS shape_id
+     * @return the points of the provided shape from GTFS shapes.txt sorted by shape_pt_sequence, as
+     * {lon0, lat0, lon1, lat1, ...}, or null if the shape isn't in shapes.txt or shapes.txt was ignored
      */
-    public Map<String, List<ShapePoint>> getShapePoints() {
-        return mShapePoints;
+    public double[] getShapeCoordinates(String shapeId) {
+        int shapeIndex = mShapeIds.indexOf(shapeId);
+        return shapeIndex != -1 ? mShapeCoordinates.get(shapeIndex) : null;
     }
 
     /**
-     * Returns a map of GTFS trip_ids to a polyline of that trip's shape from shapes.txt
+     * Returns a polyline of the provided trip's shape from shapes.txt, or null if a shape doesn't exist for the trip
      *
-     * @return a map of GTFS trip_ids to a polyline of that trip's shape from shapes.txt
+     * @param tripId the GTFS trip_id to retrieve the shape for
+     * @return a polyline of the provided trip's shape from shapes.txt, or null if a shape doesn't exist for the trip
      */
-    public Map<String, Shape> getTripShapes() {
-        return mTripShapes;
+    public Shape getTripShape(String tripId) {
+        int shapeIndex = getShapeIndexOfTrip(tripId);
+        return shapeIndex != -1 ? mShapes.getUnchecked(shapeIndex) : null;
     }
 
     /**
-     * Returns a buffered representation (TRIP_BUFFER_METERS) of a GTFS trip shape from shapes.txt for the given tripId,
-     * or null if a shape doesn't exist for the given tripId.
+     * Returns an index of the segments of a GTFS trip shape from shapes.txt for the given tripId, which checks if
+     * points are within TRIP_BUFFER_METERS of the trip shape, or null if a shape doesn't exist for the given tripId.
      * <p>
+     * Trips that share a shape_id share the same index, which is built when it is first requested and kept in a cache
+     * of the MAX_CACHED_SHAPES most recently used shapes.
      *
-     * @param tripId the GTFS trip_id to retrieve a buffered trip shape for
-     * @return a buffered representation (TRIP_BUFFER_METERS) of a GTFS trip shape from shapes.txt for the given tripId,
-     * or null if a shape doesn't exist for the given trip.
+     * @param tripId the GTFS trip_id to retrieve a trip shape index for
+     * @return an index of the segments of a GTFS trip shape from shapes.txt for the given tripId, which checks if
+     * points are within TRIP_BUFFER_METERS of the trip shape, or null if a shape doesn't exist for the given tripId
      */
-    public Shape getBufferedTripShape(String tripId) {
-        if (mTripShapes == null) {
-            // No shapes at all
-            return null;
-        }
-        Shape s = mTripShapes.get(tripId);
-        if (s == null) {
+    public ShapeSegmentIndex getTripShapeSegmentIndex(String tripId) {
+        int shapeIndex = getShapeIndexOfTrip(tripId);
+        if (shapeIndex == -1) {
             // No shape for this trip_id
             return null;
         }
-        // Create the buffered version of the trip shape if it doesn't yet exist
-        return mTripShapesBuffered.computeIfAbsent(tripId, k -> s.getBuffered(TRIP_BUFFER_DEGREES, s.getContext()));
+        return mShapeSegmentIndexes.getUnchecked(shapeIndex);
+    }
+
+    private int getShapeIndexOfTrip(String tripId) {
+        int tripIndex = mTripIds.indexOf(tripId);
+        return tripIndex != -1 ? mTripShapeIndexes[tripIndex] : -1;
     }
 
     /**
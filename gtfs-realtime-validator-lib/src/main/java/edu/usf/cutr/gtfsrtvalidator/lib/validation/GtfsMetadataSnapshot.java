@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Saves GtfsMetadata to a compact binary snapshot file next to the GTFS zip file, so the next time the same GTFS data
+ * is used the metadata can be read from the snapshot instead of reading the GTFS zip file and building the metadata
+ * again.  A snapshot is only used if the checksum of the GTFS zip file and the ignoreShapes setting match the ones it
+ * was written with.
+ */
+public class GtfsMetadataSnapshot {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(GtfsMetadataSnapshot.class);
+
+    public static final String SNAPSHOT_FILE_EXTENSION = ".metadata";
+    private static final int MAGIC = 0x47524d53; // "GRMS"
+    // Increment when the snapshot format changes, so snapshots written by older versions are rebuilt
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private GtfsMetadataSnapshot() {
+    }
+
+    /**
+     * Returns the snapshot file for the provided GTFS zip file
+     *
+     * @param gtfsFile the GTFS zip file
+     * @return the snapshot file for the provided GTFS zip file
+     */
+    public static File getSnapshotFile(File gtfsFile) {
+        return new File(gtfsFile.getAbsolutePath() + SNAPSHOT_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns true if a snapshot written for GTFS data with the provided checksum exists for the provided GTFS zip file
+     * (with either ignoreShapes setting), without reading the metadata.  This can be used to avoid loading GTFS data
+     * that would only be needed to build the metadata.
+     *
+     * @param gtfsFile the GTFS zip file
+     * @param checksum the checksum of the GTFS zip file
+     * @return true if a snapshot written for GTFS data with the provided checksum exists, false if it doesn't
+     */
+    public static boolean exists(File gtfsFile, byte[] checksum) {
+        File snapshotFile = getSnapshotFile(gtfsFile);
+        if (!snapshotFile.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            byte[] snapshotChecksum = new byte[in.readInt()];
+            in.readFully(snapshotChecksum);
+            return Arrays.equals(checksum, snapshotChecksum);
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the GtfsMetadata snapshot for the provided GTFS zip file, or returns null if there is no snapshot or the
+     * snapshot is for different GTFS data or settings
+     *
+     * @param gtfsFile     the GTFS zip file
+     * @param checksum     the checksum of the GTFS zip file
+     * @param ignoreShapes true if the metadata should have been built with the GTFS shapes.txt ignored
+     * @return the GtfsMetadata read from the snapshot, or null if there is no snapshot or the snapshot is for different
+     * GTFS data or settings
+     */
+    public static GtfsMetadata read(File gtfsFile, byte[] checksum, boolean ignoreShapes) {
+        File snapshotFile = getSnapshotFile(gtfsFile);
+        if (!snapshotFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                _log.info("GtfsMetadata snapshot " + snapshotFile + " is from a different version - rebuilding metadata");
+                return null;
+            }
+            byte[] snapshotChecksum = new byte[in.readInt()];
+            in.readFully(snapshotChecksum);
+            if (!Arrays.equals(checksum, snapshotChecksum) || in.readBoolean() != ignoreShapes) {
+                _log.info("GtfsMetadata snapshot " + snapshotFile + " is for different GTFS data or settings - rebuilding metadata");
+                return null;
+            }
+            return new GtfsMetadata(in);
+        } catch (IOException | RuntimeException e) {
+            _log.error("Error reading GtfsMetadata snapshot " + snapshotFile + " - rebuilding metadata: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the provided GtfsMetadata for the provided GTFS zip file.  The snapshot is written to a
+     * temporary file first, so a partially written snapshot is never read.  Errors are logged, as the snapshot is only
+     * used to speed up later runs.
+     *
+     * @param gtfsFile     the GTFS zip file that the metadata was built from
+     * @param checksum     the checksum of the GTFS zip file
+     * @param ignoreShapes true if the metadata was built with the GTFS shapes.txt ignored
+     * @param metadata     the metadata to write
+     */
+    public static void write(File gtfsFile, byte[] checksum, boolean ignoreShapes, GtfsMetadata metadata) {
+        long startTime = System.nanoTime();
+        File snapshotFile = getSnapshotFile(gtfsFile);
+        File tempFile = new File(snapshotFile.getAbsolutePath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(checksum.length);
+                out.write(checksum);
+                out.writeBoolean(ignoreShapes);
+                metadata.writeSnapshot(out);
+            }
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            TimestampUtils.logDuration(_log, "Wrote GtfsMetadata snapshot " + snapshotFile + " in ", startTime);
+        } catch (IOException | RuntimeException e) {
+            _log.error("Error writing GtfsMetadata snapshot " + snapshotFile + ": " + e);
+            tempFile.delete();
+        }
+    }
+}
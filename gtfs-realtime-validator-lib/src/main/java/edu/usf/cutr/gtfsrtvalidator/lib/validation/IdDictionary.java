@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import java.util.*;
+
+/**
+ * Assigns each GTFS id (e.g., stop_id, trip_id) a dense int index in the order the ids are first seen, so GtfsMetadata
+ * can store the data for each id in arrays instead of in objects and maps keyed by the id
+ */
+class IdDictionary {
+
+    private final Map<String, Integer> mIndexes = new HashMap<>();
+    private final ArrayList<String> mIds = new ArrayList<>();
+
+    /**
+     * Returns the index of the provided id, adding the id to the dictionary if it isn't already in it
+     *
+     * @param id the GTFS id
+     * @return the index of the provided id
+     */
+    int intern(String id) {
+        Integer index = mIndexes.get(id);
+        if (index == null) {
+            index = mIds.size();
+            mIndexes.put(id, index);
+            mIds.add(id);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the provided id, or -1 if the id isn't in the dictionary
+     *
+     * @param id the GTFS id
+     * @return the index of the provided id, or -1 if the id isn't in the dictionary
+     */
+    int indexOf(String id) {
+        Integer index = mIndexes.get(id);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the id with the provided index
+     *
+     * @param index the index of the id
+     * @return the id with the provided index
+     */
+    String get(int index) {
+        return mIds.get(index);
+    }
+
+    int size() {
+        return mIds.size();
+    }
+
+    /**
+     * Returns a read-only view of the ids in the dictionary
+     *
+     * @return a read-only view of the ids in the dictionary
+     */
+    Set<String> ids() {
+        return Collections.unmodifiableSet(mIndexes.keySet());
+    }
+
+    /**
+     * Releases any extra capacity after all ids have been added
+     */
+    void trimToSize() {
+        mIds.trimToSize();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Information about the GTFS-realtime message being validated in an iteration that is shared by all rules, so it's
+ * only computed once per message instead of once per rule or once per entity.  Each part of the context is computed
+ * the first time a rule asks for it.
+ * <p>
+ * This class is thread-safe, so rules for the same iteration can run concurrently.
+ */
+public class IterationContext {
+
+    private final GtfsRealtime.FeedMessage mFeedMessage;
+
+    // trip_ids and route_ids from the informed_entity.trip of alerts with the DETOUR effect
+    private volatile DetourIndex mDetourIndex;
+
+    private static class DetourIndex {
+        final Set<String> tripIds = new HashSet<>();
+        final Set<String> routeIds = new HashSet<>();
+    }
+
+    /**
+     * @param feedMessage the GTFS-realtime message being validated in this iteration
+     */
+    public IterationContext(GtfsRealtime.FeedMessage feedMessage) {
+        mFeedMessage = feedMessage;
+    }
+
+    public GtfsRealtime.FeedMessage getFeedMessage() {
+        return mFeedMessage;
+    }
+
+    /**
+     * Returns true if there is a DETOUR service alert for either the provided trip_id or the provided route_id, or false if there is not
+     *
+     * @param tripId  trip_id to check in the service alerts
+     * @param routeId route_id to check in the service alerts, or null if there isn't a route_id
+     * @return true if there is a DETOUR service alert for either the provided trip_id or the provided route_id, or false if there is not
+     */
+    public boolean hasDetourAlert(String tripId, String routeId) {
+        DetourIndex index = getDetourIndex();
+        return index.tripIds.contains(tripId) || (routeId != null && index.routeIds.contains(routeId));
+    }
+
+    private DetourIndex getDetourIndex() {
+        DetourIndex index = mDetourIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = mDetourIndex;
+                if (index == null) {
+                    index = buildDetourIndex();
+                    mDetourIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private DetourIndex buildDetourIndex() {
+        DetourIndex index = new DetourIndex();
+        for (GtfsRealtime.FeedEntity e : mFeedMessage.getEntityList()) {
+            if (e.hasAlert()) {
+                GtfsRealtime.Alert a = e.getAlert();
+                if (a.hasEffect() && a.getEffect().equals(GtfsRealtime.Alert.Effect.DETOUR)) {
+                    for (GtfsRealtime.EntitySelector entitySelector : a.getInformedEntityList()) {
+                        if (entitySelector.hasTrip()) {
+                            // An unset trip_id or route_id is an empty string, which only matches an empty trip_id or route_id
+                            index.tripIds.add(entitySelector.getTrip().getTripId());
+                            index.routeIds.add(entitySelector.getTrip().getRouteId());
+                        }
+                    }
+                }
+            }
+        }
+        return index;
+    }
+}
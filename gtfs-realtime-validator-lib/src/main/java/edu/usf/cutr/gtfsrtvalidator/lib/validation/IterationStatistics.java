@@ -17,6 +17,7 @@
  */
 package edu.usf.cutr.gtfsrtvalidator.lib.validation;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -29,6 +30,7 @@ public class IterationStatistics {
     private double decodeProtobufTime;
     private double mTotalIterationTime;
     private List<RuleStatistics> mRuleStatistics;
+    private List<StageStatistics> mStageStatistics = new ArrayList<>();
 
     public IterationStatistics() {
     }
@@ -123,6 +125,24 @@ public class IterationStatistics {
         this.mRuleStatistics = ruleStatistics;
     }
 
+    /**
+     * Returns the statistics for each batch processing stage (read, hash, dedup, decode, validate, serialize) that this GTFS-realtime file passed through, in the order the stages were executed
+     *
+     * @return the statistics for each batch processing stage (read, hash, dedup, decode, validate, serialize) that this GTFS-realtime file passed through, in the order the stages were executed
+     */
+    public List<StageStatistics> getStageStatistics() {
+        return mStageStatistics;
+    }
+
+    /**
+     * Sets the statistics for each batch processing stage (read, hash, dedup, decode, validate, serialize) that this GTFS-realtime file passed through, in the order the stages were executed
+     *
+     * @param stageStatistics the statistics for each batch processing stage (read, hash, dedup, decode, validate, serialize) that this GTFS-realtime file passed through, in the order the stages were executed
+     */
+    public void setStageStatistics(List<StageStatistics> stageStatistics) {
+        this.mStageStatistics = stageStatistics;
+    }
+
     @Override
     public String toString() {
         return "IterationStatistics{" +
@@ -131,6 +151,7 @@ public class IterationStatistics {
                 ", decodeProtobufTime=" + decodeProtobufTime +
                 ", mTotalIterationTime=" + mTotalIterationTime +
                 ", mRuleStatistics=" + mRuleStatistics +
+                ", mStageStatistics=" + mStageStatistics +
                 '}';
     }
 }
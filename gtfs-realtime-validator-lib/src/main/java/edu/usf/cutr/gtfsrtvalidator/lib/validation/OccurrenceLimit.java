@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.model.MessageLogModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of occurrences that are stored for each rule in each iteration, so a single broken feed (e.g., one
+ * that triggers E022 for every stop_time_update) doesn't produce hundreds of thousands of occurrences to save and
+ * output.  The exact number of occurrences found for each rule is still kept in MessageLogModel.getOccurrenceCount().
+ * <p>
+ * The limit is applied while the rules are running - RuleUtils.addOccurrence() asks reserve() where to store each
+ * new occurrence, and occurrences that won't be stored are never created.  By default the first occurrences up to the
+ * limit are kept.  If sampling is enabled, a uniform random sample of all occurrences is kept instead (reservoir
+ * sampling), so the stored occurrences are representative of the whole feed.
+ */
+public class OccurrenceLimit {
+
+    /**
+     * Stores all occurrences
+     */
+    public static final OccurrenceLimit NONE = new OccurrenceLimit(0, false);
+
+    // Counts the occurrences of the rule running on the current thread, or null if no limit is being applied
+    private static final ThreadLocal<Counter> sCurrentCounter = new ThreadLocal<>();
+
+    private final int mMaxOccurrences;
+    private final boolean mSampling;
+
+    /**
+     * Creates a limit for the number of occurrences stored for each rule in each iteration
+     *
+     * @param maxOccurrences maximum number of occurrences stored for each rule in each iteration, or 0 if all occurrences should be stored
+     * @param sampling       true if a random sample of all occurrences should be stored, or false if the first maxOccurrences occurrences should be stored
+     */
+    public OccurrenceLimit(int maxOccurrences, boolean sampling) {
+        if (maxOccurrences < 0) {
+            throw new IllegalArgumentException("maxOccurrences must be 0 or greater");
+        }
+        mMaxOccurrences = maxOccurrences;
+        mSampling = sampling;
+    }
+
+    /**
+     * Returns the maximum number of occurrences stored for each rule in each iteration, or 0 if all occurrences are stored
+     *
+     * @return the maximum number of occurrences stored for each rule in each iteration, or 0 if all occurrences are stored
+     */
+    public int getMaxOccurrences() {
+        return mMaxOccurrences;
+    }
+
+    public boolean isSampling() {
+        return mSampling;
+    }
+
+    public boolean isUnlimited() {
+        return mMaxOccurrences == 0;
+    }
+
+    /**
+     * Returns a new counter for the occurrences found by one run of one or more rules
+     *
+     * @return a new counter for the occurrences found by one run of one or more rules
+     */
+    Counter newCounter() {
+        return new Counter();
+    }
+
+    /**
+     * Returns the position in the provided list where a new occurrence should be stored - list.size() if it should be
+     * appended, a lower index if it should replace a sampled occurrence, or -1 if it shouldn't be stored.  Each call
+     * counts one occurrence.  If no limit is being applied on the current thread, the occurrence is always appended.
+     *
+     * @param list the list that the rule is adding an occurrence to
+     * @return the position in the provided list where a new occurrence should be stored, or -1 if it shouldn't be stored
+     */
+    public static int reserve(List<OccurrenceModel> list) {
+        Counter counter = sCurrentCounter.get();
+        if (counter == null) {
+            return list.size();
+        }
+        return counter.reserve(list);
+    }
+
+    /**
+     * Merges the results of the same rule for different parts of a message (in the order of the parts) and applies
+     * this limit to the merged occurrences
+     *
+     * @param parts results of the same rule for different parts of a message, with occurrence counts set
+     * @return the merged results of the rule
+     */
+    ErrorListHelperModel merge(List<ErrorListHelperModel> parts) {
+        MessageLogModel messageLogModel = parts.get(0).getErrorMessage();
+        List<OccurrenceModel> occurrences = new ArrayList<>();
+        int occurrenceCount = 0;
+        for (ErrorListHelperModel part : parts) {
+            occurrences.addAll(part.getOccurrenceList());
+            occurrenceCount += getOccurrenceCount(part);
+        }
+        if (!isUnlimited() && occurrences.size() > mMaxOccurrences) {
+            occurrences = mSampling ? sample(parts) : new ArrayList<>(occurrences.subList(0, mMaxOccurrences));
+        }
+        messageLogModel.setOccurrenceCount(occurrenceCount);
+        return new ErrorListHelperModel(messageLogModel, occurrences);
+    }
+
+    /**
+     * Picks mMaxOccurrences occurrences from the samples of each part, where each occurrence is weighted by the number
+     * of occurrences that it represents in its part (weighted random sampling by Efraimidis and Spirakis), so the
+     * result is a sample of all occurrences of the parts.  The picked occurrences are returned in their original order.
+     */
+    private List<OccurrenceModel> sample(List<ErrorListHelperModel> parts) {
+        List<OccurrenceModel> candidates = new ArrayList<>();
+        List<Double> keys = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (ErrorListHelperModel part : parts) {
+            double weight = (double) getOccurrenceCount(part) / part.getOccurrenceList().size();
+            for (OccurrenceModel occurrence : part.getOccurrenceList()) {
+                candidates.add(occurrence);
+                keys.add(Math.pow(random.nextDouble(), 1 / weight));
+            }
+        }
+        Integer[] positions = new Integer[candidates.size()];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        // Keep the candidates with the largest keys
+        Arrays.sort(positions, (a, b) -> Double.compare(keys.get(b), keys.get(a)));
+        Integer[] picked = Arrays.copyOf(positions, mMaxOccurrences);
+        Arrays.sort(picked);
+        List<OccurrenceModel> sample = new ArrayList<>();
+        for (Integer position : picked) {
+            sample.add(candidates.get(position));
+        }
+        return sample;
+    }
+
+    private static int getOccurrenceCount(ErrorListHelperModel errorList) {
+        Integer occurrenceCount = errorList.getErrorMessage().getOccurrenceCount();
+        return occurrenceCount != null ? occurrenceCount : errorList.getOccurrenceList().size();
+    }
+
+    /**
+     * Counts the occurrences found by one run of one or more rules, and applies the limit to them
+     */
+    class Counter {
+        // Number of occurrences found for each occurrence list, including those that weren't stored
+        private final Map<List<OccurrenceModel>, int[]> mOccurrenceCounts = new IdentityHashMap<>();
+
+        /**
+         * Runs the provided task (e.g., validating a message using a rule) on the current thread, applying the limit
+         * to all occurrences added by the task
+         */
+        <T> T run(Supplier<T> task) {
+            if (isUnlimited()) {
+                return task.get();
+            }
+            Counter previous = sCurrentCounter.get();
+            sCurrentCounter.set(this);
+            try {
+                return task.get();
+            } finally {
+                if (previous == null) {
+                    sCurrentCounter.remove();
+                } else {
+                    sCurrentCounter.set(previous);
+                }
+            }
+        }
+
+        private int reserve(List<OccurrenceModel> list) {
+            int[] count = mOccurrenceCounts.computeIfAbsent(list, k -> new int[1]);
+            count[0]++;
+            if (list.size() < mMaxOccurrences) {
+                return list.size();
+            }
+            if (mSampling) {
+                // Reservoir sampling - the n-th occurrence replaces a stored occurrence with probability max/n
+                int position = ThreadLocalRandom.current().nextInt(count[0]);
+                return position < mMaxOccurrences ? position : -1;
+            }
+            return -1;
+        }
+
+        /**
+         * Sets the number of occurrences found for each of the provided results of a rule that ran using this counter
+         *
+         * @param errorLists results of a rule that ran using this counter
+         */
+        void setOccurrenceCounts(List<ErrorListHelperModel> errorLists) {
+            for (ErrorListHelperModel errorList : errorLists) {
+                int[] count = mOccurrenceCounts.get(errorList.getOccurrenceList());
+                errorList.getErrorMessage().setOccurrenceCount(count != null ? count[0] : errorList.getOccurrenceList().size());
+            }
+        }
+    }
+}
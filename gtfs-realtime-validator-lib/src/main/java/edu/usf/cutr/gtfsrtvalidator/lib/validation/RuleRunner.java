@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.EntityLocalValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementVisitor;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import org.onebusaway.gtfs.services.GtfsMutableDao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTime;
+
+/**
+ * Runs a list of validation rules against a GTFS-realtime message.  Rules implementing FeedElementValidator share a
+ * single walk of the message (see FeedMessageDispatcher), and all other rules are called using
+ * FeedEntityValidator.validate().
+ * <p>
+ * If an Executor is provided, the single walk and each of the other rules run as separate tasks on the executor, so
+ * they run concurrently.  All rules only read the GTFS-rt messages and GTFS data, so they don't need to coordinate.
+ * The results are always returned in the same order as the rules, no matter which rule finished first.
+ * <p>
+ * Messages with at least getShardThreshold() entities are also split into shards of entities for rules implementing
+ * EntityLocalValidator, and the shards are validated in parallel (on the executor if one is provided, or the common
+ * ForkJoinPool if not).  Rules that look at the message as a whole, like entity uniqueness, header, and cross-feed
+ * checks, always see the whole message.
+ * <p>
+ * The number of occurrences stored for each rule can be limited using setOccurrenceLimit() - see OccurrenceLimit.
+ * <p>
+ * When validating consecutive messages of the same feed, an EntityResultCache can be provided so EntityLocalValidator
+ * rules only validate the entities that changed since the previous message.
+ */
+public class RuleRunner {
+
+    /**
+     * Default number of entities at or above which a message is split into shards for EntityLocalValidator rules
+     */
+    public static final int DEFAULT_SHARD_THRESHOLD = 10000;
+
+    // Largest number of entities in each shard
+    private static final int MAX_SHARD_SIZE = 1000;
+
+    private final List<FeedEntityValidator> mRules;
+    private final Executor mExecutor;
+    private int mShardThreshold = DEFAULT_SHARD_THRESHOLD;
+    private OccurrenceLimit mOccurrenceLimit = OccurrenceLimit.NONE;
+
+    /**
+     * The results of running one rule against a GTFS-realtime message
+     */
+    public static class RuleResult {
+        private final String mValidator;
+        private final List<ErrorListHelperModel> mErrorLists;
+        private final double mExecutionTime;
+
+        RuleResult(String validator, List<ErrorListHelperModel> errorLists, double executionTime) {
+            mValidator = validator;
+            mErrorLists = errorLists;
+            mExecutionTime = executionTime;
+        }
+
+        /**
+         * Returns the class name of the validator that produced this result
+         *
+         * @return the class name of the validator that produced this result
+         */
+        public String getValidator() {
+            return mValidator;
+        }
+
+        public List<ErrorListHelperModel> getErrorLists() {
+            return mErrorLists;
+        }
+
+        /**
+         * Returns the amount of time it took to execute the rule, in seconds as a decimal (0.22)
+         *
+         * @return the amount of time it took to execute the rule, in seconds as a decimal (0.22)
+         */
+        public double getExecutionTime() {
+            return mExecutionTime;
+        }
+    }
+
+    /**
+     * Creates a RuleRunner for the provided rules
+     *
+     * @param rules    the rules to run against each message
+     * @param executor the executor used to run the rules concurrently, or null if the rules should run one at a time on the calling thread
+     */
+    public RuleRunner(List<FeedEntityValidator> rules, Executor executor) {
+        mRules = rules;
+        mExecutor = executor;
+    }
+
+    /**
+     * Sets the number of entities at or above which a message is split into shards that are validated in parallel
+     * for rules implementing EntityLocalValidator (default = DEFAULT_SHARD_THRESHOLD).  Messages with fewer entities
+     * are validated by each rule on a single thread.
+     *
+     * @param shardThreshold the number of entities at or above which a message is split into shards, or 0 if messages should never be split
+     */
+    public void setShardThreshold(int shardThreshold) {
+        mShardThreshold = shardThreshold;
+    }
+
+    public int getShardThreshold() {
+        return mShardThreshold;
+    }
+
+    /**
+     * Sets the limit for the number of occurrences stored for each rule in each iteration (default =
+     * OccurrenceLimit.NONE).  The number of occurrences found is always set in MessageLogModel.getOccurrenceCount()
+     * of each result.
+     *
+     * @param occurrenceLimit the limit for the number of occurrences stored for each rule in each iteration
+     */
+    public void setOccurrenceLimit(OccurrenceLimit occurrenceLimit) {
+        mOccurrenceLimit = occurrenceLimit;
+    }
+
+    public OccurrenceLimit getOccurrenceLimit() {
+        return mOccurrenceLimit;
+    }
+
+    /**
+     * Runs all rules against feedMessage, and returns the results in the order of the rules.  The first result is for
+     * the single walk of the message by all FeedElementValidator rules (named "FeedMessageDispatcher"), and is followed
+     * by one result per rule.  For FeedElementValidator rules the execution time only covers collecting the errors
+     * from the visitor, as the time spent checking the message is part of the "FeedMessageDispatcher" result.
+     *
+     * @param currentTimeMillis the current system time, in milliseconds
+     * @param gtfsData    GTFS schedule data
+     * @param gtfsMetadata Data structures that contain processed information about the GTFS data
+     * @param context     Information about feedMessage that is shared by all rules in this iteration
+     * @param feedMessage Current GTFS-rt data that was most recently captured (should NOT be equal to previousFeedMessage)
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
+     * @param combinedFeedMessage A GTFS-rt message that includes entities from all GTFS-rt feeds being monitored simultaneously for the same GTFS dataset.  If only one GTFS-rt feed is being monitored for the GTFS dataset, then this is null.
+     * @return the results of each rule, in the order of the rules
+     */
+    public List<RuleResult> run(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        return run(mOccurrenceLimit, null, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage);
+    }
+
+    /**
+     * Runs all rules against feedMessage using the provided occurrence limit instead of getOccurrenceLimit() (e.g., when
+     * the same RuleRunner is shared by feeds with different limits), and returns the results in the order of the rules.
+     * See run(long, GtfsMutableDao, GtfsMetadata, IterationContext, FeedMessage, FeedMessage, FeedMessage).
+     * <p>
+     * If an EntityResultCache is provided, rules implementing EntityLocalValidator only validate the entities that
+     * changed since the previous message of the feed, and reuse the cached results for all other entities.  Rules that
+     * look at the message as a whole always validate the whole message.
+     *
+     * @param occurrenceLimit the limit for the number of occurrences stored for each rule
+     * @param entityResultCache the results of EntityLocalValidator rules for the entities of the previous message of this feed, or null if all entities should be validated
+     * @param currentTimeMillis the current system time, in milliseconds
+     * @param gtfsData    GTFS schedule data
+     * @param gtfsMetadata Data structures that contain processed information about the GTFS data
+     * @param context     Information about feedMessage that is shared by all rules in this iteration
+     * @param feedMessage Current GTFS-rt data that was most recently captured (should NOT be equal to previousFeedMessage)
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
+     * @param combinedFeedMessage A GTFS-rt message that includes entities from all GTFS-rt feeds being monitored simultaneously for the same GTFS dataset.  If only one GTFS-rt feed is being monitored for the GTFS dataset, then this is null.
+     * @return the results of each rule, in the order of the rules
+     */
+    public List<RuleResult> run(OccurrenceLimit occurrenceLimit, EntityResultCache entityResultCache, long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        if (mExecutor == null) {
+            List<RuleResult> results = new ArrayList<>();
+            Dispatch dispatch = dispatch(occurrenceLimit, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage);
+            results.add(dispatch.result);
+            for (FeedEntityValidator rule : mRules) {
+                results.add(runRule(rule, dispatch, occurrenceLimit, entityResultCache, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage));
+            }
+            return results;
+        }
+
+        CompletableFuture<Dispatch> dispatchFuture = CompletableFuture.supplyAsync(
+                () -> dispatch(occurrenceLimit, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage), mExecutor);
+        List<CompletableFuture<RuleResult>> futures = new ArrayList<>();
+        futures.add(dispatchFuture.thenApply(dispatch -> dispatch.result));
+        for (FeedEntityValidator rule : mRules) {
+            CompletableFuture<RuleResult> future;
+            if (rule instanceof FeedElementValidator) {
+                // Collect the errors found by the visitor for this rule after the single walk of the message
+                future = dispatchFuture.thenApply(dispatch -> runRule(rule, dispatch, occurrenceLimit, entityResultCache, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage));
+            } else {
+                future = CompletableFuture.supplyAsync(() -> runRule(rule, null, occurrenceLimit, entityResultCache, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage), mExecutor);
+            }
+            futures.add(future);
+        }
+
+        // Wait for all rules in the order of the rules, so the results are in the same order as when run one at a time
+        List<RuleResult> results = new ArrayList<>();
+        for (CompletableFuture<RuleResult> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the provided task, rethrowing any RuntimeException thrown by the task as is
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The visitors of the FeedElementValidator rules after they have walked a message, the counter of the occurrences
+     * they found, and the time the walk took
+     */
+    private static class Dispatch {
+        Map<FeedEntityValidator, FeedElementVisitor> visitors;
+        OccurrenceLimit.Counter counter;
+        RuleResult result;
+    }
+
+    private Dispatch dispatch(OccurrenceLimit occurrenceLimit, long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        long startDispatchNanos = System.nanoTime();
+        Dispatch dispatch = new Dispatch();
+        dispatch.counter = occurrenceLimit.newCounter();
+        dispatch.visitors = dispatch.counter.run(() -> FeedMessageDispatcher.dispatch(mRules, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage));
+        dispatch.result = new RuleResult(FeedMessageDispatcher.class.getSimpleName(), Collections.emptyList(), getElapsedTime(startDispatchNanos, System.nanoTime()));
+        return dispatch;
+    }
+
+    /**
+     * Returns the results for the provided rule - from the visitor if the rule already visited the message during
+     * dispatch, or by calling FeedEntityValidator.validate() if it didn't
+     */
+    private RuleResult runRule(FeedEntityValidator rule, Dispatch dispatch, OccurrenceLimit occurrenceLimit, EntityResultCache entityResultCache, long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        long startRuleNanos = System.nanoTime();
+        List<ErrorListHelperModel> errorLists;
+        FeedElementVisitor visitor = dispatch != null ? dispatch.visitors.get(rule) : null;
+        if (visitor != null) {
+            errorLists = visitor.getErrors();
+            dispatch.counter.setOccurrenceCounts(errorLists);
+        } else if (rule instanceof EntityLocalValidator && entityResultCache != null) {
+            errorLists = entityResultCache.validate((EntityLocalValidator) rule, gtfsMetadata, occurrenceLimit, feedMessage,
+                    entityMessage -> validate(rule, occurrenceLimit, currentTimeMillis, gtfsData, gtfsMetadata, context, entityMessage, previousFeedMessage, combinedFeedMessage));
+        } else if (rule instanceof EntityLocalValidator && mShardThreshold > 0 && feedMessage.getEntityCount() >= mShardThreshold) {
+            errorLists = validateShards(rule, occurrenceLimit, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage);
+        } else {
+            errorLists = validate(rule, occurrenceLimit, currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage);
+        }
+        return new RuleResult(rule.getClass().getSimpleName(), errorLists, getElapsedTime(startRuleNanos, System.nanoTime()));
+    }
+
+    /**
+     * Splits the entities of feedMessage into shards, validates the shards in parallel using the provided
+     * EntityLocalValidator rule, and merges the results of the shards in the order of the entities
+     */
+    private List<ErrorListHelperModel> validateShards(FeedEntityValidator rule, OccurrenceLimit occurrenceLimit, long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        Executor executor = mExecutor != null ? mExecutor : ForkJoinPool.commonPool();
+        List<GtfsRealtime.FeedEntity> entities = feedMessage.getEntityList();
+        // Use at least two shards, so messages just above the threshold are still validated in parallel
+        int shardSize = Math.min(MAX_SHARD_SIZE, (entities.size() + 1) / 2);
+        List<CompletableFuture<List<ErrorListHelperModel>>> futures = new ArrayList<>();
+        for (int start = 0; start < entities.size(); start += shardSize) {
+            GtfsRealtime.FeedMessage shard = GtfsRealtime.FeedMessage.newBuilder()
+                    .setHeader(feedMessage.getHeader())
+                    .addAllEntity(entities.subList(start, Math.min(start + shardSize, entities.size())))
+                    .build();
+            futures.add(CompletableFuture.supplyAsync(() -> validate(rule, occurrenceLimit, currentTimeMillis, gtfsData, gtfsMetadata, context, shard, previousFeedMessage, combinedFeedMessage), executor));
+        }
+
+        // Append the occurrences of each shard in order, so they're in the same order as when the whole message is validated
+        Map<String, List<ErrorListHelperModel>> shardErrorLists = new LinkedHashMap<>();
+        for (CompletableFuture<List<ErrorListHelperModel>> future : futures) {
+            for (ErrorListHelperModel errorList : join(future)) {
+                String errorId = errorList.getErrorMessage().getValidationRule().getErrorId();
+                shardErrorLists.computeIfAbsent(errorId, k -> new ArrayList<>()).add(errorList);
+            }
+        }
+        List<ErrorListHelperModel> merged = new ArrayList<>();
+        for (List<ErrorListHelperModel> errorLists : shardErrorLists.values()) {
+            merged.add(occurrenceLimit.merge(errorLists));
+        }
+        return merged;
+    }
+
+    /**
+     * Validates feedMessage using the provided rule on the current thread, applying the occurrence limit and setting
+     * the number of occurrences found in each result
+     */
+    private static List<ErrorListHelperModel> validate(FeedEntityValidator rule, OccurrenceLimit occurrenceLimit, long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        OccurrenceLimit.Counter counter = occurrenceLimit.newCounter();
+        List<ErrorListHelperModel> errorLists = counter.run(() -> rule.validate(currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage));
+        counter.setOccurrenceCounts(errorLists);
+        return errorLists;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A grid index of the segments of a GTFS shape, used to check if a point is within a fixed distance of the shape
+ * without building a buffered polygon of the shape.
+ * <p>
+ * Each segment is added to every grid cell that overlaps its bounding box expanded by the distance, so any point within
+ * the distance of a segment falls in a cell that contains that segment.  A check only needs to measure the distance from
+ * the point to the few segments in its cell.  Distances are planar distances in degrees of longitude and latitude, the
+ * same units as GtfsMetadata.TRIP_BUFFER_DEGREES.
+ */
+public class ShapeSegmentIndex {
+
+    // Points of the shape as {lon0, lat0, lon1, lat1, ...}
+    private final double[] mCoordinates;
+    private final int mPointCount;
+    private final double mDistanceSquared;
+    private final double mCellSize;
+    // Maps a cell key to the indexes of the segments that may be within the distance of points in that cell
+    private final Map<Long, int[]> mCells = new HashMap<>();
+
+    /**
+     * Creates an index of the segments of a shape
+     *
+     * @param coordinates points of the shape sorted by shape_pt_sequence, as {lon0, lat0, lon1, lat1, ...}
+     * @param distance    the distance from the shape, in degrees, that points must be within
+     */
+    public ShapeSegmentIndex(double[] coordinates, double distance) {
+        mCoordinates = coordinates;
+        mPointCount = coordinates.length / 2;
+        mDistanceSquared = distance * distance;
+        // Segment i goes from point i to point i + 1 - a shape with a single point has one segment of zero length
+        int segmentCount = mPointCount == 0 ? 0 : Math.max(mPointCount - 1, 1);
+
+        // Make cells about the size of an average segment, so each segment is only added to a few cells, but no
+        // smaller than the buffer around the segments
+        double totalLength = 0;
+        for (int i = 0; i < segmentCount; i++) {
+            int end = getSegmentEnd(i);
+            totalLength += Math.max(Math.abs(getX(end) - getX(i)), Math.abs(getY(end) - getY(i)));
+        }
+        mCellSize = Math.max(distance * 2, segmentCount > 0 ? totalLength / segmentCount : 0);
+
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (int i = 0; i < segmentCount; i++) {
+            int end = getSegmentEnd(i);
+            long minCellX = getCell(Math.min(getX(i), getX(end)) - distance);
+            long maxCellX = getCell(Math.max(getX(i), getX(end)) + distance);
+            long minCellY = getCell(Math.min(getY(i), getY(end)) - distance);
+            long maxCellY = getCell(Math.max(getY(i), getY(end)) + distance);
+            for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+                for (long cellY = minCellY; cellY <= maxCellY; cellY++) {
+                    cells.computeIfAbsent(getCellKey(cellX, cellY), k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+        for (Map.Entry<Long, List<Integer>> cell : cells.entrySet()) {
+            mCells.put(cell.getKey(), cell.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Returns true if the provided point is within the distance of the shape, false if it is not
+     *
+     * @param lon longitude of the point
+     * @param lat latitude of the point
+     * @return true if the provided point is within the distance of the shape, false if it is not
+     */
+    public boolean isWithinDistance(double lon, double lat) {
+        int[] segments = mCells.get(getCellKey(getCell(lon), getCell(lat)));
+        if (segments == null) {
+            return false;
+        }
+        for (int segment : segments) {
+            if (getDistanceSquared(lon, lat, segment) <= mDistanceSquared) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the squared distance from the provided point to the closest point on the provided segment
+     */
+    private double getDistanceSquared(double x, double y, int segment) {
+        int end = getSegmentEnd(segment);
+        double x1 = getX(segment);
+        double y1 = getY(segment);
+        double dx = getX(end) - x1;
+        double dy = getY(end) - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            // Position of the closest point along the segment, from 0 (start of segment) to 1 (end of segment)
+            t = Math.max(0, Math.min(1, ((x - x1) * dx + (y - y1) * dy) / lengthSquared));
+        }
+        double closestX = x1 + t * dx - x;
+        double closestY = y1 + t * dy - y;
+        return closestX * closestX + closestY * closestY;
+    }
+
+    private int getSegmentEnd(int segment) {
+        return Math.min(segment + 1, mPointCount - 1);
+    }
+
+    private double getX(int point) {
+        return mCoordinates[point * 2];
+    }
+
+    private double getY(int point) {
+        return mCoordinates[point * 2 + 1];
+    }
+
+    private long getCell(double value) {
+        return (long) Math.floor(value / mCellSize);
+    }
+
+    private static long getCellKey(long cellX, long cellY) {
+        return (cellX << 32) ^ (cellY & 0xffffffffL);
+    }
+}
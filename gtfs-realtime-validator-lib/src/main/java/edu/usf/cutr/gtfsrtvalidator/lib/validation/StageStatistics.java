@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+public class StageStatistics {
+
+    private String stage;
+    private int queueDepth;
+    private double queueWaitTime;
+    private double stageTime;
+    private double throughput;
+
+    public StageStatistics() {
+    }
+
+    /**
+     * Returns the name of the batch processing stage (e.g., "read", "decode", "validate") for which these statistics were recorded
+     *
+     * @return the name of the batch processing stage (e.g., "read", "decode", "validate") for which these statistics were recorded
+     */
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * Sets the name of the batch processing stage (e.g., "read", "decode", "validate") for which these statistics were recorded
+     *
+     * @param stage the name of the batch processing stage (e.g., "read", "decode", "validate") for which these statistics were recorded
+     */
+    public void setStage(String stage) {
+        this.stage = stage;
+    }
+
+    /**
+     * Returns the number of files that were still waiting in the input queue of this stage when this file was taken from the queue
+     *
+     * @return the number of files that were still waiting in the input queue of this stage when this file was taken from the queue
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Sets the number of files that were still waiting in the input queue of this stage when this file was taken from the queue
+     *
+     * @param queueDepth the number of files that were still waiting in the input queue of this stage when this file was taken from the queue
+     */
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * Returns the amount of time this file waited in the input queue of this stage, in seconds as a decimal (0.22)
+     *
+     * @return the amount of time this file waited in the input queue of this stage, in seconds as a decimal (0.22)
+     */
+    public double getQueueWaitTime() {
+        return queueWaitTime;
+    }
+
+    /**
+     * Sets the amount of time this file waited in the input queue of this stage, in seconds as a decimal (0.22)
+     *
+     * @param queueWaitTime the amount of time this file waited in the input queue of this stage, in seconds as a decimal (0.22)
+     */
+    public void setQueueWaitTime(double queueWaitTime) {
+        this.queueWaitTime = queueWaitTime;
+    }
+
+    /**
+     * Returns the amount of time it took this stage to process this file, in seconds as a decimal (0.22)
+     *
+     * @return the amount of time it took this stage to process this file, in seconds as a decimal (0.22)
+     */
+    public double getStageTime() {
+        return stageTime;
+    }
+
+    /**
+     * Sets the amount of time it took this stage to process this file, in seconds as a decimal (0.22)
+     *
+     * @param stageTime the amount of time it took this stage to process this file, in seconds as a decimal (0.22)
+     */
+    public void setStageTime(double stageTime) {
+        this.stageTime = stageTime;
+    }
+
+    /**
+     * Returns the average number of files per second processed by this stage since the batch process started, measured when this file finished the stage
+     *
+     * @return the average number of files per second processed by this stage since the batch process started, measured when this file finished the stage
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Sets the average number of files per second processed by this stage since the batch process started, measured when this file finished the stage
+     *
+     * @param throughput the average number of files per second processed by this stage since the batch process started, measured when this file finished the stage
+     */
+    public void setThroughput(double throughput) {
+        this.throughput = throughput;
+    }
+
+    @Override
+    public String toString() {
+        return "StageStatistics{" +
+                "stage='" + stage + '\'' +
+                ", queueDepth=" + queueDepth +
+                ", queueWaitTime=" + queueWaitTime +
+                ", stageTime=" + stageTime +
+                ", throughput=" + throughput +
+                '}';
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation;
+
+import org.onebusaway.gtfs.model.StopTime;
+
+/**
+ * The GTFS stop_times.txt records for a single trip, sorted by stop_sequence.  Only the fields used in rule validation
+ * are kept, in parallel arrays indexed by the position of the record in the trip, with stop_ids stored as an index
+ * into the stop_id dictionary for the GTFS feed.
+ */
+public class TripStopTimes {
+
+    private final IdDictionary mStopIds;
+    private final int[] mStopSequences;
+    private final int[] mStopIndexes;
+    // arrival_time and departure_time in seconds after midnight, or StopTime.MISSING_VALUE if not set in GTFS
+    private final int[] mArrivalTimes;
+    private final int[] mDepartureTimes;
+
+    TripStopTimes(IdDictionary stopIds, int[] stopSequences, int[] stopIndexes, int[] arrivalTimes, int[] departureTimes) {
+        mStopIds = stopIds;
+        mStopSequences = stopSequences;
+        mStopIndexes = stopIndexes;
+        mArrivalTimes = arrivalTimes;
+        mDepartureTimes = departureTimes;
+    }
+
+    /**
+     * Returns the number of stop_times.txt records for this trip
+     *
+     * @return the number of stop_times.txt records for this trip
+     */
+    public int size() {
+        return mStopSequences.length;
+    }
+
+    public int getStopSequence(int i) {
+        return mStopSequences[i];
+    }
+
+    public String getStopId(int i) {
+        return mStopIds.get(mStopIndexes[i]);
+    }
+
+    /**
+     * Returns the arrival_time of the record at position i in seconds after midnight, or StopTime.MISSING_VALUE if
+     * arrival_time isn't set in GTFS
+     *
+     * @param i position of the record in this trip
+     * @return the arrival_time of the record at position i in seconds after midnight, or StopTime.MISSING_VALUE if
+     * arrival_time isn't set in GTFS
+     */
+    public int getArrivalTime(int i) {
+        return mArrivalTimes[i];
+    }
+
+    /**
+     * Returns the departure_time of the record at position i in seconds after midnight, or StopTime.MISSING_VALUE if
+     * departure_time isn't set in GTFS
+     *
+     * @param i position of the record in this trip
+     * @return the departure_time of the record at position i in seconds after midnight, or StopTime.MISSING_VALUE if
+     * departure_time isn't set in GTFS
+     */
+    public int getDepartureTime(int i) {
+        return mDepartureTimes[i];
+    }
+
+    public boolean isArrivalTimeSet(int i) {
+        return mArrivalTimes[i] != StopTime.MISSING_VALUE;
+    }
+
+    public boolean isDepartureTimeSet(int i) {
+        return mDepartureTimes[i] != StopTime.MISSING_VALUE;
+    }
+
+    int getStopIndex(int i) {
+        return mStopIndexes[i];
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces;
+
+/**
+ * Marker interface for rules that check each entity of a GTFS-realtime message on its own, without comparing it to
+ * other entities in the same message (e.g., for uniqueness) or to the header.  Validating the entities of a message
+ * in separate chunks and appending the occurrences of each chunk in order gives the same occurrences as validating
+ * the whole message, so RuleRunner can split very large messages into shards that are validated in parallel.
+ * <p>
+ * When a rule is run on a shard, the feedMessage passed to validate() only contains the entities of that shard (with
+ * the original header), while the IterationContext is still for the whole message.
+ * <p>
+ * The results for an entity must only depend on the entity itself and the GTFS data - not on the header, the current
+ * time, or the previous message - so RuleRunner can reuse the results for entities that didn't change since the
+ * previous message of the feed (see EntityResultCache).
+ */
+public interface EntityLocalValidator extends FeedEntityValidator {
+}
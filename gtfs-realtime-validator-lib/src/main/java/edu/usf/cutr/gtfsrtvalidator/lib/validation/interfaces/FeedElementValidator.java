@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.FeedMessageDispatcher;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import org.onebusaway.gtfs.services.GtfsMutableDao;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Interface used for rules that check the elements of a GTFS-realtime message through a FeedElementVisitor, so
+ * FeedMessageDispatcher can walk the message once for all of these rules instead of once per rule.
+ * <p>
+ * Rules implementing this interface can still be used as any other FeedEntityValidator - validate() walks the message
+ * for this rule alone.
+ */
+public interface FeedElementValidator extends FeedEntityValidator {
+
+    /**
+     * Creates a visitor that checks the elements of feedMessage for this rule
+     *
+     * @param currentTimeMillis the current system time, in milliseconds
+     * @param gtfsData    GTFS schedule data
+     * @param gtfsMetadata Data structures that contain processed information about the GTFS data
+     * @param context     Information about feedMessage that is shared by all rules in this iteration
+     * @param feedMessage Current GTFS-rt data that was most recently captured (should NOT be equal to previousFeedMessage)
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
+     * @param combinedFeedMessage A GTFS-rt message that includes entities from all GTFS-rt feeds being monitored simultaneously for the same GTFS dataset.  If only one GTFS-rt feed is being monitored for the GTFS dataset, then this is null.
+     * @return a visitor that checks the elements of feedMessage for this rule
+     */
+    FeedElementVisitor newVisitor(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage);
+
+    @Override
+    default List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        return validate(currentTimeMillis, gtfsData, gtfsMetadata, new IterationContext(feedMessage), feedMessage, previousFeedMessage, combinedFeedMessage);
+    }
+
+    @Override
+    default List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        FeedElementVisitor visitor = newVisitor(currentTimeMillis, gtfsData, gtfsMetadata, context, feedMessage, previousFeedMessage, combinedFeedMessage);
+        FeedMessageDispatcher.dispatch(feedMessage, Collections.singletonList(visitor));
+        return visitor.getErrors();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+
+import java.util.List;
+
+/**
+ * Receives the elements of a single GTFS-realtime message from FeedMessageDispatcher, which walks the message once
+ * for all visitors.  A visitor is created by a FeedElementValidator for each message and keeps the errors and warnings
+ * for that message until getErrors() is called after the walk.
+ * <p>
+ * The elements are received in the order they appear in the message - the header first, and then for each entity
+ * onEntity(), followed by onTripUpdate() and onStopTimeUpdate() for each of its stop_time_updates, onVehicle(), and
+ * onAlert() for the parts the entity has.  Visitors only need to override the methods for the elements they check.
+ */
+public interface FeedElementVisitor {
+
+    default void onHeader(GtfsRealtime.FeedHeader header) {
+    }
+
+    default void onEntity(GtfsRealtime.FeedEntity entity) {
+    }
+
+    /**
+     * Called for an entity with a trip_update, before onStopTimeUpdate() is called for each of the stop_time_updates
+     * in the trip_update
+     *
+     * @param entity     the entity that contains the trip_update
+     * @param tripUpdate the trip_update
+     */
+    default void onTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+    }
+
+    default void onStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+    }
+
+    default void onVehicle(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition vehiclePosition) {
+    }
+
+    default void onAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+    }
+
+    /**
+     * Returns the errors and warnings found in the elements received by this visitor
+     *
+     * @return a list of errors and warnings found in the elements received by this visitor
+     */
+    List<ErrorListHelperModel> getErrors();
+}
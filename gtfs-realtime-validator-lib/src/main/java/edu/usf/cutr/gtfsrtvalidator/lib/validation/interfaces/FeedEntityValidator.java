@@ -20,6 +20,7 @@ package edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces;
 import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 
 import java.util.List;
@@ -40,4 +41,22 @@ public interface FeedEntityValidator {
      * @return a list of errors and warnings that was generated by the implementing rule
      */
     List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage);
+
+    /**
+     * Validates a particular rule implemented by this interface, using information about feedMessage that is shared
+     * by all rules in the same iteration.  Rules that use the iteration context should override this method - by
+     * default the context is ignored.
+     *
+     * @param currentTimeMillis the current system time, in milliseconds
+     * @param gtfsData    GTFS schedule data
+     * @param gtfsMetadata Data structures that contain processed information about the GTFS data
+     * @param context     Information about feedMessage that is shared by all rules in this iteration
+     * @param feedMessage Current GTFS-rt data that was most recently captured (should NOT be equal to previousFeedMessage)
+     * @param previousFeedMessage Previous GTFS-rt data from the previous iteration of the feed (should NOT be the same as feedMessage)
+     * @param combinedFeedMessage A GTFS-rt message that includes entities from all GTFS-rt feeds being monitored simultaneously for the same GTFS dataset.  If only one GTFS-rt feed is being monitored for the GTFS dataset, then this is null.
+     * @return a list of errors and warnings that was generated by the implementing rule
+     */
+    default List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        return validate(currentTimeMillis, gtfsData, gtfsMetadata, feedMessage, previousFeedMessage, combinedFeedMessage);
+    }
 }
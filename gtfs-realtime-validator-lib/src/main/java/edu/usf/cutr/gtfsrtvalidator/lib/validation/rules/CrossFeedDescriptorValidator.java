@@ -25,7 +25,6 @@ import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
 import org.apache.commons.lang3.StringUtils;
-import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
@@ -222,11 +221,10 @@ public class CrossFeedDescriptorValidator implements FeedEntityValidator {
         if (!StringUtils.isEmpty(tripUpdatesTripId)) {
             if (!vehiclePositionsTripId.equals(tripUpdatesTripId)) {
                 // Log E047 if either trip_id is missing from GTFS, if the block_id is missing for either trip (block_id is an optional field) or if the two trips aren't in the same block
-                Trip tripA = gtfsMetadata.getTrips().get(vehiclePositionsTripId);
-                Trip tripB = gtfsMetadata.getTrips().get(tripUpdatesTripId);
-                if (tripA == null || tripB == null ||
-                        StringUtils.isEmpty(tripA.getBlockId()) || StringUtils.isEmpty(tripB.getBlockId()) ||
-                        !tripA.getBlockId().equals(tripB.getBlockId())) {
+                String blockIdA = gtfsMetadata.getTripBlockId(vehiclePositionsTripId);
+                String blockIdB = gtfsMetadata.getTripBlockId(tripUpdatesTripId);
+                if (StringUtils.isEmpty(blockIdA) || StringUtils.isEmpty(blockIdB) ||
+                        !blockIdA.equals(blockIdB)) {
                     // E047 - "VehiclePosition and TripUpdate ID pairing mismatch" for VehiclePositions
                     RuleUtils.addOccurrence(E047, "trip_id " + vehicle.getValue() + " and vehicle_id " + vehicle.getKey() + " pairing in VehiclePositions does not match trip_id " + tripUpdatesTripId + " and vehicle_id " + vehicle.getKey() + " pairing in TripUpdates feed and trip block_ids aren't the same", errors, _log);
                 }
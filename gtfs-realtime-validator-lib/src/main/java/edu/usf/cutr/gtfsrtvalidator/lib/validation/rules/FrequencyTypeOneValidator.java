@@ -23,7 +23,7 @@ import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.EntityLocalValidator;
 import org.onebusaway.gtfs.model.Frequency;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
@@ -38,7 +38,7 @@ import static edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules.E019;
  * <p>
  * E019 - GTFS-rt frequency type 1 trip start_time must be a multiple of GTFS data start_time
  */
-public class FrequencyTypeOneValidator implements FeedEntityValidator {
+public class FrequencyTypeOneValidator implements EntityLocalValidator {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(FrequencyTypeOneValidator.class);
 
@@ -23,7 +23,9 @@ import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementVisitor;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
@@ -37,49 +39,62 @@ import static edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules.*;
  * E039 - FULL_DATASET feeds should not include entity.is_deleted
  * E049 - header incrementality not populated
  */
-public class HeaderValidator implements FeedEntityValidator {
+public class HeaderValidator implements FeedElementValidator {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(HeaderValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
-        List<OccurrenceModel> errorListE038 = new ArrayList<>();
-        List<OccurrenceModel> errorListE039 = new ArrayList<>();
-        List<OccurrenceModel> errorListE049 = new ArrayList<>();
+    public FeedElementVisitor newVisitor(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        return new Visitor();
+    }
 
-        if (!GtfsUtils.isValidVersion(feedMessage.getHeader())) {
-            // E038 - Invalid header.gtfs_realtime_version
-            RuleUtils.addOccurrence(E038, "header.gtfs_realtime_version of " + feedMessage.getHeader().getGtfsRealtimeVersion(), errorListE038, _log);
-        }
+    private static class Visitor implements FeedElementVisitor {
+
+        private final List<OccurrenceModel> mErrorListE038 = new ArrayList<>();
+        private final List<OccurrenceModel> mErrorListE039 = new ArrayList<>();
+        private final List<OccurrenceModel> mErrorListE049 = new ArrayList<>();
+        private boolean mFullDataset;
 
-        try {
-            if (GtfsUtils.isV2orHigher(feedMessage.getHeader()) && !feedMessage.getHeader().hasIncrementality()) {
-                // E049 - header incrementality not populated
-                RuleUtils.addOccurrence(E049, "", errorListE049, _log);
+        @Override
+        public void onHeader(GtfsRealtime.FeedHeader header) {
+            if (!GtfsUtils.isValidVersion(header)) {
+                // E038 - Invalid header.gtfs_realtime_version
+                RuleUtils.addOccurrence(E038, "header.gtfs_realtime_version of " + header.getGtfsRealtimeVersion(), mErrorListE038, _log);
             }
-        } catch (Exception e) {
-            _log.error("Error checking header version for E049: " + e);
-        }
 
-        if (feedMessage.getHeader().getIncrementality().equals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET)) {
-            for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
-                if (entity.hasIsDeleted()) {
-                    // E039 - FULL_DATASET feeds should not include entity.is_deleted
-                    RuleUtils.addOccurrence(E039, "entity ID " + entity.getId() + " has is_deleted=" + entity.getIsDeleted(), errorListE039, _log);
+            try {
+                if (GtfsUtils.isV2orHigher(header) && !header.hasIncrementality()) {
+                    // E049 - header incrementality not populated
+                    RuleUtils.addOccurrence(E049, "", mErrorListE049, _log);
                 }
+            } catch (Exception e) {
+                _log.error("Error checking header version for E049: " + e);
             }
-        }
 
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!errorListE038.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E038), errorListE038));
+            mFullDataset = header.getIncrementality().equals(GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET);
         }
-        if (!errorListE039.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E039), errorListE039));
+
+        @Override
+        public void onEntity(GtfsRealtime.FeedEntity entity) {
+            if (mFullDataset && entity.hasIsDeleted()) {
+                // E039 - FULL_DATASET feeds should not include entity.is_deleted
+                RuleUtils.addOccurrence(E039, "entity ID " + entity.getId() + " has is_deleted=" + entity.getIsDeleted(), mErrorListE039, _log);
+            }
         }
-        if (!errorListE049.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E049), errorListE049));
+
+        @Override
+        public List<ErrorListHelperModel> getErrors() {
+            List<ErrorListHelperModel> errors = new ArrayList<>();
+            if (!mErrorListE038.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E038), mErrorListE038));
+            }
+            if (!mErrorListE039.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E039), mErrorListE039));
+            }
+            if (!mErrorListE049.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E049), mErrorListE049));
+            }
+            return errors;
         }
-        return errors;
     }
 }
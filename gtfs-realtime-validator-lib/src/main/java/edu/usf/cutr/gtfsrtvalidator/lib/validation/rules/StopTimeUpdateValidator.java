@@ -25,16 +25,16 @@ import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.TripStopTimes;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules;
-import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
-import org.onebusaway.gtfs.model.Stop;
-import org.onebusaway.gtfs.model.StopTime;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.EntityLocalValidator;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import static com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship.NO_DATA;
 import static com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate.ScheduleRelationship.SKIPPED;
@@ -53,7 +53,7 @@ import static com.google.transit.realtime.GtfsRealtime.TripUpdate.StopTimeUpdate
  * E046 - GTFS-rt stop_time_update without time doesn't have arrival/departure_time in GTFS
  * E051 - GTFS-rt stop_sequence not found in GTFS data
  */
-public class StopTimeUpdateValidator implements FeedEntityValidator {
+public class StopTimeUpdateValidator implements EntityLocalValidator {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(StopTimeUpdateValidator.class);
 
@@ -77,12 +77,12 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
             if (entity.hasTripUpdate()) {
                 GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
                 checkE041(entity, tripUpdate, e041List);
-                List<StopTime> gtfsStopTimes = null;
+                TripStopTimes gtfsStopTimes = null;
                 int gtfsStopTimeIndex = 0;
                 String tripId = null;
                 if (tripUpdate.hasTrip() && tripUpdate.getTrip().hasTripId()) {
                     tripId = tripUpdate.getTrip().getTripId();
-                    gtfsStopTimes = gtfsMetadata.getTripStopTimes().get(tripId);
+                    gtfsStopTimes = gtfsMetadata.getTripStopTimes(tripId);
                 }
 
                 List<GtfsRealtime.TripUpdate.StopTimeUpdate> rtStopTimeUpdateList = tripUpdate.getStopTimeUpdateList();
@@ -119,20 +119,20 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
                     if (gtfsStopTimes != null) {
                         // Loop through GTFS stop_time.txt to try and find a matching GTFS stop
                         while (gtfsStopTimeIndex < gtfsStopTimes.size()) {
-                            int gtfsStopSequence = gtfsStopTimes.get(gtfsStopTimeIndex).getStopSequence();
-                            Stop gtfsStop = gtfsStopTimes.get(gtfsStopTimeIndex).getStop();
+                            int gtfsStopSequence = gtfsStopTimes.getStopSequence(gtfsStopTimeIndex);
+                            String gtfsStopId = gtfsStopTimes.getStopId(gtfsStopTimeIndex);
                             boolean foundStopSequence = false;
                             boolean foundStopId = false;
                             if (stopTimeUpdate.hasStopSequence()) {
                                 if (gtfsStopSequence == stopTimeUpdate.getStopSequence()) {
                                     // Found a matching stop_sequence from GTFS stop_times.txt
-                                    checkE045(entity, tripUpdate, stopTimeUpdate, gtfsStopSequence, gtfsStop, e045List);
-                                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes.get(gtfsStopTimeIndex), e046List);
+                                    checkE045(entity, tripUpdate, stopTimeUpdate, gtfsStopSequence, gtfsStopId, e045List);
+                                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes, gtfsStopTimeIndex, e046List);
                                     foundStopSequence = true;
                                 }
                             }
                             if (stopTimeUpdate.hasStopId()) {
-                                if (gtfsStop.getId().getId().equals(stopTimeUpdate.getStopId())) {
+                                if (gtfsStopId.equals(stopTimeUpdate.getStopId())) {
                                     /**
                                      * Found a matching stop_id - note that there could be loops in routes, so unlike
                                      * stop_sequence this isn't a definitive match between this stopTimeUpdate and a GTFS stop_times.txt entry
@@ -157,7 +157,7 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
                                     }
 
                                     // E046 hasn't been checked yet if a stop_sequence doesn't exist - check now
-                                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes.get(gtfsStopTimeIndex - 1), e046List);
+                                    checkE046(entity, tripUpdate, stopTimeUpdate, gtfsStopTimes, gtfsStopTimeIndex - 1, e046List);
                                     // We caught up with a matching stop_id in GTFS data - stop so we can pick up from here in next WHILE loop
                                     // Note that for routes with loops, we could potentially be stopping prematurely
                                     break;
@@ -172,7 +172,7 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
 
                     if (unknownRtStopSequence) {
                         // E051 - GTFS-rt stop_sequence not found in GTFS data
-                        RuleUtils.addOccurrence(ValidationRules.E051, "GTFS-rt " + GtfsUtils.getTripId(entity, tripUpdate) + " contains stop_sequence " + stopTimeUpdate.getStopSequence(), e051List, _log);
+                        RuleUtils.addOccurrence(ValidationRules.E051, () -> "GTFS-rt " + GtfsUtils.getTripId(entity, tripUpdate) + " contains stop_sequence " + stopTimeUpdate.getStopSequence(), e051List, _log);
                         // We couldn't find this stopTimeUpdate.stop_sequence in the GTFS stop_times.txt for this trip (E051). To keep validator running complexity
                         // at O(n) for evaluating TripUpdates w/ GTFS stop_times.txt (i.e., don't loop through the entire GTFS stop_times.txt for each GTFS-rt stop_time_update, which would be O(n*m)), we
                         // will skip validating the stop_time_updates for the rest of this trip.  When the producer fixes this erroneous stop_time_update.stop_sequence,
@@ -251,8 +251,7 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
     private void checkE036(GtfsRealtime.FeedEntity entity, Integer previousStopSequence, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, List<OccurrenceModel> errors) {
         if (stopTimeUpdate.hasStopSequence() &&
                 previousStopSequence == stopTimeUpdate.getStopSequence()) {
-            String id = GtfsUtils.getTripId(entity, entity.getTripUpdate());
-            RuleUtils.addOccurrence(ValidationRules.E036, id + " has repeating stop_sequence " + previousStopSequence, errors, _log);
+            RuleUtils.addOccurrence(ValidationRules.E036, () -> GtfsUtils.getTripId(entity, entity.getTripUpdate()) + " has repeating stop_sequence " + previousStopSequence, errors, _log);
         }
     }
 
@@ -268,16 +267,17 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
     private void checkE037(GtfsRealtime.FeedEntity entity, String previousStopId, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, List<OccurrenceModel> errors) {
         if (!previousStopId.isEmpty() && stopTimeUpdate.hasStopId() &&
                 previousStopId.equals(stopTimeUpdate.getStopId())) {
-            String id = GtfsUtils.getTripId(entity, entity.getTripUpdate());
-            StringBuilder prefix = new StringBuilder();
-            prefix.append(id);
-            prefix.append(" has repeating stop_id ");
-            prefix.append(previousStopId);
-            if (stopTimeUpdate.hasStopSequence()) {
-                prefix.append(" at stop_sequence ");
-                prefix.append(stopTimeUpdate.getStopSequence());
-            }
-            RuleUtils.addOccurrence(ValidationRules.E037, prefix.toString(), errors, _log);
+            RuleUtils.addOccurrence(ValidationRules.E037, () -> {
+                StringBuilder prefix = new StringBuilder();
+                prefix.append(GtfsUtils.getTripId(entity, entity.getTripUpdate()));
+                prefix.append(" has repeating stop_id ");
+                prefix.append(previousStopId);
+                if (stopTimeUpdate.hasStopSequence()) {
+                    prefix.append(" at stop_sequence ");
+                    prefix.append(stopTimeUpdate.getStopSequence());
+                }
+                return prefix.toString();
+            }, errors, _log);
         }
     }
 
@@ -291,7 +291,7 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
      */
     private void checkE040(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, List<OccurrenceModel> errors) {
         if (!stopTimeUpdate.hasStopSequence() && !stopTimeUpdate.hasStopId()) {
-            RuleUtils.addOccurrence(ValidationRules.E040, GtfsUtils.getTripId(entity, tripUpdate), errors, _log);
+            RuleUtils.addOccurrence(ValidationRules.E040, () -> GtfsUtils.getTripId(entity, tripUpdate), errors, _log);
         }
     }
 
@@ -310,7 +310,7 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
                 // No errors - the trip was canceled, so it doesn't need any stop_time_updates - return
                 return;
             }
-            RuleUtils.addOccurrence(ValidationRules.E041, GtfsUtils.getTripId(entity, tripUpdate), errors, _log);
+            RuleUtils.addOccurrence(ValidationRules.E041, () -> GtfsUtils.getTripId(entity, tripUpdate), errors, _log);
         }
     }
 
@@ -325,13 +325,11 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
     private void checkE042(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, List<OccurrenceModel> errors) {
         if (stopTimeUpdate.hasScheduleRelationship() &&
                 stopTimeUpdate.getScheduleRelationship().equals(NO_DATA)) {
-            String id = GtfsUtils.getTripId(entity, tripUpdate) + " " + GtfsUtils.getStopTimeUpdateId(stopTimeUpdate);
-
             if (stopTimeUpdate.hasArrival()) {
-                RuleUtils.addOccurrence(ValidationRules.E042, id + " has arrival", errors, _log);
+                RuleUtils.addOccurrence(ValidationRules.E042, () -> getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate) + " has arrival", errors, _log);
             }
             if (stopTimeUpdate.hasDeparture()) {
-                RuleUtils.addOccurrence(ValidationRules.E042, id + " has departure", errors, _log);
+                RuleUtils.addOccurrence(ValidationRules.E042, () -> getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate) + " has departure", errors, _log);
             }
         }
     }
@@ -352,8 +350,7 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
                 // stop_time_updates with SKIPPED or NO_DATA aren't required to have arrival or departures - return
                 return;
             }
-            String id = GtfsUtils.getTripId(entity, tripUpdate) + " " + GtfsUtils.getStopTimeUpdateId(stopTimeUpdate);
-            RuleUtils.addOccurrence(ValidationRules.E043, id, errors, _log);
+            RuleUtils.addOccurrence(ValidationRules.E043, () -> getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate), errors, _log);
         }
     }
 
@@ -370,12 +367,11 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
             // SKIPPED stop_time_updates aren't required to have delay or time (arrival/departure are optional) - see #243
             return;
         }
-        String id = GtfsUtils.getTripId(entity, tripUpdate) + " " + GtfsUtils.getStopTimeUpdateId(stopTimeUpdate);
         if (stopTimeUpdate.hasArrival()) {
-            checkE044StopTimeEvent(stopTimeUpdate.getArrival(), id + " arrival", errors);
+            checkE044StopTimeEvent(stopTimeUpdate.getArrival(), () -> getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate) + " arrival", errors);
         }
         if (stopTimeUpdate.hasDeparture()) {
-            checkE044StopTimeEvent(stopTimeUpdate.getDeparture(), id + " departure", errors);
+            checkE044StopTimeEvent(stopTimeUpdate.getDeparture(), () -> getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate) + " departure", errors);
         }
     }
 
@@ -383,10 +379,10 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
      * Checks StopTimeEvent for rule E044 - "stop_time_update arrival/departure doesn't have delay or time" and adds any errors to the provided errors list
      *
      * @param stopTimeEvent    the arrival or departure to examine
-     * @param occurrencePrefix prefix to use for the OccurrenceModel constructor
+     * @param occurrencePrefix supplies the prefix to use for the OccurrenceModel constructor
      * @param errors           list to add occurrence for E044 to
      */
-    private void checkE044StopTimeEvent(GtfsRealtime.TripUpdate.StopTimeEvent stopTimeEvent, String occurrencePrefix, List<OccurrenceModel> errors) {
+    private void checkE044StopTimeEvent(GtfsRealtime.TripUpdate.StopTimeEvent stopTimeEvent, Supplier<String> occurrencePrefix, List<OccurrenceModel> errors) {
         if (!stopTimeEvent.hasDelay() && !stopTimeEvent.hasTime()) {
             RuleUtils.addOccurrence(ValidationRules.E044, occurrencePrefix, errors, _log);
         }
@@ -399,43 +395,48 @@ public class StopTimeUpdateValidator implements FeedEntityValidator {
      * @param tripUpdate       the trip_update to examine
      * @param stopTimeUpdate   the stop_time_update to examine
      * @param gtfsStopSequence the stop_sequence from the GTFS stop_times.txt data
-     * @param stop             the GTFS stop that is paired with the provided gtfsStopSequence, using stop_id from the same record in stop_times.txt
+     * @param gtfsStopId       the GTFS stop_id that is paired with the provided gtfsStopSequence in the same record in stop_times.txt
      * @param errors           the list to add the errors to
      */
-    private void checkE045(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, int gtfsStopSequence, Stop stop, List<OccurrenceModel> errors) {
-        if (stopTimeUpdate.hasStopId() && !stop.getId().getId().equals(stopTimeUpdate.getStopId())) {
-            String tripId = "GTFS-rt " + GtfsUtils.getTripId(entity, tripUpdate) + " ";
-            String stopSequence = "stop_sequence " + stopTimeUpdate.getStopSequence();
-            String stopId = "stop_id " + stopTimeUpdate.getStopId();
-            String gtfsSummary = " but GTFS stop_sequence " + gtfsStopSequence + " has stop_id " + stop.getId().getId();
-            RuleUtils.addOccurrence(ValidationRules.E045, tripId + stopSequence + " has " + stopId + gtfsSummary, errors, _log);
+    private void checkE045(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, int gtfsStopSequence, String gtfsStopId, List<OccurrenceModel> errors) {
+        if (stopTimeUpdate.hasStopId() && !gtfsStopId.equals(stopTimeUpdate.getStopId())) {
+            RuleUtils.addOccurrence(ValidationRules.E045, () -> "GTFS-rt " + GtfsUtils.getTripId(entity, tripUpdate) + " stop_sequence " + stopTimeUpdate.getStopSequence()
+                    + " has stop_id " + stopTimeUpdate.getStopId() + " but GTFS stop_sequence " + gtfsStopSequence + " has stop_id " + gtfsStopId, errors, _log);
         }
     }
 
     /**
      * Checks E046 "GTFS-rt stop_time_update without time doesn't have arrival/departure_time in GTFS", and adds any errors to the provided error list.
      *
-     * @param entity         entity that the trip_update is from
-     * @param tripUpdate     the trip_update to examine
-     * @param stopTimeUpdate the stop_time_update to examine
-     * @param gtfsStopTime   the entry from GTFS stop_times.txt that corresponds to the provided GTFS stopTimeUpdate
-     * @param errors         the list to add the errors to
+     * @param entity            entity that the trip_update is from
+     * @param tripUpdate        the trip_update to examine
+     * @param stopTimeUpdate    the stop_time_update to examine
+     * @param gtfsStopTimes     the GTFS stop_times.txt records for the trip
+     * @param gtfsStopTimeIndex position of the record in gtfsStopTimes that corresponds to the provided GTFS stopTimeUpdate
+     * @param errors            the list to add the errors to
      */
-    private void checkE046(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, StopTime gtfsStopTime, List<OccurrenceModel> errors) {
-        StringBuilder prefixBuilder = new StringBuilder();
-        prefixBuilder.append("GTFS-rt " + GtfsUtils.getTripId(entity, tripUpdate) + " ");
-        prefixBuilder.append(GtfsUtils.getStopTimeUpdateId(stopTimeUpdate) + " ");
+    private void checkE046(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate, TripStopTimes gtfsStopTimes, int gtfsStopTimeIndex, List<OccurrenceModel> errors) {
         if (stopTimeUpdate.hasArrival()) {
-            if (!stopTimeUpdate.getArrival().hasTime() && !gtfsStopTime.isArrivalTimeSet()) {
-                String prefix = prefixBuilder.toString() + "arrival.time";
-                RuleUtils.addOccurrence(ValidationRules.E046, prefix, errors, _log);
+            if (!stopTimeUpdate.getArrival().hasTime() && !gtfsStopTimes.isArrivalTimeSet(gtfsStopTimeIndex)) {
+                RuleUtils.addOccurrence(ValidationRules.E046, () -> "GTFS-rt " + getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate) + " arrival.time", errors, _log);
             }
         }
         if (stopTimeUpdate.hasDeparture()) {
-            if (!stopTimeUpdate.getDeparture().hasTime() && !gtfsStopTime.isDepartureTimeSet()) {
-                String prefix = prefixBuilder.toString() + "departure.time";
-                RuleUtils.addOccurrence(ValidationRules.E046, prefix, errors, _log);
+            if (!stopTimeUpdate.getDeparture().hasTime() && !gtfsStopTimes.isDepartureTimeSet(gtfsStopTimeIndex)) {
+                RuleUtils.addOccurrence(ValidationRules.E046, () -> "GTFS-rt " + getStopTimeUpdateText(entity, tripUpdate, stopTimeUpdate) + " departure.time", errors, _log);
             }
         }
     }
+
+    /**
+     * Returns the trip_id and stop_sequence/stop_id of the provided stop_time_update for occurrence text
+     *
+     * @param entity         entity that the trip_update is from
+     * @param tripUpdate     the trip_update that contains stopTimeUpdate
+     * @param stopTimeUpdate the stop_time_update to describe
+     * @return the trip_id and stop_sequence/stop_id of the provided stop_time_update (e.g., "trip_id 1234 stop_sequence 5")
+     */
+    private static String getStopTimeUpdateText(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+        return GtfsUtils.getTripId(entity, tripUpdate) + " " + GtfsUtils.getStopTimeUpdateId(stopTimeUpdate);
+    }
 }
@@ -23,7 +23,9 @@ import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementVisitor;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
@@ -39,73 +41,84 @@ import static edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules.E015;
  * E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
  * E015 - All stop_ids referenced in GTFS-rt TripUpdates and VehiclePositions feeds must have the location_type = 0
  */
-public class StopValidator implements FeedEntityValidator {
+public class StopValidator implements FeedElementValidator {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(StopValidator.class);
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
-        List<OccurrenceModel> e011List = new ArrayList<>();
-        List<OccurrenceModel> e015List = new ArrayList<>();
-        List<GtfsRealtime.FeedEntity> allEntities = feedMessage.getEntityList();
+    public FeedElementVisitor newVisitor(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        return new Visitor(gtfsMetadata);
+    }
 
-        // Checks all of the RT feeds entities and checks if matching stop_ids are available in the GTFS feed
-        for (GtfsRealtime.FeedEntity entity : allEntities) {
-            String entityId = entity.getId();
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-                List<GtfsRealtime.TripUpdate.StopTimeUpdate> stopTimeUpdateList = tripUpdate.getStopTimeUpdateList();
-                for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : stopTimeUpdateList) {
-                    if (stopTimeUpdate.hasStopId()) {
-                        String prefix = "trip_id " + tripUpdate.getTrip().getTripId() + " stop_id " + stopTimeUpdate.getStopId();
-                        if (!gtfsMetadata.getStopIds().contains(stopTimeUpdate.getStopId())) {
-                            // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
-                            RuleUtils.addOccurrence(E011, prefix, e011List, _log);
-                        }
-                        Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(stopTimeUpdate.getStopId());
-                        if (locationType != null && locationType != 0) {
-                            // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
-                            RuleUtils.addOccurrence(E015, prefix, e015List, _log);
-                        }
-                    }
+    /**
+     * Checks all of the RT feeds entities and checks if matching stop_ids are available in the GTFS feed
+     */
+    private static class Visitor implements FeedElementVisitor {
+
+        private final GtfsMetadata mGtfsMetadata;
+        private final List<OccurrenceModel> mE011List = new ArrayList<>();
+        private final List<OccurrenceModel> mE015List = new ArrayList<>();
+
+        Visitor(GtfsMetadata gtfsMetadata) {
+            mGtfsMetadata = gtfsMetadata;
+        }
+
+        @Override
+        public void onStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+            if (stopTimeUpdate.hasStopId()) {
+                String prefix = "trip_id " + tripUpdate.getTrip().getTripId() + " stop_id " + stopTimeUpdate.getStopId();
+                if (!mGtfsMetadata.getStopIds().contains(stopTimeUpdate.getStopId())) {
+                    // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
+                    RuleUtils.addOccurrence(E011, prefix, mE011List, _log);
+                }
+                Integer locationType = mGtfsMetadata.getStopLocationType(stopTimeUpdate.getStopId());
+                if (locationType != null && locationType != 0) {
+                    // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
+                    RuleUtils.addOccurrence(E015, prefix, mE015List, _log);
                 }
             }
-            if (entity.hasVehicle()) {
-                GtfsRealtime.VehiclePosition v = entity.getVehicle();
-                if (v.hasStopId()) {
-                    if (!gtfsMetadata.getStopIds().contains(v.getStopId())) {
-                        // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
-                        String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
-                        RuleUtils.addOccurrence(E011, prefix, e011List, _log);
-                    }
-                    Integer locationType = gtfsMetadata.getStopToLocationTypeMap().get(v.getStopId());
-                    if (locationType != null && locationType != 0) {
-                        // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
-                        String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
-                        RuleUtils.addOccurrence(E015, prefix, e015List, _log);
-                    }
+        }
+
+        @Override
+        public void onVehicle(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition v) {
+            if (v.hasStopId()) {
+                if (!mGtfsMetadata.getStopIds().contains(v.getStopId())) {
+                    // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
+                    String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
+                    RuleUtils.addOccurrence(E011, prefix, mE011List, _log);
+                }
+                Integer locationType = mGtfsMetadata.getStopLocationType(v.getStopId());
+                if (locationType != null && locationType != 0) {
+                    // E015 - All stop_ids referenced in GTFS-rt feeds must have the location_type = 0
+                    String prefix = (v.hasVehicle() && v.getVehicle().hasId() ? "vehicle_id " + v.getVehicle().getId() + " " : "") + "stop_id " + v.getStopId();
+                    RuleUtils.addOccurrence(E015, prefix, mE015List, _log);
                 }
             }
-            if (entity.hasAlert()) {
-                List<GtfsRealtime.EntitySelector> informedEntityList = entity.getAlert().getInformedEntityList();
-                for (GtfsRealtime.EntitySelector entitySelector : informedEntityList) {
-                    if (entitySelector.hasStopId()) {
-                        String prefix = "alert entity ID " + entityId + " stop_id " + entitySelector.getStopId();
-                        if (!gtfsMetadata.getStopIds().contains(entitySelector.getStopId())) {
-                            // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
-                            RuleUtils.addOccurrence(E011, prefix, e011List, _log);
-                        }
+        }
+
+        @Override
+        public void onAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+            for (GtfsRealtime.EntitySelector entitySelector : alert.getInformedEntityList()) {
+                if (entitySelector.hasStopId()) {
+                    String prefix = "alert entity ID " + entity.getId() + " stop_id " + entitySelector.getStopId();
+                    if (!mGtfsMetadata.getStopIds().contains(entitySelector.getStopId())) {
+                        // E011 - All stop_ids referenced in GTFS-rt feed must appear in the GTFS feed
+                        RuleUtils.addOccurrence(E011, prefix, mE011List, _log);
                     }
                 }
             }
         }
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!e011List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E011), e011List));
-        }
-        if (!e015List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E015), e015List));
+
+        @Override
+        public List<ErrorListHelperModel> getErrors() {
+            List<ErrorListHelperModel> errors = new ArrayList<>();
+            if (!mE011List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E011), mE011List));
+            }
+            if (!mE015List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E015), mE015List));
+            }
+            return errors;
         }
-        return errors;
     }
 }
@@ -25,7 +25,9 @@ import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
-import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementVisitor;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
@@ -53,7 +55,7 @@ import static edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules.*;
  *  E048 - header` `timestamp` not populated
  *  E050 - `timestamp` is in the future
  */
-public class TimestampValidator implements FeedEntityValidator {
+public class TimestampValidator implements FeedElementValidator {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(TimestampValidator.class);
 
@@ -62,277 +64,304 @@ public class TimestampValidator implements FeedEntityValidator {
     private final static long IN_FUTURE_TOLERANCE_SECONDS = 60L; // Maximum allowed amount of time for a timetamp to be in the future, in seconds (E050)
 
     @Override
-    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+    public FeedElementVisitor newVisitor(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
         if (feedMessage.equals(previousFeedMessage)) {
             throw new IllegalArgumentException("feedMessage and previousFeedMessage must not be the same");
         }
-        List<OccurrenceModel> w001List = new ArrayList<>();
-        List<OccurrenceModel> w007List = new ArrayList<>();
-        List<OccurrenceModel> w008List = new ArrayList<>();
-        List<OccurrenceModel> e001List = new ArrayList<>();
-        List<OccurrenceModel> e012List = new ArrayList<>();
-        List<OccurrenceModel> e017List = new ArrayList<>();
-        List<OccurrenceModel> e018List = new ArrayList<>();
-        List<OccurrenceModel> e022List = new ArrayList<>();
-        List<OccurrenceModel> e025List = new ArrayList<>();
-        List<OccurrenceModel> e048List = new ArrayList<>();
-        List<OccurrenceModel> e050List = new ArrayList<>();
+        return new Visitor(currentTimeMillis, gtfsMetadata, previousFeedMessage);
+    }
+
+    private class Visitor implements FeedElementVisitor {
+
+        private final long mCurrentTimeMillis;
+        private final GtfsMetadata mGtfsMetadata;
+        private final GtfsRealtime.FeedMessage mPreviousFeedMessage;
+        private final String mCurrentTimeText;
+        private long mHeaderTimestamp;
 
-        String currentTimeText = TimestampUtils.posixToClock(TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis), gtfsMetadata.getTimeZone());
+        // State of the trip_update being visited, for comparing each stop_time_update to the previous one
+        private String mTripId;
+        private Long mPreviousArrivalTime;
+        private Long mPreviousDepartureTime;
+
+        private final List<OccurrenceModel> mW001List = new ArrayList<>();
+        private final List<OccurrenceModel> mW007List = new ArrayList<>();
+        private final List<OccurrenceModel> mW008List = new ArrayList<>();
+        private final List<OccurrenceModel> mE001List = new ArrayList<>();
+        private final List<OccurrenceModel> mE012List = new ArrayList<>();
+        private final List<OccurrenceModel> mE017List = new ArrayList<>();
+        private final List<OccurrenceModel> mE018List = new ArrayList<>();
+        private final List<OccurrenceModel> mE022List = new ArrayList<>();
+        private final List<OccurrenceModel> mE025List = new ArrayList<>();
+        private final List<OccurrenceModel> mE048List = new ArrayList<>();
+        private final List<OccurrenceModel> mE050List = new ArrayList<>();
+
+        Visitor(long currentTimeMillis, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage previousFeedMessage) {
+            mCurrentTimeMillis = currentTimeMillis;
+            mGtfsMetadata = gtfsMetadata;
+            mPreviousFeedMessage = previousFeedMessage;
+            mCurrentTimeText = TimestampUtils.posixToClock(TimeUnit.MILLISECONDS.toSeconds(currentTimeMillis), gtfsMetadata.getTimeZone());
+        }
 
         /**
          * Validate FeedHeader timestamp
          */
-        long headerTimestamp = feedMessage.getHeader().getTimestamp();
-        if (headerTimestamp == 0) {
-            boolean isV2orHigher = true;
-            try {
-                isV2orHigher = GtfsUtils.isV2orHigher(feedMessage.getHeader());
-            } catch (Exception e) {
-                _log.error("Error checking header version for E048/W001, logging as E048: " + e);
-            }
-            if (isV2orHigher) {
-                // E048 - header timestamp not populated
-                RuleUtils.addOccurrence(E048, "", e048List, _log);
-            } else {
-                // W001 - Timestamp not populated
-                RuleUtils.addOccurrence(W001, "header", w001List, _log);
-            }
-        } else {
-            if (!isPosix(headerTimestamp)) {
-                // E001 - Not in POSIX time
-                RuleUtils.addOccurrence(E001, "header.timestamp", e001List, _log);
-            } else {
-                long ageMillis = getAge(currentTimeMillis, headerTimestamp);
-                long ageMinutes = TimeUnit.MILLISECONDS.toMinutes(ageMillis);
-                long ageSeconds = TimeUnit.MILLISECONDS.toSeconds(ageMillis);
-                if (ageMillis > TimeUnit.SECONDS.toMillis(MAX_AGE_SECONDS)) {
-                    // W008 - Header timestamp is older than 65 seconds
-                    RuleUtils.addOccurrence(W008, "header.timestamp is " + ageMinutes + " min " + ageSeconds % 60 + " sec", w008List, _log);
+        @Override
+        public void onHeader(GtfsRealtime.FeedHeader header) {
+            long headerTimestamp = header.getTimestamp();
+            mHeaderTimestamp = headerTimestamp;
+            if (headerTimestamp == 0) {
+                boolean isV2orHigher = true;
+                try {
+                    isV2orHigher = GtfsUtils.isV2orHigher(header);
+                } catch (Exception e) {
+                    _log.error("Error checking header version for E048/W001, logging as E048: " + e);
                 }
-                if (TimestampUtils.isInFuture(currentTimeMillis, headerTimestamp, IN_FUTURE_TOLERANCE_SECONDS)) {
-                    // E050 - timestamp is in the future
-                    String headerTimestampText = TimestampUtils.posixToClock(headerTimestamp, gtfsMetadata.getTimeZone());
-                    RuleUtils.addOccurrence(E050, "header.timestamp " + headerTimestampText + " (" + headerTimestamp + ") is " + Math.abs(ageMinutes) + " min " + Math.abs(ageSeconds) % 60 + " sec greater than " + currentTimeText + " (" + currentTimeMillis + ")", e050List, _log);
+                if (isV2orHigher) {
+                    // E048 - header timestamp not populated
+                    RuleUtils.addOccurrence(E048, "", mE048List, _log);
+                } else {
+                    // W001 - Timestamp not populated
+                    RuleUtils.addOccurrence(W001, "header", mW001List, _log);
+                }
+            } else {
+                if (!isPosix(headerTimestamp)) {
+                    // E001 - Not in POSIX time
+                    RuleUtils.addOccurrence(E001, "header.timestamp", mE001List, _log);
+                } else {
+                    long ageMillis = getAge(mCurrentTimeMillis, headerTimestamp);
+                    long ageMinutes = TimeUnit.MILLISECONDS.toMinutes(ageMillis);
+                    long ageSeconds = TimeUnit.MILLISECONDS.toSeconds(ageMillis);
+                    if (ageMillis > TimeUnit.SECONDS.toMillis(MAX_AGE_SECONDS)) {
+                        // W008 - Header timestamp is older than 65 seconds
+                        RuleUtils.addOccurrence(W008, "header.timestamp is " + ageMinutes + " min " + ageSeconds % 60 + " sec", mW008List, _log);
+                    }
+                    if (TimestampUtils.isInFuture(mCurrentTimeMillis, headerTimestamp, IN_FUTURE_TOLERANCE_SECONDS)) {
+                        // E050 - timestamp is in the future
+                        String headerTimestampText = TimestampUtils.posixToClock(headerTimestamp, mGtfsMetadata.getTimeZone());
+                        RuleUtils.addOccurrence(E050, "header.timestamp " + headerTimestampText + " (" + headerTimestamp + ") is " + Math.abs(ageMinutes) + " min " + Math.abs(ageSeconds) % 60 + " sec greater than " + mCurrentTimeText + " (" + mCurrentTimeMillis + ")", mE050List, _log);
+                    }
                 }
-            }
 
-            if (previousFeedMessage != null && previousFeedMessage.getHeader().getTimestamp() != 0) {
-                long previousTimestamp = previousFeedMessage.getHeader().getTimestamp();
-                long interval = headerTimestamp - previousTimestamp;
-                if (headerTimestamp == previousTimestamp) {
-                    // E017 - GTFS-rt content changed but has the same timestamp
-                    RuleUtils.addOccurrence(E017, "header.timestamp of " + headerTimestamp, e017List, _log);
-                } else if (headerTimestamp < previousTimestamp) {
-                    // E018 - GTFS-rt header timestamp decreased between two sequential iterations
-                    String prefix = "header.timestamp of " + headerTimestamp + " is less than the header.timestamp of " + previousFeedMessage.getHeader().getTimestamp();
-                    RuleUtils.addOccurrence(E018, prefix, e018List, _log);
-                } else if (interval > MINIMUM_REFRESH_INTERVAL_SECONDS) {
-                    // W007 - Refresh interval is more than 35 seconds
-                    RuleUtils.addOccurrence(W007, interval + " second interval between consecutive header.timestamps", w007List, _log);
+                if (mPreviousFeedMessage != null && mPreviousFeedMessage.getHeader().getTimestamp() != 0) {
+                    long previousTimestamp = mPreviousFeedMessage.getHeader().getTimestamp();
+                    long interval = headerTimestamp - previousTimestamp;
+                    if (headerTimestamp == previousTimestamp) {
+                        // E017 - GTFS-rt content changed but has the same timestamp
+                        RuleUtils.addOccurrence(E017, "header.timestamp of " + headerTimestamp, mE017List, _log);
+                    } else if (headerTimestamp < previousTimestamp) {
+                        // E018 - GTFS-rt header timestamp decreased between two sequential iterations
+                        String prefix = "header.timestamp of " + headerTimestamp + " is less than the header.timestamp of " + mPreviousFeedMessage.getHeader().getTimestamp();
+                        RuleUtils.addOccurrence(E018, prefix, mE018List, _log);
+                    } else if (interval > MINIMUM_REFRESH_INTERVAL_SECONDS) {
+                        // W007 - Refresh interval is more than 35 seconds
+                        RuleUtils.addOccurrence(W007, interval + " second interval between consecutive header.timestamps", mW007List, _log);
+                    }
                 }
             }
         }
 
-        for (GtfsRealtime.FeedEntity entity : feedMessage.getEntityList()) {
-            if (entity.hasTripUpdate()) {
-                GtfsRealtime.TripUpdate tripUpdate = entity.getTripUpdate();
-                long tripUpdateTimestamp = tripUpdate.getTimestamp();
-
-                /**
-                 * Validate TripUpdate timestamps
-                 */
-                String id = GtfsUtils.getTripId(entity, tripUpdate);
-                if (tripUpdateTimestamp == 0) {
-                    // W001 - Timestamp not populated
-                    RuleUtils.addOccurrence(W001, id, w001List, _log);
+        /**
+         * Validate TripUpdate timestamps
+         */
+        @Override
+        public void onTripUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate) {
+            long tripUpdateTimestamp = tripUpdate.getTimestamp();
+            String id = GtfsUtils.getTripId(entity, tripUpdate);
+            mTripId = id;
+            mPreviousArrivalTime = null;
+            mPreviousDepartureTime = null;
+            if (tripUpdateTimestamp == 0) {
+                // W001 - Timestamp not populated
+                RuleUtils.addOccurrence(W001, id, mW001List, _log);
+            } else {
+                if (mHeaderTimestamp != 0 && tripUpdateTimestamp > mHeaderTimestamp) {
+                    // E012 - Header timestamp should be greater than or equal to all other timestamps
+                    RuleUtils.addOccurrence(E012, id + " timestamp " + tripUpdateTimestamp, mE012List, _log);
+                }
+                if (!isPosix(tripUpdateTimestamp)) {
+                    // E001 - Not in POSIX time
+                    RuleUtils.addOccurrence(E001, id + " timestamp " + tripUpdateTimestamp, mE001List, _log);
                 } else {
-                    if (headerTimestamp != 0 && tripUpdateTimestamp > headerTimestamp) {
-                        // E012 - Header timestamp should be greater than or equal to all other timestamps
-                        RuleUtils.addOccurrence(E012, id + " timestamp " + tripUpdateTimestamp, e012List, _log);
-                    }
-                    if (!isPosix(tripUpdateTimestamp)) {
-                        // E001 - Not in POSIX time
-                        RuleUtils.addOccurrence(E001, id + " timestamp " + tripUpdateTimestamp, e001List, _log);
-                    } else {
-                        if (TimestampUtils.isInFuture(currentTimeMillis, tripUpdateTimestamp, IN_FUTURE_TOLERANCE_SECONDS)) {
-                            // E050 - timestamp is in the future
-                            long ageMillis = getAge(currentTimeMillis, tripUpdateTimestamp);
-                            long ageMinutes = Math.abs(TimeUnit.MILLISECONDS.toMinutes(ageMillis));
-                            long ageSeconds = Math.abs(TimeUnit.MILLISECONDS.toSeconds(ageMillis));
-                            String tripUpdateTimestampText = TimestampUtils.posixToClock(tripUpdateTimestamp, gtfsMetadata.getTimeZone());
-                            RuleUtils.addOccurrence(E050, id + " timestamp " + tripUpdateTimestampText + " (" + tripUpdateTimestamp + ") is " + ageMinutes + " min " + ageSeconds % 60 + " sec greater than " + currentTimeText + " (" + currentTimeMillis + ")", e050List, _log);
-                        }
+                    if (TimestampUtils.isInFuture(mCurrentTimeMillis, tripUpdateTimestamp, IN_FUTURE_TOLERANCE_SECONDS)) {
+                        // E050 - timestamp is in the future
+                        long ageMillis = getAge(mCurrentTimeMillis, tripUpdateTimestamp);
+                        long ageMinutes = Math.abs(TimeUnit.MILLISECONDS.toMinutes(ageMillis));
+                        long ageSeconds = Math.abs(TimeUnit.MILLISECONDS.toSeconds(ageMillis));
+                        String tripUpdateTimestampText = TimestampUtils.posixToClock(tripUpdateTimestamp, mGtfsMetadata.getTimeZone());
+                        RuleUtils.addOccurrence(E050, id + " timestamp " + tripUpdateTimestampText + " (" + tripUpdateTimestamp + ") is " + ageMinutes + " min " + ageSeconds % 60 + " sec greater than " + mCurrentTimeText + " (" + mCurrentTimeMillis + ")", mE050List, _log);
                     }
                 }
+            }
+        }
 
-                /**
-                 * Validate TripUpdate StopTimeUpdate times
-                 */
-                List<GtfsRealtime.TripUpdate.StopTimeUpdate> stopTimeUpdates = tripUpdate.getStopTimeUpdateList();
-                if (stopTimeUpdates != null) {
-                    Long previousArrivalTime = null;
-                    String previousArrivalTimeText = null;
-                    Long previousDepartureTime = null;
-                    String previousDepartureTimeText = null;
-                    for (GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate : stopTimeUpdates) {
-                        String stopDescription = stopTimeUpdate.hasStopSequence() ? " stop_sequence " + stopTimeUpdate.getStopSequence() : " stop_id " + stopTimeUpdate.getStopId();
-                        Long arrivalTime = null;
-                        String arrivalTimeText;
-                        Long departureTime = null;
-                        String departureTimeText;
-                        if (stopTimeUpdate.hasArrival()) {
-                            if (stopTimeUpdate.getArrival().hasTime()) {
-                                arrivalTime = stopTimeUpdate.getArrival().getTime();
-                                arrivalTimeText = TimestampUtils.posixToClock(arrivalTime, gtfsMetadata.getTimeZone());
-
-                                if (!isPosix(arrivalTime)) {
-                                    // E001 - Not in POSIX time
-                                    RuleUtils.addOccurrence(E001, id + stopDescription + " arrival_time " + arrivalTime, e001List, _log);
-                                }
-                                if (previousArrivalTime != null && arrivalTime < previousArrivalTime) {
-                                    // E022 - this stop arrival time is < previous stop arrival time
-                                    String prefix = id + stopDescription +
-                                            " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is less than previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousArrivalTime != null && Objects.equals(arrivalTime, previousArrivalTime)) {
-                                    // E022 - this stop arrival time is == previous stop arrival time
-                                    String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is equal to previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousDepartureTime != null && arrivalTime < previousDepartureTime) {
-                                    // E022 - this stop arrival time is < previous stop departure time
-                                    String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is less than previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousDepartureTime != null && Objects.equals(arrivalTime, previousDepartureTime)) {
-                                    // E022 - this stop arrival time is == previous stop departure time
-                                    String prefix = id + stopDescription + " arrival_time " + arrivalTimeText + " (" + arrivalTime + ") is equal to previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                            }
-                        }
+        /**
+         * Validate TripUpdate StopTimeUpdate times
+         */
+        @Override
+        public void onStopTimeUpdate(GtfsRealtime.FeedEntity entity, GtfsRealtime.TripUpdate tripUpdate, GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+            // Occurrence text (including the formatted times) is only built if the occurrence is logged or output
+            String id = mTripId;
+            Long previousArrivalTime = mPreviousArrivalTime;
+            Long previousDepartureTime = mPreviousDepartureTime;
 
-                        if (stopTimeUpdate.hasDeparture()) {
-                            if (stopTimeUpdate.getDeparture().hasTime()) {
-                                departureTime = stopTimeUpdate.getDeparture().getTime();
-                                departureTimeText = TimestampUtils.posixToClock(departureTime, gtfsMetadata.getTimeZone());
+            Long arrivalTime = null;
+            Long departureTime = null;
+            if (stopTimeUpdate.hasArrival()) {
+                if (stopTimeUpdate.getArrival().hasTime()) {
+                    long arrival = stopTimeUpdate.getArrival().getTime();
+                    arrivalTime = arrival;
 
-                                if (!isPosix(departureTime)) {
-                                    // E001 - Not in POSIX time
-                                    RuleUtils.addOccurrence(E001, id + stopDescription + " departure_time " + departureTime, e001List, _log);
-                                }
-                                if (previousDepartureTime != null && departureTime < previousDepartureTime) {
-                                    // E022 - this stop departure time is < previous stop departure time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is less than previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousDepartureTime != null && Objects.equals(departureTime, previousDepartureTime)) {
-                                    // E022 - this stop departure time is == previous stop departure time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is equal to previous stop departure_time " + previousDepartureTimeText + " (" + previousDepartureTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousArrivalTime != null && departureTime < previousArrivalTime) {
-                                    // E022 - this stop departure time is < previous stop arrival time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is less than previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (previousArrivalTime != null && Objects.equals(departureTime, previousArrivalTime)) {
-                                    // E022 - this stop departure time is == previous stop arrival time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText + " (" + departureTime + ") is equal to previous stop arrival_time " + previousArrivalTimeText + " (" + previousArrivalTime + ")";
-                                    RuleUtils.addOccurrence(E022, prefix, e022List, _log);
-                                }
-                                if (stopTimeUpdate.getArrival().hasTime() && departureTime < stopTimeUpdate.getArrival().getTime()) {
-                                    // E025 - stop_time_update departure time is before arrival time
-                                    String prefix = id + stopDescription + " departure_time " + departureTimeText
-                                            + " (" + departureTime + ") is less than the same stop arrival_time " +
-                                            TimestampUtils.posixToClock(stopTimeUpdate.getArrival().getTime(), gtfsMetadata.getTimeZone())
-                                            + " (" + stopTimeUpdate.getArrival().getTime() + ")";
-                                    RuleUtils.addOccurrence(E025, prefix, e025List, _log);
-                                }
-                            }
-                        }
-                        if (arrivalTime != null) {
-                            previousArrivalTime = arrivalTime;
-                            previousArrivalTimeText = TimestampUtils.posixToClock(previousArrivalTime, gtfsMetadata.getTimeZone());
-                        }
-                        if (departureTime != null) {
-                            previousDepartureTime = departureTime;
-                            previousDepartureTimeText = TimestampUtils.posixToClock(previousDepartureTime, gtfsMetadata.getTimeZone());
-                        }
+                    if (!isPosix(arrival)) {
+                        // E001 - Not in POSIX time
+                        RuleUtils.addOccurrence(E001, () -> id + getStopDescription(stopTimeUpdate) + " arrival_time " + arrival, mE001List, _log);
+                    }
+                    if (previousArrivalTime != null && arrival < previousArrivalTime) {
+                        // E022 - this stop arrival time is < previous stop arrival time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) +
+                                " arrival_time " + getTimeText(arrival) + " is less than previous stop arrival_time " + getTimeText(previousArrivalTime), mE022List, _log);
+                    }
+                    if (previousArrivalTime != null && Objects.equals(arrivalTime, previousArrivalTime)) {
+                        // E022 - this stop arrival time is == previous stop arrival time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " arrival_time " + getTimeText(arrival) + " is equal to previous stop arrival_time " + getTimeText(previousArrivalTime), mE022List, _log);
+                    }
+                    if (previousDepartureTime != null && arrival < previousDepartureTime) {
+                        // E022 - this stop arrival time is < previous stop departure time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " arrival_time " + getTimeText(arrival) + " is less than previous stop departure_time " + getTimeText(previousDepartureTime), mE022List, _log);
+                    }
+                    if (previousDepartureTime != null && Objects.equals(arrivalTime, previousDepartureTime)) {
+                        // E022 - this stop arrival time is == previous stop departure time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " arrival_time " + getTimeText(arrival) + " is equal to previous stop departure_time " + getTimeText(previousDepartureTime), mE022List, _log);
                     }
                 }
             }
 
-            if (entity.hasVehicle()) {
-                GtfsRealtime.VehiclePosition vehiclePosition = entity.getVehicle();
-                long vehicleTimestamp = vehiclePosition.getTimestamp();
+            if (stopTimeUpdate.hasDeparture()) {
+                if (stopTimeUpdate.getDeparture().hasTime()) {
+                    long departure = stopTimeUpdate.getDeparture().getTime();
+                    departureTime = departure;
 
-                if (vehicleTimestamp == 0) {
-                    // W001 - Timestamp not populated
-                    RuleUtils.addOccurrence(W001, "vehicle_id " + vehiclePosition.getVehicle().getId(), w001List, _log);
-                } else {
-                    String prefix = "vehicle_id " + vehiclePosition.getVehicle().getId() + " timestamp " + vehicleTimestamp;
-                    if (headerTimestamp != 0 && vehicleTimestamp > headerTimestamp) {
-                        // E012 - Header timestamp should be greater than or equal to all other timestamps
-                        RuleUtils.addOccurrence(E012, prefix, e012List, _log);
-                    }
-                    if (!isPosix(vehicleTimestamp)) {
+                    if (!isPosix(departure)) {
                         // E001 - Not in POSIX time
-                        RuleUtils.addOccurrence(E001, prefix, e001List, _log);
-                    } else {
-                        if (TimestampUtils.isInFuture(currentTimeMillis, vehicleTimestamp, IN_FUTURE_TOLERANCE_SECONDS)) {
-                            // E050 - timestamp is in the future
-                            long ageMillis = getAge(currentTimeMillis, vehicleTimestamp);
-                            long ageMinutes = Math.abs(TimeUnit.MILLISECONDS.toMinutes(ageMillis));
-                            long ageSeconds = Math.abs(TimeUnit.MILLISECONDS.toSeconds(ageMillis));
-                            String vehicleTimestampText = TimestampUtils.posixToClock(vehicleTimestamp, gtfsMetadata.getTimeZone());
-                            RuleUtils.addOccurrence(E050, "vehicle_id " + vehiclePosition.getVehicle().getId() + " timestamp " + vehicleTimestampText + " (" + vehicleTimestamp + ") is " + ageMinutes + " min " + ageSeconds % 60 + " sec greater than " + currentTimeText + " (" + currentTimeMillis + ")", e050List, _log);
-                        }
+                        RuleUtils.addOccurrence(E001, () -> id + getStopDescription(stopTimeUpdate) + " departure_time " + departure, mE001List, _log);
+                    }
+                    if (previousDepartureTime != null && departure < previousDepartureTime) {
+                        // E022 - this stop departure time is < previous stop departure time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " departure_time " + getTimeText(departure) + " is less than previous stop departure_time " + getTimeText(previousDepartureTime), mE022List, _log);
+                    }
+                    if (previousDepartureTime != null && Objects.equals(departureTime, previousDepartureTime)) {
+                        // E022 - this stop departure time is == previous stop departure time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " departure_time " + getTimeText(departure) + " is equal to previous stop departure_time " + getTimeText(previousDepartureTime), mE022List, _log);
+                    }
+                    if (previousArrivalTime != null && departure < previousArrivalTime) {
+                        // E022 - this stop departure time is < previous stop arrival time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " departure_time " + getTimeText(departure) + " is less than previous stop arrival_time " + getTimeText(previousArrivalTime), mE022List, _log);
+                    }
+                    if (previousArrivalTime != null && Objects.equals(departureTime, previousArrivalTime)) {
+                        // E022 - this stop departure time is == previous stop arrival time
+                        RuleUtils.addOccurrence(E022, () -> id + getStopDescription(stopTimeUpdate) + " departure_time " + getTimeText(departure) + " is equal to previous stop arrival_time " + getTimeText(previousArrivalTime), mE022List, _log);
+                    }
+                    if (stopTimeUpdate.getArrival().hasTime() && departure < stopTimeUpdate.getArrival().getTime()) {
+                        // E025 - stop_time_update departure time is before arrival time
+                        RuleUtils.addOccurrence(E025, () -> id + getStopDescription(stopTimeUpdate) + " departure_time " + getTimeText(departure)
+                                + " is less than the same stop arrival_time " + getTimeText(stopTimeUpdate.getArrival().getTime()), mE025List, _log);
                     }
                 }
             }
-
-            if (entity.hasAlert()) {
-                checkAlertE001(entity, e001List);
+            if (arrivalTime != null) {
+                mPreviousArrivalTime = arrivalTime;
+            }
+            if (departureTime != null) {
+                mPreviousDepartureTime = departureTime;
             }
         }
-        List<ErrorListHelperModel> errors = new ArrayList<>();
-        if (!w001List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W001), w001List));
-        }
-        if (!w007List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W007), w007List));
-        }
-        if (!w008List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(W008), w008List));
-        }
-        if (!e001List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E001), e001List));
-        }
-        if (!e012List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E012), e012List));
-        }
-        if (!e017List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E017), e017List));
-        }
-        if (!e018List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E018), e018List));
-        }
-        if (!e022List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E022), e022List));
+
+        /**
+         * Returns the clock time and POSIX time of the provided timestamp for occurrence text - for example, "08:00:00 (1500000000)"
+         */
+        private String getTimeText(long timestamp) {
+            return TimestampUtils.posixToClock(timestamp, mGtfsMetadata.getTimeZone()) + " (" + timestamp + ")";
         }
-        if (!e025List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E025), e025List));
+
+        @Override
+        public void onVehicle(GtfsRealtime.FeedEntity entity, GtfsRealtime.VehiclePosition vehiclePosition) {
+            long vehicleTimestamp = vehiclePosition.getTimestamp();
+
+            if (vehicleTimestamp == 0) {
+                // W001 - Timestamp not populated
+                RuleUtils.addOccurrence(W001, "vehicle_id " + vehiclePosition.getVehicle().getId(), mW001List, _log);
+            } else {
+                String prefix = "vehicle_id " + vehiclePosition.getVehicle().getId() + " timestamp " + vehicleTimestamp;
+                if (mHeaderTimestamp != 0 && vehicleTimestamp > mHeaderTimestamp) {
+                    // E012 - Header timestamp should be greater than or equal to all other timestamps
+                    RuleUtils.addOccurrence(E012, prefix, mE012List, _log);
+                }
+                if (!isPosix(vehicleTimestamp)) {
+                    // E001 - Not in POSIX time
+                    RuleUtils.addOccurrence(E001, prefix, mE001List, _log);
+                } else {
+                    if (TimestampUtils.isInFuture(mCurrentTimeMillis, vehicleTimestamp, IN_FUTURE_TOLERANCE_SECONDS)) {
+                        // E050 - timestamp is in the future
+                        long ageMillis = getAge(mCurrentTimeMillis, vehicleTimestamp);
+                        long ageMinutes = Math.abs(TimeUnit.MILLISECONDS.toMinutes(ageMillis));
+                        long ageSeconds = Math.abs(TimeUnit.MILLISECONDS.toSeconds(ageMillis));
+                        String vehicleTimestampText = TimestampUtils.posixToClock(vehicleTimestamp, mGtfsMetadata.getTimeZone());
+                        RuleUtils.addOccurrence(E050, "vehicle_id " + vehiclePosition.getVehicle().getId() + " timestamp " + vehicleTimestampText + " (" + vehicleTimestamp + ") is " + ageMinutes + " min " + ageSeconds % 60 + " sec greater than " + mCurrentTimeText + " (" + mCurrentTimeMillis + ")", mE050List, _log);
+                    }
+                }
+            }
         }
-        if (!e048List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E048), e048List));
+
+        @Override
+        public void onAlert(GtfsRealtime.FeedEntity entity, GtfsRealtime.Alert alert) {
+            checkAlertE001(entity, mE001List);
         }
-        if (!e050List.isEmpty()) {
-            errors.add(new ErrorListHelperModel(new MessageLogModel(E050), e050List));
+
+        @Override
+        public List<ErrorListHelperModel> getErrors() {
+            List<ErrorListHelperModel> errors = new ArrayList<>();
+            if (!mW001List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(W001), mW001List));
+            }
+            if (!mW007List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(W007), mW007List));
+            }
+            if (!mW008List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(W008), mW008List));
+            }
+            if (!mE001List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E001), mE001List));
+            }
+            if (!mE012List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E012), mE012List));
+            }
+            if (!mE017List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E017), mE017List));
+            }
+            if (!mE018List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E018), mE018List));
+            }
+            if (!mE022List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E022), mE022List));
+            }
+            if (!mE025List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E025), mE025List));
+            }
+            if (!mE048List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E048), mE048List));
+            }
+            if (!mE050List.isEmpty()) {
+                errors.add(new ErrorListHelperModel(new MessageLogModel(E050), mE050List));
+            }
+            return errors;
         }
-        return errors;
+    }
+
+    /**
+     * Returns the stop_sequence or stop_id of the provided stop_time_update for occurrence text - for example, " stop_sequence 5"
+     */
+    private static String getStopDescription(GtfsRealtime.TripUpdate.StopTimeUpdate stopTimeUpdate) {
+        return stopTimeUpdate.hasStopSequence() ? " stop_sequence " + stopTimeUpdate.getStopSequence() : " stop_id " + stopTimeUpdate.getStopId();
     }
 
     /**
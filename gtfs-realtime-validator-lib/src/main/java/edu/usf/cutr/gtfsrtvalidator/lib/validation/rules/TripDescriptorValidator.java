@@ -24,10 +24,9 @@ import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.TripStopTimes;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
 import org.apache.commons.lang3.StringUtils;
-import org.onebusaway.gtfs.model.StopTime;
-import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
@@ -98,8 +97,7 @@ public class TripDescriptorValidator implements FeedEntityValidator {
                     checkW006(entity, tripUpdate.getTrip(), errorListW006);
                 } else {
                     String tripId = tripUpdate.getTrip().getTripId();
-                    Trip trip = gtfsMetadata.getTrips().get(tripId);
-                    if (trip == null) {
+                    if (!gtfsMetadata.hasTrip(tripId)) {
                         if (!GtfsUtils.isAddedTrip(tripUpdate.getTrip())) {
                             // Trip isn't in GTFS data and isn't an ADDED trip - E003
                             RuleUtils.addOccurrence(E003, GtfsUtils.getTripId(entity, tripUpdate), errorListE003, _log);
@@ -146,8 +144,7 @@ public class TripDescriptorValidator implements FeedEntityValidator {
                 } else {
                     String tripId = trip.getTripId();
                     if (!StringUtils.isEmpty(tripId)) {
-                        Trip gtfsTrip = gtfsMetadata.getTrips().get(tripId);
-                        if (gtfsTrip == null) {
+                        if (!gtfsMetadata.hasTrip(tripId)) {
                             if (!GtfsUtils.isAddedTrip(trip)) {
                                 // E003 - Trip isn't in GTFS data and isn't an ADDED trip
                                 RuleUtils.addOccurrence(E003, "vehicle_id " + entity.getVehicle().getVehicle().getId() + " trip_id " + tripId, errorListE003, _log);
@@ -289,12 +286,12 @@ public class TripDescriptorValidator implements FeedEntityValidator {
         String tripId = trip.getTripId();
         if (tripId != null && !gtfsMetadata.getExactTimesZeroTripIds().contains(tripId) && !gtfsMetadata.getExactTimesOneTrips().containsKey(tripId)) {
             // Trip is a normal (not frequencies.txt) trip
-            List<StopTime> stopTimes = gtfsMetadata.getTripStopTimes().get(tripId);
-            if (stopTimes == null || stopTimes.isEmpty()) {
+            TripStopTimes stopTimes = gtfsMetadata.getTripStopTimes(tripId);
+            if (stopTimes == null || stopTimes.size() == 0) {
                 // There isn't a trip in GTFS trips.txt for this trip, or it doesn't have any records in GTFS stop_times.txt
                 return;
             }
-            int firstArrivalTime = stopTimes.get(0).getArrivalTime();
+            int firstArrivalTime = stopTimes.getArrivalTime(0);
             String formattedArrivalTime = TimestampUtils.secondsAfterMidnightToClock(firstArrivalTime);
             if (!startTime.equals(formattedArrivalTime)) {
                 String prefix = "GTFS-rt " + GtfsUtils.getVehicleAndTripIdText(entity) + " start_time is " + startTime + " and GTFS initial arrival_time is " + formattedArrivalTime;
@@ -329,10 +326,10 @@ public class TripDescriptorValidator implements FeedEntityValidator {
     private void checkE024(Object entity, GtfsRealtime.TripDescriptor trip, GtfsMetadata gtfsMetadata, List<OccurrenceModel> errors) {
         if (trip.hasDirectionId()) {
             int directionId = trip.getDirectionId();
-            Trip gtfsTrip = gtfsMetadata.getTrips().get(trip.getTripId());
-            if (gtfsTrip != null &&
-                    (gtfsTrip.getDirectionId() == null || !gtfsTrip.getDirectionId().equals(String.valueOf(directionId)))) {
-                String prefix = "GTFS-rt " + GtfsUtils.getVehicleAndTripIdText(entity) + " trip.direction_id is " + directionId + " but GTFS trip.direction_id is " + gtfsTrip.getDirectionId();
+            String gtfsDirectionId = gtfsMetadata.getTripDirectionId(trip.getTripId());
+            if (gtfsMetadata.hasTrip(trip.getTripId()) &&
+                    (gtfsDirectionId == null || !gtfsDirectionId.equals(String.valueOf(directionId)))) {
+                String prefix = "GTFS-rt " + GtfsUtils.getVehicleAndTripIdText(entity) + " trip.direction_id is " + directionId + " but GTFS trip.direction_id is " + gtfsDirectionId;
                 RuleUtils.addOccurrence(E024, prefix, errors, _log);
             }
         }
@@ -351,10 +348,10 @@ public class TripDescriptorValidator implements FeedEntityValidator {
         String routeId = entitySelector.getRouteId();
         GtfsRealtime.TripDescriptor tripDescriptor = entitySelector.getTrip();
         if (tripDescriptor.hasTripId()) {
-            Trip gtfsTrip = gtfsMetadata.getTrips().get(tripDescriptor.getTripId());
-            if (gtfsTrip != null && !routeId.equals(gtfsTrip.getRoute().getId().getId())) {
+            String gtfsRouteId = gtfsMetadata.getTripRouteId(tripDescriptor.getTripId());
+            if (gtfsRouteId != null && !routeId.equals(gtfsRouteId)) {
                 String prefix = "alert ID " + entity.getId() + " informed_entity.trip.trip_id "
-                        + tripDescriptor.getTripId() + " does not belong to informed_entity.route_id " + routeId + " (GTFS says it belongs to route_id " + gtfsTrip.getRoute().getId().getId() + ")";
+                        + tripDescriptor.getTripId() + " does not belong to informed_entity.route_id " + routeId + " (GTFS says it belongs to route_id " + gtfsRouteId + ")";
                 RuleUtils.addOccurrence(E030, prefix, errors, _log);
             }
         }
@@ -435,12 +432,11 @@ public class TripDescriptorValidator implements FeedEntityValidator {
                 // route_id isn't in GTFS data (which will be caught by E004) - return;
                 return;
             }
-            Trip gtfsTrip = gtfsMetadata.getTrips().get(trip.getTripId());
-            if (gtfsTrip == null) {
+            String gtfsRouteId = gtfsMetadata.getTripRouteId(trip.getTripId());
+            if (gtfsRouteId == null) {
                 // trip_id isn't in GTFS data (which will be caught by E003) - return;
                 return;
             }
-            String gtfsRouteId = gtfsTrip.getRoute().getId().getId();
             if (!gtfsRouteId.equals(trip.getRouteId())) {
                 RuleUtils.addOccurrence(E035, "GTFS-rt entity ID " + entity.getId() + " trip_id " + trip.getTripId() + " has route_id " + trip.getRouteId() + " but belongs to GTFS route_id " + gtfsRouteId, errors, _log);
             }
@@ -24,9 +24,11 @@ import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.RuleUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.ShapeSegmentIndex;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
 import org.apache.commons.lang3.StringUtils;
-import org.locationtech.spatial4j.shape.Shape;
+import org.locationtech.spatial4j.shape.Rectangle;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +60,11 @@ public class VehicleValidator implements FeedEntityValidator {
 
     @Override
     public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
+        return validate(currentTimeMillis, gtfsData, gtfsMetadata, new IterationContext(feedMessage), feedMessage, previousFeedMessage, combinedFeedMessage);
+    }
+
+    @Override
+    public List<ErrorListHelperModel> validate(long currentTimeMillis, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, IterationContext context, GtfsRealtime.FeedMessage feedMessage, GtfsRealtime.FeedMessage previousFeedMessage, GtfsRealtime.FeedMessage combinedFeedMessage) {
         List<GtfsRealtime.FeedEntity> entityList = feedMessage.getEntityList();
         List<OccurrenceModel> e026List = new ArrayList<>();
         List<OccurrenceModel> e027List = new ArrayList<>();
@@ -117,7 +124,7 @@ public class VehicleValidator implements FeedEntityValidator {
                         boolean insideBounds = checkE028(entity, gtfsMetadata, e028List);
                         if (insideBounds) {
                             // Position is within agency bounds - check E029, if it lies within the trip bounds using shapes.txt
-                            checkE029(entityList, entity, gtfsMetadata, e029List);
+                            checkE029(context, entity, gtfsMetadata, e029List);
                         }
                     }
                     if (!GtfsUtils.isBearingValid(position)) {
@@ -167,7 +174,7 @@ public class VehicleValidator implements FeedEntityValidator {
         String id = getVehicleId(entity, v);
 
         // See if position lies within the agency bounds, using shapes.txt if it exists
-        Shape boundingBox;
+        Rectangle boundingBox;
         String boundingDescription;
         if (gtfsMetadata.getShapeBoundingBoxWithBuffer() != null) {
             // Use shapes.txt
@@ -179,7 +186,7 @@ public class VehicleValidator implements FeedEntityValidator {
             boundingDescription = "stops.txt";
         }
 
-        boolean insideBounds = GtfsUtils.isPositionWithinShape(position, boundingBox);
+        boolean insideBounds = GtfsUtils.isPositionWithinRectangle(position, boundingBox);
         if (!insideBounds) {
             String prefix = id + " at (" + position.getLatitude() + "," + position.getLongitude() +
                     ") is more than " + GtfsMetadata.REGION_BUFFER_METERS + " meters (" + String.format("%.2f", GtfsUtils.toMiles(GtfsMetadata.REGION_BUFFER_METERS)) + " mile(s)) outside entire GTFS "
@@ -192,12 +199,12 @@ public class VehicleValidator implements FeedEntityValidator {
     /**
      * Vehicle position outside trip shape buffer - E029
      *
-     * @param entityList   a list of all entities for this feed iteration (needed to check if there are any detour alerts for this trip)
+     * @param context      information about this feed iteration (needed to check if there are any detour alerts for this trip)
      * @param entity       entity that has a vehicle position to check
      * @param gtfsMetadata GTFS metadata for this entity
      * @param errors       list to which any errors can be added
      */
-    private void checkE029(List<GtfsRealtime.FeedEntity> entityList, GtfsRealtime.FeedEntity entity, GtfsMetadata gtfsMetadata, List<OccurrenceModel> errors) {
+    private void checkE029(IterationContext context, GtfsRealtime.FeedEntity entity, GtfsMetadata gtfsMetadata, List<OccurrenceModel> errors) {
         GtfsRealtime.VehiclePosition v = entity.getVehicle();
 
         // If the vehicle doesn't have a trip_id, we can't check E029 - return
@@ -212,14 +219,14 @@ public class VehicleValidator implements FeedEntityValidator {
         GtfsRealtime.Position position = v.getPosition();
         String id = getVehicleId(entity, v);
 
-        Shape bufferedShape = gtfsMetadata.getBufferedTripShape(tripId);
-        if (bufferedShape == null) {
+        ShapeSegmentIndex tripShape = gtfsMetadata.getTripShapeSegmentIndex(tripId);
+        if (tripShape == null) {
             // No shape data for this trip, so we can't check E029 - return
             return;
         }
 
-        if (!GtfsUtils.isPositionWithinShape(position, bufferedShape)) {
-            if (hasDetourAlert(entityList, tripId, routeId)) {
+        if (!tripShape.isWithinDistance(position.getLongitude(), position.getLatitude())) {
+            if (context.hasDetourAlert(tripId, routeId)) {
                 // There is a DETOUR alert for this vehicle's trip_id or route_id, so it's allowed to be outside the trip shape
                 return;
             }
@@ -230,36 +237,4 @@ public class VehicleValidator implements FeedEntityValidator {
             RuleUtils.addOccurrence(E029, prefix, errors, _log);
         }
     }
-
-    /**
-     * Returns true if there is a DETOUR service alert for either the provided trip_id or the provided route_id, or false if there is not
-     *
-     * @param entityList GTFS-rt entities to check for DETOUR service alerts
-     * @param tripId     trip_id to check in the service alerts
-     * @param routeId    route_id to check in the service alerts
-     * @return true if there is a DETOUR service alert for either the provided trip_id or the provided route_id, or false if there is not
-     */
-    private boolean hasDetourAlert(List<GtfsRealtime.FeedEntity> entityList, String tripId, String routeId) {
-        // This could get expensive for a lot of alerts
-        for (GtfsRealtime.FeedEntity e : entityList) {
-            if (e.hasAlert()) {
-                GtfsRealtime.Alert a = e.getAlert();
-                if (a.hasEffect() && a.getEffect().equals(GtfsRealtime.Alert.Effect.DETOUR)) {
-                    for (GtfsRealtime.EntitySelector entitySelector : a.getInformedEntityList()) {
-                        if (entitySelector.hasTrip()) {
-                            if (tripId.equals(entitySelector.getTrip().getTripId())) {
-                                // There is a DETOUR alert for this vehicle's trip, so it's allowed to be outside the trip shape
-                                return true;
-                            }
-                            if (routeId != null && routeId.equals(entitySelector.getTrip().getRouteId())) {
-                                // There is a DETOUR alert for this vehicle's route, so it's allowed to be outside the trip shape
-                                return true;
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        return false;
-    }
 }
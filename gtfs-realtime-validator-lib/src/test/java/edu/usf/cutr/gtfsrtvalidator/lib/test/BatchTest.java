@@ -18,21 +18,44 @@ package edu.usf.cutr.gtfsrtvalidator.lib.test;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.usf.cutr.gtfsrtvalidator.lib.batch.BatchProcessor;
+import edu.usf.cutr.gtfsrtvalidator.lib.batch.ResultsRecord;
+import edu.usf.cutr.gtfsrtvalidator.lib.batch.SmileResultsSink;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.util.HashAlgorithm;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadataSnapshot;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationStatistics;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Tests for the batch processing validation mode
  */
 public class BatchTest {
 
+    @Rule
+    public TemporaryFolder mTempFolder = new TemporaryFolder();
+
     @Test
     public void testBatchProcessing() throws IOException, NoSuchAlgorithmException {
         // Run batch validation on the bundled USF Bull Runner GTFS and GTFS-realtime data
@@ -40,10 +63,189 @@ public class BatchTest {
         BatchProcessor processor = builder.build();
         processor.processFeeds();
 
+        assertBullRunnerResults();
+    }
+
+    @Test
+    public void testBatchProcessingMultipleThreads() throws IOException, NoSuchAlgorithmException {
+        // Run batch validation on the bundled USF Bull Runner GTFS and GTFS-realtime data using more than one thread
+        BatchProcessor.Builder builder = new BatchProcessor.Builder("src/test/resources/bullrunner-gtfs.zip", "src/test/resources/")
+                .setThreads(4)
+                .setReturnStatistics(true);
+        BatchProcessor processor = builder.build();
+        List<IterationStatistics> stats = processor.processFeeds();
+
+        // Statistics should be returned for the files that were validated
+        assertFalse(stats.isEmpty());
+        for (IterationStatistics stat : stats) {
+            // Each validated file passes through the read, hash, dedup, decode, validate, and serialize stages
+            assertEquals(6, stat.getStageStatistics().size());
+            assertEquals("read", stat.getStageStatistics().get(0).getStage());
+            assertEquals("serialize", stat.getStageStatistics().get(5).getStage());
+        }
+        assertBullRunnerResults();
+    }
+
+    @Test
+    public void testBatchProcessingConcurrentRules() throws IOException, NoSuchAlgorithmException {
+        // Run batch validation on the bundled USF Bull Runner GTFS and GTFS-realtime data with the rules for each file running concurrently
+        BatchProcessor.Builder builder = new BatchProcessor.Builder("src/test/resources/bullrunner-gtfs.zip", "src/test/resources/")
+                .setConcurrentRules(true)
+                .setReturnStatistics(true);
+        BatchProcessor processor = builder.build();
+        List<IterationStatistics> stats = processor.processFeeds();
+
+        // Timings should still be recorded for the single walk of each message and for each rule, in the order of the rules
+        assertFalse(stats.isEmpty());
+        for (IterationStatistics stat : stats) {
+            assertEquals(10, stat.getRuleStatistics().size());
+            assertEquals("FeedMessageDispatcher", stat.getRuleStatistics().get(0).getValidator());
+            assertEquals("CrossFeedDescriptorValidator", stat.getRuleStatistics().get(1).getValidator());
+            assertEquals("HeaderValidator", stat.getRuleStatistics().get(9).getValidator());
+        }
+        assertBullRunnerResults();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchProcessingZeroThreads() {
+        new BatchProcessor.Builder("src/test/resources/bullrunner-gtfs.zip", "src/test/resources/").setThreads(0);
+    }
+
+    @Test
+    public void testBatchProcessingSkipValidatedFiles() throws IOException, NoSuchAlgorithmException {
+        // Copy the GTFS-realtime file to its own directory so the index is created there
+        File gtfsRealtimeFolder = mTempFolder.newFolder();
+        File gtfsRealtimeFile = new File(gtfsRealtimeFolder, "bullrunner-vehicle-positions");
+        Files.copy(new File("src/test/resources/bullrunner-vehicle-positions").toPath(), gtfsRealtimeFile.toPath());
+        File resultsFile = new File(gtfsRealtimeFile.getAbsolutePath() + BatchProcessor.RESULTS_FILE_EXTENSION);
+
+        BatchProcessor.Builder builder = new BatchProcessor.Builder("src/test/resources/bullrunner-gtfs.zip", gtfsRealtimeFolder.getAbsolutePath())
+                .setHashAlgorithm(HashAlgorithm.FARMHASH_64)
+                .setSkipValidatedFiles(true);
+        builder.build().processFeeds();
+        assertTrue(resultsFile.exists());
+
+        // The file was validated by the first run, so the second run shouldn't write the results again
+        assertTrue(resultsFile.delete());
+        builder.build().processFeeds();
+        assertFalse(resultsFile.exists());
+
+        // An index created with a different hash algorithm can't be used, so the file should be validated again
+        builder.setHashAlgorithm(HashAlgorithm.CRC32C).build().processFeeds();
+        assertTrue(resultsFile.exists());
+    }
+
+    @Test
+    public void testBatchProcessingArchiveIndex() throws IOException, NoSuchAlgorithmException {
+        File gtfsRealtimeFolder = mTempFolder.newFolder();
+        File gtfsRealtimeFile = new File(gtfsRealtimeFolder, "bullrunner-vehicle-positions");
+        Files.copy(new File("src/test/resources/bullrunner-vehicle-positions").toPath(), gtfsRealtimeFile.toPath());
+        File resultsFile = new File(gtfsRealtimeFile.getAbsolutePath() + BatchProcessor.RESULTS_FILE_EXTENSION);
+
+        BatchProcessor.Builder builder = new BatchProcessor.Builder("src/test/resources/bullrunner-gtfs.zip", gtfsRealtimeFolder.getAbsolutePath())
+                .setReturnStatistics(true);
+        assertEquals(1, builder.build().processFeeds().size());
+        // The first run should cache the index of the archive
+        assertTrue(new File(gtfsRealtimeFolder, ".gtfs-rt-archive-index").exists());
+
+        // The second run should use the cached index, and shouldn't try to validate the results of the first run
+        assertTrue(resultsFile.exists());
+        assertEquals(1, builder.build().processFeeds().size());
+    }
+
+    @Test
+    public void testBatchProcessingResultsStreams() throws IOException, NoSuchAlgorithmException {
+        File gtfsRealtimeFolder = mTempFolder.newFolder();
+        Files.copy(new File("src/test/resources/bullrunner-vehicle-positions").toPath(), new File(gtfsRealtimeFolder, "bullrunner-vehicle-positions").toPath());
+
+        BatchProcessor.Builder builder = new BatchProcessor.Builder("src/test/resources/bullrunner-gtfs.zip", gtfsRealtimeFolder.getAbsolutePath());
+        builder.setResultsFormat(BatchProcessor.ResultsFormat.NDJSON_GZIP).build().processFeeds();
+        builder.setResultsFormat(BatchProcessor.ResultsFormat.SMILE).build().processFeeds();
+
+        // Results should only be written to the streams, and the first stream shouldn't be validated by the second run
+        assertFalse(new File(gtfsRealtimeFolder, "bullrunner-vehicle-positions" + BatchProcessor.RESULTS_FILE_EXTENSION).exists());
+
+        List<ResultsRecord> records;
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(new File(gtfsRealtimeFolder, BatchProcessor.ResultsFormat.NDJSON_GZIP.getStreamFileName()).toPath()))) {
+            records = new ObjectMapper().readerFor(ResultsRecord.class).<ResultsRecord>readValues(in).readAll();
+        }
+        assertEquals(1, records.size());
+        assertBullRunnerResults(records.get(0));
+
+        try (InputStream in = Files.newInputStream(new File(gtfsRealtimeFolder, BatchProcessor.ResultsFormat.SMILE.getStreamFileName()).toPath())) {
+            records = SmileResultsSink.readRecords(in);
+        }
+        assertEquals(1, records.size());
+        assertBullRunnerResults(records.get(0));
+    }
+
+    @Test
+    public void testBatchProcessingMetadataSnapshot() throws IOException, NoSuchAlgorithmException {
+        // Copy the GTFS zip file so the snapshot is written next to the copy
+        File gtfsFolder = mTempFolder.newFolder();
+        File gtfsFile = new File(gtfsFolder, "bullrunner-gtfs.zip");
+        Files.copy(new File("src/test/resources/bullrunner-gtfs.zip").toPath(), gtfsFile.toPath());
+        File gtfsRealtimeFolder = mTempFolder.newFolder();
+        File gtfsRealtimeFile = new File(gtfsRealtimeFolder, "bullrunner-vehicle-positions");
+        Files.copy(new File("src/test/resources/bullrunner-vehicle-positions").toPath(), gtfsRealtimeFile.toPath());
+        File resultsFile = new File(gtfsRealtimeFile.getAbsolutePath() + BatchProcessor.RESULTS_FILE_EXTENSION);
+        ObjectMapper mapper = new ObjectMapper();
+
+        BatchProcessor.Builder builder = new BatchProcessor.Builder(gtfsFile.getAbsolutePath(), gtfsRealtimeFolder.getAbsolutePath())
+                .setUseMetadataSnapshot(true);
+        builder.build().processFeeds();
+        assertTrue(GtfsMetadataSnapshot.getSnapshotFile(gtfsFile).exists());
+        assertBullRunnerResults(mapper.readValue(resultsFile, ErrorListHelperModel[].class));
+
+        // The second run reads the metadata from the snapshot, and should find the same errors and warnings
+        assertTrue(resultsFile.delete());
+        builder.build().processFeeds();
+        assertBullRunnerResults(mapper.readValue(resultsFile, ErrorListHelperModel[].class));
+    }
+
+    private void assertBullRunnerResults(ResultsRecord record) {
+        assertEquals("bullrunner-vehicle-positions", record.getFileName());
+        assertBullRunnerResults(record.getErrorLists().toArray(new ErrorListHelperModel[0]));
+    }
+
+    @Test
+    public void testBatchProcessingReadFailure() throws Exception {
+        // Use more files than the pipeline has buffers, so files held back after a failed file would exhaust the pool
+        File gtfsRealtimeFolder = mTempFolder.newFolder();
+        for (int i = 0; i < 20; i++) {
+            Files.copy(new File("src/test/resources/bullrunner-vehicle-positions").toPath(), new File(gtfsRealtimeFolder, "bullrunner-vehicle-positions-" + i).toPath());
+        }
+        AtomicBoolean failed = new AtomicBoolean();
+        BatchProcessor processor = new BatchProcessor("src/test/resources/bullrunner-gtfs.zip", gtfsRealtimeFolder.getAbsolutePath()) {
+            @Override
+            protected ByteBuffer readFile(Path path, ByteBuffer buffer) throws IOException {
+                if (failed.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Injected read failure for " + path);
+                }
+                return super.readFile(path, buffer);
+            }
+        };
+
+        // processFeeds() should fail with the injected exception instead of waiting forever for the failed file
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(processor::processFeeds).get(2, TimeUnit.MINUTES);
+            fail("Expected the injected read failure to be thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void assertBullRunnerResults() throws IOException {
         // Read in validation results for GTFS-realtime bullrunner-vehicle-positions file
         ObjectMapper mapper = new ObjectMapper();
         ErrorListHelperModel[] allErrorLists = mapper.readValue(new File("src/test/resources/bullrunner-vehicle-positions" + BatchProcessor.RESULTS_FILE_EXTENSION), ErrorListHelperModel[].class);
+        assertBullRunnerResults(allErrorLists);
+    }
 
+    private void assertBullRunnerResults(ErrorListHelperModel[] allErrorLists) {
         // We should have 3 warnings - W001, W006, and W009, with 10 occurrences each.
         // If running on Travis we may have another warning, W008, due to timestamp being older than 65 seconds
         assertTrue(allErrorLists.length == 3 || allErrorLists.length == 4);
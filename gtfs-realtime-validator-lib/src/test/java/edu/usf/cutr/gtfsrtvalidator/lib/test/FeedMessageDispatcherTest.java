@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.FeedMessageDispatcher;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedElementVisitor;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.HeaderValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.StopValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.TimestampValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.VehicleValidator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that walking a message once with FeedMessageDispatcher for several rules gives each rule the same errors and
+ * warnings, in the same order, as validating the message with each rule on its own
+ */
+public class FeedMessageDispatcherTest extends FeedMessageTest {
+
+    private static final String[] VERSIONS = {"1.0", "2.0", "3.0", "abc"};
+    private static final String[] STOP_IDS = {"A", "B", "C", "not-a-stop-id", ""};
+    private static final String[] TRIP_IDS = {"1", "2", "not-a-trip-id"};
+
+    private final long mCurrentTimeMillis = System.currentTimeMillis();
+    private final Random mRandom = new Random(1234);
+
+    public FeedMessageDispatcherTest() throws Exception {
+    }
+
+    @Test
+    public void testDispatchMatchesValidate() {
+        List<FeedEntityValidator> rules = Arrays.asList(new TimestampValidator(), new HeaderValidator(), new VehicleValidator(), new StopValidator());
+        int messagesWithErrors = 0;
+        for (int i = 0; i < 500; i++) {
+            GtfsRealtime.FeedMessage feedMessage = newRandomFeedMessage();
+            GtfsRealtime.FeedMessage previousFeedMessage = mRandom.nextBoolean() ? newRandomFeedMessage() : null;
+            IterationContext context = new IterationContext(feedMessage);
+            Map<FeedEntityValidator, FeedElementVisitor> visitors = FeedMessageDispatcher.dispatch(rules, mCurrentTimeMillis, gtfsData, gtfsDataMetadata, context, feedMessage, previousFeedMessage, null);
+
+            // VehicleValidator doesn't implement FeedElementValidator, so it isn't dispatched
+            assertEquals(3, visitors.size());
+            assertFalse(visitors.containsKey(rules.get(2)));
+
+            for (FeedEntityValidator rule : rules) {
+                if (!visitors.containsKey(rule)) {
+                    continue;
+                }
+                List<ErrorListHelperModel> expected = rule.validate(mCurrentTimeMillis, gtfsData, gtfsDataMetadata, feedMessage, previousFeedMessage, null);
+                List<ErrorListHelperModel> actual = visitors.get(rule).getErrors();
+                String message = rule.getClass().getSimpleName() + " " + feedMessage;
+                assertEquals(message, toText(expected), toText(actual));
+                if (!expected.isEmpty()) {
+                    messagesWithErrors++;
+                }
+            }
+        }
+        // Make sure the random messages actually produce errors and warnings to compare
+        assertTrue(messagesWithErrors > 100);
+    }
+
+    /**
+     * Returns the rule id and occurrence text of each of the errors, in order, so they can be compared
+     */
+    private static List<String> toText(List<ErrorListHelperModel> errors) {
+        List<String> text = new ArrayList<>();
+        for (ErrorListHelperModel error : errors) {
+            text.add(error.getErrorMessage().getValidationRule().getErrorId());
+            for (OccurrenceModel occurrence : error.getOccurrenceList()) {
+                text.add("  " + occurrence.getPrefix());
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Returns a message with a random mix of valid and invalid headers, timestamps and stop_ids for the rules in
+     * HeaderValidator, TimestampValidator and StopValidator
+     */
+    private GtfsRealtime.FeedMessage newRandomFeedMessage() {
+        GtfsRealtime.FeedHeader.Builder header = GtfsRealtime.FeedHeader.newBuilder();
+        header.setGtfsRealtimeVersion(VERSIONS[mRandom.nextInt(VERSIONS.length)]);
+        if (mRandom.nextBoolean()) {
+            header.setIncrementality(mRandom.nextBoolean() ? GtfsRealtime.FeedHeader.Incrementality.FULL_DATASET : GtfsRealtime.FeedHeader.Incrementality.DIFFERENTIAL);
+        }
+        Long headerTimestamp = newRandomTimestamp();
+        if (headerTimestamp != null) {
+            header.setTimestamp(headerTimestamp);
+        }
+        GtfsRealtime.FeedMessage.Builder feedMessage = GtfsRealtime.FeedMessage.newBuilder().setHeader(header);
+
+        int entityCount = mRandom.nextInt(6);
+        for (int i = 0; i < entityCount; i++) {
+            GtfsRealtime.FeedEntity.Builder entity = GtfsRealtime.FeedEntity.newBuilder().setId(String.valueOf(mRandom.nextInt(3)));
+            if (mRandom.nextInt(5) == 0) {
+                entity.setIsDeleted(mRandom.nextBoolean());
+            }
+            switch (mRandom.nextInt(3)) {
+                case 0:
+                    entity.setTripUpdate(newRandomTripUpdate());
+                    break;
+                case 1:
+                    entity.setVehicle(newRandomVehiclePosition());
+                    break;
+                default:
+                    entity.setAlert(newRandomAlert());
+                    break;
+            }
+            feedMessage.addEntity(entity);
+        }
+        return feedMessage.build();
+    }
+
+    private GtfsRealtime.TripUpdate newRandomTripUpdate() {
+        GtfsRealtime.TripUpdate.Builder tripUpdate = GtfsRealtime.TripUpdate.newBuilder()
+                .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId(TRIP_IDS[mRandom.nextInt(TRIP_IDS.length)]));
+        Long timestamp = newRandomTimestamp();
+        if (timestamp != null) {
+            tripUpdate.setTimestamp(timestamp);
+        }
+        int stopTimeUpdateCount = mRandom.nextInt(4);
+        for (int i = 0; i < stopTimeUpdateCount; i++) {
+            GtfsRealtime.TripUpdate.StopTimeUpdate.Builder stopTimeUpdate = GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder();
+            if (mRandom.nextBoolean()) {
+                stopTimeUpdate.setStopId(STOP_IDS[mRandom.nextInt(STOP_IDS.length)]);
+            }
+            if (mRandom.nextBoolean()) {
+                stopTimeUpdate.setStopSequence(i);
+            }
+            Long arrival = newRandomTimestamp();
+            if (arrival != null) {
+                stopTimeUpdate.setArrival(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(arrival));
+            }
+            Long departure = newRandomTimestamp();
+            if (departure != null) {
+                stopTimeUpdate.setDeparture(GtfsRealtime.TripUpdate.StopTimeEvent.newBuilder().setTime(departure));
+            }
+            tripUpdate.addStopTimeUpdate(stopTimeUpdate);
+        }
+        return tripUpdate.build();
+    }
+
+    private GtfsRealtime.VehiclePosition newRandomVehiclePosition() {
+        GtfsRealtime.VehiclePosition.Builder vehiclePosition = GtfsRealtime.VehiclePosition.newBuilder()
+                .setVehicle(GtfsRealtime.VehicleDescriptor.newBuilder().setId(String.valueOf(mRandom.nextInt(3))));
+        if (mRandom.nextBoolean()) {
+            vehiclePosition.setStopId(STOP_IDS[mRandom.nextInt(STOP_IDS.length)]);
+        }
+        Long timestamp = newRandomTimestamp();
+        if (timestamp != null) {
+            vehiclePosition.setTimestamp(timestamp);
+        }
+        return vehiclePosition.build();
+    }
+
+    private GtfsRealtime.Alert newRandomAlert() {
+        GtfsRealtime.Alert.Builder alert = GtfsRealtime.Alert.newBuilder();
+        if (mRandom.nextBoolean()) {
+            GtfsRealtime.TimeRange.Builder activePeriod = GtfsRealtime.TimeRange.newBuilder();
+            Long start = newRandomTimestamp();
+            if (start != null) {
+                activePeriod.setStart(start);
+            }
+            Long end = newRandomTimestamp();
+            if (end != null) {
+                activePeriod.setEnd(end);
+            }
+            alert.addActivePeriod(activePeriod);
+        }
+        alert.addInformedEntity(GtfsRealtime.EntitySelector.newBuilder().setStopId(STOP_IDS[mRandom.nextInt(STOP_IDS.length)]));
+        return alert.build();
+    }
+
+    /**
+     * Returns a random timestamp that is valid, in the future, in the past, in milliseconds, or before MIN_POSIX_TIME,
+     * or null if the timestamp should be left out
+     */
+    private Long newRandomTimestamp() {
+        long now = TimeUnit.MILLISECONDS.toSeconds(mCurrentTimeMillis);
+        switch (mRandom.nextInt(7)) {
+            case 0:
+                return null;
+            case 1:
+                return now;
+            case 2:
+                return now + TimeUnit.HOURS.toSeconds(2);
+            case 3:
+                return now - TimeUnit.HOURS.toSeconds(2);
+            case 4:
+                return mCurrentTimeMillis;
+            case 5:
+                return 0L;
+            default:
+                return now - mRandom.nextInt(120);
+        }
+    }
+}
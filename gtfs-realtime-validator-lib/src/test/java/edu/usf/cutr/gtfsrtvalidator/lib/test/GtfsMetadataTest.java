@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.test;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.TripStopTimes;
+import org.junit.Test;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
+import org.locationtech.spatial4j.shape.Shape;
+import org.locationtech.spatial4j.shape.ShapeFactory;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that GtfsMetadata gives the same results as looking up the GTFS entities directly, which is how GtfsMetadata
+ * stored them before trips, stop_times and shapes were kept in id dictionaries and arrays
+ */
+public class GtfsMetadataTest {
+
+    private static final String[] GTFS_FILES = {
+            "testagency.zip",
+            "testagency2.zip",
+            "bullrunner-gtfs.zip",
+            "bullrunner-gtfs-no-shapes.zip",
+            "bullrunner-gtfs-timepoints-only-legacy-exact-times-1.zip"
+    };
+
+    @Test
+    public void testLookupsMatchGtfs() throws IOException {
+        for (String fileName : GTFS_FILES) {
+            GtfsDaoImpl gtfsData = readGtfs(fileName);
+            assertMatchesGtfs(fileName, gtfsData, new GtfsMetadata(fileName, TimeZone.getDefault(), gtfsData, false), false);
+        }
+    }
+
+    @Test
+    public void testLookupsMatchGtfsIgnoringShapes() throws IOException {
+        GtfsDaoImpl gtfsData = readGtfs("bullrunner-gtfs.zip");
+        GtfsMetadata metadata = new GtfsMetadata("bullrunner-gtfs.zip", TimeZone.getDefault(), gtfsData, true);
+        assertMatchesGtfs("bullrunner-gtfs.zip", gtfsData, metadata, true);
+        assertNull(metadata.getShapeBoundingBox());
+        for (Trip trip : gtfsData.getAllTrips()) {
+            assertNull(metadata.getTripShape(trip.getId().getId()));
+        }
+    }
+
+    /**
+     * GtfsMetadata is built from tasks that run on the common ForkJoinPool, so build it for the same feeds from several
+     * threads at once, several times over, and check every copy gives the same results as looking up the GTFS
+     * entities directly
+     */
+    @Test
+    public void testConcurrentConstruction() throws Exception {
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (String fileName : new String[]{"testagency.zip", "bullrunner-gtfs.zip"}) {
+                GtfsDaoImpl gtfsData = readGtfs(fileName);
+                for (int round = 0; round < 3; round++) {
+                    List<Future<GtfsMetadata>> futures = new ArrayList<>();
+                    for (int i = 0; i < threads; i++) {
+                        futures.add(executor.submit(() -> new GtfsMetadata(fileName, TimeZone.getDefault(), gtfsData, false)));
+                    }
+                    for (Future<GtfsMetadata> future : futures) {
+                        assertMatchesGtfs(fileName, gtfsData, future.get(), false);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Trip shapes are built on demand and only MAX_CACHED_SHAPES of them are kept, so request more shapes than that
+     * (twice over, so every shape has been evicted once) and check each one is rebuilt the same as the GTFS shape
+     */
+    @Test
+    public void testTripShapeCache() {
+        int shapeCount = GtfsMetadata.MAX_CACHED_SHAPES + 50;
+        GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+        Agency agency = new Agency();
+        agency.setId("agency");
+        gtfsData.saveEntity(agency);
+        Route route = new Route();
+        route.setId(new AgencyAndId("agency", "route"));
+        gtfsData.saveEntity(route);
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("agency", "stop"));
+        stop.setLat(28.06);
+        stop.setLon(-82.41);
+        gtfsData.saveEntity(stop);
+        Map<String, List<ShapePoint>> shapePointLists = new HashMap<>();
+        for (int i = 0; i < shapeCount; i++) {
+            AgencyAndId shapeId = new AgencyAndId("agency", "shape" + i);
+            // Save the points out of shape_pt_sequence order, so the shape must be sorted
+            for (int sequence = 2; sequence >= 0; sequence--) {
+                ShapePoint p = new ShapePoint();
+                p.setShapeId(shapeId);
+                p.setSequence(sequence);
+                p.setLat(28.06 + i * 0.0001 + sequence * 0.001);
+                p.setLon(-82.41 + sequence * 0.001);
+                gtfsData.saveEntity(p);
+                shapePointLists.computeIfAbsent(shapeId.getId(), k -> new ArrayList<>()).add(0, p);
+            }
+            // Two trips share each shape
+            for (String suffix : new String[]{"a", "b"}) {
+                Trip trip = new Trip();
+                trip.setId(new AgencyAndId("agency", "trip" + i + suffix));
+                trip.setRoute(route);
+                trip.setShapeId(shapeId);
+                gtfsData.saveEntity(trip);
+            }
+        }
+        GtfsMetadata metadata = new GtfsMetadata("synthetic", TimeZone.getDefault(), gtfsData, false);
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < shapeCount; i++) {
+                Shape expected = getPolyline(shapePointLists.get("shape" + i));
+                Shape tripShape = metadata.getTripShape("trip" + i + "a");
+                assertEquals(expected, tripShape);
+                // Trips that share a shape share the same polyline while it's cached
+                assertSame(tripShape, metadata.getTripShape("trip" + i + "b"));
+            }
+        }
+        assertMatchesGtfs("synthetic", gtfsData, metadata, false);
+    }
+
+    /**
+     * Asserts that all lookups in the metadata give the same result as looking up the GTFS entities directly
+     */
+    private static void assertMatchesGtfs(String fileName, GtfsDaoImpl gtfsData, GtfsMetadata metadata, boolean ignoreShapes) {
+        // route_ids
+        Set<String> routeIds = new HashSet<>();
+        for (Route route : gtfsData.getAllRoutes()) {
+            routeIds.add(route.getId().getId());
+        }
+        assertEquals(fileName, routeIds, metadata.getRouteIds());
+
+        // stop_ids and location_types
+        Set<String> stopIds = new HashSet<>();
+        for (Stop stop : gtfsData.getAllStops()) {
+            stopIds.add(stop.getId().getId());
+            assertEquals(fileName, Integer.valueOf(stop.getLocationType()), metadata.getStopLocationType(stop.getId().getId()));
+        }
+        assertEquals(fileName, stopIds, metadata.getStopIds());
+        assertNull(metadata.getStopLocationType("not-a-stop-id"));
+
+        // stop_times grouped by trip and sorted by stop_sequence
+        Map<String, List<StopTime>> stopTimeLists = new HashMap<>();
+        for (StopTime stopTime : gtfsData.getAllStopTimes()) {
+            stopTimeLists.computeIfAbsent(stopTime.getTrip().getId().getId(), k -> new ArrayList<>()).add(stopTime);
+        }
+
+        // shape points grouped by shape and sorted by shape_pt_sequence
+        Map<String, List<ShapePoint>> shapePointLists = new HashMap<>();
+        if (!ignoreShapes && gtfsData.getAllShapePoints().size() > 3) {
+            for (ShapePoint p : gtfsData.getAllShapePoints()) {
+                shapePointLists.computeIfAbsent(p.getShapeId().getId(), k -> new ArrayList<>()).add(p);
+            }
+        }
+        for (Map.Entry<String, List<ShapePoint>> shapePoints : shapePointLists.entrySet()) {
+            shapePoints.getValue().sort(Comparator.comparing(ShapePoint::getSequence));
+            double[] coordinates = metadata.getShapeCoordinates(shapePoints.getKey());
+            assertNotNull(fileName + " " + shapePoints.getKey(), coordinates);
+            assertArrayEquals(getCoordinates(shapePoints.getValue()), coordinates, 0);
+        }
+        assertNull(metadata.getShapeCoordinates("not-a-shape-id"));
+
+        // trips
+        Set<String> tripIds = new HashSet<>();
+        Map<String, List<String>> tripsWithMultiStops = new HashMap<>();
+        for (Trip trip : gtfsData.getAllTrips()) {
+            String tripId = trip.getId().getId();
+            String message = fileName + " " + tripId;
+            tripIds.add(tripId);
+            assertTrue(message, metadata.hasTrip(tripId));
+            assertEquals(message, trip.getRoute().getId().getId(), metadata.getTripRouteId(tripId));
+            assertEquals(message, trip.getBlockId(), metadata.getTripBlockId(tripId));
+            assertEquals(message, trip.getDirectionId(), metadata.getTripDirectionId(tripId));
+
+            List<StopTime> stopTimes = stopTimeLists.get(tripId);
+            TripStopTimes tripStopTimes = metadata.getTripStopTimes(tripId);
+            if (stopTimes == null) {
+                assertNull(message, tripStopTimes);
+            } else {
+                stopTimes.sort(Comparator.comparing(StopTime::getStopSequence));
+                assertNotNull(message, tripStopTimes);
+                assertEquals(message, stopTimes.size(), tripStopTimes.size());
+                Set<String> allStopIds = new HashSet<>();
+                List<String> duplicateStopIds = new ArrayList<>();
+                for (int i = 0; i < stopTimes.size(); i++) {
+                    StopTime stopTime = stopTimes.get(i);
+                    String stopId = stopTime.getStop().getId().getId();
+                    assertEquals(message, stopTime.getStopSequence(), tripStopTimes.getStopSequence(i));
+                    assertEquals(message, stopId, tripStopTimes.getStopId(i));
+                    assertEquals(message, stopTime.isArrivalTimeSet(), tripStopTimes.isArrivalTimeSet(i));
+                    assertEquals(message, stopTime.isDepartureTimeSet(), tripStopTimes.isDepartureTimeSet(i));
+                    if (stopTime.isArrivalTimeSet()) {
+                        assertEquals(message, stopTime.getArrivalTime(), tripStopTimes.getArrivalTime(i));
+                    }
+                    if (stopTime.isDepartureTimeSet()) {
+                        assertEquals(message, stopTime.getDepartureTime(), tripStopTimes.getDepartureTime(i));
+                    }
+                    if (!allStopIds.add(stopId)) {
+                        duplicateStopIds.add(stopId);
+                    }
+                }
+                if (!duplicateStopIds.isEmpty()) {
+                    tripsWithMultiStops.put(tripId, duplicateStopIds);
+                }
+            }
+
+            Shape tripShape = metadata.getTripShape(tripId);
+            List<ShapePoint> shapePoints = trip.getShapeId() != null ? shapePointLists.get(trip.getShapeId().getId()) : null;
+            if (shapePoints == null) {
+                assertNull(message, tripShape);
+            } else {
+                assertEquals(message, getPolyline(shapePoints), tripShape);
+            }
+        }
+        assertEquals(fileName, tripIds, metadata.getTripIds());
+        assertEquals(fileName, tripsWithMultiStops, metadata.getTripsWithMultiStops());
+        assertFalse(metadata.hasTrip("not-a-trip-id"));
+        assertNull(metadata.getTripRouteId("not-a-trip-id"));
+        assertNull(metadata.getTripBlockId("not-a-trip-id"));
+        assertNull(metadata.getTripDirectionId("not-a-trip-id"));
+        assertNull(metadata.getTripStopTimes("not-a-trip-id"));
+        assertNull(metadata.getTripShape("not-a-trip-id"));
+    }
+
+    private static GtfsDaoImpl readGtfs(String fileName) throws IOException {
+        GtfsDaoImpl gtfsData = new GtfsDaoImpl();
+        GtfsReader reader = new GtfsReader();
+        reader.setInputLocation(new File("src/test/resources/" + fileName));
+        reader.setEntityStore(gtfsData);
+        reader.run();
+        return gtfsData;
+    }
+
+    private static double[] getCoordinates(List<ShapePoint> shapePoints) {
+        double[] coordinates = new double[shapePoints.size() * 2];
+        for (int i = 0; i < shapePoints.size(); i++) {
+            coordinates[i * 2] = shapePoints.get(i).getLon();
+            coordinates[i * 2 + 1] = shapePoints.get(i).getLat();
+        }
+        return coordinates;
+    }
+
+    /**
+     * Returns a polyline of the shape points, built the same way as GtfsMetadata built the trip shapes before they
+     * were stored as coordinate arrays
+     */
+    private static Shape getPolyline(List<ShapePoint> shapePoints) {
+        ShapeFactory.LineStringBuilder lineBuilder = JtsSpatialContext.GEO.getShapeFactory().lineString();
+        for (ShapePoint p : shapePoints) {
+            lineBuilder.pointXY(p.getLon(), p.getLat());
+        }
+        return lineBuilder.build();
+    }
+}
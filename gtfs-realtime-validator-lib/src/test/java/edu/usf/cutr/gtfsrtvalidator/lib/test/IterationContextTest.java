@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the DETOUR alerts indexed by IterationContext give the same result as scanning all alerts of the message
+ * for each vehicle, which is how VehicleValidator checked for DETOUR alerts before the index was added
+ */
+public class IterationContextTest {
+
+    private static final String[] TRIP_IDS = {"", "trip1", "trip2", "trip3"};
+    private static final String[] ROUTE_IDS = {"", "route1", "route2"};
+
+    @Test
+    public void testDetourAlert() {
+        GtfsRealtime.FeedMessage.Builder feedMessageBuilder = newFeedMessageBuilder();
+        // A DETOUR for a trip, a DETOUR for a route, and another effect for a different trip
+        feedMessageBuilder.addEntity(newAlertEntity("1", GtfsRealtime.Alert.Effect.DETOUR, "trip1", null));
+        feedMessageBuilder.addEntity(newAlertEntity("2", GtfsRealtime.Alert.Effect.DETOUR, null, "route1"));
+        feedMessageBuilder.addEntity(newAlertEntity("3", GtfsRealtime.Alert.Effect.REDUCED_SERVICE, "trip2", "route2"));
+        IterationContext context = new IterationContext(feedMessageBuilder.build());
+
+        assertTrue(context.hasDetourAlert("trip1", null));
+        assertTrue(context.hasDetourAlert("trip1", "route2"));
+        assertTrue(context.hasDetourAlert("trip3", "route1"));
+        assertFalse(context.hasDetourAlert("trip3", null));
+        assertFalse(context.hasDetourAlert("trip2", "route2"));
+        assertFalse(context.hasDetourAlert("trip2", null));
+    }
+
+    /**
+     * Random messages with a mix of DETOUR and other alerts, with and without trip_ids and route_ids, must give the
+     * same result as scanning the alerts for every trip_id and route_id
+     */
+    @Test
+    public void testDetourAlertMatchesScan() {
+        Random random = new Random(1234);
+        GtfsRealtime.Alert.Effect[] effects = {GtfsRealtime.Alert.Effect.DETOUR, GtfsRealtime.Alert.Effect.DETOUR, GtfsRealtime.Alert.Effect.OTHER_EFFECT, null};
+        for (int message = 0; message < 500; message++) {
+            GtfsRealtime.FeedMessage.Builder feedMessageBuilder = newFeedMessageBuilder();
+            int alertCount = random.nextInt(6);
+            for (int i = 0; i < alertCount; i++) {
+                GtfsRealtime.Alert.Builder alertBuilder = GtfsRealtime.Alert.newBuilder();
+                GtfsRealtime.Alert.Effect effect = effects[random.nextInt(effects.length)];
+                if (effect != null) {
+                    alertBuilder.setEffect(effect);
+                }
+                int informedEntityCount = random.nextInt(4);
+                for (int j = 0; j < informedEntityCount; j++) {
+                    GtfsRealtime.EntitySelector.Builder entitySelector = GtfsRealtime.EntitySelector.newBuilder();
+                    if (random.nextBoolean()) {
+                        GtfsRealtime.TripDescriptor.Builder trip = GtfsRealtime.TripDescriptor.newBuilder();
+                        if (random.nextBoolean()) {
+                            trip.setTripId(TRIP_IDS[random.nextInt(TRIP_IDS.length)]);
+                        }
+                        if (random.nextBoolean()) {
+                            trip.setRouteId(ROUTE_IDS[random.nextInt(ROUTE_IDS.length)]);
+                        }
+                        entitySelector.setTrip(trip);
+                    } else {
+                        // A route_id outside of a trip isn't used for DETOUR alerts
+                        entitySelector.setRouteId(ROUTE_IDS[random.nextInt(ROUTE_IDS.length)]);
+                    }
+                    alertBuilder.addInformedEntity(entitySelector);
+                }
+                feedMessageBuilder.addEntity(GtfsRealtime.FeedEntity.newBuilder().setId(String.valueOf(i)).setAlert(alertBuilder));
+            }
+            GtfsRealtime.FeedMessage feedMessage = feedMessageBuilder.build();
+            IterationContext context = new IterationContext(feedMessage);
+            for (String tripId : TRIP_IDS) {
+                assertEquals(feedMessage.toString(), hasDetourAlertByScan(feedMessage.getEntityList(), tripId, null), context.hasDetourAlert(tripId, null));
+                for (String routeId : ROUTE_IDS) {
+                    assertEquals(feedMessage.toString(), hasDetourAlertByScan(feedMessage.getEntityList(), tripId, routeId), context.hasDetourAlert(tripId, routeId));
+                }
+            }
+        }
+    }
+
+    private static GtfsRealtime.FeedMessage.Builder newFeedMessageBuilder() {
+        GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
+        feedMessageBuilder.setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0"));
+        // A vehicle entity, which must be skipped when looking for alerts
+        feedMessageBuilder.addEntity(GtfsRealtime.FeedEntity.newBuilder().setId("vehicle")
+                .setVehicle(GtfsRealtime.VehiclePosition.newBuilder().setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId("trip1"))));
+        return feedMessageBuilder;
+    }
+
+    private static GtfsRealtime.FeedEntity newAlertEntity(String id, GtfsRealtime.Alert.Effect effect, String tripId, String routeId) {
+        GtfsRealtime.TripDescriptor.Builder trip = GtfsRealtime.TripDescriptor.newBuilder();
+        if (tripId != null) {
+            trip.setTripId(tripId);
+        }
+        if (routeId != null) {
+            trip.setRouteId(routeId);
+        }
+        GtfsRealtime.Alert.Builder alertBuilder = GtfsRealtime.Alert.newBuilder()
+                .setEffect(effect)
+                .addInformedEntity(GtfsRealtime.EntitySelector.newBuilder().setTrip(trip));
+        return GtfsRealtime.FeedEntity.newBuilder().setId(id).setAlert(alertBuilder).build();
+    }
+
+    /**
+     * Scans all alerts for a DETOUR for the trip_id or route_id, the same way VehicleValidator did before DETOUR alerts
+     * were indexed in IterationContext
+     */
+    private static boolean hasDetourAlertByScan(List<GtfsRealtime.FeedEntity> entityList, String tripId, String routeId) {
+        for (GtfsRealtime.FeedEntity e : entityList) {
+            if (e.hasAlert()) {
+                GtfsRealtime.Alert a = e.getAlert();
+                if (a.hasEffect() && a.getEffect().equals(GtfsRealtime.Alert.Effect.DETOUR)) {
+                    for (GtfsRealtime.EntitySelector entitySelector : a.getInformedEntityList()) {
+                        if (entitySelector.hasTrip()) {
+                            if (tripId.equals(entitySelector.getTrip().getTripId())) {
+                                return true;
+                            }
+                            if (routeId != null && routeId.equals(entitySelector.getTrip().getRouteId())) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.test;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.MessageLogModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.EntityResultCache;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.OccurrenceLimit;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.RuleRunner;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.EntityLocalValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.StopTimeUpdateValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.TimestampValidator;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.TripDescriptorValidator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.MIN_POSIX_TIME;
+import static edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules.W009;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for running rules with RuleRunner
+ */
+public class RuleRunnerTest extends FeedMessageTest {
+
+    public RuleRunnerTest() throws IOException {
+    }
+
+    /**
+     * Validating a message in shards of entities should give the same occurrences, in the same order, as validating
+     * the whole message
+     */
+    @Test
+    public void testShardedResultsMatchWholeMessage() {
+        GtfsRealtime.FeedMessage feedMessage = buildTripUpdates(25);
+        IterationContext context = new IterationContext(feedMessage);
+        List<FeedEntityValidator> rules = Arrays.asList(new StopTimeUpdateValidator(), new TripDescriptorValidator());
+
+        RuleRunner wholeMessageRunner = new RuleRunner(rules, null);
+        wholeMessageRunner.setShardThreshold(0);
+        List<RuleRunner.RuleResult> expected = wholeMessageRunner.run(MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, feedMessage, null, null);
+
+        // Shard the message in both sequential and concurrent modes
+        for (RuleRunner shardedRunner : Arrays.asList(new RuleRunner(rules, null), new RuleRunner(rules, ForkJoinPool.commonPool()))) {
+            shardedRunner.setShardThreshold(5);
+            List<RuleRunner.RuleResult> actual = shardedRunner.run(MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, feedMessage, null, null);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getValidator(), actual.get(i).getValidator());
+                assertEquals(getOccurrences(expected.get(i).getErrorLists()), getOccurrences(actual.get(i).getErrorLists()));
+            }
+        }
+    }
+
+    /**
+     * Limiting the number of occurrences should store at most the maximum number of occurrences for each rule, and
+     * still count all occurrences
+     */
+    @Test
+    public void testOccurrenceLimit() {
+        GtfsRealtime.FeedMessage feedMessage = buildTripUpdates(25);
+        IterationContext context = new IterationContext(feedMessage);
+        List<FeedEntityValidator> rules = Arrays.asList(new StopTimeUpdateValidator(), new TripDescriptorValidator(), new TimestampValidator());
+
+        RuleRunner runner = new RuleRunner(rules, null);
+        List<RuleRunner.RuleResult> expected = runner.run(MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, feedMessage, null, null);
+        final int maxOccurrences = 2;
+
+        for (int shardThreshold : new int[]{0, 5}) {
+            runner.setShardThreshold(shardThreshold);
+
+            // First occurrences
+            List<RuleRunner.RuleResult> actual = runner.run(new OccurrenceLimit(maxOccurrences, false), null, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, feedMessage, null, null);
+            for (int i = 0; i < expected.size(); i++) {
+                Map<String, List<String>> expectedOccurrences = getOccurrences(expected.get(i).getErrorLists());
+                for (ErrorListHelperModel errorList : actual.get(i).getErrorLists()) {
+                    List<String> all = expectedOccurrences.get(errorList.getErrorMessage().getValidationRule().getErrorId());
+                    assertEquals(all.size(), errorList.getErrorMessage().getOccurrenceCount().intValue());
+                    assertEquals(all.subList(0, Math.min(maxOccurrences, all.size())), getPrefixes(errorList));
+                }
+            }
+
+            // Sampled occurrences
+            actual = runner.run(new OccurrenceLimit(maxOccurrences, true), null, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, feedMessage, null, null);
+            for (int i = 0; i < expected.size(); i++) {
+                Map<String, List<String>> expectedOccurrences = getOccurrences(expected.get(i).getErrorLists());
+                for (ErrorListHelperModel errorList : actual.get(i).getErrorLists()) {
+                    List<String> all = expectedOccurrences.get(errorList.getErrorMessage().getValidationRule().getErrorId());
+                    assertEquals(all.size(), errorList.getErrorMessage().getOccurrenceCount().intValue());
+                    assertEquals(Math.min(maxOccurrences, all.size()), errorList.getOccurrenceList().size());
+                    assertTrue(all.containsAll(getPrefixes(errorList)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reusing the results of unchanged entities from the previous message should give the same occurrences, in the
+     * same order, as validating the whole message
+     */
+    @Test
+    public void testEntityResultCache() {
+        GtfsRealtime.FeedMessage feedMessage = buildTripUpdates(25);
+        List<FeedEntityValidator> rules = Arrays.asList(new StopTimeUpdateValidator(), new TripDescriptorValidator());
+        RuleRunner runner = new RuleRunner(rules, null);
+        EntityResultCache cache = new EntityResultCache();
+
+        // Change the errors of one entity, remove another, and reorder the rest
+        GtfsRealtime.FeedMessage.Builder changedMessageBuilder = feedMessage.toBuilder().clearEntity();
+        for (int i = feedMessage.getEntityCount() - 1; i > 0; i--) {
+            GtfsRealtime.FeedEntity entity = feedMessage.getEntity(i);
+            if (i == 3) {
+                entity = entity.toBuilder().setTripUpdate(entity.getTripUpdate().toBuilder().clearStopTimeUpdate()
+                        .setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId("1.3"))).build();
+            }
+            changedMessageBuilder.addEntity(entity);
+        }
+        GtfsRealtime.FeedMessage changedMessage = changedMessageBuilder.build();
+
+        // First message (empty cache), same message again (all entities cached), then the changed message
+        for (GtfsRealtime.FeedMessage message : Arrays.asList(feedMessage, feedMessage, changedMessage)) {
+            IterationContext context = new IterationContext(message);
+            List<RuleRunner.RuleResult> expected = runner.run(MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, message, null, null);
+            List<RuleRunner.RuleResult> actual = runner.run(OccurrenceLimit.NONE, cache, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, context, message, null, null);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(getOccurrences(expected.get(i).getErrorLists()), getOccurrences(actual.get(i).getErrorLists()));
+            }
+        }
+    }
+
+    /**
+     * Reusing cached results shouldn't build the text of their occurrences until it's needed, and should build the text
+     * of each cached occurrence only once however many messages reuse it
+     */
+    @Test
+    public void testEntityResultCacheBuildsPrefixesLazily() {
+        GtfsRealtime.FeedMessage feedMessage = buildTripUpdates(25);
+        AtomicInteger prefixesBuilt = new AtomicInteger();
+        EntityLocalValidator rule = (currentTimeMillis, gtfsData, gtfsMetadata, message, previousMessage, combinedMessage) -> {
+            List<OccurrenceModel> occurrences = new ArrayList<>();
+            for (GtfsRealtime.FeedEntity entity : message.getEntityList()) {
+                occurrences.add(new OccurrenceModel(() -> {
+                    prefixesBuilt.incrementAndGet();
+                    return "entity ID " + entity.getId();
+                }));
+            }
+            return Collections.singletonList(new ErrorListHelperModel(new MessageLogModel(W009), occurrences));
+        };
+        RuleRunner runner = new RuleRunner(Collections.singletonList(rule), null);
+        EntityResultCache cache = new EntityResultCache();
+
+        // Validating and caching the entities doesn't build any text
+        runner.run(OccurrenceLimit.NONE, cache, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, new IterationContext(feedMessage), feedMessage, null, null);
+        List<RuleRunner.RuleResult> results = runner.run(OccurrenceLimit.NONE, cache, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, new IterationContext(feedMessage), feedMessage, null, null);
+        assertEquals(0, prefixesBuilt.get());
+
+        // Reading the occurrences of a message builds the text of each cached occurrence once
+        List<String> prefixes = getPrefixes(results.get(results.size() - 1).getErrorLists().get(0));
+        assertEquals(feedMessage.getEntityCount(), prefixes.size());
+        assertEquals("entity ID " + feedMessage.getEntity(0).getId(), prefixes.get(0));
+        assertEquals(feedMessage.getEntityCount(), prefixesBuilt.get());
+
+        // The next message reuses the text that was already built
+        results = runner.run(OccurrenceLimit.NONE, cache, MIN_POSIX_TIME, gtfsData, gtfsDataMetadata, new IterationContext(feedMessage), feedMessage, null, null);
+        assertEquals(prefixes, getPrefixes(results.get(results.size() - 1).getErrorLists().get(0)));
+        assertEquals(feedMessage.getEntityCount(), prefixesBuilt.get());
+    }
+
+    /**
+     * Returns a message with the provided number of trip_update entities, with different errors and warnings for
+     * different entities
+     */
+    private GtfsRealtime.FeedMessage buildTripUpdates(int entityCount) {
+        feedHeaderBuilder.setGtfsRealtimeVersion("1.0");
+        feedMessageBuilder.setHeader(feedHeaderBuilder.build());
+        GtfsRealtime.TripUpdate.StopTimeUpdate.Builder stopTimeUpdateBuilder = GtfsRealtime.TripUpdate.StopTimeUpdate.newBuilder();
+        for (int i = 0; i < entityCount; i++) {
+            tripUpdateBuilder.clear();
+            if (i % 3 != 0) {
+                // W006 - trip_update missing trip_id for every third trip
+                tripUpdateBuilder.setTrip(GtfsRealtime.TripDescriptor.newBuilder().setTripId("1." + i));
+            } else {
+                tripUpdateBuilder.setTrip(GtfsRealtime.TripDescriptor.newBuilder());
+            }
+            if (i % 4 != 0) {
+                // E041 - trip doesn't have any stop_time_updates for every fourth trip, and E040/E043 for the others
+                stopTimeUpdateBuilder.clear();
+                tripUpdateBuilder.addStopTimeUpdate(stopTimeUpdateBuilder.build());
+            }
+            feedEntityBuilder.clear();
+            feedEntityBuilder.setId(ENTITY_ID + i);
+            feedEntityBuilder.setTripUpdate(tripUpdateBuilder.build());
+            feedMessageBuilder.addEntity(feedEntityBuilder.build());
+        }
+        return feedMessageBuilder.build();
+    }
+
+    /**
+     * Returns a map of each rule ID in the provided results to the prefixes of its occurrences, in order
+     */
+    private static Map<String, List<String>> getOccurrences(List<ErrorListHelperModel> errorLists) {
+        Map<String, List<String>> occurrences = new HashMap<>();
+        for (ErrorListHelperModel errorList : errorLists) {
+            occurrences.put(errorList.getErrorMessage().getValidationRule().getErrorId(), getPrefixes(errorList));
+        }
+        return occurrences;
+    }
+
+    /**
+     * Returns the prefixes of the occurrences in the provided results, in order
+     */
+    private static List<String> getPrefixes(ErrorListHelperModel errorList) {
+        List<String> prefixes = new ArrayList<>();
+        for (OccurrenceModel occurrence : errorList.getOccurrenceList()) {
+            prefixes.add(occurrence.getPrefix());
+        }
+        return prefixes;
+    }
+}
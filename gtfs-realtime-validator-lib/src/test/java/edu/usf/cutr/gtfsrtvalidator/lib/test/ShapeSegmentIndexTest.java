@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.test;
+
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.ShapeSegmentIndex;
+import org.junit.Test;
+import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
+import org.locationtech.spatial4j.shape.Shape;
+import org.locationtech.spatial4j.shape.ShapeFactory;
+import org.locationtech.spatial4j.shape.SpatialRelation;
+
+import static edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata.TRIP_BUFFER_DEGREES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that ShapeSegmentIndex gives the same result for E029 as relating points to the buffered trip shape, which is
+ * how E029 was checked before the index was added
+ */
+public class ShapeSegmentIndexTest {
+
+    private static final ShapeFactory SF = JtsSpatialContext.GEO.getShapeFactory();
+
+    // Part of USF Bull Runner Route A (shapes.txt in bullrunner-gtfs.zip), as {lon0, lat0, lon1, lat1, ...}
+    private static final double[] ROUTE_A = {
+            -82.4131679534912, 28.064065878608385,
+            -82.41316795349121, 28.06125605648672,
+            -82.41530299186707, 28.061247058735446,
+            -82.41736292839049, 28.05892397028394,
+            -82.42081761360168, 28.05893296874426
+    };
+
+    /**
+     * Points that are just inside TRIP_BUFFER_DEGREES of a segment, measured perpendicular to the middle of the segment
+     */
+    @Test
+    public void testPointJustInsideDistance() {
+        ShapeSegmentIndex index = new ShapeSegmentIndex(ROUTE_A, TRIP_BUFFER_DEGREES);
+        Shape buffered = getBufferedShape(ROUTE_A);
+        for (int i = 0; i + 3 < ROUTE_A.length; i += 2) {
+            for (int side = -1; side <= 1; side += 2) {
+                double[] p = getPointFromSegmentMiddle(ROUTE_A, i, side * TRIP_BUFFER_DEGREES * 0.99);
+                assertTrue(index.isWithinDistance(p[0], p[1]));
+                assertSameResult(index, buffered, p[0], p[1]);
+            }
+        }
+    }
+
+    /**
+     * Points that are just outside TRIP_BUFFER_DEGREES of a segment, measured perpendicular to the middle of the segment
+     */
+    @Test
+    public void testPointJustOutsideDistance() {
+        // A straight shape, so a point beside one segment can't be within the distance of another segment
+        double[] shape = {-82.42, 28.06, -82.41, 28.06, -82.40, 28.06};
+        ShapeSegmentIndex index = new ShapeSegmentIndex(shape, TRIP_BUFFER_DEGREES);
+        Shape buffered = getBufferedShape(shape);
+        for (int i = 0; i + 3 < shape.length; i += 2) {
+            for (int side = -1; side <= 1; side += 2) {
+                double[] p = getPointFromSegmentMiddle(shape, i, side * TRIP_BUFFER_DEGREES * 1.01);
+                assertFalse(index.isWithinDistance(p[0], p[1]));
+                assertSameResult(index, buffered, p[0], p[1]);
+            }
+        }
+
+        // Beyond the ends of the shape
+        assertFalse(index.isWithinDistance(-82.42 - TRIP_BUFFER_DEGREES * 1.01, 28.06));
+        assertSameResult(index, buffered, -82.42 - TRIP_BUFFER_DEGREES * 1.01, 28.06);
+        assertFalse(index.isWithinDistance(-82.40 + TRIP_BUFFER_DEGREES * 1.01, 28.06));
+        assertSameResult(index, buffered, -82.40 + TRIP_BUFFER_DEGREES * 1.01, 28.06);
+    }
+
+    /**
+     * A long diagonal segment next to short ones, so cells are much smaller than the long segment and it's added to
+     * many cells - points along the whole segment, and beside it, must give the same result as the buffered shape
+     */
+    @Test
+    public void testSegmentCrossingCellBoundaries() {
+        double[] shape = {
+                -82.4200, 28.0600,
+                -82.4199, 28.0600,
+                -82.4198, 28.0600,
+                -82.3000, 28.1500,
+                -82.2999, 28.1500
+        };
+        ShapeSegmentIndex index = new ShapeSegmentIndex(shape, TRIP_BUFFER_DEGREES);
+        Shape buffered = getBufferedShape(shape);
+        int steps = 500;
+        for (int step = 0; step <= steps; step++) {
+            double t = (double) step / steps;
+            double[] onSegment = getPointOnSegment(shape, 4, t, 0);
+            assertTrue(index.isWithinDistance(onSegment[0], onSegment[1]));
+            assertSameResult(index, buffered, onSegment[0], onSegment[1]);
+            if (t < 0.05 || t > 0.95) {
+                // The buffered shape approximates the rounded joins at the ends of the segment with straight lines, so
+                // it can leave out points just inside the distance there that the index includes
+                continue;
+            }
+            for (double offset : new double[]{0.5, 0.99, 1.01, 2}) {
+                for (int side = -1; side <= 1; side += 2) {
+                    double[] p = getPointOnSegment(shape, 4, t, side * offset * TRIP_BUFFER_DEGREES);
+                    assertSameResult(index, buffered, p[0], p[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A shape with two identical points has a single segment of zero length, so it's checked like a point
+     */
+    @Test
+    public void testDegenerateSegment() {
+        double[] shape = {-82.4131679534912, 28.064065878608385, -82.4131679534912, 28.064065878608385};
+        ShapeSegmentIndex index = new ShapeSegmentIndex(shape, TRIP_BUFFER_DEGREES);
+        Shape buffered = getBufferedShape(shape);
+
+        assertTrue(index.isWithinDistance(shape[0], shape[1]));
+        assertSameResult(index, buffered, shape[0], shape[1]);
+        assertTrue(index.isWithinDistance(shape[0] + TRIP_BUFFER_DEGREES * 0.99, shape[1]));
+        assertSameResult(index, buffered, shape[0] + TRIP_BUFFER_DEGREES * 0.99, shape[1]);
+        assertTrue(index.isWithinDistance(shape[0], shape[1] - TRIP_BUFFER_DEGREES * 0.99));
+        assertSameResult(index, buffered, shape[0], shape[1] - TRIP_BUFFER_DEGREES * 0.99);
+        assertFalse(index.isWithinDistance(shape[0] + TRIP_BUFFER_DEGREES * 1.01, shape[1]));
+        assertSameResult(index, buffered, shape[0] + TRIP_BUFFER_DEGREES * 1.01, shape[1]);
+        assertFalse(index.isWithinDistance(shape[0], shape[1] - TRIP_BUFFER_DEGREES * 1.01));
+        assertSameResult(index, buffered, shape[0], shape[1] - TRIP_BUFFER_DEGREES * 1.01);
+    }
+
+    /**
+     * A polyline can't be built from a shape with a single point, so it's compared to a shape with two identical points
+     */
+    @Test
+    public void testSinglePointShape() {
+        double[] shape = {-82.4131679534912, 28.064065878608385};
+        ShapeSegmentIndex index = new ShapeSegmentIndex(shape, TRIP_BUFFER_DEGREES);
+        Shape buffered = getBufferedShape(new double[]{shape[0], shape[1], shape[0], shape[1]});
+
+        double[][] points = {
+                {shape[0], shape[1]},
+                {shape[0] + TRIP_BUFFER_DEGREES * 0.99, shape[1]},
+                {shape[0] - TRIP_BUFFER_DEGREES * 0.7, shape[1] + TRIP_BUFFER_DEGREES * 0.7},
+                {shape[0] + TRIP_BUFFER_DEGREES * 1.01, shape[1]},
+                {shape[0], shape[1] + TRIP_BUFFER_DEGREES * 1.01},
+                {-74.0059, 40.7128} // NYC
+        };
+        for (double[] p : points) {
+            assertSameResult(index, buffered, p[0], p[1]);
+        }
+        assertTrue(index.isWithinDistance(shape[0], shape[1]));
+        assertFalse(index.isWithinDistance(-74.0059, 40.7128));
+    }
+
+    /**
+     * Asserts that the index gives the same result for the point as relating the point to the buffered shape
+     */
+    private static void assertSameResult(ShapeSegmentIndex index, Shape buffered, double lon, double lat) {
+        boolean expected = buffered.relate(SF.pointXY(lon, lat)).equals(SpatialRelation.CONTAINS);
+        assertEquals("lon=" + lon + " lat=" + lat, expected, index.isWithinDistance(lon, lat));
+    }
+
+    /**
+     * Returns the shape buffered by TRIP_BUFFER_DEGREES, the same way E029 was checked before ShapeSegmentIndex
+     */
+    private static Shape getBufferedShape(double[] coordinates) {
+        ShapeFactory.LineStringBuilder lineBuilder = SF.lineString();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            lineBuilder.pointXY(coordinates[i], coordinates[i + 1]);
+        }
+        Shape shape = lineBuilder.build();
+        return shape.getBuffered(TRIP_BUFFER_DEGREES, shape.getContext());
+    }
+
+    private static double[] getPointFromSegmentMiddle(double[] coordinates, int start, double offset) {
+        return getPointOnSegment(coordinates, start, 0.5, offset);
+    }
+
+    /**
+     * Returns the point at fraction t along the segment that starts at coordinates[start], moved offset degrees
+     * perpendicular to the segment
+     */
+    private static double[] getPointOnSegment(double[] coordinates, int start, double t, double offset) {
+        double x1 = coordinates[start];
+        double y1 = coordinates[start + 1];
+        double dx = coordinates[start + 2] - x1;
+        double dy = coordinates[start + 3] - y1;
+        double length = Math.sqrt(dx * dx + dy * dy);
+        return new double[]{x1 + t * dx - offset * dy / length, y1 + t * dy + offset * dx / length};
+    }
+}
@@ -28,6 +28,7 @@ import edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules;
 import junit.framework.TestCase;
 import org.junit.Test;
+import org.locationtech.spatial4j.shape.Rectangle;
 import org.locationtech.spatial4j.shape.Shape;
 import org.locationtech.spatial4j.shape.ShapeFactory;
 
@@ -40,6 +41,7 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.MIN_POSIX_TIME;
@@ -544,6 +546,36 @@ public class UtilTest {
         assertFalse(result);
     }
 
+    @Test
+    public void testPositionWithinRectangle() {
+        // Create USF Bull Runner bounding box
+        ShapeFactory sf = GEO.getShapeFactory();
+        Rectangle boundingBox = sf.rect(-82.438456, -82.399531, 28.041606, 28.082202);
+
+        // Test utility method - USF campus location
+        GtfsRealtime.Position.Builder positionBuilder = GtfsRealtime.Position.newBuilder();
+        positionBuilder.setLatitude(28.0587f);
+        positionBuilder.setLongitude(-82.4139f);
+        assertTrue(GtfsUtils.isPositionWithinRectangle(positionBuilder.build(), boundingBox));
+        assertTrue(GtfsUtils.isPositionWithinShape(positionBuilder.build(), boundingBox));
+
+        // Test utility method -  Downtown Tampa, FL
+        positionBuilder.setLatitude(27.9482837f);
+        positionBuilder.setLongitude(-82.4655826f);
+        assertFalse(GtfsUtils.isPositionWithinRectangle(positionBuilder.build(), boundingBox));
+        assertFalse(GtfsUtils.isPositionWithinShape(positionBuilder.build(), boundingBox));
+
+        // Test a bounding box that crosses the date line - Fiji
+        boundingBox = sf.rect(176.8, -178.2, -19.3, -15.7);
+        positionBuilder.setLatitude(-17.7134f);
+        positionBuilder.setLongitude(178.065f);
+        assertTrue(GtfsUtils.isPositionWithinRectangle(positionBuilder.build(), boundingBox));
+        positionBuilder.setLongitude(-179.9f);
+        assertTrue(GtfsUtils.isPositionWithinRectangle(positionBuilder.build(), boundingBox));
+        positionBuilder.setLongitude(170.0f);
+        assertFalse(GtfsUtils.isPositionWithinRectangle(positionBuilder.build(), boundingBox));
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testAssertVehicleAndTripIdThrowException() {
         // Make sure we throw an exception if the method is provided objects other than TripUpdate or VehiclePosition
@@ -842,6 +874,40 @@ public class UtilTest {
         assertEquals(true, inFuture);
     }
 
+    /**
+     * Test that an OccurrenceModel created with a Supplier builds its prefix once, when it's first needed
+     */
+    @Test
+    public void testLazyOccurrencePrefix() {
+        int[] calls = {0};
+        OccurrenceModel occurrence = new OccurrenceModel(() -> {
+            calls[0]++;
+            return "trip_id " + 1234;
+        });
+        assertEquals(0, calls[0]);
+        assertEquals("trip_id 1234", occurrence.getPrefix());
+        assertEquals("trip_id 1234", occurrence.getPrefix());
+        assertEquals(1, calls[0]);
+
+        // Setting the prefix replaces a prefix that hasn't been built yet
+        occurrence = new OccurrenceModel(() -> {
+            calls[0]++;
+            return "trip_id 5678";
+        });
+        occurrence.setPrefix("vehicle_id 9");
+        assertEquals("vehicle_id 9", occurrence.getPrefix());
+        assertEquals(1, calls[0]);
+
+        // Threads reading the prefix at the same time all see the built prefix
+        OccurrenceModel shared = new OccurrenceModel(() -> "stop_sequence " + 42);
+        List<String> prefixes = IntStream.range(0, 1000).parallel()
+                .mapToObj(i -> shared.getPrefix())
+                .collect(Collectors.toList());
+        for (String prefix : prefixes) {
+            assertEquals("stop_sequence 42", prefix);
+        }
+    }
+
     @Test
     public void testGetAllRules() {
         List<ValidationRule> rules = ValidationRules.getRules();
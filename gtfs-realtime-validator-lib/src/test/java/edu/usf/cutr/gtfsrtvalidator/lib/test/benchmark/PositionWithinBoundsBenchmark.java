@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.lib.test.benchmark;
+
+import com.google.transit.realtime.GtfsRealtime;
+import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
+import org.locationtech.spatial4j.shape.Rectangle;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.locationtech.spatial4j.context.SpatialContext.GEO;
+
+/**
+ * Compares the E028 coverage area check using spatial4j (GtfsUtils.isPositionWithinShape()) with the direct rectangle
+ * comparison (GtfsUtils.isPositionWithinRectangle()).  Run with:
+ * <p>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=edu.usf.cutr.gtfsrtvalidator.lib.test.benchmark.PositionWithinBoundsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PositionWithinBoundsBenchmark {
+
+    private static final int POSITION_COUNT = 1024;
+
+    private Rectangle mBoundingBox;
+    private GtfsRealtime.Position[] mPositions;
+    private int mIndex;
+
+    @Setup
+    public void setup() {
+        // USF Bull Runner bounding box, with vehicle positions both inside and outside it
+        mBoundingBox = GEO.getShapeFactory().rect(-82.438456, -82.399531, 28.041606, 28.082202);
+        Random random = new Random(0);
+        mPositions = new GtfsRealtime.Position[POSITION_COUNT];
+        for (int i = 0; i < POSITION_COUNT; i++) {
+            mPositions[i] = GtfsRealtime.Position.newBuilder()
+                    .setLatitude(28.0f + random.nextFloat() * 0.1f)
+                    .setLongitude(-82.45f + random.nextFloat() * 0.07f)
+                    .build();
+        }
+    }
+
+    private GtfsRealtime.Position nextPosition() {
+        mIndex = (mIndex + 1) & (POSITION_COUNT - 1);
+        return mPositions[mIndex];
+    }
+
+    @Benchmark
+    public boolean spatial4jShape() {
+        return GtfsUtils.isPositionWithinShape(nextPosition(), mBoundingBox);
+    }
+
+    @Benchmark
+    public boolean rectangle() {
+        return GtfsUtils.isPositionWithinRectangle(nextPosition(), mBoundingBox);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PositionWithinBoundsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
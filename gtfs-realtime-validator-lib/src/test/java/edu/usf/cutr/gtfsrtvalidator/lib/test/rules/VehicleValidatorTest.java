@@ -21,6 +21,7 @@ import edu.usf.cutr.gtfsrtvalidator.lib.model.ValidationRule;
 import edu.usf.cutr.gtfsrtvalidator.lib.test.FeedMessageTest;
 import edu.usf.cutr.gtfsrtvalidator.lib.test.util.TestUtils;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.ShapeSegmentIndex;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.VehicleValidator;
 import org.junit.Test;
 import org.locationtech.spatial4j.context.jts.JtsSpatialContext;
@@ -36,7 +37,9 @@ import java.util.Map;
 import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.MIN_POSIX_TIME;
 import static edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 import static org.locationtech.spatial4j.context.SpatialContext.GEO;
 
 /**
@@ -371,11 +374,14 @@ public class VehicleValidatorTest extends FeedMessageTest {
          * Point is inside of USF Bull Runner Route A (trip_id=2) polygon (buffer surrounding shapes.txt shape)
          */
         String tripId = "2";
-        Shape routeABuffered = bullRunnerGtfsMetadata.getBufferedTripShape(tripId);
+        Shape routeA = bullRunnerGtfsMetadata.getTripShape(tripId);
+        Shape routeABuffered = routeA.getBuffered(GtfsMetadata.TRIP_BUFFER_DEGREES, routeA.getContext());
+        ShapeSegmentIndex routeAIndex = bullRunnerGtfsMetadata.getTripShapeSegmentIndex(tripId);
 
         p = sf.pointXY(-82.4131679534912, 28.064065878608385);  // USF Marshall Center
         spatialRelation = routeABuffered.relate(p);
         assertEquals(SpatialRelation.CONTAINS, spatialRelation);
+        assertTrue(routeAIndex.isWithinDistance(p.getX(), p.getY()));
 
         /**
          * Point is outside of USF Bull Runner Route A polygon (buffer surrounding shapes.txt shape)
@@ -383,6 +389,7 @@ public class VehicleValidatorTest extends FeedMessageTest {
         p = sf.pointXY(-82.43475437164307, 28.057438520876673);  // University Mall
         spatialRelation = routeABuffered.relate(p);
         assertNotEquals(SpatialRelation.CONTAINS, spatialRelation);
+        assertFalse(routeAIndex.isWithinDistance(p.getX(), p.getY()));
 
         /**
          * Test GeoJSON output - for troubleshooting and visualizing using http://geojson.io/
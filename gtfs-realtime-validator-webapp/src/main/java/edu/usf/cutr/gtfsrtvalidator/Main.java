@@ -17,6 +17,9 @@
 
 package edu.usf.cutr.gtfsrtvalidator;
 
+import edu.usf.cutr.gtfsrtvalidator.background.BackgroundTask;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedFetcher;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedScheduler;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.hibernate.HibernateUtil;
 import edu.usf.cutr.gtfsrtvalidator.servlets.GetFeedJSON;
@@ -40,6 +43,11 @@ public class Main {
     static String BASE_RESOURCE = Main.class.getResource("/webroot").toExternalForm();
 
     private final static String PORT_NUMBER_OPTION = "port";
+    private final static String CONCURRENT_RULES_OPTION = "concurrentRules";
+    private final static String INCREMENTAL_VALIDATION_OPTION = "incrementalValidation";
+    private final static String FEED_WORKER_THREADS_OPTION = "feedWorkerThreads";
+    private final static String FETCH_TIMEOUT_OPTION = "fetchTimeout";
+    private final static String MAX_CONNECTIONS_PER_HOST_OPTION = "maxConnectionsPerHost";
 
     public static void main(String[] args) throws InterruptedException, ParseException {
         // Parse command line parameters
@@ -47,6 +55,21 @@ public class Main {
 
         // Start validator in normal server mode
         int port = getPortFromArgs(options, args);
+        Integer feedWorkerThreads = getIntegerFromArgs(options, args, FEED_WORKER_THREADS_OPTION);
+        if (feedWorkerThreads != null) {
+            // Must be set before the first BackgroundTask is created
+            FeedScheduler.setWorkerThreads(feedWorkerThreads);
+        }
+        Integer fetchTimeout = getIntegerFromArgs(options, args, FETCH_TIMEOUT_OPTION);
+        if (fetchTimeout != null) {
+            FeedFetcher.setTimeout(fetchTimeout);
+        }
+        Integer maxConnectionsPerHost = getIntegerFromArgs(options, args, MAX_CONNECTIONS_PER_HOST_OPTION);
+        if (maxConnectionsPerHost != null) {
+            FeedFetcher.setMaxConnectionsPerHost(maxConnectionsPerHost);
+        }
+        BackgroundTask.setConcurrentRules(getConcurrentRulesFromArgs(options, args));
+        BackgroundTask.setIncrementalValidation(getIncrementalValidationFromArgs(options, args));
         HibernateUtil.configureSessionFactory();
         GTFSDB.initializeDB();
 
@@ -104,7 +127,32 @@ public class Main {
                 .hasArg()
                 .desc("Port number the server should run on")
                 .build();
+        Option concurrentRulesOption = Option.builder(CONCURRENT_RULES_OPTION)
+                .hasArg()
+                .desc("If the validation rules for each GTFS-realtime feed iteration should run concurrently")
+                .build();
+        Option incrementalValidationOption = Option.builder(INCREMENTAL_VALIDATION_OPTION)
+                .hasArg()
+                .desc("If rules that check each entity on its own should only validate the entities that changed since the previous iteration of each GTFS-realtime feed")
+                .build();
+        Option feedWorkerThreadsOption = Option.builder(FEED_WORKER_THREADS_OPTION)
+                .hasArg()
+                .desc("Number of threads used to fetch and validate all monitored GTFS-realtime feeds (default is twice the number of processors, and at least 4)")
+                .build();
+        Option fetchTimeoutOption = Option.builder(FETCH_TIMEOUT_OPTION)
+                .hasArg()
+                .desc("Time in seconds that each fetch of a GTFS-realtime feed has to finish (default is " + FeedFetcher.DEFAULT_TIMEOUT_SECONDS + ")")
+                .build();
+        Option maxConnectionsPerHostOption = Option.builder(MAX_CONNECTIONS_PER_HOST_OPTION)
+                .hasArg()
+                .desc("Maximum number of GTFS-realtime feeds fetched from the same host at the same time (default is " + FeedFetcher.DEFAULT_MAX_CONNECTIONS_PER_HOST + ")")
+                .build();
         options.addOption(portOption);
+        options.addOption(concurrentRulesOption);
+        options.addOption(incrementalValidationOption);
+        options.addOption(feedWorkerThreadsOption);
+        options.addOption(fetchTimeoutOption);
+        options.addOption(maxConnectionsPerHostOption);
         return options;
     }
 
@@ -124,4 +172,47 @@ public class Main {
         }
         return port;
     }
+
+    /**
+     * Returns true if the "-concurrentRules" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-concurrentRules" parameter is included, false it if is not
+     */
+    private static boolean getConcurrentRulesFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(CONCURRENT_RULES_OPTION);
+    }
+
+    /**
+     * Returns true if the "-incrementalValidation" parameter is included, false it if is not
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @return true if the "-incrementalValidation" parameter is included, false it if is not
+     */
+    private static boolean getIncrementalValidationFromArgs(Options options, String[] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        return cmd.hasOption(INCREMENTAL_VALIDATION_OPTION);
+    }
+
+    /**
+     * Returns the integer value provided with the parameter named option, or null if it isn't included
+     *
+     * @param options command line options that this application supports
+     * @param args
+     * @param option  the name of the parameter
+     * @return the integer value provided with the parameter named option, or null if it isn't included
+     */
+    private static Integer getIntegerFromArgs(Options options, String[] args, String option) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        CommandLine cmd = parser.parse(options, args);
+        if (cmd.hasOption(option)) {
+            return Integer.valueOf(cmd.getOptionValue(option));
+        }
+        return null;
+    }
 }
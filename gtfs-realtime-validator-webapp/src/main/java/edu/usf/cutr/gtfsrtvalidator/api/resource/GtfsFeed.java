@@ -25,6 +25,7 @@ import com.conveyal.gtfs.validator.json.backends.FileSystemFeedBackend;
 import com.conveyal.gtfs.validator.json.serialization.JsonSerializer;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadataSnapshot;
 import edu.usf.cutr.gtfsrtvalidator.util.FileUtil;
 import org.hibernate.Session;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
@@ -167,7 +168,11 @@ public class GtfsFeed {
 
         // If the GTFS data isn't loaded into memory, or it's changed, then load it into memory
         GtfsMutableDao gtfsMutableDao = null;
-        if (!GtfsDaoMap.containsKey(gtfsFeedModel.getFeedId()) || gtfsChangedOrNew) {
+        if (!gtfsChangedOrNew && !GtfsDaoMap.containsKey(gtfsFeedModel.getFeedId())
+                && GtfsMetadataSnapshot.exists(new File(gtfsFeedModel.getFeedLocation()), gtfsFeedModel.getChecksum())) {
+            // The rules only use the GtfsMetadata, which BackgroundTask reads from the snapshot
+            _log.info("GtfsMetadata snapshot exists for unchanged GTFS data - skipping loading GTFS zip file to memory");
+        } else if (!GtfsDaoMap.containsKey(gtfsFeedModel.getFeedId()) || gtfsChangedOrNew) {
             _log.info("Loading GTFS from downloaded zip file on disk to memory...");
             gtfsMutableDao = loadGtfsFeedFromDisk(gtfsFeedModel);
             if (gtfsMutableDao == null) {
@@ -274,7 +279,13 @@ public class GtfsFeed {
         return digest;
     }
 
-    private GtfsMutableDao loadGtfsFeedFromDisk(GtfsFeedModel gtfsFeed) {
+    /**
+     * Reads the GTFS zip file of the provided GTFS feed into memory
+     *
+     * @param gtfsFeed the GTFS feed to read
+     * @return the GTFS data, or null if the GTFS zip file can't be read
+     */
+    public static GtfsMutableDao loadGtfsFeedFromDisk(GtfsFeedModel gtfsFeed) {
         GtfsMutableDao store = new GtfsDaoImpl();
 
         try {
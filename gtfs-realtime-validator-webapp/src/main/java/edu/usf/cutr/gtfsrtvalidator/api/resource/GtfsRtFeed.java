@@ -20,6 +20,7 @@ package edu.usf.cutr.gtfsrtvalidator.api.resource;
 import com.google.gson.JsonObject;
 import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.background.BackgroundTask;
+import edu.usf.cutr.gtfsrtvalidator.background.FeedScheduler;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.helper.QueryHelper;
 import edu.usf.cutr.gtfsrtvalidator.helper.ServiceScheduler;
@@ -44,8 +45,6 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @Path("/gtfs-rt-feed")
@@ -138,7 +137,9 @@ public class GtfsRtFeed {
             @PathParam("id") int id,
             @QueryParam("clientId") String clientId,
             @DefaultValue("10") @QueryParam("updateInterval") int updateInterval,
-            @DefaultValue("true") @QueryParam("enableShapes") String enableShapesStr) {
+            @DefaultValue("true") @QueryParam("enableShapes") String enableShapesStr,
+            @DefaultValue("0") @QueryParam("maxOccurrences") int maxOccurrences,
+            @DefaultValue("false") @QueryParam("sampleOccurrences") String sampleOccurrencesStr) {
         // Store the timestamp when we start monitoring feeds that can be used to query database
         currentTimestamp = System.currentTimeMillis();
         //Get RtFeedModel from id
@@ -166,8 +167,12 @@ public class GtfsRtFeed {
         if ("false".equals(enableShapesStr)) {
             enableShapes = false;
         }
+        if (maxOccurrences < 0) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("maxOccurrences must be 0 or greater").build();
+        }
+        boolean sampleOccurrences = "true".equals(sampleOccurrencesStr);
         //Extract the Url and gtfsId to start the background process
-        startBackgroundTask(gtfsRtFeed, leastInterval, intervalUpdated, enableShapes);
+        startBackgroundTask(gtfsRtFeed, leastInterval, intervalUpdated, enableShapes, maxOccurrences, sampleOccurrences);
 
         return Response.ok(sessionModel, MediaType.APPLICATION_JSON).build();
     }
@@ -385,6 +390,17 @@ public class GtfsRtFeed {
         return Response.ok(gtfsRtFeedIterationModel).build();
     }
 
+    // Returns the number of monitored feeds and the number of feed fetches that are currently running
+    @GET
+    @Path("/scheduler-stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSchedulerStats() {
+        JsonObject json = new JsonObject();
+        json.addProperty("scheduledFeeds", FeedScheduler.getInstance().getScheduledCount());
+        json.addProperty("inFlightFetches", FeedScheduler.getInstance().getInFlightCount());
+        return Response.ok(json.toString()).build();
+    }
+
     // Returns past session details for a particular clientId.
     @GET
     @Path("/pastSessions")
@@ -465,7 +481,8 @@ public class GtfsRtFeed {
         session.saveOrUpdate(sessionModel);
         GTFSDB.commitAndCloseSession(session);
         if (runningTasks.get(sessionModel.getGtfsRtFeedModel().getGtfsRtUrl()).getParallelClientCount() == 1) {
-            runningTasks.get(sessionModel.getGtfsRtFeedModel().getGtfsRtUrl()).getScheduler().shutdown();
+            runningTasks.get(sessionModel.getGtfsRtFeedModel().getGtfsRtUrl()).getScheduledFeed().cancel();
+            runningTasks.get(sessionModel.getGtfsRtFeedModel().getGtfsRtUrl()).getBackgroundTask().stop();
             runningTasks.remove(sessionModel.getGtfsRtFeedModel().getGtfsRtUrl());
         } else {
             runningTasks.get(sessionModel.getGtfsRtFeedModel().getGtfsRtUrl()).setParallelClientCount(
@@ -534,25 +551,29 @@ public class GtfsRtFeed {
     }
 
     public synchronized static ServiceScheduler startBackgroundTask(GtfsRtFeedModel gtfsRtFeed, int updateInterval,
-                                                                    boolean intervalUpdated, boolean enableShapes) {
+                                                                    boolean intervalUpdated, boolean enableShapes,
+                                                                    int maxOccurrences, boolean sampleOccurrences) {
         String rtFeedUrl = gtfsRtFeed.getGtfsRtUrl();
         gtfsRtFeed.setEnableShapes(enableShapes);
+        gtfsRtFeed.setMaxOccurrences(maxOccurrences);
+        gtfsRtFeed.setSampleOccurrences(sampleOccurrences);
         if (!runningTasks.containsKey(rtFeedUrl)) {
             ServiceScheduler serviceScheduler = new ServiceScheduler();
-            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-            scheduler.scheduleAtFixedRate(new BackgroundTask(gtfsRtFeed), 0, updateInterval, TimeUnit.SECONDS);
-            serviceScheduler.setScheduler(scheduler);
+            BackgroundTask backgroundTask = new BackgroundTask(gtfsRtFeed);
+            serviceScheduler.setBackgroundTask(backgroundTask);
+            serviceScheduler.setScheduledFeed(FeedScheduler.getInstance().schedule(backgroundTask, updateInterval));
             serviceScheduler.setUpdateInterval(updateInterval);
             serviceScheduler.setParallelClientCount(1);
             runningTasks.put(rtFeedUrl, serviceScheduler);
             return serviceScheduler;
         } else {
+            // The feed is already being validated for another client - apply the occurrence limit of this request
+            // to the running task from its next iteration
+            runningTasks.get(rtFeedUrl).getBackgroundTask().setOccurrenceLimit(maxOccurrences, sampleOccurrences);
             if (intervalUpdated) {
+                // Change the interval of the running task from its next run
                 ServiceScheduler serviceScheduler = runningTasks.get(rtFeedUrl);
-                serviceScheduler.getScheduler().shutdown();
-                ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-                scheduler.scheduleAtFixedRate(new BackgroundTask(gtfsRtFeed), 0, updateInterval, TimeUnit.SECONDS);
-                serviceScheduler.setScheduler(scheduler);
+                serviceScheduler.getScheduledFeed().setUpdateInterval(updateInterval);
                 serviceScheduler.setUpdateInterval(updateInterval);
                 serviceScheduler.setParallelClientCount(serviceScheduler.getParallelClientCount()+1);
                 runningTasks.replace(rtFeedUrl, serviceScheduler);
@@ -21,20 +21,27 @@ import com.google.transit.realtime.GtfsRealtime;
 import edu.usf.cutr.gtfsrtvalidator.api.resource.GtfsFeed;
 import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.helper.DBHelper;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsFeedModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsRtFeedIterationModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsRtFeedModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.util.GtfsUtils;
+import edu.usf.cutr.gtfsrtvalidator.lib.util.HashAlgorithm;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.EntityResultCache;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadata;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.GtfsMetadataSnapshot;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.IterationContext;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.OccurrenceLimit;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.RuleRunner;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.interfaces.FeedEntityValidator;
 import edu.usf.cutr.gtfsrtvalidator.lib.validation.rules.*;
-import org.apache.commons.io.IOUtils;
 import org.hibernate.Session;
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.MessageDigest;
@@ -42,26 +49,71 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTime;
 import static edu.usf.cutr.gtfsrtvalidator.lib.util.TimestampUtils.getElapsedTimeString;
 
-public class BackgroundTask implements Runnable {
+public class BackgroundTask implements FeedScheduler.FeedTask {
 
     private static final org.slf4j.Logger _log = LoggerFactory.getLogger(BackgroundTask.class);
 
-    private static Map<Integer, GtfsRealtime.FeedMessage> mGtfsRtFeedMap = new ConcurrentHashMap<>();
+    // How long an iteration waits for the other GTFS-rt feeds for the same GTFS data before validating without them
+    private final static long COMBINED_FEED_TIMEOUT_SECONDS = 60;
+    // Collects the latest message of each GTFS-rt feed to build combined feeds for the same GTFS data
+    private final static CombinedFeedBarrier mCombinedFeedBarrier = new CombinedFeedBarrier(FeedScheduler.getInstance().getTimer(),
+            FeedScheduler.getInstance().getWorkers(), TimeUnit.SECONDS.toMillis(COMBINED_FEED_TIMEOUT_SECONDS));
     private static Map<Integer, GtfsMetadata> mGtfsMetadata = new ConcurrentHashMap<>();
+    // Passed to the rules instead of the GTFS data when only the GtfsMetadata snapshot was read
+    private final static GtfsMutableDao EMPTY_GTFS_DATA = new GtfsDaoImpl();
     private final static List<FeedEntityValidator> mValidationRules = new ArrayList<>();
+    private static RuleRunner mRuleRunner;
+    // If the rules for each GTFS-rt message should run concurrently on the common ForkJoinPool
+    private static boolean mConcurrentRules = false;
+    // If entity-local rules should only validate the entities that changed since the previous iteration of each feed
+    private static boolean mIncrementalValidation = false;
+    // Used to detect when the same feed is received again.  The digest is stored with each iteration and compared with
+    // the digest of the last stored iteration after a restart, so it must stay MD5 to match existing databases.
+    private final static HashAlgorithm HASH_ALGORITHM = HashAlgorithm.MD5;
 
     private GtfsRtFeedModel mCurrentGtfsRtFeed = null;
+    // Limits the number of occurrences saved for each rule in each iteration of this feed
+    private volatile OccurrenceLimit mOccurrenceLimit;
+    // Results of entity-local rules for the entities of the previous iteration of this feed, or null if all entities are validated
+    private final EntityResultCache mEntityResultCache;
+    // Downloads the feed, remembering the ETag and Last-Modified headers of the last response for conditional requests
+    private FeedFetcher mFeedFetcher;
+    // The last feed received, or null if none has been received yet (read from the database on the first iteration)
+    private LastFeed mLastFeed;
+    // True once this feed is no longer monitored
+    private volatile boolean mStopped = false;
+
+    /**
+     * The last feed received for a GTFS-rt feed, kept in memory so each iteration doesn't need to read and decode the
+     * previous feed from the database
+     */
+    private static class LastFeed {
+        // The decoded feed, or null if the last iteration in the database didn't store the feed
+        final GtfsRealtime.FeedMessage message;
+        final byte[] digest;
+        final long feedTimestamp;
+
+        LastFeed(GtfsRealtime.FeedMessage message, byte[] digest, long feedTimestamp) {
+            this.message = message;
+            this.digest = digest;
+            this.feedTimestamp = feedTimestamp;
+        }
+    }
 
     public BackgroundTask(GtfsRtFeedModel gtfsRtFeed) {
         // Accept the gtfs feed id and save entities of the same feed in an array
         mCurrentGtfsRtFeed = gtfsRtFeed;
+        mOccurrenceLimit = new OccurrenceLimit(gtfsRtFeed.getMaxOccurrences(), gtfsRtFeed.getSampleOccurrences());
+        mEntityResultCache = mIncrementalValidation ? new EntityResultCache() : null;
 
         // Initialize validation rules
         synchronized (mValidationRules) {
@@ -75,12 +127,94 @@ public class BackgroundTask implements Runnable {
                 mValidationRules.add(new FrequencyTypeZeroValidator());
                 mValidationRules.add(new FrequencyTypeOneValidator());
                 mValidationRules.add(new HeaderValidator());
+                mRuleRunner = new RuleRunner(mValidationRules, mConcurrentRules ? ForkJoinPool.commonPool() : null);
+            }
+        }
+    }
+
+    /**
+     * Tells this task that its feed is no longer monitored, so the last message of the feed is no longer combined with
+     * the messages of the other GTFS-rt feeds for the same GTFS data.  Must be called when the feed is unscheduled.
+     */
+    public void stop() {
+        mStopped = true;
+        mCombinedFeedBarrier.remove(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId(), mCurrentGtfsRtFeed.getGtfsRtId());
+    }
+
+    /**
+     * Sets the maximum number of occurrences saved for each rule in each iteration of this feed, starting from the next
+     * iteration that is validated
+     *
+     * @param maxOccurrences    the maximum number of occurrences saved for each rule in each iteration, or 0 to save all occurrences
+     * @param sampleOccurrences true if a random sample of occurrences should be saved, false if the first occurrences should be saved
+     */
+    public void setOccurrenceLimit(int maxOccurrences, boolean sampleOccurrences) {
+        mOccurrenceLimit = new OccurrenceLimit(maxOccurrences, sampleOccurrences);
+    }
+
+    /**
+     * Sets the validation rules for each GTFS-rt message to run concurrently if concurrentRules is true, or one at a
+     * time if concurrentRules is false (default).  Must be called before the first BackgroundTask is created.
+     *
+     * @param concurrentRules true if the rules for each GTFS-rt message should run concurrently, false if they should run one at a time
+     */
+    public static void setConcurrentRules(boolean concurrentRules) {
+        mConcurrentRules = concurrentRules;
+    }
+
+    /**
+     * Sets rules that check each entity on its own to only validate the entities of each GTFS-rt message that changed
+     * since the previous message of the same feed if incrementalValidation is true, or all entities if
+     * incrementalValidation is false (default).  Only applies to BackgroundTasks created after this is called.
+     *
+     * @param incrementalValidation true if entity-local rules should only validate entities that changed since the previous message, false if they should validate all entities
+     */
+    public static void setIncrementalValidation(boolean incrementalValidation) {
+        mIncrementalValidation = incrementalValidation;
+    }
+
+    /**
+     * Reads the GtfsMetadata for the provided GTFS feed from the snapshot saved next to the GTFS zip file, or builds it
+     * from the GTFS data and saves the snapshot if the snapshot doesn't exist or is for an older version of the GTFS zip
+     * file (based on the checksum stored in the database)
+     *
+     * @param gtfsFeed     the GTFS feed
+     * @param gtfsData     the GTFS data loaded from the GTFS zip file, or null if it wasn't loaded because a snapshot exists
+     * @param ignoreShapes true if the GTFS shapes.txt should be ignored when generating metadata
+     * @return the GtfsMetadata for the provided GTFS feed
+     */
+    private static GtfsMetadata getGtfsMetadata(GtfsFeedModel gtfsFeed, GtfsMutableDao gtfsData, boolean ignoreShapes) {
+        File gtfsFile = new File(gtfsFeed.getFeedLocation());
+        byte[] checksum = gtfsFeed.getChecksum();
+        if (checksum != null) {
+            GtfsMetadata metadata = GtfsMetadataSnapshot.read(gtfsFile, checksum, ignoreShapes);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+        if (gtfsData == null) {
+            // The snapshot couldn't be used after all (e.g., it was written with a different ignoreShapes setting)
+            _log.info("Loading GTFS from " + gtfsFile + " to build GtfsMetadata...");
+            gtfsData = GtfsFeed.loadGtfsFeedFromDisk(gtfsFeed);
+            if (gtfsData == null) {
+                throw new IllegalStateException("Can't read GTFS zip file " + gtfsFile);
             }
         }
+        GtfsMetadata metadata = new GtfsMetadata(gtfsFeed.getGtfsUrl(), TimeZone.getTimeZone(gtfsFeed.getAgency()), gtfsData, ignoreShapes);
+        if (checksum != null) {
+            GtfsMetadataSnapshot.write(gtfsFile, checksum, ignoreShapes, metadata);
+        }
+        return metadata;
     }
 
+    /**
+     * Fetches the GTFS-rt feed, saves the iteration to the database, and validates it once the other GTFS-rt feeds for
+     * the same GTFS data have reported
+     *
+     * @return a future that completes once this iteration has been validated (or immediately if it isn't validated)
+     */
     @Override
-    public void run() {
+    public CompletableFuture<Void> run() {
         try {
             long startTimeNanos = System.nanoTime();
             GtfsRealtime.FeedMessage currentFeedMessage;
@@ -91,94 +225,96 @@ public class BackgroundTask implements Runnable {
             GtfsRtFeedIterationModel feedIteration;
             StringBuffer consoleOutput = new StringBuffer();
             
-            // Get the GTFS feed from the GtfsDaoMap using the gtfsFeedId of the current feed.
-            gtfsData = GtfsFeed.GtfsDaoMap.get(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId());
+            // Get the GTFS feed from the GtfsDaoMap using the gtfsFeedId of the current feed.  It isn't loaded if the
+            // GtfsMetadata snapshot exists, as the rules only use the metadata.
+            GtfsMutableDao loadedGtfsData = GtfsFeed.GtfsDaoMap.get(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId());
+            gtfsData = loadedGtfsData != null ? loadedGtfsData : EMPTY_GTFS_DATA;
             // Create the GTFS metadata if it doesn't already exist
             // TODO - read ignoreShapes from website checkbox - see https://github.com/CUTR-at-USF/gtfs-realtime-validator/issues/286
             gtfsMetadata = mGtfsMetadata.computeIfAbsent(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId(),
-                    k -> new GtfsMetadata(mCurrentGtfsRtFeed.getGtfsFeedModel().getGtfsUrl(),
-                            TimeZone.getTimeZone(mCurrentGtfsRtFeed.getGtfsFeedModel().getAgency()),
-                            gtfsData, mCurrentGtfsRtFeed.getEnableShapes()));
+                    k -> getGtfsMetadata(mCurrentGtfsRtFeed.getGtfsFeedModel(), loadedGtfsData, mCurrentGtfsRtFeed.getEnableShapes()));
 
             // Read the GTFS-rt feed from the feed URL
             URL gtfsRtFeedUrl;
             Session session;
             try {
                 gtfsRtFeedUrl = new URL(mCurrentGtfsRtFeed.getGtfsRtUrl());
+                if (mFeedFetcher == null) {
+                    mFeedFetcher = new FeedFetcher(gtfsRtFeedUrl);
+                }
             } catch (MalformedURLException e) {
                 _log.error("Malformed Url: " + mCurrentGtfsRtFeed.getGtfsRtUrl(), e);
                 e.printStackTrace();
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
             try {
                 // Get the GTFS-RT feedMessage for this method
                 long startHttpRequest = System.nanoTime();
-                InputStream in = gtfsRtFeedUrl.openStream();
-                consoleOutput.append("\n" + mCurrentGtfsRtFeed.getGtfsRtUrl() + " gtfsRtFeedUrl.openStream() in " + getElapsedTimeString(getElapsedTime(startHttpRequest, System.nanoTime())));
-                long startToByteArray = System.nanoTime();
-                byte[] gtfsRtProtobuf = IOUtils.toByteArray(in);
-                consoleOutput.append("\n" + mCurrentGtfsRtFeed.getGtfsRtUrl() + " IOUtils.toByteArray(in) in " + getElapsedTimeString(getElapsedTime(startToByteArray, System.nanoTime())));
+                FeedFetcher.Result fetchResult = mFeedFetcher.fetch();
+                consoleOutput.append("\n" + mCurrentGtfsRtFeed.getGtfsRtUrl() + " fetch in " + getElapsedTimeString(getElapsedTime(startHttpRequest, System.nanoTime())));
 
-                boolean isUniqueFeed = true;
-                MessageDigest md = MessageDigest.getInstance("MD5");
-                byte[] prevFeedDigest = null;
-                byte[] currentFeedDigest = md.digest(gtfsRtProtobuf);
-
-                session = GTFSDB.initSessionBeginTrans();
-                feedIteration = (GtfsRtFeedIterationModel) session.createQuery("FROM GtfsRtFeedIterationModel"
-                        + " WHERE rtFeedId = :gtfsRtId"
-                        + " ORDER BY IterationId DESC")
-                        .setParameter("gtfsRtId", mCurrentGtfsRtFeed.getGtfsRtId())
-                        .setMaxResults(1)
-                        .uniqueResult();
-                if (feedIteration != null) {
-                    prevFeedDigest = feedIteration.getFeedHash();
+                if (mLastFeed == null) {
+                    // Cold start - read the last iteration of this feed from the database
+                    mLastFeed = readLastFeed();
                 }
 
-                if(MessageDigest.isEqual(currentFeedDigest, prevFeedDigest)) {
-                    // If previous feed digest and newly fetched/current feed digest are equal means, we received the same feed again.
-                    isUniqueFeed = false;
+                session = GTFSDB.initSessionBeginTrans();
+                if (fetchResult.isNotModified()) {
+                    // The server confirmed that the feed didn't change - record the same feed again without downloading it
+                    consoleOutput.append(" (not modified)");
+                    _log.info(consoleOutput.toString());
+                    if (mLastFeed != null) {
+                        session.save(new GtfsRtFeedIterationModel(System.currentTimeMillis(), mLastFeed.feedTimestamp, null, mCurrentGtfsRtFeed, mLastFeed.digest));
+                    }
+                    GTFSDB.commitAndCloseSession(session);
+                    return CompletableFuture.completedFuture(null);
                 }
 
-                long startProtobufDecode = System.nanoTime();
-                currentFeedMessage = GtfsRealtime.FeedMessage.parseFrom(gtfsRtProtobuf);
-                consoleOutput.append("\n" + mCurrentGtfsRtFeed.getGtfsRtUrl() + " protobuf decode in " + getElapsedTimeString(getElapsedTime(startProtobufDecode, System.nanoTime())));
-                _log.info(consoleOutput.toString());
-                consoleOutput.setLength(0);  // Clear the buffer for the next set of log statements
-
-                long feedTimestamp = TimeUnit.SECONDS.toMillis(currentFeedMessage.getHeader().getTimestamp());
+                byte[] gtfsRtProtobuf = fetchResult.getBody();
+                byte[] currentFeedDigest = HASH_ALGORITHM.hash(gtfsRtProtobuf);
+                // If previous feed digest and newly fetched/current feed digest are equal means, we received the same feed again.
+                boolean isUniqueFeed = mLastFeed == null || !MessageDigest.isEqual(currentFeedDigest, mLastFeed.digest);
 
                 // Create new feedIteration object and save the iteration to the database
                 if(isUniqueFeed) {
-                    if (feedIteration != null && feedIteration.getFeedprotobuf() != null) {
-                        // Get the previous feed message
-                        InputStream previousIs = new ByteArrayInputStream(feedIteration.getFeedprotobuf());
-                        previousFeedMessage = GtfsRealtime.FeedMessage.parseFrom(previousIs);
-                    }
-
+                    long startProtobufDecode = System.nanoTime();
+                    currentFeedMessage = GtfsRealtime.FeedMessage.parseFrom(gtfsRtProtobuf);
+                    consoleOutput.append("\n" + mCurrentGtfsRtFeed.getGtfsRtUrl() + " protobuf decode in " + getElapsedTimeString(getElapsedTime(startProtobufDecode, System.nanoTime())));
+                    long feedTimestamp = TimeUnit.SECONDS.toMillis(currentFeedMessage.getHeader().getTimestamp());
                     feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), feedTimestamp, gtfsRtProtobuf, mCurrentGtfsRtFeed, currentFeedDigest);
                 } else {
-                    feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), feedTimestamp, null, mCurrentGtfsRtFeed, currentFeedDigest);
+                    currentFeedMessage = mLastFeed.message;
+                    feedIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), mLastFeed.feedTimestamp, null, mCurrentGtfsRtFeed, currentFeedDigest);
                 }
+                _log.info(consoleOutput.toString());
+                consoleOutput.setLength(0);  // Clear the buffer for the next set of log statements
                 session.save(feedIteration);
-                GTFSDB.commitAndCloseSession(session);
+                if (!GTFSDB.commitAndCloseSession(session)) {
+                    // The last feed in memory must always match the last iteration in the database, so this feed is
+                    // fetched and stored again on the next run
+                    _log.error("Couldn't save the iteration of " + gtfsRtFeedUrl + " - it will be fetched again on the next run");
+                    return CompletableFuture.completedFuture(null);
+                }
+                // Only send the validators of the response back once it has been decoded and stored, so a feed that
+                // can't be decoded is downloaded again instead of being answered with 304 Not Modified
+                mFeedFetcher.commit(fetchResult);
 
                 if (!isUniqueFeed) {
-                    return;
+                    return CompletableFuture.completedFuture(null);
                 }
+                // The iteration is stored, so the feed it replaces becomes the previous feed
+                if (mLastFeed != null) {
+                    previousFeedMessage = mLastFeed.message;
+                }
+                mLastFeed = new LastFeed(currentFeedMessage, currentFeedDigest, feedIteration.getFeedTimestamp());
             } catch (Exception e) {
                 _log.error("The URL '" + gtfsRtFeedUrl + "' does not contain valid Gtfs-Rt data", e);
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
-            // Read all GTFS-rt entities for the current feed
-            mGtfsRtFeedMap.put(feedIteration.getGtfsRtFeedModel().getGtfsRtId(), currentFeedMessage);
-
             session = GTFSDB.initSessionBeginTrans();
 
-            List<GtfsRealtime.FeedEntity> allEntitiesArrayList = new ArrayList<>();
-
             List<GtfsRtFeedModel> gtfsRtFeedModelList;
             gtfsRtFeedModelList = session.createQuery("FROM GtfsRtFeedModel"
                     + " WHERE gtfsFeedID = :feedID")
@@ -187,85 +323,140 @@ public class BackgroundTask implements Runnable {
 
             GTFSDB.closeSession(session);
 
-            while (!mGtfsRtFeedMap.keySet().containsAll(gtfsRtFeedModelList.stream().map(GtfsRtFeedModel::getGtfsRtId).collect(Collectors.toSet()))) {
-                Thread.sleep(200);
-            }
-            GtfsRealtime.FeedHeader header = null;
-
             if (gtfsRtFeedModelList.size() < 1) {
                 _log.error("The URL '" + gtfsRtFeedUrl + "' is not stored properly into the database");
-                return;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (mStopped) {
+                // The feed was unscheduled during this run - don't report its message to the other feeds again
+                return CompletableFuture.completedFuture(null);
             }
 
-            GtfsRealtime.FeedMessage combinedFeed = null;
+            // Validate once the other GTFS-rt feeds for the same GTFS data have reported, without blocking this thread
+            List<Integer> gtfsRtIds = gtfsRtFeedModelList.stream().map(GtfsRtFeedModel::getGtfsRtId).collect(Collectors.toList());
+            GtfsRealtime.FeedMessage feedMessage = currentFeedMessage;
+            GtfsRealtime.FeedMessage previousMessage = previousFeedMessage;
+            GtfsRtFeedIterationModel iteration = feedIteration;
+            // The scheduler doesn't start the next iteration of this feed until the returned future completes
+            return mCombinedFeedBarrier.report(mCurrentGtfsRtFeed.getGtfsFeedModel().getFeedId(), iteration.getGtfsRtFeedModel().getGtfsRtId(), feedMessage, gtfsRtIds)
+                    .thenAccept(combinedFeeds -> validate(startTimeNanos, gtfsData, gtfsMetadata, iteration, feedMessage, previousMessage, combinedFeeds))
+                    .exceptionally(ex -> {
+                        _log.error("Error validating " + mCurrentGtfsRtFeed.getGtfsRtUrl(), ex);
+                        return null;
+                    });
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
 
-            if (gtfsRtFeedModelList.size() == 1) {
-                // See if more than one entity type exists in this feed
-                GtfsRealtime.FeedMessage message = mGtfsRtFeedMap.get(gtfsRtFeedModelList.get(0).getGtfsRtId());
-                if (GtfsUtils.isCombinedFeed(message)) {
-                    // Run CrossFeedDescriptorValidator on this message
-                    combinedFeed = message;
-                }
-            }
+    /**
+     * Returns the last feed of this GTFS-rt feed that was stored in the database, or null if there isn't one
+     *
+     * @return the last feed of this GTFS-rt feed that was stored in the database, or null if there isn't one
+     */
+    private LastFeed readLastFeed() throws IOException {
+        Session session = GTFSDB.initSessionBeginTrans();
+        GtfsRtFeedIterationModel feedIteration = (GtfsRtFeedIterationModel) session.createQuery("FROM GtfsRtFeedIterationModel"
+                + " WHERE rtFeedId = :gtfsRtId"
+                + " ORDER BY IterationId DESC")
+                .setParameter("gtfsRtId", mCurrentGtfsRtFeed.getGtfsRtId())
+                .setMaxResults(1)
+                .uniqueResult();
+        GTFSDB.closeSession(session);
+        if (feedIteration == null) {
+            return null;
+        }
+        GtfsRealtime.FeedMessage message = null;
+        if (feedIteration.getFeedprotobuf() != null) {
+            message = GtfsRealtime.FeedMessage.parseFrom(feedIteration.getFeedprotobuf());
+        }
+        return new LastFeed(message, feedIteration.getFeedHash(), feedIteration.getFeedTimestamp());
+    }
 
-            if (gtfsRtFeedModelList.size() > 1) {
-                // We're monitoring multiple GTFS-rt feeds for the same GTFS data - create a combined feed message include all entities for all of those GTFS-rt feeds
-                _log.debug("Creating combined feed message for " + gtfsRtFeedModelList.toString());
-                for (GtfsRtFeedModel gtfsRtFeedModel : gtfsRtFeedModelList) {
-                    GtfsRealtime.FeedMessage message = mGtfsRtFeedMap.get(gtfsRtFeedModel.getGtfsRtId());
-                    if (header == null) {
-                        // Save one header to use in our combined feed below
+    /**
+     * Runs the validation rules against the current GTFS-rt message and saves the results to the database
+     *
+     * @param startTimeNanos      the time that this iteration started, from System.nanoTime()
+     * @param gtfsData            GTFS schedule data
+     * @param gtfsMetadata        Data structures that contain processed information about the GTFS data
+     * @param feedIteration       the iteration that the current GTFS-rt message belongs to
+     * @param currentFeedMessage  the current GTFS-rt message
+     * @param previousFeedMessage the previous GTFS-rt message of this feed, or null if there isn't one
+     * @param combinedFeeds       the latest messages of all GTFS-rt feeds monitored for the same GTFS data
+     */
+    private void validate(long startTimeNanos, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata, GtfsRtFeedIterationModel feedIteration,
+                          GtfsRealtime.FeedMessage currentFeedMessage, GtfsRealtime.FeedMessage previousFeedMessage,
+                          CombinedFeedBarrier.CombinedFeeds combinedFeeds) {
+        StringBuffer consoleOutput = new StringBuffer();
+        if (!combinedFeeds.getMissingFeeds().isEmpty()) {
+            _log.warn("GTFS-rt feeds " + combinedFeeds.getMissingFeeds() + " for the same GTFS data as " + mCurrentGtfsRtFeed.getGtfsRtUrl()
+                    + " haven't been received within " + COMBINED_FEED_TIMEOUT_SECONDS + " seconds - validating the combined feed without them");
+        }
+
+        GtfsRealtime.FeedMessage combinedFeed = null;
+        Map<Integer, GtfsRealtime.FeedMessage> messages = combinedFeeds.getMessages();
+
+        if (messages.size() + combinedFeeds.getMissingFeeds().size() == 1) {
+            // See if more than one entity type exists in this feed
+            if (GtfsUtils.isCombinedFeed(currentFeedMessage)) {
+                // Run CrossFeedDescriptorValidator on this message
+                combinedFeed = currentFeedMessage;
+            }
+        } else {
+            // We're monitoring multiple GTFS-rt feeds for the same GTFS data - create a combined feed message include all entities for all of those GTFS-rt feeds
+            _log.debug("Creating combined feed message for " + messages.keySet());
+            GtfsRealtime.FeedHeader header = null;
+            List<GtfsRealtime.FeedEntity> allEntitiesArrayList = new ArrayList<>();
+            for (GtfsRealtime.FeedMessage message : messages.values()) {
+                if (header == null) {
+                    // Save one header to use in our combined feed below
+                    header = message.getHeader();
+                } else {
+                    if (message.getHeader() != null && message.getHeader().getTimestamp() > header.getTimestamp()) {
+                        // Use largest header timestamp with multiple feeds - see #239
                         header = message.getHeader();
-                    } else {
-                        if (message.getHeader() != null && message.getHeader().getTimestamp() > header.getTimestamp()) {
-                            // Use largest header timestamp with multiple feeds - see #239
-                            header = message.getHeader();
-                        }
-                    }
-                    if (message != null) {
-                        allEntitiesArrayList.addAll(message.getEntityList());
                     }
                 }
-
-                GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
-                feedMessageBuilder.setHeader(header);
-                feedMessageBuilder.addAllEntity(allEntitiesArrayList);
-                combinedFeed = feedMessageBuilder.build();
+                allEntitiesArrayList.addAll(message.getEntityList());
             }
 
-            // Use the same current time for all rules for consistency
-            long currentTimeMillis = System.currentTimeMillis();
-            // Run validation rules
-            for (FeedEntityValidator rule : mValidationRules) {
-                consoleOutput.append(validateEntity(currentTimeMillis, currentFeedMessage, previousFeedMessage, combinedFeed, gtfsData, gtfsMetadata, feedIteration, rule));
-            }
-            consoleOutput.append("\nProcessed " + mCurrentGtfsRtFeed.getGtfsRtUrl() + " in " + getElapsedTimeString(getElapsedTime(startTimeNanos, System.nanoTime())));
-            consoleOutput.append("\n---------------------");
-            _log.info(consoleOutput.toString());
-        } catch (Exception ex) {
-            ex.printStackTrace();
+            GtfsRealtime.FeedMessage.Builder feedMessageBuilder = GtfsRealtime.FeedMessage.newBuilder();
+            feedMessageBuilder.setHeader(header);
+            feedMessageBuilder.addAllEntity(allEntitiesArrayList);
+            combinedFeed = feedMessageBuilder.build();
         }
-    }
 
-    private StringBuffer validateEntity(long currentTimeMillis, GtfsRealtime.FeedMessage currentFeedMessage, GtfsRealtime.FeedMessage previousFeedMessage,
-                                        GtfsRealtime.FeedMessage combinedFeedMessage, GtfsMutableDao gtfsData, GtfsMetadata gtfsMetadata,
-                                        GtfsRtFeedIterationModel feedIteration, FeedEntityValidator feedEntityValidator) {
-        StringBuffer consoleLine = new StringBuffer();
-        long startTimeNanos = System.nanoTime();
-        List<ErrorListHelperModel> errorLists = feedEntityValidator.validate(currentTimeMillis, gtfsData, gtfsMetadata, currentFeedMessage, previousFeedMessage, combinedFeedMessage);
-        consoleLine.append("\n" + feedEntityValidator.getClass().getSimpleName() + " - rule = " + getElapsedTimeString(getElapsedTime(startTimeNanos, System.nanoTime())));
-        if (errorLists != null) {
-            startTimeNanos = System.nanoTime();
-            for (ErrorListHelperModel errorList : errorLists) {
-                if (!errorList.getOccurrenceList().isEmpty()) {
-                    //Set iteration Id
-                    errorList.getErrorMessage().setGtfsRtFeedIterationModel(feedIteration);
-                    //Save the captured errors to the database
-                    DBHelper.saveError(errorList);
+        // Use the same current time for all rules for consistency
+        long currentTimeMillis = System.currentTimeMillis();
+        // Information about the current message that is shared by all rules
+        IterationContext context = new IterationContext(currentFeedMessage);
+        // Run validation rules
+        List<RuleRunner.RuleResult> results = mRuleRunner.run(mOccurrenceLimit, mEntityResultCache, currentTimeMillis, gtfsData, gtfsMetadata, context, currentFeedMessage, previousFeedMessage, combinedFeed);
+        List<ErrorListHelperModel> errorLists = new ArrayList<>();
+        for (RuleRunner.RuleResult result : results) {
+            consoleOutput.append("\n" + result.getValidator() + " - rule = " + getElapsedTimeString(result.getExecutionTime()));
+            if (result.getErrorLists() != null) {
+                for (ErrorListHelperModel errorList : result.getErrorLists()) {
+                    if (!errorList.getOccurrenceList().isEmpty()) {
+                        //Set iteration Id
+                        errorList.getErrorMessage().setGtfsRtFeedIterationModel(feedIteration);
+                        errorLists.add(errorList);
+                    }
                 }
             }
-            consoleLine.append(", database = " + getElapsedTimeString(getElapsedTime(startTimeNanos, System.nanoTime())));
         }
-        return consoleLine;
+        if (!errorLists.isEmpty()) {
+            // Save the captured errors of all rules to the database in one transaction
+            long startDatabaseNanos = System.nanoTime();
+            if (DBHelper.saveErrors(errorLists)) {
+                consoleOutput.append("\nSaved " + errorLists.size() + " errors/warnings to database in " + getElapsedTimeString(getElapsedTime(startDatabaseNanos, System.nanoTime())));
+            } else {
+                consoleOutput.append("\nCouldn't save " + errorLists.size() + " errors/warnings to database - none of them were saved");
+            }
+        }
+        consoleOutput.append("\nProcessed " + mCurrentGtfsRtFeed.getGtfsRtUrl() + " in " + getElapsedTimeString(getElapsedTime(startTimeNanos, System.nanoTime())));
+        consoleOutput.append("\n---------------------");
+        _log.info(consoleOutput.toString());
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import com.google.transit.realtime.GtfsRealtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the latest message of each GTFS-realtime feed that is monitored for the same GTFS feed, so all of them can
+ * be combined into a single message for cross-feed rules (e.g., CrossFeedDescriptorValidator).
+ * <p>
+ * Each time a GTFS-realtime feed reports a new message, report() returns a future that completes with the latest
+ * messages of all sibling feeds as soon as each of them has reported at least once - immediately if they all have,
+ * or when the last missing feed reports.  If a sibling feed doesn't report within the timeout (e.g., because its URL
+ * is down), the future completes with the messages that are available and the list of missing feeds, and later
+ * reports don't wait for that feed again until it reports.  No thread is blocked while waiting - futures that can't
+ * complete immediately are completed on the provided executor, and the timer is only used to start timeouts.
+ * <p>
+ * When a feed is no longer monitored, remove() must be called so its last message isn't combined with the messages of
+ * its sibling feeds anymore, and it isn't waited for or reported as missing until it reports again.
+ */
+class CombinedFeedBarrier {
+
+    private final ScheduledExecutorService mTimer;
+    private final Executor mExecutor;
+    private final long mTimeoutMillis;
+    // The messages and waiting reports for each GTFS feed ID
+    private final Map<Integer, FeedGroup> mFeedGroups = new ConcurrentHashMap<>();
+
+    /**
+     * The latest messages of the GTFS-realtime feeds for one GTFS feed, and the reports waiting for missing feeds
+     */
+    private static class FeedGroup {
+        final Map<Integer, GtfsRealtime.FeedMessage> latestMessages = new HashMap<>();
+        // Feeds that didn't report before a timeout, which aren't waited for until they report again
+        final Set<Integer> timedOutFeeds = new HashSet<>();
+        // Feeds that are no longer monitored, which aren't waited for or combined until they report again
+        final Set<Integer> stoppedFeeds = new HashSet<>();
+        final List<Waiter> waiters = new ArrayList<>();
+    }
+
+    /**
+     * A report that is waiting for sibling feeds
+     */
+    private static class Waiter {
+        final List<Integer> gtfsRtIds;
+        final CompletableFuture<CombinedFeeds> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+
+        Waiter(List<Integer> gtfsRtIds) {
+            this.gtfsRtIds = gtfsRtIds;
+        }
+    }
+
+    /**
+     * The latest messages of a set of sibling GTFS-realtime feeds
+     */
+    static class CombinedFeeds {
+        private final Map<Integer, GtfsRealtime.FeedMessage> mMessages;
+        private final Set<Integer> mMissingFeeds;
+
+        CombinedFeeds(Map<Integer, GtfsRealtime.FeedMessage> messages, Set<Integer> missingFeeds) {
+            mMessages = messages;
+            mMissingFeeds = missingFeeds;
+        }
+
+        /**
+         * Returns the latest message of each monitored feed that has reported, keyed by GTFS-rt feed ID in the order
+         * that the feeds were provided to report()
+         *
+         * @return the latest message of each monitored feed that has reported
+         */
+        Map<Integer, GtfsRealtime.FeedMessage> getMessages() {
+            return mMessages;
+        }
+
+        /**
+         * Returns the IDs of the monitored GTFS-rt feeds that didn't report any message before the timeout.  Feeds
+         * that were removed aren't included.
+         *
+         * @return the IDs of the monitored GTFS-rt feeds that didn't report any message before the timeout
+         */
+        Set<Integer> getMissingFeeds() {
+            return mMissingFeeds;
+        }
+    }
+
+    /**
+     * @param timer         used to wait for the timeout
+     * @param executor      used to complete futures that can't complete immediately
+     * @param timeoutMillis how long a report waits for missing sibling feeds, in milliseconds
+     */
+    CombinedFeedBarrier(ScheduledExecutorService timer, Executor executor, long timeoutMillis) {
+        mTimer = timer;
+        mExecutor = executor;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Records message as the latest message of the GTFS-realtime feed gtfsRtId, and returns a future that completes with
+     * the latest messages of the feeds in gtfsRtIds (including gtfsRtId) once all of them have reported, or with the
+     * available messages after the timeout
+     *
+     * @param gtfsFeedId the ID of the GTFS feed that the GTFS-realtime feeds belong to
+     * @param gtfsRtId   the ID of the GTFS-realtime feed that is reporting
+     * @param message    the new message of the GTFS-realtime feed
+     * @param gtfsRtIds  the IDs of all GTFS-realtime feeds for gtfsFeedId
+     * @return a future that completes with the latest messages of the feeds in gtfsRtIds
+     */
+    CompletableFuture<CombinedFeeds> report(int gtfsFeedId, int gtfsRtId, GtfsRealtime.FeedMessage message, List<Integer> gtfsRtIds) {
+        FeedGroup group = mFeedGroups.computeIfAbsent(gtfsFeedId, k -> new FeedGroup());
+        Map<Waiter, CombinedFeeds> ready = new LinkedHashMap<>();
+        CompletableFuture<CombinedFeeds> future;
+        synchronized (group) {
+            group.latestMessages.put(gtfsRtId, message);
+            group.timedOutFeeds.remove(gtfsRtId);
+            group.stoppedFeeds.remove(gtfsRtId);
+
+            // Release earlier reports that were only waiting for this feed
+            releaseWaiters(group, ready);
+
+            if (getAwaitedFeeds(group, gtfsRtIds).isEmpty()) {
+                future = CompletableFuture.completedFuture(getCombinedFeeds(group, gtfsRtIds));
+            } else {
+                Waiter waiter = new Waiter(gtfsRtIds);
+                waiter.timeout = mTimer.schedule(() -> mExecutor.execute(() -> timeOut(group, waiter)), mTimeoutMillis, TimeUnit.MILLISECONDS);
+                group.waiters.add(waiter);
+                future = waiter.future;
+            }
+        }
+        complete(ready);
+        return future;
+    }
+
+    /**
+     * Forgets the latest message of the GTFS-realtime feed gtfsRtId because it's no longer monitored, so the message
+     * isn't combined with the messages of its sibling feeds anymore.  Reports don't wait for the feed or list it as
+     * missing until it reports again, and reports that were only waiting for it are released.
+     *
+     * @param gtfsFeedId the ID of the GTFS feed that the GTFS-realtime feed belongs to
+     * @param gtfsRtId   the ID of the GTFS-realtime feed that is no longer monitored
+     */
+    void remove(int gtfsFeedId, int gtfsRtId) {
+        FeedGroup group = mFeedGroups.get(gtfsFeedId);
+        if (group == null) {
+            return;
+        }
+        Map<Waiter, CombinedFeeds> ready = new LinkedHashMap<>();
+        synchronized (group) {
+            group.latestMessages.remove(gtfsRtId);
+            group.timedOutFeeds.remove(gtfsRtId);
+            group.stoppedFeeds.add(gtfsRtId);
+            releaseWaiters(group, ready);
+        }
+        complete(ready);
+    }
+
+    /**
+     * Removes the waiters of group that aren't waiting for any feed anymore, and adds them to ready with their
+     * combined feeds.  Must be called while holding the lock on group.
+     */
+    private static void releaseWaiters(FeedGroup group, Map<Waiter, CombinedFeeds> ready) {
+        for (Iterator<Waiter> iterator = group.waiters.iterator(); iterator.hasNext(); ) {
+            Waiter waiter = iterator.next();
+            if (getAwaitedFeeds(group, waiter.gtfsRtIds).isEmpty()) {
+                iterator.remove();
+                waiter.timeout.cancel(false);
+                ready.put(waiter, getCombinedFeeds(group, waiter.gtfsRtIds));
+            }
+        }
+    }
+
+    /**
+     * Returns the provided feeds of group that haven't reported, haven't timed out and haven't been removed.  Must be called while holding
+     * the lock on group.
+     */
+    private static Set<Integer> getAwaitedFeeds(FeedGroup group, List<Integer> gtfsRtIds) {
+        Set<Integer> awaited = new HashSet<>(gtfsRtIds);
+        awaited.removeAll(group.latestMessages.keySet());
+        awaited.removeAll(group.timedOutFeeds);
+        awaited.removeAll(group.stoppedFeeds);
+        return awaited;
+    }
+
+    /**
+     * Completes the futures of the provided waiters with their combined feeds on the executor
+     */
+    private void complete(Map<Waiter, CombinedFeeds> ready) {
+        for (Map.Entry<Waiter, CombinedFeeds> entry : ready.entrySet()) {
+            mExecutor.execute(() -> entry.getKey().future.complete(entry.getValue()));
+        }
+    }
+
+    /**
+     * Completes the provided waiter with the available messages if it's still waiting, and stops waiting for the
+     * missing feeds in later reports
+     */
+    private void timeOut(FeedGroup group, Waiter waiter) {
+        CombinedFeeds combinedFeeds;
+        synchronized (group) {
+            if (!group.waiters.remove(waiter)) {
+                return;
+            }
+            combinedFeeds = getCombinedFeeds(group, waiter.gtfsRtIds);
+            group.timedOutFeeds.addAll(combinedFeeds.getMissingFeeds());
+        }
+        waiter.future.complete(combinedFeeds);
+    }
+
+    /**
+     * Returns the latest messages of the provided feeds in group, leaving out feeds that were removed.  Must be called
+     * while holding the lock on group.
+     */
+    private static CombinedFeeds getCombinedFeeds(FeedGroup group, List<Integer> gtfsRtIds) {
+        Map<Integer, GtfsRealtime.FeedMessage> messages = new LinkedHashMap<>();
+        Set<Integer> missingFeeds = new LinkedHashSet<>();
+        for (Integer gtfsRtId : gtfsRtIds) {
+            if (group.stoppedFeeds.contains(gtfsRtId)) {
+                continue;
+            }
+            GtfsRealtime.FeedMessage message = group.latestMessages.get(gtfsRtId);
+            if (message != null) {
+                messages.put(gtfsRtId, message);
+            } else {
+                missingFeeds.add(gtfsRtId);
+            }
+        }
+        return new CombinedFeeds(Collections.unmodifiableMap(messages), Collections.unmodifiableSet(missingFeeds));
+    }
+}
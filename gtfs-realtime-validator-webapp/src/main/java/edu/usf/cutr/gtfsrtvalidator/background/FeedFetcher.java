@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Downloads a GTFS-realtime feed from a URL, using conditional requests so the feed is only downloaded if it changed
+ * since the last fetch.  The ETag and Last-Modified headers of the last response are sent back as If-None-Match and
+ * If-Modified-Since, and a 304 Not Modified response is returned as a result without a body.  Responses are requested
+ * with gzip compression.  The headers of a response are only sent back once commit() is called for it, so a response
+ * that can't be decoded is downloaded again on the next fetch instead of being answered with 304 Not Modified.
+ * <p>
+ * Response streams are always read to the end and closed (but the connection isn't disconnected), so
+ * HttpURLConnection can reuse the keep-alive connection for the next fetch.  A FeedFetcher must only be used by one
+ * thread at a time.
+ * <p>
+ * Each request must finish within the timeout - connecting, waiting for the response, and downloading the feed - so a
+ * slow server (including one that keeps sending a few bytes at a time) can't hold a feed worker thread indefinitely.
+ * The number of concurrent requests to the same host is also limited, so a slow host can't hold all feed worker
+ * threads.  A fetch that would exceed the limit doesn't wait for a slot - it fails right away, so the worker thread is
+ * free to fetch feeds from other hosts, and the feed is fetched again on its next run.
+ */
+public class FeedFetcher {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(FeedFetcher.class);
+
+    public static final int DEFAULT_TIMEOUT_SECONDS = 30;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+    private static int mTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(DEFAULT_TIMEOUT_SECONDS);
+    private static int mMaxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    // Permits for concurrent requests to each host (and port)
+    private static final Map<String, Semaphore> mHostPermits = new ConcurrentHashMap<>();
+
+    private final URL mUrl;
+    private String mETag;
+    private String mLastModified;
+
+    /**
+     * The result of fetching a feed
+     */
+    public static class Result {
+        private static final Result NOT_MODIFIED = new Result(null, null, null);
+
+        private final byte[] mBody;
+        private final String mETag;
+        private final String mLastModified;
+
+        private Result(byte[] body, String eTag, String lastModified) {
+            mBody = body;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        /**
+         * Returns true if the server responded that the feed didn't change since the last fetch, false if it returned
+         * the feed
+         *
+         * @return true if the server responded that the feed didn't change since the last fetch, false if it returned the feed
+         */
+        public boolean isNotModified() {
+            return mBody == null;
+        }
+
+        /**
+         * Returns the uncompressed feed, or null if the feed didn't change since the last fetch
+         *
+         * @return the uncompressed feed, or null if the feed didn't change since the last fetch
+         */
+        public byte[] getBody() {
+            return mBody;
+        }
+    }
+
+    public FeedFetcher(URL url) {
+        mUrl = url;
+    }
+
+    /**
+     * Sets the time that each request has to finish - connecting, waiting for the response, and downloading the feed
+     * (default = DEFAULT_TIMEOUT_SECONDS)
+     *
+     * @param timeoutSeconds the time that each request has to finish, in seconds
+     */
+    public static void setTimeout(int timeoutSeconds) {
+        if (timeoutSeconds < 1) {
+            throw new IllegalArgumentException("timeoutSeconds must be 1 or greater");
+        }
+        mTimeoutMillis = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    }
+
+    /**
+     * Sets the maximum number of concurrent requests to the same host (default = DEFAULT_MAX_CONNECTIONS_PER_HOST).
+     * Must be called before the first fetch.
+     *
+     * @param maxConnectionsPerHost the maximum number of concurrent requests to the same host
+     */
+    public static void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost must be 1 or greater");
+        }
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Fetches the feed, sending the validators of the last committed response so the server can respond with 304 Not
+     * Modified if the feed didn't change
+     *
+     * @return the feed, or a result without a body if it didn't change since the last fetch
+     * @throws IOException if the feed can't be downloaded in time, the server responds with an error, or too many requests to the same host are already running
+     */
+    public Result fetch() throws IOException {
+        URLConnection connection = mUrl.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            // e.g., a file URL - there's nothing to negotiate
+            try (InputStream in = connection.getInputStream()) {
+                return new Result(IOUtils.toByteArray(in), null, null);
+            }
+        }
+        String host = mUrl.getHost() + ":" + (mUrl.getPort() != -1 ? mUrl.getPort() : mUrl.getDefaultPort());
+        Semaphore permits = mHostPermits.computeIfAbsent(host, k -> new Semaphore(mMaxConnectionsPerHost));
+        if (!permits.tryAcquire()) {
+            // Don't hold this worker thread while other requests to the host finish - the feed is fetched again on its next run
+            _log.warn(mMaxConnectionsPerHost + " requests to " + host + " are already running - skipping this fetch of " + mUrl);
+            throw new IOException(mMaxConnectionsPerHost + " requests to " + host + " are already running - skipped " + mUrl);
+        }
+        try {
+            return fetchWithDeadline((HttpURLConnection) connection);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Fetches the feed using the provided connection, disconnecting it if the whole request doesn't finish within the
+     * timeout.  The read timeout alone only limits the time between two reads.
+     */
+    private Result fetchWithDeadline(HttpURLConnection httpConnection) throws IOException {
+        AtomicBoolean deadlinePassed = new AtomicBoolean();
+        ScheduledFuture<?> deadline = FeedScheduler.getInstance().getTimer().schedule(() -> {
+            deadlinePassed.set(true);
+            httpConnection.disconnect();
+        }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+        try {
+            return fetch(httpConnection);
+        } catch (IOException e) {
+            if (deadlinePassed.get()) {
+                SocketTimeoutException timeout = new SocketTimeoutException(mUrl + " didn't respond within " + mTimeoutMillis + " ms");
+                timeout.initCause(e);
+                throw timeout;
+            }
+            throw e;
+        } finally {
+            deadline.cancel(false);
+        }
+    }
+
+    private Result fetch(HttpURLConnection httpConnection) throws IOException {
+        httpConnection.setConnectTimeout(mTimeoutMillis);
+        httpConnection.setReadTimeout(mTimeoutMillis);
+        httpConnection.setRequestProperty("Accept-Encoding", "gzip");
+        if (mETag != null) {
+            httpConnection.setRequestProperty("If-None-Match", mETag);
+        }
+        if (mLastModified != null) {
+            httpConnection.setRequestProperty("If-Modified-Since", mLastModified);
+        }
+
+        int responseCode = httpConnection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            drain(httpConnection.getInputStream());
+            return Result.NOT_MODIFIED;
+        }
+        if (responseCode / 100 != 2) {
+            drain(httpConnection.getErrorStream());
+            throw new IOException("HTTP " + responseCode + " returned by " + mUrl);
+        }
+
+        InputStream in = httpConnection.getInputStream();
+        if ("gzip".equalsIgnoreCase(httpConnection.getContentEncoding())) {
+            in = new GZIPInputStream(in);
+        }
+        byte[] body;
+        try (InputStream bodyStream = in) {
+            body = IOUtils.toByteArray(bodyStream);
+        }
+        return new Result(body, httpConnection.getHeaderField("ETag"), httpConnection.getHeaderField("Last-Modified"));
+    }
+
+    /**
+     * Sends the validators (ETag and Last-Modified headers) of result back with the next fetch, so the server can
+     * respond with 304 Not Modified if the feed didn't change.  Must only be called once the body of result has been
+     * decoded, so a body that can't be decoded isn't assumed to be unchanged.
+     *
+     * @param result a result of fetch() with a body
+     */
+    public void commit(Result result) {
+        if (result.isNotModified()) {
+            return;
+        }
+        mETag = result.mETag;
+        mLastModified = result.mLastModified;
+    }
+
+    /**
+     * Reads the provided stream to the end and closes it, so the connection can be reused
+     */
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try (InputStream stream = in) {
+            IOUtils.skip(stream, Long.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017 University of South Florida
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Schedules the BackgroundTasks of all monitored GTFS-realtime feeds.  A single timer thread keeps track of when each
+ * feed is due, and the tasks run on a bounded pool of worker threads, so the number of threads doesn't grow with the
+ * number of monitored feeds.
+ * <p>
+ * The first run of each feed is delayed by a random fraction of its update interval, so feeds that start at the same
+ * time don't all fetch at the same time.  The update interval of a feed can be changed while it's scheduled, and
+ * takes effect from the next run.  A feed never runs more than once at a time - if a run is still going when the feed
+ * is due again, that run is skipped.  A run lasts until the future returned by the task completes, so work that the
+ * task defers (e.g., validation that waits for other feeds) is part of the run.
+ */
+public class FeedScheduler {
+
+    private static final org.slf4j.Logger _log = LoggerFactory.getLogger(FeedScheduler.class);
+
+    private static int mWorkerThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static FeedScheduler mInstance;
+
+    private final ScheduledExecutorService mTimer;
+    private final ExecutorService mWorkers;
+    // Number of feed tasks that are currently running, including their deferred work
+    private final AtomicInteger mInFlightCount = new AtomicInteger();
+    // Number of feeds that are currently scheduled
+    private final AtomicInteger mScheduledCount = new AtomicInteger();
+
+    /**
+     * The work done each time a feed is due
+     */
+    public interface FeedTask {
+        /**
+         * Runs the task once.  Work that can't be done before this method returns (e.g., because it waits for other
+         * feeds) can continue on other threads, and must complete the returned future when it's done.
+         *
+         * @return a future that completes when all work of this run is done
+         */
+        CompletableFuture<?> run();
+    }
+
+    /**
+     * A feed that is scheduled to run periodically
+     */
+    public class ScheduledFeed {
+        private final FeedTask mTask;
+        private volatile int mUpdateInterval;
+        private volatile boolean mCancelled = false;
+        private final AtomicBoolean mRunning = new AtomicBoolean();
+
+        private ScheduledFeed(FeedTask task, int updateInterval) {
+            mTask = task;
+            mUpdateInterval = updateInterval;
+        }
+
+        /**
+         * Sets the time between runs of this feed, starting from the next run
+         *
+         * @param updateInterval the time between runs of this feed, in seconds
+         */
+        public void setUpdateInterval(int updateInterval) {
+            mUpdateInterval = updateInterval;
+        }
+
+        public int getUpdateInterval() {
+            return mUpdateInterval;
+        }
+
+        /**
+         * Stops running this feed.  A run that is already going is allowed to finish.
+         */
+        public void cancel() {
+            if (!mCancelled) {
+                mCancelled = true;
+                mScheduledCount.decrementAndGet();
+            }
+        }
+
+        /**
+         * Called by the timer when this feed is due - starts a run if the previous one has finished, and schedules
+         * the next run using the current update interval
+         */
+        private void tick() {
+            if (mCancelled) {
+                return;
+            }
+            if (mRunning.compareAndSet(false, true)) {
+                mWorkers.execute(this::runTask);
+            } else {
+                _log.debug("Skipping a run of " + mTask + " because the previous run hasn't finished");
+            }
+            mTimer.schedule(this::tick, mUpdateInterval, TimeUnit.SECONDS);
+        }
+
+        private void runTask() {
+            mInFlightCount.incrementAndGet();
+            CompletableFuture<?> future;
+            try {
+                future = mTask.run();
+            } catch (RuntimeException e) {
+                _log.error("Error running " + mTask, e);
+                future = null;
+            }
+            if (future == null) {
+                finishRun();
+                return;
+            }
+            // The run isn't finished until its deferred work is, so the next run can't overlap it
+            future.whenComplete((result, e) -> {
+                if (e != null) {
+                    _log.error("Error running " + mTask, e);
+                }
+                finishRun();
+            });
+        }
+
+        private void finishRun() {
+            mInFlightCount.decrementAndGet();
+            mRunning.set(false);
+        }
+    }
+
+    private FeedScheduler(int workerThreads) {
+        this(Executors.newSingleThreadScheduledExecutor(newThreadFactory("feed-timer")),
+                Executors.newFixedThreadPool(workerThreads, newThreadFactory("feed-worker")));
+    }
+
+    /**
+     * @param timer   keeps track of when each feed is due
+     * @param workers runs the feed tasks
+     */
+    FeedScheduler(ScheduledExecutorService timer, ExecutorService workers) {
+        mTimer = timer;
+        mWorkers = workers;
+    }
+
+    /**
+     * Sets the number of worker threads that run the feed tasks.  Must be called before the first call to getInstance().
+     *
+     * @param workerThreads the number of worker threads that run the feed tasks
+     */
+    public static void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be 1 or greater");
+        }
+        mWorkerThreads = workerThreads;
+    }
+
+    /**
+     * Returns the scheduler shared by all monitored feeds
+     *
+     * @return the scheduler shared by all monitored feeds
+     */
+    public static synchronized FeedScheduler getInstance() {
+        if (mInstance == null) {
+            mInstance = new FeedScheduler(mWorkerThreads);
+        }
+        return mInstance;
+    }
+
+    /**
+     * Starts running task every updateInterval seconds, after a random delay of up to updateInterval seconds
+     *
+     * @param task           the task to run
+     * @param updateInterval the time between runs of the task, in seconds
+     * @return the scheduled feed, which can be used to change the update interval or stop running the task
+     */
+    public ScheduledFeed schedule(FeedTask task, int updateInterval) {
+        ScheduledFeed scheduledFeed = new ScheduledFeed(task, updateInterval);
+        mScheduledCount.incrementAndGet();
+        long jitterMillis = ThreadLocalRandom.current().nextLong(TimeUnit.SECONDS.toMillis(Math.max(updateInterval, 1)));
+        mTimer.schedule(scheduledFeed::tick, jitterMillis, TimeUnit.MILLISECONDS);
+        return scheduledFeed;
+    }
+
+    /**
+     * Returns the timer thread, which can be used to schedule short tasks (e.g., timeouts)
+     *
+     * @return the timer thread
+     */
+    public ScheduledExecutorService getTimer() {
+        return mTimer;
+    }
+
+    /**
+     * Returns the worker threads, which can be used to run work that follows a feed task (e.g., deferred validation)
+     *
+     * @return the worker threads
+     */
+    public ExecutorService getWorkers() {
+        return mWorkers;
+    }
+
+    /**
+     * Returns the number of feed tasks (fetching and validating a GTFS-realtime feed) that are currently running,
+     * including tasks whose validation is waiting for other feeds
+     *
+     * @return the number of feed tasks that are currently running
+     */
+    public int getInFlightCount() {
+        return mInFlightCount.get();
+    }
+
+    /**
+     * Returns the number of feeds that are currently scheduled
+     *
+     * @return the number of feeds that are currently scheduled
+     */
+    public int getScheduledCount() {
+        return mScheduledCount.get();
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -61,22 +61,42 @@ public class GTFSDB {
     /**
      * Closes a session opened for an UPDATE operation or single READ-ONLY operation
      * @param session session to be committed and closed
+     * @return true if the transaction was committed, false if it was rolled back because of an error
      */
-    public static void commitAndCloseSession(Session session) {
+    public static boolean commitAndCloseSession(Session session) {
         Transaction tx = null;
         try{
             session.flush();
             tx = session.getTransaction();
             tx.commit();
+            return true;
         } catch(Exception ex) {
             ex.printStackTrace();
             if(tx != null) tx.rollback();
+            return false;
         } finally {
                 if(session != null)
                     session.close();
         }
     }
 
+    /**
+     * Rolls back the transaction of a session opened for an UPDATE operation that failed, and closes the session
+     * @param session session to be rolled back and closed
+     */
+    public static void rollbackAndCloseSession(Session session) {
+        try {
+            Transaction tx = session.getTransaction();
+            if (tx != null && tx.isActive()) {
+                tx.rollback();
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        } finally {
+            session.close();
+        }
+    }
+
     /**
      * Closes a session used for multiple READ-ONLY operations -
      * see https://github.com/CUTR-at-USF/gtfs-realtime-validator/pull/135#discussion_r113005572.
@@ -21,18 +21,66 @@ import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
 import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
 import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.util.List;
 
 public class DBHelper {
-    public static void saveError(ErrorListHelperModel errorListHelperModel) {
-        Session session = GTFSDB.initSessionBeginTrans();
-        session.save(errorListHelperModel.getErrorMessage());
-        GTFSDB.commitAndCloseSession(session);
 
-        session = GTFSDB.initSessionBeginTrans();
-        for (OccurrenceModel occurrence : errorListHelperModel.getOccurrenceList()) {
-            occurrence.setMessageLogModel(errorListHelperModel.getErrorMessage());
-            session.save(occurrence);
+    private static final Logger _log = LoggerFactory.getLogger(DBHelper.class);
+
+    // Number of occurrences sent to the database in each JDBC batch
+    private static final int OCCURRENCE_BATCH_SIZE = 500;
+    private static final String INSERT_OCCURRENCE = "INSERT INTO Occurrence (messageID, prefix) VALUES (?, ?)";
+
+    /**
+     * Saves the errors and warnings found in one iteration, and all of their occurrences, in a single transaction.
+     * The MessageLog rows are saved through Hibernate (there is at most one per rule), and the occurrences - which can
+     * number in the thousands - are inserted using JDBC batches on the same connection.  If anything fails, including
+     * one of the batches, the whole transaction is rolled back, so either all or none of the errors of the iteration
+     * are saved.
+     * <p>
+     * The occurrences are inserted without going through Hibernate, so the IDs of the saved OccurrenceModels aren't
+     * set and must not be used - read the occurrences back from the database if their IDs are needed.  Their
+     * MessageLogModels are set, but the IDs of the MessageLogModels aren't valid if the errors couldn't be saved.
+     *
+     * @param errorLists the errors and warnings found in one iteration, with the iteration already set
+     * @return true if all errors and occurrences were saved, false if none of them were saved because of an error
+     */
+    public static boolean saveErrors(List<ErrorListHelperModel> errorLists) {
+        Session session = GTFSDB.initSessionBeginTrans();
+        if (session == null) {
+            return false;
+        }
+        try {
+            for (ErrorListHelperModel errorList : errorLists) {
+                session.save(errorList.getErrorMessage());
+            }
+            session.flush();
+            session.doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_OCCURRENCE)) {
+                    int batchCount = 0;
+                    for (ErrorListHelperModel errorList : errorLists) {
+                        for (OccurrenceModel occurrence : errorList.getOccurrenceList()) {
+                            occurrence.setMessageLogModel(errorList.getErrorMessage());
+                            statement.setInt(1, errorList.getErrorMessage().getMessageId());
+                            statement.setString(2, occurrence.getPrefix());
+                            statement.addBatch();
+                            if (++batchCount % OCCURRENCE_BATCH_SIZE == 0) {
+                                statement.executeBatch();
+                            }
+                        }
+                    }
+                    statement.executeBatch();
+                }
+            });
+        } catch (Exception e) {
+            _log.error("Couldn't save the errors and warnings of the iteration - rolling back", e);
+            GTFSDB.rollbackAndCloseSession(session);
+            return false;
         }
-        GTFSDB.commitAndCloseSession(session);
+        return GTFSDB.commitAndCloseSession(session);
     }
 }
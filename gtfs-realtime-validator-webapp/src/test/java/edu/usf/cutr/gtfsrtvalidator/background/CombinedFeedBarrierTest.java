@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import com.google.transit.realtime.GtfsRealtime;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Tests combining the messages of GTFS-realtime feeds for the same GTFS data, using a timer and an executor that only
+ * run tasks when the test tells them to.
+ */
+public class CombinedFeedBarrierTest extends TestCase {
+
+    private static final int GTFS_FEED_ID = 1;
+    private static final List<Integer> GTFS_RT_IDS = Arrays.asList(10, 20, 30);
+    private static final long TIMEOUT_MILLIS = 60000;
+
+    private FakeTimer mTimer;
+    private FakeExecutor mExecutor;
+    private CombinedFeedBarrier mBarrier;
+
+    public void setUp() {
+        mTimer = new FakeTimer();
+        mExecutor = new FakeExecutor();
+        mBarrier = new CombinedFeedBarrier(mTimer, mExecutor, TIMEOUT_MILLIS);
+    }
+
+    public void tearDown() {
+        mTimer.shutdownNow();
+    }
+
+    public void testAllFeedsReport() throws Exception {
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> first = report(10, 1);
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> second = report(20, 1);
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertEquals(2, mTimer.scheduled.size());
+        assertEquals(TIMEOUT_MILLIS, mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS));
+
+        // The last feed completes its own report right away, and the earlier reports on the executor
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> third = report(30, 1);
+        assertTrue(third.isDone());
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        mExecutor.runAll();
+        for (CompletableFuture<CombinedFeedBarrier.CombinedFeeds> future : Arrays.asList(first, second, third)) {
+            assertCombinedFeeds(future.get(), GTFS_RT_IDS, Collections.emptyList());
+        }
+        // The timeouts of the released reports are cancelled
+        for (FakeTimer.FakeScheduledFuture timeout : mTimer.scheduled) {
+            assertTrue(timeout.isCancelled());
+        }
+
+        // Once all feeds have reported, each new report combines the latest messages right away
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> next = report(20, 2);
+        assertTrue(next.isDone());
+        assertEquals(2, next.get().getMessages().get(20).getHeader().getTimestamp());
+        assertEquals(1, next.get().getMessages().get(10).getHeader().getTimestamp());
+    }
+
+    public void testFeedTimesOut() throws Exception {
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> first = report(10, 1);
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> second = report(20, 1);
+        mTimer.fire();
+        assertFalse(first.isDone());
+        mExecutor.runAll();
+        assertCombinedFeeds(first.get(), Arrays.asList(10, 20), Collections.singletonList(30));
+        assertCombinedFeeds(second.get(), Arrays.asList(10, 20), Collections.singletonList(30));
+
+        // Later reports don't wait for the feed that timed out
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> next = report(10, 2);
+        assertTrue(next.isDone());
+        assertCombinedFeeds(next.get(), Arrays.asList(10, 20), Collections.singletonList(30));
+        assertTrue(mTimer.scheduled.isEmpty());
+    }
+
+    public void testLateReportAfterTimeout() throws Exception {
+        report(10, 1);
+        report(20, 1);
+        mTimer.fire();
+        mExecutor.runAll();
+
+        // The feed that timed out is combined again as soon as it reports
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> late = report(30, 1);
+        assertTrue(late.isDone());
+        assertCombinedFeeds(late.get(), GTFS_RT_IDS, Collections.emptyList());
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> next = report(10, 2);
+        assertTrue(next.isDone());
+        assertCombinedFeeds(next.get(), GTFS_RT_IDS, Collections.emptyList());
+    }
+
+    public void testLateReportWhileTimeoutIsQueued() throws Exception {
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> first = report(10, 1);
+        report(20, 1);
+        // The timeout fired, but hasn't run on the executor yet when the missing feed reports
+        mTimer.fire();
+        report(30, 1);
+        mExecutor.runAll();
+        assertCombinedFeeds(first.get(), GTFS_RT_IDS, Collections.emptyList());
+    }
+
+    public void testRemoveWhileWaiting() throws Exception {
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> first = report(10, 1);
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> second = report(20, 1);
+
+        // Feed 30 is no longer monitored, so the reports waiting for it are released without listing it as missing
+        mBarrier.remove(GTFS_FEED_ID, 30);
+        mExecutor.runAll();
+        assertCombinedFeeds(first.get(), Arrays.asList(10, 20), Collections.emptyList());
+        assertCombinedFeeds(second.get(), Arrays.asList(10, 20), Collections.emptyList());
+        for (FakeTimer.FakeScheduledFuture timeout : mTimer.scheduled) {
+            assertTrue(timeout.isCancelled());
+        }
+
+        // Feed 20 is no longer monitored either, so its last message isn't combined anymore
+        mBarrier.remove(GTFS_FEED_ID, 20);
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> next = report(10, 2);
+        assertTrue(next.isDone());
+        assertCombinedFeeds(next.get(), Collections.singletonList(10), Collections.emptyList());
+
+        // Once feed 20 is monitored again and reports, it's combined again
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> restarted = report(20, 2);
+        assertTrue(restarted.isDone());
+        assertCombinedFeeds(restarted.get(), Arrays.asList(10, 20), Collections.emptyList());
+    }
+
+    public void testRemoveAfterTimeout() throws Exception {
+        report(10, 1);
+        mTimer.fire();
+        mExecutor.runAll();
+
+        // Feeds that timed out and then stop being monitored aren't listed as missing anymore
+        mBarrier.remove(GTFS_FEED_ID, 20);
+        CompletableFuture<CombinedFeedBarrier.CombinedFeeds> next = report(10, 2);
+        assertTrue(next.isDone());
+        assertCombinedFeeds(next.get(), Collections.singletonList(10), Collections.singletonList(30));
+    }
+
+    private CompletableFuture<CombinedFeedBarrier.CombinedFeeds> report(int gtfsRtId, long timestamp) {
+        GtfsRealtime.FeedMessage message = GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0").setTimestamp(timestamp))
+                .build();
+        return mBarrier.report(GTFS_FEED_ID, gtfsRtId, message, GTFS_RT_IDS);
+    }
+
+    private static void assertCombinedFeeds(CombinedFeedBarrier.CombinedFeeds combinedFeeds, List<Integer> messages, List<Integer> missingFeeds) {
+        assertEquals(messages, new ArrayList<>(combinedFeeds.getMessages().keySet()));
+        assertEquals(missingFeeds, new ArrayList<>(combinedFeeds.getMissingFeeds()));
+    }
+}
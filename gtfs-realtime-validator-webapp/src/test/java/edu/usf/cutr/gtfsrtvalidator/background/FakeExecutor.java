@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * An executor for tests that queues the tasks it's given, and only runs them when runAll() is called.
+ */
+class FakeExecutor extends AbstractExecutorService {
+
+    final List<Runnable> tasks = new ArrayList<>();
+    private boolean mShutdown = false;
+
+    @Override
+    public void execute(Runnable command) {
+        tasks.add(command);
+    }
+
+    /**
+     * Runs the queued tasks, including tasks that are queued while they run
+     */
+    void runAll() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        mShutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        mShutdown = true;
+        List<Runnable> queued = new ArrayList<>(tasks);
+        tasks.clear();
+        return queued;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return mShutdown;
+    }
+}
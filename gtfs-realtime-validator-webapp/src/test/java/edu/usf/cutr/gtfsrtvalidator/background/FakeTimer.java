@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A timer for tests that records the tasks it's given, and only runs them when fire() is called.
+ */
+class FakeTimer extends ScheduledThreadPoolExecutor {
+
+    final List<FakeScheduledFuture> scheduled = new ArrayList<>();
+
+    static class FakeScheduledFuture extends FutureTask<Void> implements ScheduledFuture<Void> {
+        final long delayMillis;
+
+        FakeScheduledFuture(Runnable command, long delayMillis) {
+            super(command, null);
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    FakeTimer() {
+        super(1);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        FakeScheduledFuture future = new FakeScheduledFuture(command, unit.toMillis(delay));
+        scheduled.add(future);
+        return future;
+    }
+
+    /**
+     * Runs all scheduled tasks that haven't been cancelled, as if their delay had passed
+     */
+    void fire() {
+        List<FakeScheduledFuture> tasks = new ArrayList<>(scheduled);
+        scheduled.clear();
+        for (FakeScheduledFuture task : tasks) {
+            task.run();
+        }
+    }
+}
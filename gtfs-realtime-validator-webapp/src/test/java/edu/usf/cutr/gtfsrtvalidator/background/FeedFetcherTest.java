@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import com.google.transit.realtime.GtfsRealtime;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ * Tests conditional and compressed fetching of GTFS-realtime feeds using a local HTTP server.
+ */
+public class FeedFetcherTest extends TestCase {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Tue, 10 Oct 2017 10:00:00 GMT";
+
+    private HttpServer mServer;
+    private byte[] mFeed;
+    // Request headers received by the server, and the number of body bytes it sent, for each request.  The server
+    // records each request before responding, so the entries are there once the fetch returns.
+    private final List<String> mIfNoneMatch = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> mAcceptEncoding = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> mBytesSent = Collections.synchronizedList(new ArrayList<>());
+    // Counted down when the server receives a request to /slow
+    private final CountDownLatch mSlowRequests = new CountDownLatch(2);
+
+    public void setUp() throws IOException {
+        mFeed = GtfsRealtime.FeedMessage.newBuilder()
+                .setHeader(GtfsRealtime.FeedHeader.newBuilder().setGtfsRealtimeVersion("1.0").setTimestamp(1507629600))
+                .build()
+                .toByteArray();
+
+        mServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mServer.createContext("/feed", exchange -> {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            mIfNoneMatch.add(ifNoneMatch);
+            mAcceptEncoding.add(acceptEncoding);
+            if (ETAG.equals(ifNoneMatch)) {
+                mBytesSent.add(0);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = mFeed;
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                        gzip.write(mFeed);
+                    }
+                    body = compressed.toByteArray();
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+                mBytesSent.add(body.length);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        mServer.createContext("/slow", exchange -> {
+            mSlowRequests.countDown();
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, mFeed.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(mFeed);
+            }
+            exchange.close();
+        });
+        mServer.createContext("/trickle", exchange -> {
+            // Sends one byte every 200 ms, so no single read times out
+            exchange.sendResponseHeaders(200, mFeed.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (byte b : mFeed) {
+                    out.write(b);
+                    out.flush();
+                    Thread.sleep(200);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // The client disconnected
+            }
+            exchange.close();
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    public void testConditionalFetch() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher(new URL("http://localhost:" + mServer.getAddress().getPort() + "/feed"));
+
+        // First fetch downloads the compressed feed and returns the uncompressed bytes
+        FeedFetcher.Result result = fetcher.fetch();
+        assertFalse(result.isNotModified());
+        assertTrue(Arrays.equals(mFeed, result.getBody()));
+        assertNull(mIfNoneMatch.get(0));
+        assertEquals("gzip", mAcceptEncoding.get(0));
+        assertTrue(mBytesSent.get(0) > 0);
+
+        // Second fetch sends the ETag back once the feed has been decoded, and the server doesn't send the feed again
+        fetcher.commit(result);
+        result = fetcher.fetch();
+        assertTrue(result.isNotModified());
+        assertNull(result.getBody());
+        assertEquals(ETAG, mIfNoneMatch.get(1));
+        assertEquals(0, mBytesSent.get(1).intValue());
+
+        // A new fetcher (e.g., after a restart) doesn't know the ETag and downloads the feed
+        result = new FeedFetcher(new URL("http://localhost:" + mServer.getAddress().getPort() + "/feed")).fetch();
+        assertFalse(result.isNotModified());
+        assertTrue(Arrays.equals(mFeed, result.getBody()));
+    }
+
+    public void testUncommittedFetch() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher(new URL("http://localhost:" + mServer.getAddress().getPort() + "/feed"));
+        FeedFetcher.Result result = fetcher.fetch();
+        assertFalse(result.isNotModified());
+
+        // The feed wasn't committed (e.g., it couldn't be decoded), so the next fetch downloads it again
+        result = fetcher.fetch();
+        assertFalse(result.isNotModified());
+        assertTrue(Arrays.equals(mFeed, result.getBody()));
+        assertNull(mIfNoneMatch.get(1));
+        assertTrue(mBytesSent.get(1) > 0);
+
+        // Committing a not modified result keeps the validators of the last committed feed
+        fetcher.commit(result);
+        result = fetcher.fetch();
+        assertTrue(result.isNotModified());
+        fetcher.commit(result);
+        result = fetcher.fetch();
+        assertTrue(result.isNotModified());
+        assertEquals(ETAG, mIfNoneMatch.get(3));
+    }
+
+    public void testTimeout() throws IOException {
+        FeedFetcher.setTimeout(1);
+        try {
+            FeedFetcher fetcher = new FeedFetcher(new URL("http://localhost:" + mServer.getAddress().getPort() + "/slow"));
+            long start = System.nanoTime();
+            try {
+                fetcher.fetch();
+                fail("Expected a timeout for a server that responds after 3 seconds");
+            } catch (SocketTimeoutException e) {
+                // Expected
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+        } finally {
+            FeedFetcher.setTimeout(FeedFetcher.DEFAULT_TIMEOUT_SECONDS);
+        }
+    }
+
+    public void testDeadline() throws IOException {
+        FeedFetcher.setTimeout(1);
+        try {
+            FeedFetcher fetcher = new FeedFetcher(new URL("http://localhost:" + mServer.getAddress().getPort() + "/trickle"));
+            long start = System.nanoTime();
+            try {
+                fetcher.fetch();
+                fail("Expected a timeout for a server that sends the feed one byte at a time");
+            } catch (SocketTimeoutException e) {
+                // Expected
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+        } finally {
+            FeedFetcher.setTimeout(FeedFetcher.DEFAULT_TIMEOUT_SECONDS);
+        }
+    }
+
+    public void testMaxConnectionsPerHost() throws Exception {
+        FeedFetcher.setMaxConnectionsPerHost(2);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            int port = mServer.getAddress().getPort();
+            // Two slow feeds on the same host use all of its slots
+            List<Future<FeedFetcher.Result>> slowFetches = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                FeedFetcher slowFetcher = new FeedFetcher(new URL("http://localhost:" + port + "/slow"));
+                slowFetches.add(executor.submit(slowFetcher::fetch));
+            }
+            assertTrue(mSlowRequests.await(10, TimeUnit.SECONDS));
+
+            // A third feed on the same host fails right away instead of waiting for a slot
+            FeedFetcher sameHostFetcher = new FeedFetcher(new URL("http://localhost:" + port + "/feed"));
+            long start = System.nanoTime();
+            try {
+                sameHostFetcher.fetch();
+                fail("Expected an IOException when all slots for the host are in use");
+            } catch (SocketTimeoutException e) {
+                fail("Expected the fetch to fail without waiting for a slot");
+            } catch (IOException e) {
+                // Expected
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+            // Feeds on other hosts are still fetched while the slow host uses all of its slots
+            for (int i = 0; i < 3; i++) {
+                FeedFetcher otherHostFetcher = new FeedFetcher(new URL("http://127.0.0.1:" + port + "/feed"));
+                assertTrue(Arrays.equals(mFeed, otherHostFetcher.fetch().getBody()));
+            }
+            for (Future<FeedFetcher.Result> slowFetch : slowFetches) {
+                assertFalse(slowFetch.isDone());
+            }
+
+            // Once the slow fetches finish, the host's slots are free again
+            for (Future<FeedFetcher.Result> slowFetch : slowFetches) {
+                assertTrue(Arrays.equals(mFeed, slowFetch.get(10, TimeUnit.SECONDS).getBody()));
+            }
+            assertTrue(Arrays.equals(mFeed, sameHostFetcher.fetch().getBody()));
+        } finally {
+            executor.shutdownNow();
+            FeedFetcher.setMaxConnectionsPerHost(FeedFetcher.DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        }
+    }
+
+    public void testErrorResponse() throws IOException {
+        FeedFetcher fetcher = new FeedFetcher(new URL("http://localhost:" + mServer.getAddress().getPort() + "/missing"));
+        try {
+            fetcher.fetch();
+            fail("Expected an IOException for a 404 response");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
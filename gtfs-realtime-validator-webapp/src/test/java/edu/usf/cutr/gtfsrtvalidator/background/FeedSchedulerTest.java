@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usf.cutr.gtfsrtvalidator.background;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Tests scheduling feed tasks, using a timer and worker threads that only run tasks when the test tells them to.
+ */
+public class FeedSchedulerTest extends TestCase {
+
+    private FakeTimer mTimer;
+    private FakeExecutor mWorkers;
+    private FeedScheduler mScheduler;
+
+    public void setUp() {
+        mTimer = new FakeTimer();
+        mWorkers = new FakeExecutor();
+        mScheduler = new FeedScheduler(mTimer, mWorkers);
+    }
+
+    public void tearDown() {
+        mTimer.shutdownNow();
+    }
+
+    public void testFirstRunIsJittered() {
+        mScheduler.schedule(CompletableFuture::new, 10);
+        assertEquals(1, mTimer.scheduled.size());
+        long delay = mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS);
+        assertTrue(delay >= 0 && delay < TimeUnit.SECONDS.toMillis(10));
+    }
+
+    public void testSkipsRunWhileFutureIsPending() {
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        mScheduler.schedule(() -> {
+            runs.incrementAndGet();
+            return pending;
+        }, 10);
+
+        tick();
+        assertEquals(1, runs.get());
+        assertEquals(1, mScheduler.getInFlightCount());
+        assertEquals(TimeUnit.SECONDS.toMillis(10), mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS));
+
+        // The task returned, but its future hasn't completed, so the next two runs are skipped
+        tick();
+        tick();
+        assertEquals(1, runs.get());
+        assertEquals(1, mScheduler.getInFlightCount());
+        // Skipped runs still schedule the next run
+        assertEquals(1, mTimer.scheduled.size());
+
+        pending.complete(null);
+        assertEquals(0, mScheduler.getInFlightCount());
+        tick();
+        assertEquals(2, runs.get());
+    }
+
+    public void testTickWhileRunIsQueued() {
+        AtomicInteger runs = new AtomicInteger();
+        mScheduler.schedule(() -> {
+            runs.incrementAndGet();
+            return null;
+        }, 10);
+
+        // The feed is due again before a worker thread starts the first run - only one run is queued
+        mTimer.fire();
+        mTimer.fire();
+        assertEquals(1, mWorkers.tasks.size());
+        mWorkers.runAll();
+        assertEquals(1, runs.get());
+        tick();
+        assertEquals(2, runs.get());
+    }
+
+    public void testChangeUpdateInterval() {
+        FeedScheduler.ScheduledFeed feed = mScheduler.schedule(() -> null, 10);
+        tick();
+        assertEquals(TimeUnit.SECONDS.toMillis(10), mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS));
+
+        // The run that is already scheduled keeps its time, and the new interval is used from then on
+        feed.setUpdateInterval(30);
+        assertEquals(30, feed.getUpdateInterval());
+        assertEquals(TimeUnit.SECONDS.toMillis(10), mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS));
+        tick();
+        assertEquals(TimeUnit.SECONDS.toMillis(30), mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS));
+
+        feed.setUpdateInterval(5);
+        tick();
+        assertEquals(TimeUnit.SECONDS.toMillis(5), mTimer.scheduled.get(0).getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    public void testCancelOnlyCountsOnce() {
+        AtomicInteger runs = new AtomicInteger();
+        FeedScheduler.ScheduledFeed first = mScheduler.schedule(() -> {
+            runs.incrementAndGet();
+            return null;
+        }, 10);
+        FeedScheduler.ScheduledFeed second = mScheduler.schedule(() -> null, 10);
+        assertEquals(2, mScheduler.getScheduledCount());
+
+        first.cancel();
+        first.cancel();
+        assertEquals(1, mScheduler.getScheduledCount());
+        second.cancel();
+        assertEquals(0, mScheduler.getScheduledCount());
+
+        // Cancelled feeds don't run, and aren't scheduled again
+        tick();
+        assertEquals(0, runs.get());
+        assertTrue(mTimer.scheduled.isEmpty());
+    }
+
+    public void testCancelWhileRunning() {
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        FeedScheduler.ScheduledFeed feed = mScheduler.schedule(() -> pending, 10);
+        tick();
+        assertEquals(1, mScheduler.getInFlightCount());
+
+        // The run that is going is allowed to finish
+        feed.cancel();
+        assertEquals(0, mScheduler.getScheduledCount());
+        assertEquals(1, mScheduler.getInFlightCount());
+        pending.complete(null);
+        assertEquals(0, mScheduler.getInFlightCount());
+        tick();
+        assertTrue(mTimer.scheduled.isEmpty());
+    }
+
+    public void testTaskThrows() {
+        AtomicInteger runs = new AtomicInteger();
+        mScheduler.schedule(() -> {
+            runs.incrementAndGet();
+            throw new IllegalStateException("Test exception");
+        }, 10);
+
+        // A task that throws finishes its run, so the next run isn't skipped
+        tick();
+        assertEquals(1, runs.get());
+        assertEquals(0, mScheduler.getInFlightCount());
+        tick();
+        assertEquals(2, runs.get());
+        assertEquals(0, mScheduler.getInFlightCount());
+    }
+
+    public void testTaskFutureFails() {
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        mScheduler.schedule(() -> {
+            runs.incrementAndGet();
+            return failed;
+        }, 10);
+
+        tick();
+        assertEquals(1, mScheduler.getInFlightCount());
+        failed.completeExceptionally(new IllegalStateException("Test exception"));
+        assertEquals(0, mScheduler.getInFlightCount());
+        tick();
+        assertEquals(2, runs.get());
+    }
+
+    /**
+     * Runs the feeds that are due, and the runs that they start on the worker threads
+     */
+    private void tick() {
+        mTimer.fire();
+        mWorkers.runAll();
+    }
+}
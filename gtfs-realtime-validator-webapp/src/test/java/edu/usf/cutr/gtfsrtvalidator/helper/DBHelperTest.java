@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 University of South Florida.
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usf.cutr.gtfsrtvalidator.helper;
+
+import edu.usf.cutr.gtfsrtvalidator.db.GTFSDB;
+import edu.usf.cutr.gtfsrtvalidator.hibernate.HibernateUtil;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsRtFeedIterationModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.GtfsRtFeedModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.MessageLogModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.OccurrenceModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.ValidationRule;
+import edu.usf.cutr.gtfsrtvalidator.lib.model.helper.ErrorListHelperModel;
+import edu.usf.cutr.gtfsrtvalidator.lib.validation.ValidationRules;
+import junit.framework.TestCase;
+import org.hibernate.Session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Tests saving the errors and warnings of an iteration to the embedded database
+ */
+public class DBHelperTest extends TestCase {
+
+    // More occurrences than fit in one JDBC batch, so some batches are already sent when a later one fails
+    private static final int OCCURRENCE_COUNT = 1200;
+
+    private GtfsRtFeedIterationModel mIteration;
+
+    public void setUp() {
+        HibernateUtil.configureSessionFactory();
+        GTFSDB.initializeDB();
+
+        GtfsFeedModel gtfsFeed = new GtfsFeedModel();
+        gtfsFeed.setGtfsUrl("DBHelperTest");
+        GtfsRtFeedModel gtfsRtFeed = new GtfsRtFeedModel();
+        gtfsRtFeed.setGtfsRtUrl("DBHelperTest");
+        gtfsRtFeed.setGtfsFeedModel(gtfsFeed);
+        mIteration = new GtfsRtFeedIterationModel(System.currentTimeMillis(), 0, null, gtfsRtFeed, null);
+
+        Session session = GTFSDB.initSessionBeginTrans();
+        session.save(gtfsFeed);
+        session.save(gtfsRtFeed);
+        session.save(mIteration);
+        assertTrue(GTFSDB.commitAndCloseSession(session));
+    }
+
+    public void testSaveErrors() {
+        List<ErrorListHelperModel> errorLists = Arrays.asList(
+                newErrorList(ValidationRules.E001, OCCURRENCE_COUNT, -1),
+                newErrorList(ValidationRules.W001, 3, -1),
+                newErrorList(ValidationRules.E004, 1, -1));
+        assertTrue(DBHelper.saveErrors(errorLists));
+
+        assertEquals(errorLists.size(), count("SELECT COUNT(*) FROM MessageLog WHERE iterationID = " + mIteration.getIterationId()));
+        // Each occurrence must reference the MessageLog row of its own rule in this iteration
+        for (ErrorListHelperModel errorList : errorLists) {
+            MessageLogModel messageLog = errorList.getErrorMessage();
+            assertEquals(1, count("SELECT COUNT(*) FROM MessageLog WHERE messageID = " + messageLog.getMessageId() +
+                    " AND iterationID = " + mIteration.getIterationId() +
+                    " AND errorID = '" + messageLog.getValidationRule().getErrorId() + "'"));
+            assertEquals(errorList.getOccurrenceList().size(), count("SELECT COUNT(*) FROM Occurrence WHERE messageID = " + messageLog.getMessageId()));
+            for (OccurrenceModel occurrence : errorList.getOccurrenceList()) {
+                assertSame(messageLog, occurrence.getMessageLogModel());
+            }
+        }
+        assertEquals(OCCURRENCE_COUNT + 4, count("SELECT COUNT(*) FROM Occurrence o JOIN MessageLog m ON o.messageID = m.messageID" +
+                " WHERE m.iterationID = " + mIteration.getIterationId()));
+
+        // The prefixes are stored as they were built
+        Session session = GTFSDB.initSessionBeginTrans();
+        List<?> prefixes = session.createNativeQuery("SELECT prefix FROM Occurrence WHERE messageID = " + errorLists.get(1).getErrorMessage().getMessageId())
+                .getResultList();
+        GTFSDB.closeSession(session);
+        List<String> sortedPrefixes = new ArrayList<>();
+        for (Object prefix : prefixes) {
+            sortedPrefixes.add((String) prefix);
+        }
+        Collections.sort(sortedPrefixes);
+        assertEquals(Arrays.asList("W001 occurrence 0", "W001 occurrence 1", "W001 occurrence 2"), sortedPrefixes);
+    }
+
+    public void testSaveErrorsRollsBack() {
+        // The prefix of one occurrence of the second rule is longer than the prefix column, so its batch fails after
+        // the MessageLog rows and the first batch of occurrences were sent to the database
+        List<ErrorListHelperModel> errorLists = Arrays.asList(
+                newErrorList(ValidationRules.E001, OCCURRENCE_COUNT, -1),
+                newErrorList(ValidationRules.W001, OCCURRENCE_COUNT, OCCURRENCE_COUNT / 2));
+        assertFalse(DBHelper.saveErrors(errorLists));
+
+        // None of the errors of the iteration are saved
+        assertEquals(0, count("SELECT COUNT(*) FROM MessageLog WHERE iterationID = " + mIteration.getIterationId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM Occurrence o JOIN MessageLog m ON o.messageID = m.messageID" +
+                " WHERE m.iterationID = " + mIteration.getIterationId()));
+        assertEquals(0, count("SELECT COUNT(*) FROM Occurrence WHERE prefix LIKE 'E001 occurrence %' AND messageID NOT IN (SELECT messageID FROM MessageLog)"));
+
+        // Saving the errors again afterwards works
+        assertTrue(DBHelper.saveErrors(Collections.singletonList(newErrorList(ValidationRules.W001, 2, -1))));
+        assertEquals(1, count("SELECT COUNT(*) FROM MessageLog WHERE iterationID = " + mIteration.getIterationId()));
+        assertEquals(2, count("SELECT COUNT(*) FROM Occurrence o JOIN MessageLog m ON o.messageID = m.messageID" +
+                " WHERE m.iterationID = " + mIteration.getIterationId()));
+    }
+
+    /**
+     * Returns the errors of a rule for the test iteration
+     *
+     * @param rule            the rule of the errors
+     * @param occurrenceCount the number of occurrences of the rule
+     * @param invalidIndex    the index of the occurrence whose prefix is too long to be saved, or -1 if all prefixes are valid
+     */
+    private ErrorListHelperModel newErrorList(ValidationRule rule, int occurrenceCount, int invalidIndex) {
+        MessageLogModel messageLog = new MessageLogModel(rule);
+        messageLog.setGtfsRtFeedIterationModel(mIteration);
+        List<OccurrenceModel> occurrences = new ArrayList<>();
+        for (int i = 0; i < occurrenceCount; i++) {
+            if (i == invalidIndex) {
+                char[] prefix = new char[1001];
+                Arrays.fill(prefix, 'x');
+                occurrences.add(new OccurrenceModel(new String(prefix)));
+            } else {
+                int index = i;
+                occurrences.add(new OccurrenceModel(() -> rule.getErrorId() + " occurrence " + index));
+            }
+        }
+        return new ErrorListHelperModel(messageLog, occurrences);
+    }
+
+    private static long count(String sql) {
+        Session session = GTFSDB.initSessionBeginTrans();
+        Number count = (Number) session.createNativeQuery(sql).getSingleResult();
+        GTFSDB.closeSession(session);
+        return count.longValue();
+    }
+}